@@ -130,7 +130,7 @@ public class GoldStandard extends WordAlignModel {
 			return true;
 		} else {
 			AugSymbol augsym;
-			Terminal.readWords = true;
+			Terminal.setReadWords(true);
 			int idx1 = line[i].indexOf("-[");
 			int idx2 = line[i].indexOf(":", idx1);
 			int idx3 = line[i].indexOf("]", idx2);
@@ -71,6 +71,10 @@ public class Anaphor extends Symbol {
 		return id+1279;
 	}
 
+	public int getType() {
+		return ANAPHOR;
+	}
+
 	public Object copy() {
 		return new Anaphor(id);
 	}
@@ -19,12 +19,13 @@
  */
 package wasp.data;
 
+import wasp.util.Arrays;
 import wasp.util.Numberer;
-import wasp.util.RadixMap;
 
 /**
  * Mappings from strings to their IDs.  Terminal strings and nonterminal strings have their own separate
- * mappings.
+ * mappings.  All methods of this class are thread-safe.  Looking up the string and properties of a
+ * terminal ID does not involve locking, since this is done very often during parsing.
  * 
  * @author ywwong
  *
@@ -32,17 +33,21 @@ import wasp.util.RadixMap;
 public class Dictionary {
 
 	private static class StringProperties {
-		public boolean isWord;
+		public String str;
+		public volatile boolean isWord;
 		public boolean isNum;
 		public boolean isUnum;
 		public boolean isIdent;
 		public StringProperties(String str, boolean isWord) {
+			this.str = str;
 			this.isWord = isWord;
 			isNum = isNum(str);
 			isUnum = isUnum(str);
 			isIdent = isIdent(str);
 		}
 		public static boolean isNum(String str) {
+			if (!mayBeNum(str))
+				return false;
 			try {
 				Double.parseDouble(str);
 				return true;
@@ -51,6 +56,8 @@ public class Dictionary {
 			}
 		}
 		public static boolean isUnum(String str) {
+			if (!mayBeNum(str))
+				return false;
 			try {
 				double num = Double.parseDouble(str);
 				return num == (int) num && 1 <= num && num <= 11;
@@ -78,25 +85,42 @@ public class Dictionary {
 		}
 	}
 	
+	private static final int INC = 1024;
+	
+	/** Maps terminal strings to their IDs.  All changes to the mappings from strings to IDs are made
+	 * while holding the lock of the <code>Dictionary</code> class. */
 	private static Numberer terms = new Numberer(Terminal.NUM_SPECIAL_TERMS);
+	/** Terminal strings and their properties, indexed by their IDs. */
+	private static StringProperties[] properties = new StringProperties[INC];
+	/** The number of valid entries in the <code>properties</code> array.  Since this field is written
+	 * after the array, a thread that reads this field sees an up-to-date array without locking. */
+	private static volatile int nprops = 0;
 	private static Numberer nonterms = new Numberer();
-	private static RadixMap properties = new RadixMap();
 	private static int nwords = 0;
 	
 	private Dictionary() {}
 	
+	private static StringProperties getProperties(int id) {
+		return (0 <= id && id < nprops) ? properties[id] : null;
+	}
+	
 	public static String term(int id) {
-		return (String) terms.getObj(id);
+		StringProperties p = getProperties(id);
+		return (p==null) ? null : p.str;
 	}
 	
-	public static int term(String str, boolean isWord, boolean add) {
+	public static synchronized int term(String str, boolean isWord, boolean add) {
 		int id = terms.getId(str, add);
 		if (id < 0)
 			return id;
-		StringProperties p = (StringProperties) properties.get(id);
+		StringProperties p = getProperties(id);
 		if (p == null) {
 			p = new StringProperties(str, false);
-			properties.put(id, p);
+			if (id >= properties.length)
+				properties = (StringProperties[]) Arrays.resize(properties, 
+						Math.max(2*properties.length, id+1));
+			properties[id] = p;
+			nprops = id+1;
 		}
 		if (isWord && !p.isWord) {
 			p.isWord = true;
@@ -109,21 +133,21 @@ public class Dictionary {
 		return term(str, isWord, true);
 	}
 	
-	public static int countTerms() {
+	public static synchronized int countTerms() {
 		return terms.getNextId();
 	}
 	
-	public static int countWords() {
+	public static synchronized int countWords() {
 		return nwords;
 	}
 	
 	public static boolean isWord(int id) {
-		StringProperties p = (StringProperties) properties.get(id);
+		StringProperties p = getProperties(id);
 		return (p==null) ? false : p.isWord;
 	}
 
 	public static boolean isNum(int id) {
-		StringProperties p = (StringProperties) properties.get(id);
+		StringProperties p = getProperties(id);
 		return (p==null) ? false : p.isNum;
 	}
 
@@ -132,7 +156,7 @@ public class Dictionary {
 	}
 	
 	public static boolean isUnum(int id) {
-		StringProperties p = (StringProperties) properties.get(id);
+		StringProperties p = getProperties(id);
 		return (p==null) ? false : p.isUnum;
 	}
 
@@ -140,8 +164,25 @@ public class Dictionary {
 		return StringProperties.isUnum(str);
 	}
 	
+	/**
+	 * Indicates if the specified string can possibly be parsed as a real number by 
+	 * <code>Double.parseDouble</code>.  Most words can be ruled out by their first character, which 
+	 * avoids the cost of throwing a <code>NumberFormatException</code>.
+	 * 
+	 * @param str a string.
+	 * @return <code>false</code> if the <code>str</code> argument is definitely not a real number;
+	 * <code>true</code> otherwise.
+	 */
+	public static boolean mayBeNum(String str) {
+		if (str.length() == 0)
+			return false;
+		char c = str.charAt(0);
+		return c <= ' ' || ('0' <= c && c <= '9') || c == '+' || c == '-' || c == '.' || c == 'I'
+		|| c == 'N';
+	}
+	
 	public static boolean isIdent(int id) {
-		StringProperties p = (StringProperties) properties.get(id);
+		StringProperties p = getProperties(id);
 		return (p==null) ? false : p.isIdent;
 	}
 
@@ -149,15 +190,15 @@ public class Dictionary {
 		return StringProperties.isIdent(str);
 	}
 	
-	public static String nonterm(int id) {
+	public static synchronized String nonterm(int id) {
 		return (String) nonterms.getObj(id);
 	}
 	
-	public static int nonterm(String str) {
+	public static synchronized int nonterm(String str) {
 		return nonterms.getId(str, true);
 	}
 	
-	public static int countNonterms() {
+	public static synchronized int countNonterms() {
 		return nonterms.getNextId();
 	}
 	
@@ -425,7 +425,7 @@ public class Node {
 			++i;
 			Symbol sym;
 			if (readSyn)
-				Terminal.readWords = false;
+				Terminal.setReadWords(false);
 			if (i == line.length || (sym = Symbol.read(line[i])) == null)
 				return null;
 			Node n = new Node(sym);
@@ -443,7 +443,7 @@ public class Node {
 			return n;
 		} else {
 			if (readSyn)
-				Terminal.readWords = true;
+				Terminal.setReadWords(true);
 			Symbol sym = Symbol.read(line[i]);
 			if (sym == null)
 				return null;
@@ -62,6 +62,10 @@ public class Nonterminal extends Symbol {
 		return id+1259;
 	}
 	
+	public int getType() {
+		return NONTERMINAL;
+	}
+	
 	public Object copy() {
 		return new Nonterminal(id, index);
 	}
@@ -31,6 +31,13 @@ import wasp.util.Int;
  */
 public abstract class Symbol implements Copyable {
 
+	/** The type code of terminal symbols (see <code>getType</code>). */
+	public static final int TERMINAL = 0;
+	/** The type code of nonterminal symbols (see <code>getType</code>). */
+	public static final int NONTERMINAL = 1;
+	/** The type code of anaphor symbols (see <code>getType</code>). */
+	public static final int ANAPHOR = 2;
+	
 	protected int id;
 	
 	protected Symbol() {
@@ -91,6 +98,20 @@ public abstract class Symbol implements Copyable {
 		return id;
 	}
 	
+	/**
+	 * Returns the type code of this symbol.  Together with the ID and the index, the type code 
+	 * identifies a symbol in the integer encodings of SCFG rules and MRL productions (see 
+	 * <code>Rule.getKey</code>), so two symbols are equal if and only if they agree on all three.  By
+	 * default, this method throws a <code>RuntimeException</code>, since symbols that are not 
+	 * identified by their IDs cannot appear in rules or productions.
+	 * 
+	 * @return the type code of this symbol.
+	 * @throws RuntimeException if this symbol cannot appear in rules or productions.
+	 */
+	public int getType() {
+		throw new RuntimeException("symbols of type "+getClass().getName()+" have no type code");
+	}
+	
 	/**
 	 * Returns the index of this symbol which indicates its association with other symbols in an SCFG
 	 * rule.  By default, this method returns <code>0</code>, i.e. this symbol is not associated with any
@@ -57,6 +57,8 @@ public class Terminal extends Symbol {
 	}
 	
 	private String normalize(String str) {
+		if (!Dictionary.mayBeNum(str))
+			return str;
 		try {
 			double num = Double.parseDouble(str);
 			if (num == (int) num)
@@ -102,6 +104,10 @@ public class Terminal extends Symbol {
 		return id;
 	}
 	
+	public int getType() {
+		return TERMINAL;
+	}
+	
 	public Object copy() {
 		return new Terminal(id, displayId, index);
 	}
@@ -252,8 +258,28 @@ public class Terminal extends Symbol {
         return sb.toString();
 	}
 
-	/** Indicates if all tokens subsequently read by the <code>read</code> method are NL words. */
-	public static boolean readWords = false;
+	/** Indicates if all tokens subsequently read by the <code>read</code> method are NL words.  Each
+	 * thread has its own flag, so that different threads can read different kinds of tokens at the
+	 * same time. */
+	private static ThreadLocal readWords = new ThreadLocal() {
+		protected Object initialValue() {
+			return Boolean.FALSE;
+		}
+	};
+	
+	/**
+	 * Specifies whether all tokens subsequently read by the <code>read</code> method in the current
+	 * thread are NL words.
+	 * 
+	 * @param words indicates if tokens subsequently read are NL words.
+	 */
+	public static void setReadWords(boolean words) {
+		readWords.set(Boolean.valueOf(words));
+	}
+	
+	public static boolean isReadWords() {
+		return ((Boolean) readWords.get()).booleanValue();
+	}
 
 	public static Symbol read(String token) {
 		if (token.startsWith("*t:")) {
@@ -279,7 +305,42 @@ public class Terminal extends Symbol {
 				t.setIndex(index);
 			return t;
 		}
-		return new Terminal(token, readWords);
+		return new Terminal(token, isReadWords());
+	}
+	
+	/** The dictionary ID of the unknown word, or -1 if it has not been looked up yet. */
+	private static int unknownId = -1;
+	
+	/**
+	 * Returns a terminal node that stands for all NL words not found in the dictionary.  The unknown
+	 * word matches no rules, so it can only be generated by word gaps.
+	 * 
+	 * @return a terminal node that indicates an unknown word.
+	 */
+	public static synchronized Terminal unknown() {
+		if (unknownId < 0)
+			unknownId = Dictionary.term("*t:Unk", false);
+		return new Terminal(unknownId, unknownId, (short) 0);
+	}
+	
+	/**
+	 * Creates a terminal node for the specified NL word without adding new strings to the dictionary.
+	 * Words not found in the dictionary are mapped to the unknown word (see <code>unknown</code>).
+	 * Numbers and CLang identifiers are always added, because wildcards copy them into the output 
+	 * MRs.  Unlike <code>read</code>, this method does not read wildcards, so it is safe to use on
+	 * arbitrary input, e.g. client requests in a long-running server.
+	 * 
+	 * @param token an NL word.
+	 * @return a terminal node for the given word.
+	 */
+	public static Terminal readKnownWord(String token) {
+		if (Dictionary.isNum(token) || Dictionary.isIdent(token))
+			return new Terminal(token, true);
+		int id = Dictionary.term(token.toLowerCase(), false, false);
+		if (id < 0 || !Dictionary.isWord(id))
+			return unknown();
+		int displayId = Dictionary.term(token, false, false);
+		return new Terminal(id, (displayId<0) ? id : displayId, (short) 0);
 	}
 	
 }
@@ -53,8 +53,6 @@ public class GeoFunqlGapModel extends GapModel {
 	/** The word-class-specific weights. */
 	private double[] wordClassWeights;
 	
-	private double[] wordClassOuters;
-	
 	private HashSet cityNames;
 	private HashSet countryNames;
 	private HashSet placeNames;
@@ -64,8 +62,6 @@ public class GeoFunqlGapModel extends GapModel {
 	
 	public GeoFunqlGapModel() throws IOException {
 		wordClassWeights = new double[NUM_WORD_CLASSES];
-		wordClassOuters = new double[NUM_WORD_CLASSES];
-		Arrays.fill(wordClassOuters, Double.NEGATIVE_INFINITY);
 		readNames();
 	}
 	
@@ -131,39 +127,39 @@ public class GeoFunqlGapModel extends GapModel {
 		wordClassWeights = Arrays.subarray(weights, weights.length-NUM_WORD_CLASSES, weights.length);
 	}
 	
-	public double[] getOuterScores() {
-		return Arrays.concat(getBasicOuterScores(), wordClassOuters);
-	}
-	
-	public void addOuterScores(Terminal word, double z) {
-		addBasicOuterScores(word, z);
+	public void addOuterScores(double[] outers, Terminal word, double z) {
+		addBasicOuterScores(outers, word, z);
+		int k = outers.length-NUM_WORD_CLASSES;
 		if (word.isNum())
-			wordClassOuters[NUM] = Math.logAdd(wordClassOuters[NUM], z-wordClassWeights[NUM]);
+			outers[k+NUM] = Math.logAdd(outers[k+NUM], z-wordClassWeights[NUM]);
 		if (cityNames.contains(word))
-			wordClassOuters[CITY_NAME] =
-				Math.logAdd(wordClassOuters[CITY_NAME], z-wordClassWeights[CITY_NAME]);
+			outers[k+CITY_NAME] =
+				Math.logAdd(outers[k+CITY_NAME], z-wordClassWeights[CITY_NAME]);
 		if (countryNames.contains(word))
-			wordClassOuters[COUNTRY_NAME] = 
-				Math.logAdd(wordClassOuters[COUNTRY_NAME], z-wordClassWeights[COUNTRY_NAME]);
+			outers[k+COUNTRY_NAME] = 
+				Math.logAdd(outers[k+COUNTRY_NAME], z-wordClassWeights[COUNTRY_NAME]);
 		if (placeNames.contains(word))
-			wordClassOuters[PLACE_NAME] =
-				Math.logAdd(wordClassOuters[PLACE_NAME], z-wordClassWeights[PLACE_NAME]);
+			outers[k+PLACE_NAME] =
+				Math.logAdd(outers[k+PLACE_NAME], z-wordClassWeights[PLACE_NAME]);
 		if (riverNames.contains(word))
-			wordClassOuters[RIVER_NAME] =
-				Math.logAdd(wordClassOuters[RIVER_NAME], z-wordClassWeights[RIVER_NAME]);
+			outers[k+RIVER_NAME] =
+				Math.logAdd(outers[k+RIVER_NAME], z-wordClassWeights[RIVER_NAME]);
 		if (stateAbbrevs.contains(word))
-			wordClassOuters[STATE_ABBREV] =
-				Math.logAdd(wordClassOuters[STATE_ABBREV], z-wordClassWeights[STATE_ABBREV]);
+			outers[k+STATE_ABBREV] =
+				Math.logAdd(outers[k+STATE_ABBREV], z-wordClassWeights[STATE_ABBREV]);
 		if (stateNames.contains(word))
-			wordClassOuters[STATE_NAME] =
-				Math.logAdd(wordClassOuters[STATE_NAME], z-wordClassWeights[STATE_NAME]);
-	}
-	
-	public void resetOuterScores() {
-		resetBasicOuterScores();
-		Arrays.fill(wordClassOuters, Double.NEGATIVE_INFINITY);
+			outers[k+STATE_NAME] =
+				Math.logAdd(outers[k+STATE_NAME], z-wordClassWeights[STATE_NAME]);
 	}
 
+	public int[] getParams(Terminal word) {
+		int[] basic = getBasicParams(word);
+		int[] params = Arrays.resize(basic, basic.length+NUM_WORD_CLASSES);
+		for (int i = 0, k = countBasicParams(); i < NUM_WORD_CLASSES; ++i)
+			params[basic.length+i] = k+i;
+		return params;
+	}
+	
 	public void read() throws IOException {
 		TokenReader in = getReader();
 		readBasic(in);
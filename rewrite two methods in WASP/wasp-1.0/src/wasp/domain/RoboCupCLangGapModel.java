@@ -45,12 +45,8 @@ public class RoboCupCLangGapModel extends GapModel {
 	/** The word-class-specific weights. */
 	private double[] wordClassWeights;
 	
-	private double[] wordClassOuters;
-	
 	public RoboCupCLangGapModel() {
 		wordClassWeights = new double[NUM_WORD_CLASSES];
-		wordClassOuters = new double[NUM_WORD_CLASSES];
-		Arrays.fill(wordClassOuters, Double.NEGATIVE_INFINITY);
 	}
 	
 	public double getWeight(Terminal word) {
@@ -77,25 +73,25 @@ public class RoboCupCLangGapModel extends GapModel {
 		wordClassWeights = Arrays.subarray(weights, weights.length-NUM_WORD_CLASSES, weights.length);
 	}
 	
-	public double[] getOuterScores() {
-		return Arrays.concat(getBasicOuterScores(), wordClassOuters);
-	}
-	
-	public void addOuterScores(Terminal word, double z) {
-		addBasicOuterScores(word, z);
+	public void addOuterScores(double[] outers, Terminal word, double z) {
+		addBasicOuterScores(outers, word, z);
+		int k = outers.length-NUM_WORD_CLASSES;
 		if (word.isNum())
-			wordClassOuters[NUM] = Math.logAdd(wordClassOuters[NUM], z-wordClassWeights[NUM]);
+			outers[k+NUM] = Math.logAdd(outers[k+NUM], z-wordClassWeights[NUM]);
 		if (word.isUnum())
-			wordClassOuters[UNUM] = Math.logAdd(wordClassOuters[UNUM], z-wordClassWeights[UNUM]);
+			outers[k+UNUM] = Math.logAdd(outers[k+UNUM], z-wordClassWeights[UNUM]);
 		if (word.isIdent())
-			wordClassOuters[IDENT] = Math.logAdd(wordClassOuters[IDENT], z-wordClassWeights[IDENT]);
-	}
-	
-	public void resetOuterScores() {
-		resetBasicOuterScores();
-		Arrays.fill(wordClassOuters, Double.NEGATIVE_INFINITY);
+			outers[k+IDENT] = Math.logAdd(outers[k+IDENT], z-wordClassWeights[IDENT]);
 	}
 
+	public int[] getParams(Terminal word) {
+		int[] basic = getBasicParams(word);
+		int[] params = Arrays.resize(basic, basic.length+NUM_WORD_CLASSES);
+		for (int i = 0, k = countBasicParams(); i < NUM_WORD_CLASSES; ++i)
+			params[basic.length+i] = k+i;
+		return params;
+	}
+	
 	public void read() throws IOException {
 		TokenReader in = getReader();
 		readBasic(in);
@@ -79,7 +79,7 @@ public class RoboCupCLangGrammar extends MRLGrammar {
 	}
 	
 	public Symbol[] tokenize(String str) {
-		Terminal.readWords = false;
+		Terminal.setReadWords(false);
 		ArrayList list = new ArrayList();
 		StringTokenizer tokenizer = new StringTokenizer(str, "(){}\" \t\n\r\f", true);
 		while (tokenizer.hasMoreTokens()) {
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.main;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import wasp.data.Terminal;
+import wasp.util.Int;
+
+/**
+ * A parser that caches the parses returned by another parser.  Input sentences are identified by the
+ * IDs of their words, so sentences that only differ in ways that tokenization normalizes away (e.g.
+ * capitalization) share the same parses.  When the cache is full, the least recently used sentence is
+ * evicted.
+ * <p>
+ * Only the meaning representations and scores of parses are cached, so the <code>toTree</code> method
+ * of a cached parse returns <code>null</code>.  This class is thread-safe if the underlying parser is.
+ * 
+ * @author ywwong
+ *
+ */
+public class CachingParser extends Parser {
+	
+	/**
+	 * Cache keys, which are the word IDs of input sentences.
+	 */
+	private static class Key {
+		private int[] ids;
+		private int hash;
+		public Key(Terminal[] E) {
+			ids = new int[E.length];
+			hash = 1;
+			for (int i = 0; i < E.length; ++i) {
+				ids[i] = E[i].getId();
+				hash = 31*hash+ids[i];
+			}
+		}
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			int[] ids2 = ((Key) o).ids;
+			if (ids.length != ids2.length)
+				return false;
+			for (int i = 0; i < ids.length; ++i)
+				if (ids[i] != ids2[i])
+					return false;
+			return true;
+		}
+		public int hashCode() {
+			return hash;
+		}
+	}
+	
+	/**
+	 * Hash maps with a maximum size.  Entries are kept in access order, and the least recently accessed
+	 * entry is removed when the maximum size is exceeded.
+	 */
+	private static class LRUMap extends LinkedHashMap {
+		private int size;
+		public LRUMap(int size) {
+			super(16, 0.75f, true);
+			this.size = size;
+		}
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > size;
+		}
+	}
+	
+	private Parser parser;
+	private LRUMap cache;
+	/** The number of times the underlying parser has been replaced.  Parses found by an old parser are
+	 * not cached. */
+	private int generation;
+	private int nhits;
+	private int nmisses;
+	
+	/**
+	 * Creates a parser that caches the parses of at most the specified number of sentences.
+	 * 
+	 * @param parser the underlying parser.
+	 * @param size the maximum number of sentences whose parses are cached.
+	 */
+	public CachingParser(Parser parser, int size) {
+		this.parser = parser;
+		cache = new LRUMap(size);
+		generation = 0;
+		nhits = 0;
+		nmisses = 0;
+	}
+	
+	/**
+	 * Returns a parser that caches the parses returned by the specified parser, if parse caching is
+	 * turned on in the configuration file (via the key <code>Config.PARSE_CACHE_SIZE</code>).
+	 * 
+	 * @param parser a parser.
+	 * @return a new <code>CachingParser</code> based on the <code>parser</code> argument if parse
+	 * caching is turned on; the <code>parser</code> argument itself otherwise.
+	 */
+	public static Parser createNew(Parser parser) {
+		String size = Config.get(Config.PARSE_CACHE_SIZE);
+		if (size == null || Int.parseInt(size) <= 0)
+			return parser;
+		return new CachingParser(parser, Int.parseInt(size));
+	}
+	
+	public Iterator parse(Terminal[] E) {
+		Key key = new Key(E);
+		Parser parser;
+		int generation;
+		synchronized (this) {
+			Parse[] parses = (Parse[]) cache.get(key);
+			if (parses != null) {
+				++nhits;
+				return java.util.Arrays.asList(parses).iterator();
+			}
+			++nmisses;
+			parser = this.parser;
+			generation = this.generation;
+		}
+		ArrayList list = new ArrayList();
+		for (Iterator it = parser.parse(E); it.hasNext();) {
+			Parse parse = (Parse) it.next();
+			list.add(new Parse(parse.toStr(), parse.score));
+		}
+		Parse[] parses = (Parse[]) list.toArray(new Parse[0]);
+		synchronized (this) {
+			if (generation == this.generation)
+				cache.put(key, parses);
+		}
+		return java.util.Arrays.asList(parses).iterator();
+	}
+	
+	/**
+	 * Replaces the underlying parser (e.g. after the translation model is reloaded), and removes all
+	 * cached parses.
+	 * 
+	 * @param parser the new underlying parser.
+	 */
+	public synchronized void setParser(Parser parser) {
+		this.parser = parser;
+		++generation;
+		cache.clear();
+	}
+	
+	/**
+	 * Removes all cached parses.
+	 */
+	public synchronized void invalidate() {
+		++generation;
+		cache.clear();
+	}
+	
+	/**
+	 * Returns the number of calls to the <code>parse</code> method that have been answered from the
+	 * cache.
+	 * 
+	 * @return the number of cache hits.
+	 */
+	public synchronized int countHits() {
+		return nhits;
+	}
+	
+	/**
+	 * Returns the number of calls to the <code>parse</code> method that have been passed to the
+	 * underlying parser.
+	 * 
+	 * @return the number of cache misses.
+	 */
+	public synchronized int countMisses() {
+		return nmisses;
+	}
+	
+	/**
+	 * Returns the number of sentences whose parses are currently cached.
+	 * 
+	 * @return the number of sentences whose parses are currently cached.
+	 */
+	public synchronized int size() {
+		return cache.size();
+	}
+
+}
@@ -208,6 +208,10 @@ public class Config {
 	 * of parses returned can be more if there are ties. */
 	public static final String K_BEST = "wasp.kbest";
 	
+	/** The key to the maximum number of input sentences whose parses are cached by the semantic parsing
+	 * server.  If this is <code>0</code> (the default), then no parses are cached. */
+	public static final String PARSE_CACHE_SIZE = "wasp.parse.cache.size";
+	
 	/** The key to the name of the directory in which the current translation model and language model
 	 * are stored. */
 	public static final String MODEL_DIR = "wasp.model.dir";
@@ -233,6 +237,99 @@ public class Config {
 	/** The key to the name of the file that contains the initial rules for training an SCFG. */
 	public static final String SCFG_INIT = "wasp.scfg.init";
 	
+	/** The key to the weights of the feature values that SCFG rules may carry (e.g. the translation
+	 * probabilities of rules imported from a Hiero-style grammar).  The weights are listed in the same
+	 * order as the feature values, separated by spaces.  The score of a rule is its own weight plus
+	 * the weighted sum of its feature values.  If this is not specified (the default), then feature
+	 * values are ignored. */
+	public static final String SCFG_FEATURE_WEIGHTS = "wasp.scfg.feature.weights";
+
+	/** The key to the type of charts used by the SCFG parser.  Recognized types are: <code>object</code>
+	 * for charts of <code>Item</code> objects (the default), <code>packed</code> for charts that
+	 * store items in primitive arrays, and <code>trie</code> for charts in which rules with common NL 
+	 * prefixes share items.  Trie charts are only used for decoding; object charts are used for 
+	 * parameter estimation instead. */
+	public static final String SCFG_CHART = "wasp.scfg.chart";
+	
+	/** The key to the switch for sentence-specific grammar filtering.  If this is <code>true</code> (the
+	 * default), then the SCFG parser never predicts rules with NL terminals that do not appear in the 
+	 * input sentence. */
+	public static final String SCFG_FILTER = "wasp.scfg.filter";
+	
+	/** The key to the maximum number of chart items that the SCFG parser keeps for each span of the 
+	 * input sentence during decoding (i.e. histogram pruning).  If this is <code>0</code> (the default),
+	 * then no such limit is imposed. */
+	public static final String SCFG_BEAM_SIZE = "wasp.scfg.beam.size";
+	
+	/** The key to the maximum difference in log probability between a chart item and the best item of
+	 * the same span during decoding (i.e. threshold pruning).  Items that fall further behind are 
+	 * pruned.  If this is not specified (the default), then no such limit is imposed. */
+	public static final String SCFG_BEAM_THRESHOLD = "wasp.scfg.beam.threshold";
+	
+	/** The key to the maximum number of chart items that the SCFG parser keeps for each span of a
+	 * training sentence during parameter estimation.  This is the same as 
+	 * <code>SCFG_BEAM_SIZE</code>, except that items that are part of the correct MR are never pruned,
+	 * so only the normalizing constant of each example is approximated.  If this is <code>0</code> 
+	 * (the default), then no such limit is imposed. */
+	public static final String SCFG_TRAIN_BEAM_SIZE = "wasp.scfg.train.beam.size";
+	
+	/** The key to the maximum difference in log probability between a chart item and the best item of
+	 * the same span during parameter estimation.  This is the same as 
+	 * <code>SCFG_BEAM_THRESHOLD</code>, except that items that are part of the correct MR are never 
+	 * pruned.  If this is not specified (the default), then charts are not pruned during parameter
+	 * estimation. */
+	public static final String SCFG_TRAIN_BEAM_THRESHOLD = "wasp.scfg.train.beam.threshold";
+	
+	/** The key to the number of threads used for computing the objective function and its gradient
+	 * during parameter estimation of an SCFG.  The default is <code>1</code>.  The result does not
+	 * depend on the number of threads. */
+	public static final String SCFG_TRAIN_THREADS = "wasp.scfg.train.threads";
+	
+	/** The key to the semiring used by the inside-outside algorithm during parameter estimation of an
+	 * SCFG.  Recognized semirings are: <code>log</code> for the log semiring with exact log-addition
+	 * (the default), <code>log-table</code> for the log semiring with log-addition done by table lookup
+	 * and linear interpolation (absolute error less than 5e-7 per addition), and <code>scaled</code> for
+	 * scaled probabilities, which are only used for sentences of up to 30 words. */
+	public static final String SCFG_SEMIRING = "wasp.scfg.semiring";
+	
+	/** The key to the name of the directory in which the packed forests of training examples are stored
+	 * during parameter estimation of an SCFG.  Stored forests are memory-mapped, and can be re-used by
+	 * later training runs on the same examples and rules.  The directory is created if it does not
+	 * exist.  If this is not specified (the default), then forests are kept in memory. */
+	public static final String SCFG_FOREST_DIR = "wasp.scfg.forest.dir";
+	
+	/** The key to the optimization algorithm used for parameter estimation of an SCFG.  Recognized
+	 * algorithms are: <code>lbfgs</code> for batch LBFGS (the default), and <code>adagrad</code> for
+	 * stochastic gradient descent on shuffled minibatches with AdaGrad step sizes. */
+	public static final String SCFG_OPTIMIZER = "wasp.scfg.optimizer";
+	
+	/** The key to the number of training examples in each minibatch when parameters of an SCFG are
+	 * estimated using AdaGrad.  The default is <code>32</code>.  Examples in a minibatch are processed
+	 * in parallel using the number of threads specified via the key <code>SCFG_TRAIN_THREADS</code>. */
+	public static final String SCFG_BATCH_SIZE = "wasp.scfg.batch.size";
+	
+	/** The key to the number of LBFGS iterations between checkpoints during parameter estimation of an
+	 * SCFG.  Checkpoints are written to a file called <code>checkpoint</code> in the model directory.
+	 * If this is <code>0</code> (the default), then no checkpoints are written. */
+	public static final String SCFG_CHECKPOINT = "wasp.scfg.checkpoint";
+	
+	/** The key to the switch for resuming parameter estimation of an SCFG from the last checkpoint in
+	 * the model directory.  If this is <code>true</code>, then LBFGS training continues from the last
+	 * checkpoint, provided that it is made with the same training examples and rules.  The default is
+	 * <code>false</code>.  To resume, set this key in the configuration file; the trainer has no
+	 * command-line option for it. */
+	public static final String SCFG_RESUME = "wasp.scfg.resume";
+	
+	/** The key to the format in which per-iteration metrics of SCFG parameter estimation are exported
+	 * to the model directory (see <code>wasp.scfg.parse.TrainingMonitor</code>).  Recognized formats
+	 * are: <code>csv</code> for comma-separated values, and <code>json</code> for one JSON object per
+	 * line.  If this is not specified (the default), then no metrics are exported. */
+	public static final String SCFG_METRICS = "wasp.scfg.metrics";
+	
+	/** The key to the switch for publishing the metrics of SCFG parameter estimation through a JMX 
+	 * MBean called <code>wasp:type=TrainingMonitor</code>.  The default is <code>false</code>. */
+	public static final String SCFG_METRICS_JMX = "wasp.scfg.metrics.jmx";
+	
 	/** The key to the name of the file that contains the names of all geographical entities in the 
 	 * Geoquery domain. */
 	public static final String GEO_NAMES = "wasp.domain.geo.names";
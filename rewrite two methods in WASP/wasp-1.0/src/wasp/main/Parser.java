@@ -57,7 +57,7 @@ public abstract class Parser {
 	 */
 	public static Parser createNew(TranslationModel model) {
 		if (model instanceof SCFGModel)
-			return new SCFGParser((SCFGModel) model);
+			return SCFGParser.createNew((SCFGModel) model);
 		return null;
 	}
 	
@@ -71,14 +71,89 @@ public abstract class Parser {
 	 */
 	public abstract Iterator parse(Terminal[] E);
 	
+	/**
+	 * Threads that parse examples using a shared parser.  Examples are taken from a shared array one at
+	 * a time, and the parses found are stored in the examples themselves.
+	 */
+	private static class ParseThread extends Thread {
+		private Parser parser;
+		private Example[] exs;
+		private int[] next;
+		private RuntimeException error;
+		public ParseThread(Parser parser, Example[] exs, int[] next) {
+			this.parser = parser;
+			this.exs = exs;
+			this.next = next;
+			error = null;
+		}
+		public void run() {
+			try {
+				while (true) {
+					int i;
+					synchronized (next) {
+						if (next[0] >= exs.length)
+							break;
+						i = next[0]++;
+					}
+					Example ex = exs[i];
+					logger.fine("example "+ex.id);
+					for (Iterator it = parser.parse(ex.E); it.hasNext();)
+						ex.parses.add(it.next());
+				}
+			} catch (RuntimeException e) {
+				error = e;
+			}
+		}
+	}
+	
+	/**
+	 * Parses the specified examples using the specified number of threads.  All threads share the same
+	 * parser, which must be thread-safe if more than one thread is used.  The parses of each example are
+	 * stored in the example itself, so the order of examples is not affected by the order in which they
+	 * are parsed.
+	 * 
+	 * @param parser a parser.
+	 * @param examples the examples to parse.
+	 * @param nthreads the number of threads to use.
+	 * @throws RuntimeException if any of the threads throws a <code>RuntimeException</code>.
+	 */
+	public static void parseAll(Parser parser, Examples examples, int nthreads) {
+		Example[] exs = new Example[examples.size()];
+		int n = 0;
+		for (Iterator it = examples.iterator(); it.hasNext();)
+			exs[n++] = (Example) it.next();
+		int[] next = new int[1];
+		ParseThread[] threads = new ParseThread[nthreads];
+		for (int i = 0; i < nthreads; ++i) {
+			threads[i] = new ParseThread(parser, exs, next);
+			if (nthreads > 1)
+				threads[i].start();
+			else
+				threads[i].run();
+		}
+		for (int i = 0; i < nthreads; ++i) {
+			if (nthreads > 1)
+				try {
+					threads[i].join();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			if (threads[i].error != null)
+				throw threads[i].error;
+		}
+	}
+	
 	/**
 	 * The main program for parsing (i.e. translation from NL into MRL).  This program takes the following
 	 * command-line arguments:
 	 * <p>
-	 * <blockquote><code><b>java wasp.main.Parser</b> <u>config-file</u> <u>model-dir</u> <u>mask-file</u>
-	 * <u>output-file</u></code></blockquote>
+	 * <blockquote><code><b>java wasp.main.Parser</b> [<b>--threads</b> <u>N</u>] <u>config-file</u>
+	 * <u>model-dir</u> <u>mask-file</u> <u>output-file</u></code></blockquote>
 	 * <p>
 	 * <ul>
+	 * <li><code><u>N</u></code> - the number of threads for parsing the test set (default:
+	 * <code>1</code>).  The threads share the same parser.  The output file is the same regardless of
+	 * the number of threads.</li>
 	 * <li><code><u>config-file</u></code> - the configuration file that contains the current 
 	 * settings.</li>
 	 * <li><code><u>model-dir</u></code> - the directory that contains the learned translation model.</li>
@@ -97,6 +172,17 @@ public abstract class Parser {
 	 * requested configuration.
 	 */
 	public static void main(String[] args) throws IOException, SAXException, ParserConfigurationException {
+		int nthreads = 1;
+		if (args.length >= 2 && args[0].equals("--threads")) {
+			nthreads = Integer.parseInt(args[1]);
+			if (nthreads < 1) {
+				System.err.println("Usage: java wasp.main.Parser [--threads N] config-file model-dir mask-file output-file");
+				System.exit(1);
+			}
+			String[] rest = new String[args.length-2];
+			System.arraycopy(args, 2, rest, 0, rest.length);
+			args = rest;
+		}
 //		if (args.length != 4) {
 //			System.err.println("Usage: java wasp.main.Parser config-file model-dir mask-file output-file");
 //			System.err.println();
@@ -115,6 +201,12 @@ public abstract class Parser {
 		String modelDir = "F:/Germany/lecture/NLP/final project/wasp-1.0/data/geo-funql/model";
 		String maskFilename = "F:/Germany/lecture/NLP/final project/wasp-1.0/data/geo-funql/split-250/run-1/fold-1/test";
 		String outputFilename = "F:/Germany/lecture/NLP/final project/wasp-1.0/data/geo-funql/model/output-withou-anser-start.xml";
+		if (args.length == 4) {
+			configFilename = args[0];
+			modelDir = args[1];
+			maskFilename = args[2];
+			outputFilename = args[3];
+		}
 		
 		Config.read(configFilename);
 		Config.setModelDir(modelDir);
@@ -128,12 +220,7 @@ public abstract class Parser {
 		model.read();
 		Parser parser = Parser.createNew(model);
 		logger.info("Parsing all input sentences");
-		for (Iterator it = examples.iterator(); it.hasNext();) {
-			Example ex = (Example) it.next();
-			logger.fine("example "+ex.id);
-			for (Iterator jt = parser.parse(ex.E); jt.hasNext();)
-				ex.parses.add(jt.next());
-		}
+		parseAll(parser, examples, nthreads);
 		logger.info("All input sentences have been parsed");
 		examples.write(outputFilename);
 		
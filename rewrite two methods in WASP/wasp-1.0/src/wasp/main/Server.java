@@ -0,0 +1,399 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+import wasp.data.Terminal;
+import wasp.nl.NLGrammar;
+
+/**
+ * A semantic parsing server.  The translation model is loaded once, and then NL sentences are parsed
+ * as they come in, one sentence per line.  For each sentence, the top-scoring meaning representations
+ * are returned as a single line of JSON:
+ * <p>
+ * <blockquote><code>{"nl":"what is the capital of texas","parses":[{"rank":0,"score":-1.2,
+ * "mrl":"answer(capital(stateid('texas')))"}],"ms":3}</code></blockquote>
+ * <p>
+ * Parses that do not give rise to well-formed meaning representations are left out.  The value of
+ * <code>ms</code> is the time taken to parse the sentence, in milliseconds.  If an error occurs while
+ * parsing, then an <code>error</code> field is returned instead of <code>parses</code>.
+ * <p>
+ * A line that reads <code>!stats</code> is a request for the current statistics of the server, which
+ * include the number of requests served, the throughput, the latency percentiles, and the hit and miss
+ * counts of the parse cache if there is one (see <code>Config.PARSE_CACHE_SIZE</code>).  A line that
+ * reads <code>!reload</code> causes the translation model to be reloaded from the model directory, and
+ * all cached parses to be discarded.  Empty lines are ignored.
+ * 
+ * @author ywwong
+ *
+ */
+public class Server {
+	
+	private static Logger logger = Logger.getLogger(Server.class.getName());
+	
+	/** The number of most recent latencies kept for calculating percentiles. */
+	private static final int WINDOW = 10000;
+	
+	/**
+	 * Request counters and recent latencies.
+	 */
+	private static class Stats {
+		private long startTime;
+		private int nrequests;
+		private int nparsed;
+		private int nerrors;
+		private long totalTime;
+		private long maxTime;
+		/** The most recent latencies, in a circular buffer. */
+		private long[] times;
+		public Stats() {
+			startTime = System.currentTimeMillis();
+			nrequests = 0;
+			nparsed = 0;
+			nerrors = 0;
+			totalTime = 0;
+			maxTime = 0;
+			times = new long[WINDOW];
+		}
+		public synchronized void add(long time, boolean parsed, boolean error) {
+			times[nrequests%WINDOW] = time;
+			++nrequests;
+			if (parsed)
+				++nparsed;
+			if (error)
+				++nerrors;
+			totalTime += time;
+			if (time > maxTime)
+				maxTime = time;
+		}
+		public synchronized String toJSON(Parser parser) {
+			int n = (nrequests < WINDOW) ? nrequests : WINDOW;
+			long[] sorted = new long[n];
+			System.arraycopy(times, 0, sorted, 0, n);
+			Arrays.sort(sorted);
+			double uptime = (System.currentTimeMillis()-startTime)/1000.0;
+			StringBuffer sb = new StringBuffer();
+			sb.append("{\"requests\":").append(nrequests);
+			sb.append(",\"parsed\":").append(nparsed);
+			sb.append(",\"errors\":").append(nerrors);
+			sb.append(",\"uptime\":").append(uptime);
+			sb.append(",\"throughput\":").append((uptime>0) ? nrequests/uptime : 0);
+			sb.append(",\"latency\":{\"mean\":").append((nrequests>0) ? (double) totalTime/nrequests : 0);
+			sb.append(",\"p50\":").append(percentile(sorted, 50));
+			sb.append(",\"p90\":").append(percentile(sorted, 90));
+			sb.append(",\"p99\":").append(percentile(sorted, 99));
+			sb.append(",\"max\":").append(maxTime);
+			sb.append('}');
+			if (parser instanceof CachingParser) {
+				CachingParser cache = (CachingParser) parser;
+				sb.append(",\"cache\":{\"size\":").append(cache.size());
+				sb.append(",\"hits\":").append(cache.countHits());
+				sb.append(",\"misses\":").append(cache.countMisses());
+				sb.append('}');
+			}
+			sb.append('}');
+			return sb.toString();
+		}
+		/**
+		 * Returns the specified percentile of the sorted values, using the nearest-rank method.
+		 */
+		private static long percentile(long[] sorted, int p) {
+			if (sorted.length == 0)
+				return 0;
+			int rank = (p*sorted.length+99)/100;
+			return sorted[(rank>0) ? rank-1 : 0];
+		}
+	}
+	
+	private volatile Parser parser;
+	private NLGrammar nl;
+	private Stats stats;
+	
+	/**
+	 * Creates a server that uses the specified parser.  The parser must be thread-safe if the server
+	 * is to accept multiple connections at the same time.
+	 * 
+	 * @param parser a parser.
+	 */
+	public Server(Parser parser) {
+		this.parser = parser;
+		nl = new NLGrammar();
+		stats = new Stats();
+	}
+	
+	/**
+	 * Returns the response to the specified request.
+	 * 
+	 * @param line a request (i.e. an NL sentence or a command).
+	 * @return the response to the <code>line</code> argument, which is a line of JSON;
+	 * <code>null</code> if no response is needed.
+	 */
+	public String handle(String line) {
+		line = line.trim();
+		if (line.length() == 0)
+			return null;
+		if (line.equals("!stats"))
+			return stats.toJSON(parser);
+		if (line.equals("!reload"))
+			return reload();
+		long start = System.currentTimeMillis();
+		StringBuffer sb = new StringBuffer();
+		sb.append("{\"nl\":");
+		quote(sb, line);
+		boolean parsed = false;
+		boolean error = false;
+		try {
+			Terminal[] E = nl.tokenizeKnown(line);
+			ArrayList list = new ArrayList();
+			for (Iterator it = parser.parse(E); it.hasNext();)
+				list.add(it.next());
+			Parse[] parses = (Parse[]) list.toArray(new Parse[0]);
+			Arrays.sort(parses);
+			sb.append(",\"parses\":[");
+			int n = 0;
+			for (int i = 0; i < parses.length; ++i) {
+				String str = parses[i].toStr();
+				if (str == null)
+					continue;
+				if (n > 0)
+					sb.append(',');
+				sb.append("{\"rank\":").append(n++);
+				sb.append(",\"score\":");
+				if (Double.isInfinite(parses[i].score) || Double.isNaN(parses[i].score))
+					sb.append("null");
+				else
+					sb.append(parses[i].score);
+				sb.append(",\"mrl\":");
+				quote(sb, str);
+				sb.append('}');
+			}
+			sb.append(']');
+			parsed = n > 0;
+		} catch (RuntimeException e) {
+			logger.warning("cannot parse \""+line+"\": "+e);
+			sb.append(",\"error\":");
+			quote(sb, e.toString());
+			error = true;
+		}
+		long time = System.currentTimeMillis()-start;
+		stats.add(time, parsed, error);
+		sb.append(",\"ms\":").append(time);
+		sb.append('}');
+		return sb.toString();
+	}
+	
+	/**
+	 * Reloads the translation model from the directory specified in the configuration file (via the key
+	 * <code>Config.MODEL_DIR</code>), and starts using a new parser based on this model.  Requests that
+	 * are being served continue to use the old parser.  Cached parses are discarded.
+	 * 
+	 * @return the response to the reload request.
+	 */
+	private synchronized String reload() {
+		long start = System.currentTimeMillis();
+		StringBuffer sb = new StringBuffer();
+		sb.append("{\"reload\":");
+		try {
+			TranslationModel model = TranslationModel.createNew();
+			model.read();
+			Parser p = Parser.createNew(model);
+			if (parser instanceof CachingParser)
+				((CachingParser) parser).setParser(p);
+			else
+				parser = p;
+			sb.append("true");
+			logger.info("The translation model has been reloaded");
+		} catch (IOException e) {
+			logger.warning("cannot reload the translation model: "+e);
+			sb.append("false,\"error\":");
+			quote(sb, e.toString());
+		}
+		sb.append(",\"ms\":").append(System.currentTimeMillis()-start);
+		sb.append('}');
+		return sb.toString();
+	}
+	
+	/**
+	 * Appends the specified string to the specified buffer as a JSON string literal.
+	 */
+	private static void quote(StringBuffer sb, String str) {
+		sb.append('"');
+		for (int i = 0; i < str.length(); ++i) {
+			char c = str.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					String hex = Integer.toHexString(c);
+					sb.append("\\u");
+					for (int j = hex.length(); j < 4; ++j)
+						sb.append('0');
+					sb.append(hex);
+				} else
+					sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+	
+	/**
+	 * Serves requests from the specified reader until the end of stream is reached.  Responses are
+	 * written to the specified writer, which is flushed after each response.
+	 * 
+	 * @param in the source of requests.
+	 * @param out the destination of responses.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void serve(BufferedReader in, PrintWriter out) throws IOException {
+		String line;
+		while ((line = in.readLine()) != null) {
+			String response = handle(line);
+			if (response != null) {
+				out.println(response);
+				out.flush();
+			}
+		}
+	}
+	
+	/**
+	 * Threads that serve requests from a single TCP connection.
+	 */
+	private class Connection extends Thread {
+		private Socket socket;
+		public Connection(Socket socket) {
+			this.socket = socket;
+		}
+		public void run() {
+			try {
+				BufferedReader in =
+					new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+				PrintWriter out =
+					new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8")));
+				serve(in, out);
+				socket.close();
+			} catch (IOException e) {
+				logger.warning(e.toString());
+			}
+		}
+	}
+	
+	/**
+	 * Accepts TCP connections on the specified port of the loopback interface, and serves requests from
+	 * each connection in a separate thread.  This method never returns.
+	 * 
+	 * @param port a port number; <code>0</code> means any free port.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void listen(int port) throws IOException {
+		ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+		logger.info("Listening on port "+server.getLocalPort());
+		while (true) {
+			Connection conn = new Connection(server.accept());
+			conn.setDaemon(true);
+			conn.start();
+		}
+	}
+	
+	/**
+	 * The main program for the semantic parsing server.  This program takes the following command-line
+	 * arguments:
+	 * <p>
+	 * <blockquote><code><b>java wasp.main.Server</b> [<b>--port</b> <u>port</u>] <u>config-file</u>
+	 * <u>model-dir</u></code></blockquote>
+	 * <p>
+	 * <ul>
+	 * <li><code><u>port</u></code> - the TCP port on the loopback interface to listen on.  If this
+	 * option is not given, then requests are read from the standard input, and responses are written to
+	 * the standard output.</li>
+	 * <li><code><u>config-file</u></code> - the configuration file that contains the current
+	 * settings.</li>
+	 * <li><code><u>model-dir</u></code> - the directory that contains the learned translation model.</li>
+	 * </ul>
+	 * <p>
+	 * Log messages are sent to the standard error stream.  The final statistics of the server are
+	 * logged when the standard input is exhausted.
+	 * 
+	 * @param args the command-line arguments.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = -1;
+		int i = 0;
+		if (args.length >= 2 && args[0].equals("--port")) {
+			port = Integer.parseInt(args[1]);
+			i = 2;
+		}
+		if (args.length-i != 2) {
+			System.err.println("Usage: java wasp.main.Server [--port port] config-file model-dir");
+			System.err.println();
+			System.err.println("port - the TCP port on the loopback interface to listen on.");
+			System.err.println("config-file - the configuration file that contains the current settings.");
+			System.err.println("model-dir - the directory that contains the learned translation model.");
+			System.exit(1);
+		}
+		String configFilename = args[i];
+		String modelDir = args[i+1];
+	
+		Config.read(configFilename);
+		Config.setModelDir(modelDir);
+		Config.getMRLGrammar().readMore();
+		logger.info("Loading the translation model");
+		TranslationModel model = TranslationModel.createNew();
+		model.read();
+		Server server = new Server(CachingParser.createNew(Parser.createNew(model)));
+		logger.info("The translation model has been loaded");
+		if (port >= 0)
+			server.listen(port);
+		else {
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+			PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8")));
+			server.serve(in, out);
+			logger.info("Server statistics: "+server.stats.toJSON(server.parser));
+		}
+	}
+
+}
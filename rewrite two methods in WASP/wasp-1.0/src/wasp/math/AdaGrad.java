@@ -0,0 +1,183 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.math;
+
+import java.util.Random;
+import java.util.logging.Logger;
+
+import wasp.util.Double;
+
+/**
+ * Stochastic gradient descent with adaptive step sizes (AdaGrad; Duchi, Hazan & Singer, 2011).  This
+ * is an alternative to <code>LBFGS</code> for objective functions that are sums of terms over training
+ * examples, plus a Gaussian prior.  Each update is based on the gradient of a minibatch of examples, 
+ * so it does not take a full pass over the training set to make progress.  Examples are shuffled 
+ * before each pass (<i>epoch</i>).  The step size of each parameter is inversely proportional to the
+ * square root of the sum of its squared gradients so far.
+ * 
+ * @author ywwong
+ *
+ */
+public class AdaGrad {
+
+	private static Logger logger = Logger.getLogger(AdaGrad.class.getName());
+	
+	/**
+	 * Objective functions to minimize using the AdaGrad algorithm.  The Gaussian prior is handled by 
+	 * the <code>AdaGrad</code> object, and should not be included in the objective function.
+	 * 
+	 * @author ywwong
+	 *
+	 */
+	public static interface Objective {
+		/**
+		 * Returns the number of training examples.
+		 * 
+		 * @return the number of training examples.
+		 */
+		public int countExamples();
+		/**
+		 * Returns the sum of the terms of this function for the specified training examples, and the 
+		 * gradient of this sum, at <code>X</code>.  The prior is not included.
+		 * 
+		 * @param X a real-valued vector of length <code>n</code>.
+		 * @param batch the indices of the training examples, between <code>0</code> and 
+		 * <code>countExamples()-1</code>.
+		 * @param val an <i>output</i> variable for the sum of the terms.
+		 * @param grad an <i>output</i> vector of length <code>n</code> that would be the gradient of
+		 * the sum.
+		 */
+		public void getValueAndGradient(double[] X, int[] batch, Double val, double[] grad);
+		/**
+		 * This method is called after each epoch of the AdaGrad algorithm.  The objective function may
+		 * change the current decision vector, in which case the <code>reset</code> method of the 
+		 * <code>AdaGrad</code> object must be called.
+		 * 
+		 * @param adagrad the <code>AdaGrad</code> object that uses this objective function.
+		 * @param X the current decision vector.
+		 * @param epoch the epoch number (which starts from <code>0</code>).
+		 * @param isLastEpoch indicates if this is the end of the last epoch.
+		 */
+		public void check(AdaGrad adagrad, double[] X, int epoch, boolean isLastEpoch);
+	}
+	
+	private static final int MAX_EPOCHS = 30;
+	private static final double LEARNING_RATE = 0.5;
+	private static final double EPSILON = 1e-8;
+	/** The algorithm converges when the value of the objective function over an epoch decreases by less
+	 * than this fraction. */
+	private static final double REL_DECREASE = 1e-3;
+	/** The seed for shuffling examples, so that results are reproducible. */
+	private static final long SEED = 0;
+	
+	private double priorVariance;
+	private int batchSize;
+	/** The sums of squared gradients so far. */
+	private double[] G;
+	private double lastVal;
+	private boolean changed;
+	
+	/**
+	 * Creates an optimizer with the specified Gaussian prior and minibatch size.
+	 * 
+	 * @param priorVariance the variance of the Gaussian prior on each parameter, whose mean is zero.
+	 * @param batchSize the number of examples in each minibatch.
+	 */
+	public AdaGrad(double priorVariance, int batchSize) {
+		this.priorVariance = priorVariance;
+		this.batchSize = (batchSize < 1) ? 1 : batchSize;
+		G = null;
+		lastVal = Double.NaN;
+		changed = false;
+	}
+	
+	/**
+	 * Finds a decision vector that locally minimizes the value of the specified objective function plus
+	 * the Gaussian prior.
+	 * 
+	 * @param obj the objective function to minimize.
+	 * @param X the initial decision vector; it is also the <i>output</i> decision vector.
+	 * @return <code>true</code> if the optimization algorithm converges; <code>false</code> otherwise.
+	 */
+	public boolean minimize(Objective obj, double[] X) {
+		int n = obj.countExamples();
+		int[] order = new int[n];
+		for (int i = 0; i < n; ++i)
+			order[i] = i;
+		Random random = new Random(SEED);
+		Double val = new Double();
+		double[] grad = new double[X.length];
+		G = new double[X.length];
+		lastVal = Double.NaN;
+		for (int epoch = 0; epoch < MAX_EPOCHS; ++epoch) {
+			logger.info("AdaGrad epoch "+epoch);
+			shuffle(order, random);
+			double epochVal = 0;
+			for (int from = 0; from < n; from += batchSize) {
+				int size = Math.min(batchSize, n-from);
+				int[] batch = new int[size];
+				for (int i = 0; i < size; ++i)
+					batch[i] = order[from+i];
+				obj.getValueAndGradient(X, batch, val, grad);
+				// the prior is spread evenly over minibatches
+				double frac = (double) size/n;
+				epochVal += val.val + frac*Vectors.dotProduct(X, X)/(2*priorVariance);
+				for (int i = 0; i < X.length; ++i) {
+					double g = grad[i] + frac*X[i]/priorVariance;
+					if (g != 0) {
+						G[i] += g*g;
+						X[i] -= LEARNING_RATE*g/(Math.sqrt(G[i])+EPSILON);
+					}
+				}
+			}
+			logger.fine("epoch obj func = "+epochVal);
+			boolean converged = !Double.isNaN(lastVal)
+				&& lastVal-epochVal < REL_DECREASE*Math.abs(lastVal);
+			lastVal = epochVal;
+			changed = false;
+			obj.check(this, X, epoch, converged || epoch == MAX_EPOCHS-1);
+			if (changed)
+				continue;
+			if (converged)
+				return true;
+		}
+		logger.warning("AdaGrad fails to converge");
+		return false;
+	}
+	
+	/**
+	 * Indicates that the objective function has changed (e.g. during Viterbi approximation), so the 
+	 * convergence test has to start over.  The sums of squared gradients are kept.
+	 */
+	public void reset() {
+		lastVal = Double.NaN;
+		changed = true;
+	}
+	
+	private static void shuffle(int[] array, Random random) {
+		for (int i = array.length-1; i > 0; --i) {
+			int j = random.nextInt(i+1);
+			int tmp = array[i];
+			array[i] = array[j];
+			array[j] = tmp;
+		}
+	}
+	
+}
@@ -39,4 +39,15 @@ public interface Differentiable {
 	 */
 	public void getValueAndGradient(double[] X, Double val, double[] grad);
 	
+	/**
+	 * Returns the value of this function at <code>X</code>.  This is used when the gradient is not
+	 * needed (e.g. when testing for sufficient decrease during line search), and it should be cheaper
+	 * than <code>getValueAndGradient</code>.  The value returned must be the same as the one computed
+	 * by <code>getValueAndGradient</code>.
+	 * 
+	 * @param X a real-valued vector of length <code>n</code>.
+	 * @return the value of this function at <code>X</code>.
+	 */
+	public double getValue(double[] X);
+	
 }
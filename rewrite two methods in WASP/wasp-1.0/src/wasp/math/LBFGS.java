@@ -19,6 +19,9 @@
  */
 package wasp.math;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.logging.Logger;
 
 import wasp.util.Double;
@@ -54,6 +57,17 @@ public class LBFGS {
 		 * @param isLastIter indicates if this is the end of the last iteration.
 		 */
 		public void check(LBFGS lbfgs, int iter, boolean isLastIter);
+		/**
+		 * This method is called at the end of each iteration of the LBFGS algorithm that is not the
+		 * last, after <code>check</code>.  At this point, the state of the <code>LBFGS</code> object
+		 * can be saved using its <code>write</code> method, so that the algorithm can be resumed 
+		 * from the next iteration later.
+		 * 
+		 * @param lbfgs the <code>LBFGS</code> object that uses this objective function.
+		 * @param X the decision vector from which the next iteration starts.
+		 * @param iter the iteration number.
+		 */
+		public void checkpoint(LBFGS lbfgs, double[] X, int iter);
 	}
 	
 	private static final int MAX_ITERATIONS = 1000;
@@ -67,6 +81,12 @@ public class LBFGS {
     private double[][] Y;
     private double[] Rho;
     private double[] alpha;
+    /** The norm of the initial gradient, on which the convergence criterion is based. */
+    private double g0;
+    /** The number of the last completed iteration. */
+    private int iter;
+    /** Indicates if the state of this object has been read from a checkpoint. */
+    private boolean resumed;
     
     public LBFGS() {
     	lastX = null;
@@ -75,6 +95,9 @@ public class LBFGS {
     	Y = null;
     	Rho = null;
     	alpha = null;
+    	g0 = Double.NaN;
+    	iter = -1;
+    	resumed = false;
     }
 
     /**
@@ -88,11 +111,17 @@ public class LBFGS {
     	Double val = new Double();
     	double[] grad = new double[X.length];
     	obj.getValueAndGradient(X, val, grad);
-    	double g0 = Vectors.twoNorm(grad);
-    	if (g0 == 0)
-    		return true;
-    	reset();
-    	for (int iter = 0; iter < MAX_ITERATIONS; ++iter) {
+    	int first = 0;
+    	if (resumed) {
+    		first = iter+1;
+    		resumed = false;
+    	} else {
+    		g0 = Vectors.twoNorm(grad);
+    		if (g0 == 0)
+    			return true;
+    		reset();
+    	}
+    	for (int iter = first; iter < MAX_ITERATIONS; ++iter) {
     		logger.info("LBFGS iteration "+iter);
     		double[] dir = null;
     		double[] s = null;
@@ -144,12 +173,12 @@ public class LBFGS {
     		if (lastX == null) {
     			obj.getX(X);
     			obj.getValueAndGradient(X, val, grad);
-    			continue;
-    		}
-    		if (!lineMinimized)
+    		} else if (!lineMinimized)
     			return false;
-    		if (converged)
+    		else if (converged)
     			return true;
+    		this.iter = iter;
+    		obj.checkpoint(this, X, iter);
     	}
     	logger.warning("LBFGS fails to converge");
     	return false;
@@ -169,6 +198,78 @@ public class LBFGS {
     	alpha = new double[NUM_CORRECTIONS];
     }
         
+    /**
+     * Writes the state of this <code>LBFGS</code> object in binary format.  The state consists of the
+     * number of the last completed iteration, the norm of the initial gradient, and the correction
+     * vectors.  This should be called from <code>Objective.checkpoint</code>.
+     * 
+     * @param out the output stream to write to.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void write(DataOutputStream out) throws IOException {
+    	out.writeInt(iter);
+    	out.writeDouble(g0);
+    	writeVector(out, lastX);
+    	writeVector(out, lastGrad);
+    	for (int i = 0; i < NUM_CORRECTIONS; ++i) {
+    		writeVector(out, S[i]);
+    		writeVector(out, Y[i]);
+    		out.writeDouble(Rho[i]);
+    	}
+    }
+    
+    /**
+     * Reads the state of an <code>LBFGS</code> object in binary format, as written by the 
+     * <code>write</code> method.  The next call to <code>minimize</code> resumes from the iteration
+     * after the last completed one, starting from the decision vector that was passed to
+     * <code>Objective.checkpoint</code>.
+     * 
+     * @param in the input stream to read from.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void read(DataInputStream in) throws IOException {
+    	reset();
+    	iter = in.readInt();
+    	g0 = in.readDouble();
+    	lastX = readVector(in);
+    	lastGrad = readVector(in);
+    	for (int i = 0; i < NUM_CORRECTIONS; ++i) {
+    		S[i] = readVector(in);
+    		Y[i] = readVector(in);
+    		Rho[i] = in.readDouble();
+    	}
+    	resumed = true;
+    }
+    
+    /**
+     * Returns the number of the last completed iteration.
+     * 
+     * @return the number of the last completed iteration; <code>-1</code> if none.
+     */
+    public int getIteration() {
+    	return iter;
+    }
+    
+    private static void writeVector(DataOutputStream out, double[] X) throws IOException {
+    	if (X == null) {
+    		out.writeInt(-1);
+    		return;
+    	}
+    	out.writeInt(X.length);
+    	for (int i = 0; i < X.length; ++i)
+    		out.writeDouble(X[i]);
+    }
+    
+    private static double[] readVector(DataInputStream in) throws IOException {
+    	int length = in.readInt();
+    	if (length < 0)
+    		return null;
+    	double[] X = new double[length];
+    	for (int i = 0; i < length; ++i)
+    		X[i] = in.readDouble();
+    	return X;
+    }
+    
     private void push(double[][] queue, double[] X) {
     	for (int i = 0; i < NUM_CORRECTIONS-1; ++i)
     		queue[i] = queue[i+1];
@@ -78,7 +78,12 @@ public class LineSearch {
     			return false;
     		}
     		Vectors.assign(X, Vectors.addCopy(X0, lambda, dir));
-    		obj.getValueAndGradient(X, val, grad);
+    		// the full step is usually accepted, and the gradient at the accepted point is needed by
+    		// the caller; backtracking steps are often rejected, so only their values are computed
+    		if (lambda == 1)
+    			obj.getValueAndGradient(X, val, grad);
+    		else
+    			val.val = obj.getValue(X);
     		// sufficient decrease condition
     		if (val.val-val0 < ALPHA*lambda*Gd0)
     			return true;
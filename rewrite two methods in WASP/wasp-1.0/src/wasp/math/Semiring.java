@@ -0,0 +1,198 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.math;
+
+/**
+ * Arithmetic for summing the scores of derivations in packed forests (i.e. the inside-outside
+ * algorithm).  Scores are given to and returned by semirings in log form.  Internally, a semiring can
+ * represent scores in a different form that is faster to compute with.
+ * <p>
+ * Three semirings are provided: the log semiring with exact log-addition (<code>LOG</code>), the log
+ * semiring with log-addition done by table lookup (<code>LOG_TABLE</code>), and the probability 
+ * semiring (<code>SCALED</code>), in which scores must be scaled to avoid underflow.
+ * 
+ * @author ywwong
+ *
+ */
+public abstract class Semiring {
+
+	/** The log semiring, in which log-addition is done exactly using <code>Math.logAdd</code>. */
+	public static final Semiring LOG = new Semiring("log") {
+		public double fromLog(double x) {
+			return x;
+		}
+		public double toLog(double x) {
+			return x;
+		}
+		public double zero() {
+			return Double.NEGATIVE_INFINITY;
+		}
+		public double one() {
+			return 0;
+		}
+		public double times(double x, double y) {
+			return x+y;
+		}
+		public double plus(double x, double y) {
+			return Math.logAdd(x, y);
+		}
+	};
+	
+	/** The log semiring, in which log-addition is approximated using <code>Math.logAddTable</code>.  
+	 * The absolute error of each addition is less than 5e-7. */
+	public static final Semiring LOG_TABLE = new Semiring("log-table") {
+		public double fromLog(double x) {
+			return x;
+		}
+		public double toLog(double x) {
+			return x;
+		}
+		public double zero() {
+			return Double.NEGATIVE_INFINITY;
+		}
+		public double one() {
+			return 0;
+		}
+		public double times(double x, double y) {
+			return x+y;
+		}
+		public double plus(double x, double y) {
+			return Math.logAddTable(x, y);
+		}
+		public double logAdd(double lx, double ly) {
+			return Math.logAddTable(lx, ly);
+		}
+	};
+	
+	/** The probability semiring.  Scores are kept in probability space, so that addition and 
+	 * multiplication are done without calling <code>exp</code> or <code>log</code>.  To avoid 
+	 * underflow, scores must be scaled using the factors given by the <code>getScale</code> method. */
+	public static final Semiring SCALED = new Semiring("scaled") {
+		public double fromLog(double x) {
+			return Math.exp(x);
+		}
+		public double toLog(double x) {
+			return Math.log(x);
+		}
+		public double zero() {
+			return 0;
+		}
+		public double one() {
+			return 1;
+		}
+		public double times(double x, double y) {
+			return x*y;
+		}
+		public double plus(double x, double y) {
+			return x+y;
+		}
+		public double getScale(double x) {
+			return (x > 0 && x < Double.POSITIVE_INFINITY) ? 1/x : 1;
+		}
+	};
+	
+	private String name;
+	
+	private Semiring(String name) {
+		this.name = name;
+	}
+	
+	/**
+	 * Returns the semiring with the specified name.  Recognized names are: <code>log</code> for 
+	 * <code>LOG</code>, <code>log-table</code> for <code>LOG_TABLE</code>, and <code>scaled</code> for
+	 * <code>SCALED</code>.  The log semiring with exact log-addition is returned if the name is not 
+	 * recognized or <code>null</code>.
+	 * 
+	 * @param name the name of a semiring.
+	 * @return the semiring with the specified name.
+	 */
+	public static Semiring get(String name) {
+		if (LOG_TABLE.name.equals(name))
+			return LOG_TABLE;
+		else if (SCALED.name.equals(name))
+			return SCALED;
+		else
+			return LOG;
+	}
+	
+	/**
+	 * Converts the specified score in log form to the internal form of this semiring.
+	 * 
+	 * @param x a score in log form.
+	 * @return the same score in the internal form of this semiring.
+	 */
+	public abstract double fromLog(double x);
+	
+	/**
+	 * Converts the specified score in the internal form of this semiring to log form.
+	 * 
+	 * @param x a score in the internal form of this semiring.
+	 * @return the same score in log form.
+	 */
+	public abstract double toLog(double x);
+	
+	/**
+	 * Returns the additive identity of this semiring (i.e. zero probability).
+	 * 
+	 * @return the additive identity of this semiring.
+	 */
+	public abstract double zero();
+	
+	/**
+	 * Returns the multiplicative identity of this semiring (i.e. a probability of one).
+	 * 
+	 * @return the multiplicative identity of this semiring.
+	 */
+	public abstract double one();
+	
+	public abstract double times(double x, double y);
+	
+	public abstract double plus(double x, double y);
+	
+	/**
+	 * Returns a factor that brings the specified score close to one.  Scores can be multiplied by such
+	 * factors to avoid underflow, as long as the factors are taken out at the end.  Semirings in which
+	 * underflow does not occur return <code>one()</code>.
+	 * 
+	 * @param x a score in the internal form of this semiring.
+	 * @return a scaling factor for the specified score.
+	 */
+	public double getScale(double x) {
+		return one();
+	}
+	
+	/**
+	 * Returns the log of the sum of two numbers, which are themselves in log form.  This is used for
+	 * accumulating scores that have been converted to log form.  Log-addition is done exactly unless
+	 * this semiring approximates log-addition.
+	 * 
+	 * @param lx the first number, in log form.
+	 * @param ly the second number, in log form.
+	 * @return <code>log(exp(lx) + exp(ly))</code>.
+	 */
+	public double logAdd(double lx, double ly) {
+		return Math.logAdd(lx, ly);
+	}
+	
+	public String toString() {
+		return name;
+	}
+	
+}
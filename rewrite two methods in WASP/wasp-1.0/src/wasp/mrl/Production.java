@@ -29,6 +29,7 @@ import wasp.data.Terminal;
 import wasp.main.Config;
 import wasp.util.Arrays;
 import wasp.util.Int;
+import wasp.util.IntKey;
 import wasp.util.Short;
 
 /**
@@ -52,6 +53,9 @@ public class Production {
 	private Node parse;
 	/** Paths from the root of the parse tree of the RHS to all nonterminals on the frontier. */
 	private short[][] paths;
+	/** The interned canonical integer encoding of this production (see <code>getKey</code>).  Equal
+	 * productions share the same key object. */
+	private IntKey key;
 	/** Hash code of this production. */
 	private int hash;
 	
@@ -171,6 +175,14 @@ public class Production {
 			paths[i] = Arrays.toShortArray(list);
 			Arrays.reverse(paths[i]);
 		}
+		int[] key = new int[1+3*rhs.length];
+		key[0] = lhs;
+		for (short i = 0, k = 1; i < rhs.length; ++i) {
+			key[k++] = rhs[i].getType();
+			key[k++] = rhs[i].getId();
+			key[k++] = rhs[i].getIndex();
+		}
+		this.key = IntKey.intern(key);
 		hash = 1;
 		hash = 31*hash + lhs;
 		hash = 31*hash + Arrays.hashCode(rhs);
@@ -181,7 +193,7 @@ public class Production {
 			return true;
 		if (o instanceof Production) {
 			Production p = (Production) o;
-			return lhs == p.lhs && Arrays.equal(rhs, p.rhs);
+			return key == p.key;
 		}
 		return false;
 	}
@@ -190,6 +202,19 @@ public class Production {
 		return hash;
 	}
 
+	/**
+	 * Returns the canonical integer encoding of this production.  The encoding consists of the LHS
+	 * nonterminal, and the type code, ID and index of each RHS symbol (see 
+	 * <code>Symbol.getType</code>).  Two productions are equal if and only if their encodings are 
+	 * equal.  Encodings are interned through <code>IntKey</code>, so productions are compared by 
+	 * reference to their encodings.  The returned array must not be modified.
+	 * 
+	 * @return the canonical integer encoding of this production.
+	 */
+	public int[] getKey() {
+		return key.toArray();
+	}
+	
 	/**
 	 * Returns the ID of the LHS nonterminal of this production.  <code>-1</code> is returned if this
 	 * is a dummy production.
@@ -379,7 +404,7 @@ public class Production {
 		++i;
 		if (i == line.length || !line[i].equals("({"))
 			return null;
-		Terminal.readWords = false;
+		Terminal.setReadWords(false);
 		ArrayList list = new ArrayList();
 		for (++i; i < line.length && !line[i].equals("})"); ++i) {
 			Symbol sym = Symbol.read(line[i]);
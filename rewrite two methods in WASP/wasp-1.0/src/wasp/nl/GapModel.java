@@ -60,15 +60,23 @@ public class GapModel {
 	protected double defWeight;
 	/** The word-specific weights. */
 	protected HashMap wordWeights;
-	
-	protected double defOuter;
-	protected HashMap wordOuters;
+	/** Maps terminal IDs to positions in the parameter vector; -1 for terminals that are not words.
+	 * Set by <code>setBasicWeightVector</code>, so that outer scores are accumulated for the parameter
+	 * vector that is currently in use. */
+	private int[] wordIndex;
+	/** The most recently built mapping from terminal IDs to positions in the parameter vector, and the
+	 * dictionary size for which it was built. */
+	private int[] indexCache;
+	private int indexTerms;
+	private int indexWords;
 	
 	protected GapModel() {
 		defWeight = 0;
 		wordWeights = new HashMap();
-		defOuter = Double.NEGATIVE_INFINITY;
-		wordOuters = new HashMap();
+		wordIndex = new int[0];
+		indexCache = new int[0];
+		indexTerms = 0;
+		indexWords = 0;
 	}
 	
 	/**
@@ -139,13 +147,15 @@ public class GapModel {
 	}
 	
 	protected double[] getBasicWeightVector() {
+		int[] wordIndex = getWordIndex();
 		double[] weights = new double[Dictionary.countWords()+1];
 		weights[0] = defWeight;
-		for (int i = 0, j = 1; i < Dictionary.countTerms(); ++i)
-			if (Dictionary.isWord(i)) {
-				Double w = (Double) wordWeights.get(new Terminal(i));
-				weights[j++] = (w==null) ? 0 : w.val;
-			}
+		for (Iterator it = wordWeights.entrySet().iterator(); it.hasNext();) {
+			Map.Entry entry = (Map.Entry) it.next();
+			int id = ((Terminal) entry.getKey()).getId();
+			if (id < wordIndex.length && wordIndex[id] >= 0)
+				weights[wordIndex[id]] = ((Double) entry.getValue()).val;
+		}
 		return weights;
 	}
 	
@@ -159,52 +169,73 @@ public class GapModel {
 	}
 	
 	protected void setBasicWeightVector(double[] weights) {
+		int[] wordIndex = getWordIndex();
 		defWeight = weights[0];
 		wordWeights = new HashMap();
-		for (int i = 0, j = 1; i < Dictionary.countTerms(); ++i)
-			if (Dictionary.isWord(i)) {
-				double w = weights[j++];
-				if (w != 0)
-					wordWeights.put(new Terminal(i), new Double(w));
-			}
+		for (int i = 0; i < wordIndex.length; ++i)
+			if (wordIndex[i] >= 0 && weights[wordIndex[i]] != 0)
+				wordWeights.put(new Terminal(i), new Double(weights[wordIndex[i]]));
+		this.wordIndex = wordIndex;
 	}
 	
-	public double[] getOuterScores() {
-		return getBasicOuterScores();
-	}
-	
-	protected double[] getBasicOuterScores() {
-		double[] outers = new double[Dictionary.countWords()+1];
-		outers[0] = defOuter;
-		for (int i = 0, j = 1; i < Dictionary.countTerms(); ++i)
-			if (Dictionary.isWord(i)) {
-				Double o = (Double) wordOuters.get(new Terminal(i));
-				outers[j++] = (o==null) ? Double.NEGATIVE_INFINITY : o.val;
-			}
-		return outers;
+	/**
+	 * Returns the mapping from terminal IDs to positions in the parameter vector.  The mapping is
+	 * rebuilt only when new terms or words have been added to the dictionary since it was last built.
+	 */
+	private synchronized int[] getWordIndex() {
+		int nterms = Dictionary.countTerms();
+		int nwords = Dictionary.countWords();
+		if (indexTerms != nterms || indexWords != nwords) {
+			int[] index = new int[nterms];
+			for (int i = 0, j = 1; i < nterms; ++i)
+				index[i] = (Dictionary.isWord(i)) ? j++ : -1;
+			indexTerms = nterms;
+			indexWords = nwords;
+			indexCache = index;
+		}
+		return indexCache;
 	}
 	
-	public void addOuterScores(Terminal word, double z) {
-		addBasicOuterScores(word, z);
+	/**
+	 * Adds the outer score of a word generated from a word gap to the outer scores of the relevant
+	 * parameters.  Outer scores are accumulated in the given array, which is laid out in the same order
+	 * as the parameter vector (see <code>getWeightVector</code>).  The caller owns the array, so
+	 * different threads can accumulate outer scores concurrently using different arrays.
+	 * 
+	 * @param outers the outer scores of the parameters of this model, initially negative infinity.
+	 * @param word an NL word generated from a word gap.
+	 * @param z the outer score of the <code>word</code> argument.
+	 */
+	public void addOuterScores(double[] outers, Terminal word, double z) {
+		addBasicOuterScores(outers, word, z);
 	}
 	
-	protected void addBasicOuterScores(Terminal word, double z) {
-		defOuter = Math.logAdd(defOuter, z-defWeight);
-		Double o = (Double) wordOuters.get(word);
-		if (o == null) {
-			o = new Double(Double.NEGATIVE_INFINITY);
-			wordOuters.put(word, o);
-		}
-		o.val = Math.logAdd(o.val, z-wordWeight(word));
+	/**
+	 * Returns the positions in the parameter vector of the parameters whose outer scores may be updated
+	 * by <code>addOuterScores</code> for the given word.  The positions may include parameters that are
+	 * not actually updated.
+	 * 
+	 * @param word an NL word generated from a word gap.
+	 * @return the positions of the relevant parameters, in ascending order.
+	 */
+	public int[] getParams(Terminal word) {
+		return getBasicParams(word);
 	}
 	
-	public void resetOuterScores() {
-		resetBasicOuterScores();
+	protected int[] getBasicParams(Terminal word) {
+		int[] wordIndex = this.wordIndex;
+		int id = word.getId();
+		if (id < wordIndex.length && wordIndex[id] >= 0)
+			return new int[] {0, wordIndex[id]};
+		return new int[] {0};
 	}
 	
-	protected void resetBasicOuterScores() {
-		defOuter = Double.NEGATIVE_INFINITY;
-		wordOuters = new HashMap();
+	protected void addBasicOuterScores(double[] outers, Terminal word, double z) {
+		outers[0] = Math.logAdd(outers[0], z-defWeight);
+		int[] wordIndex = this.wordIndex;
+		int id = word.getId();
+		if (id < wordIndex.length && wordIndex[id] >= 0)
+			outers[wordIndex[id]] = Math.logAdd(outers[wordIndex[id]], z-wordWeight(word));
 	}
 	
 	///
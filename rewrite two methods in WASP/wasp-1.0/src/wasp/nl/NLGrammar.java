@@ -36,17 +36,32 @@ import wasp.util.Int;
 public class NLGrammar {
 
 	public Terminal[] tokenize(String str) {
-		Terminal.readWords = true;
+		return tokenize(str, false);
+	}
+	
+	/**
+	 * Tokenizes the specified NL sentence without adding new words to the dictionary.  Unknown words
+	 * are mapped to <code>Terminal.unknown()</code> (see <code>Terminal.readKnownWord</code>).
+	 * 
+	 * @param str an NL sentence.
+	 * @return the tokens of the given sentence, with a sentence boundary at both ends.
+	 */
+	public Terminal[] tokenizeKnown(String str) {
+		return tokenize(str, true);
+	}
+	
+	private Terminal[] tokenize(String str, boolean known) {
+		Terminal.setReadWords(true);
 		ArrayList list = new ArrayList();
 		list.add(Terminal.boundary());
 		StringTokenizer tokenizer = new StringTokenizer(str);
+		String last = null;
 		while (tokenizer.hasMoreTokens()) {
-			String token = tokenizer.nextToken();
-			list.add(Terminal.read(token));
+			last = tokenizer.nextToken();
+			list.add((known) ? Terminal.readKnownWord(last) : Terminal.read(last));
 		}
 		// remove punctuation at the end of a sentence
-		String last = list.get(list.size()-1).toString();
-		if (last.equals(".") || last.equals("?"))
+		if (last != null && (last.equals(".") || last.equals("?")))
 			list.remove(list.size()-1);
 		list.add(Terminal.boundary());
 		return (Terminal[]) list.toArray(new Terminal[0]);
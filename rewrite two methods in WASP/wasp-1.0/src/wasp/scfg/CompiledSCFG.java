@@ -0,0 +1,293 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import wasp.data.Nonterminal;
+import wasp.data.Symbol;
+import wasp.data.Terminal;
+import wasp.mrl.Production;
+import wasp.util.Int;
+
+/**
+ * The compiled, binary format of SCFG rules.  The textual <code>scfg-rules</code> file remains the
+ * interchange format; the compiled file is written alongside it, and is read back through a
+ * memory-mapped buffer, so that loading a grammar does not involve tokenizing and parsing every rule.
+ * <p>
+ * The file begins with a header: a magic number, the format version, the size and the last-modified
+ * time of the textual file that the compiled file corresponds to, the numbers of symbols,
+ * productions and rules, and the number of feature values of each rule.  Five tables follow:
+ * <ol>
+ * <li>The symbol table, which lists every distinct symbol that appears in the rules, as a flag that
+ * indicates if the symbol is on the NL side, followed by its textual representation in UTF-8.  Each
+ * symbol is interned into the <code>Dictionary</code> only once.</li>
+ * <li>The production table, which lists every distinct MRL production as its LHS and RHS symbols.</li>
+ * <li>The rule table, which lists every rule as its production, and its NL symbols, word gaps and MRL
+ * symbols.</li>
+ * <li>The rule weights.</li>
+ * <li>The feature values of all rules, in the same packed layout as they are stored in the
+ * <code>SCFG</code>.</li>
+ * </ol>
+ * Symbols and productions are referred to by their positions in their tables.
+ * 
+ * @author ywwong
+ *
+ */
+public class CompiledSCFG {
+	
+	private static final int MAGIC = 0x57415352;
+	private static final int VERSION = 3;
+	
+	private CompiledSCFG() {}
+	
+	/**
+	 * Symbol tables used for writing compiled grammars.
+	 */
+	private static class SymbolTable {
+		private HashMap ids = new HashMap();
+		private ArrayList tokens = new ArrayList();
+		private ArrayList sides = new ArrayList();
+		public int getId(Symbol sym, boolean nl) {
+			String token = sym.toString();
+			String key = ((nl) ? "E " : "F ")+token;
+			Int id = (Int) ids.get(key);
+			if (id == null) {
+				id = new Int(tokens.size());
+				ids.put(key, id);
+				tokens.add(token);
+				sides.add(Boolean.valueOf(nl));
+			}
+			return id.val;
+		}
+		public void write(DataOutputStream out) throws IOException {
+			for (int i = 0; i < tokens.size(); ++i) {
+				out.writeBoolean(((Boolean) sides.get(i)).booleanValue());
+				byte[] bytes = ((String) tokens.get(i)).getBytes("UTF-8");
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+		public int size() {
+			return tokens.size();
+		}
+	}
+	
+	/**
+	 * Writes the specified rules to a compiled file.  Like the textual file, the compiled file does not
+	 * record which rules are initial rules.
+	 * 
+	 * @param gram the grammar that contains the rules.
+	 * @param rules the rules to write.
+	 * @param file the compiled file.
+	 * @param text the textual file that contains the same rules.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void write(SCFG gram, Rule[] rules, File file, File text) throws IOException {
+		SymbolTable syms = new SymbolTable();
+		HashMap prodIds = new HashMap();
+		ArrayList prods = new ArrayList();
+		int[] prodOf = new int[rules.length];
+		for (int i = 0; i < rules.length; ++i) {
+			Production prod = rules[i].getProduction();
+			Int id = (Int) prodIds.get(prod);
+			if (id == null) {
+				id = new Int(prods.size());
+				prodIds.put(prod, id);
+				prods.add(prod);
+			}
+			prodOf[i] = id.val;
+		}
+		// symbols are numbered in the order in which they first appear in the textual file, so that
+		// they are added to the dictionary in the same order as when the textual file is read
+		int[][] ruleE = new int[rules.length][];
+		int[][] ruleF = new int[rules.length][];
+		for (int i = 0; i < rules.length; ++i) {
+			syms.getId(new Nonterminal(rules[i].getLhs()), false);
+			ruleE[i] = new int[rules[i].lengthE()];
+			for (short j = 0; j < ruleE[i].length; ++j)
+				ruleE[i][j] = syms.getId(rules[i].getE(j), true);
+			ruleF[i] = new int[rules[i].lengthF()];
+			for (short j = 0; j < ruleF[i].length; ++j)
+				ruleF[i][j] = syms.getId(rules[i].getF(j), false);
+		}
+		int[][] prodSyms = new int[prods.size()][];
+		for (int i = 0; i < prodSyms.length; ++i) {
+			Production prod = (Production) prods.get(i);
+			prodSyms[i] = new int[prod.length()+1];
+			prodSyms[i][0] = syms.getId(new Nonterminal(prod.getLhs()), false);
+			for (short j = 0; j < prod.length(); ++j)
+				prodSyms[i][j+1] = syms.getId(prod.getRhs(j), false);
+		}
+		
+		File tmp = new File(file.getPath()+".tmp");
+		DataOutputStream out =
+			new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(text.length());
+		out.writeLong(text.lastModified());
+		out.writeInt(syms.size());
+		out.writeInt(prods.size());
+		out.writeInt(rules.length);
+		out.writeInt(gram.countFeatures());
+		syms.write(out);
+		for (int i = 0; i < prodSyms.length; ++i) {
+			out.writeInt(prodSyms[i].length-1);
+			for (int j = 0; j < prodSyms[i].length; ++j)
+				out.writeInt(prodSyms[i][j]);
+		}
+		for (int i = 0; i < rules.length; ++i) {
+			out.writeInt(prodOf[i]);
+			out.writeInt(ruleE[i].length);
+			for (short j = 0; j < ruleE[i].length; ++j) {
+				out.writeInt(ruleE[i][j]);
+				out.writeShort(rules[i].getGap(j));
+			}
+			out.writeInt(ruleF[i].length);
+			for (int j = 0; j < ruleF[i].length; ++j)
+				out.writeInt(ruleF[i][j]);
+		}
+		for (int i = 0; i < rules.length; ++i)
+			out.writeDouble(rules[i].getWeight());
+		if (gram.countFeatures() > 0)
+			for (int i = 0; i < rules.length; ++i) {
+				double[] features = gram.getFeatures(gram.getId(rules[i]));
+				for (int j = 0; j < features.length; ++j)
+					out.writeDouble(features[j]);
+			}
+		out.close();
+		file.delete();
+		if (!tmp.renameTo(file))
+			throw new IOException("cannot rename "+tmp+" to "+file);
+	}
+	
+	/**
+	 * Indicates if the specified compiled file is up to date with respect to the specified textual
+	 * file.  A compiled file is up to date if it was written along with the textual file, and the
+	 * textual file has not changed since.  It is also considered up to date if the textual file does
+	 * not exist.
+	 * 
+	 * @param file the compiled file.
+	 * @param text the textual file.
+	 * @return <code>true</code> if the compiled file exists and is up to date; <code>false</code>
+	 * otherwise.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static boolean isCurrent(File file, File text) throws IOException {
+		if (!file.exists())
+			return false;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() < 24 || raf.readInt() != MAGIC || raf.readInt() != VERSION)
+				return false;
+			long length = raf.readLong();
+			long lastModified = raf.readLong();
+			return !text.exists() || (text.length() == length && text.lastModified() == lastModified);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	/**
+	 * Reads the rules in the specified compiled file, and adds them to the specified grammar.
+	 * 
+	 * @param gram the grammar to which the rules are added.
+	 * @param file the compiled file.
+	 * @throws IOException if an I/O error occurs, or if the file is not a compiled grammar.
+	 */
+	public static void read(SCFG gram, File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		ByteBuffer in;
+		try {
+			FileChannel channel = raf.getChannel();
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+		if (in.getInt() != MAGIC || in.getInt() != VERSION)
+			throw new IOException("not a compiled grammar: "+file);
+		in.getLong();
+		in.getLong();
+		int nsyms = in.getInt();
+		int nprods = in.getInt();
+		int nrules = in.getInt();
+		int nfeatures = in.getInt();
+		
+		Symbol[] syms = new Symbol[nsyms];
+		boolean words = Terminal.isReadWords();
+		try {
+			for (int i = 0; i < nsyms; ++i) {
+				boolean nl = in.get() != 0;
+				byte[] bytes = new byte[in.getInt()];
+				in.get(bytes);
+				Terminal.setReadWords(nl);
+				syms[i] = Symbol.read(new String(bytes, "UTF-8"));
+				if (syms[i] == null)
+					throw new IOException("invalid symbol in compiled grammar: "+file);
+			}
+		} finally {
+			Terminal.setReadWords(words);
+		}
+		Production[] prods = new Production[nprods];
+		for (int i = 0; i < nprods; ++i) {
+			Symbol[] rhs = new Symbol[in.getInt()];
+			int lhs = syms[in.getInt()].getId();
+			for (int j = 0; j < rhs.length; ++j)
+				rhs[j] = (Symbol) syms[in.getInt()].copy();
+			prods[i] = new Production(lhs, rhs).intern();
+		}
+		Rule[] rules = new Rule[nrules];
+		for (int i = 0; i < nrules; ++i) {
+			Production prod = prods[in.getInt()];
+			Symbol[] E = new Symbol[in.getInt()];
+			short[] gaps = new short[E.length];
+			for (int j = 0; j < E.length; ++j) {
+				E[j] = (Symbol) syms[in.getInt()].copy();
+				gaps[j] = in.getShort();
+			}
+			Symbol[] F = new Symbol[in.getInt()];
+			for (int j = 0; j < F.length; ++j)
+				F[j] = (Symbol) syms[in.getInt()].copy();
+			rules[i] = new Rule(prod, E, gaps, F, false);
+		}
+		for (int i = 0; i < nrules; ++i)
+			rules[i].setWeight(in.getDouble());
+		for (int i = 0; i < nrules; ++i) {
+			double[] features = null;
+			if (nfeatures > 0) {
+				features = new double[nfeatures];
+				for (int j = 0; j < nfeatures; ++j)
+					features[j] = in.getDouble();
+			}
+			gram.addRule(rules[i], features);
+		}
+	}
+	
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg;
+
+/**
+ * A read-only view of an SCFG that only contains the rules that can possibly be used for parsing a
+ * particular NL sentence.  Filtered views are created using the <code>SCFG.filter</code> method.
+ * Except for <code>getRules(lhs)</code>, all methods are delegated to the underlying grammar, so
+ * rule IDs, ties and left-corner relations are the same as in the underlying grammar.  Methods that
+ * modify the grammar throw an <code>UnsupportedOperationException</code>.
+ * 
+ * @author ywwong
+ *
+ */
+public class FilteredSCFG extends SCFG {
+	
+	private SCFG gram;
+	private Rule[][] byLhs;
+	
+	FilteredSCFG(SCFG gram, Rule[][] byLhs) {
+		this.gram = gram;
+		this.byLhs = byLhs;
+	}
+	
+	/**
+	 * Returns the grammar that this view is based on.
+	 * 
+	 * @return the underlying grammar of this view.
+	 */
+	public SCFG getGrammar() {
+		return gram;
+	}
+	
+	/**
+	 * Returns an array containing all rules with the specified LHS nonterminal that can possibly be
+	 * used for parsing the sentence.  Rules are in the same order as in the underlying grammar.
+	 * 
+	 * @param lhs the ID of an LHS nonterminal.
+	 * @return an array containing all rules in this view with the specified LHS nonterminal.
+	 */
+	public Rule[] getRules(int lhs) {
+		return byLhs[lhs];
+	}
+	
+	/**
+	 * Returns the number of rules with the specified LHS nonterminal that are in the underlying grammar
+	 * but not in this view.
+	 * 
+	 * @param lhs the ID of an LHS nonterminal.
+	 * @return the number of rules with the specified LHS nonterminal that have been filtered out.
+	 */
+	public int countFiltered(int lhs) {
+		return gram.getRules(lhs).length-byLhs[lhs].length;
+	}
+	
+	public Rule[] getRules() {
+		return gram.getRules();
+	}
+	
+	public int countRules() {
+		return gram.countRules();
+	}
+	
+	public int countInitRules() {
+		return gram.countInitRules();
+	}
+	
+	public int getId(Rule rule) {
+		return gram.getId(rule);
+	}
+	
+	public Rule getRule(int id) {
+		return gram.getRule(id);
+	}
+	
+	public boolean containsRule(Rule rule) {
+		return gram.containsRule(rule);
+	}
+	
+	public Rule intern(Rule rule) {
+		return gram.intern(rule);
+	}
+	
+	public Rule tied(Rule rule) {
+		return gram.tied(rule);
+	}
+	
+	public int getTiedId(int id) {
+		return gram.getTiedId(id);
+	}
+	
+	public void addTie(Rule rule, Rule tied) {
+		throw new UnsupportedOperationException();
+	}
+	
+	public boolean addRule(Rule rule) {
+		throw new UnsupportedOperationException();
+	}
+	
+	public int countFeatures() {
+		return gram.countFeatures();
+	}
+	
+	public double[] getFeatures(int id) {
+		return gram.getFeatures(id);
+	}
+	
+	public void setFeatures(int id, double[] values) {
+		throw new UnsupportedOperationException();
+	}
+	
+	public double[] getFeatureWeights() {
+		return gram.getFeatureWeights();
+	}
+	
+	public void setFeatureWeights(double[] weights) {
+		throw new UnsupportedOperationException();
+	}
+	
+	public boolean isLeftCornerForE(int n1, int n2) {
+		return gram.isLeftCornerForE(n1, n2);
+	}
+	
+	public boolean isLeftCornerForF(int n1, int n2) {
+		return gram.isLeftCornerForF(n1, n2);
+	}
+	
+	public void prepare() {
+		gram.prepare();
+	}
+	
+	public void readInit() {
+		throw new UnsupportedOperationException();
+	}
+	
+	public void read() {
+		throw new UnsupportedOperationException();
+	}
+	
+	public void write() {
+		throw new UnsupportedOperationException();
+	}
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+import wasp.data.Dictionary;
+import wasp.data.Nonterminal;
+import wasp.data.Symbol;
+import wasp.data.Terminal;
+import wasp.main.Config;
+import wasp.util.Double;
+import wasp.util.TokenReader;
+
+/**
+ * Reads grammars extracted by Hiero-style rule extractors (e.g. Thrax and Joshua), and adds their rules
+ * to an SCFG.  Each line of such a grammar is a rule of the following form:
+ * <p>
+ * <blockquote><code>[X] ||| <u>source</u> ||| <u>target</u> ||| <u>features</u> |||
+ * <u>alignment</u></code></blockquote>
+ * <p>
+ * The source side is the NL side of the rule, and the target side is the MRL side.  Nonterminals are
+ * written as <code>[X]</code> on the LHS and <code>[X,<i>n</i>]</code> on the RHS, and are mapped to
+ * <code>Nonterminal</code>s with index <i>n</i>.  All nonterminal labels must be nonterminals of the
+ * MRL grammar.  The features are kept as the feature values of the rule (see
+ * <code>SCFG.getFeatures</code>); they can be plain numbers or <code><u>name</u>=<u>value</u></code>
+ * pairs, in which case only the values are kept.  The feature and alignment fields are optional, and
+ * the alignment is not used.
+ * <p>
+ * Grammars are read one line at a time, and may be compressed with gzip.  Rules are added to the SCFG
+ * as soon as they are read, so duplicate rules are dropped by the SCFG itself, and the first copy of a
+ * rule determines its feature values.
+ * 
+ * @author ywwong
+ *
+ */
+public class HieroImporter {
+	
+	private static Logger logger = Logger.getLogger(HieroImporter.class.getName());
+	
+	private static final String SEPARATOR = "|||";
+	
+	private SCFG gram;
+	/** The ID of the nonterminal that rules with nonterminals on the RHS are re-written as;
+	 * <code>-1</code> if the LHS of every rule is kept as is. */
+	private int root;
+	
+	private int nlines;
+	private int nadded;
+	private int nduplicates;
+	
+	/**
+	 * Creates an importer that adds rules to the specified SCFG.
+	 * 
+	 * @param gram an SCFG.
+	 */
+	public HieroImporter(SCFG gram) {
+		this.gram = gram;
+		root = -1;
+		nlines = 0;
+		nadded = 0;
+		nduplicates = 0;
+	}
+	
+	/**
+	 * Specifies a nonterminal that rules with nonterminals on the RHS are re-written as.  The NL side of
+	 * such rules is enclosed by sentence boundaries, so that these rules cover whole sentences.  This is
+	 * useful for grammars in which every nonterminal is <code>[X]</code>, since the start symbol of the
+	 * MRL grammar is otherwise unreachable.  Rules without nonterminals on the RHS are kept as is.
+	 * 
+	 * @param root the name of a nonterminal; <code>null</code> if the LHS of every rule is to be kept
+	 * as is.
+	 */
+	public void setRoot(String root) {
+		this.root = (root==null) ? -1 : getNonterm(root);
+	}
+	
+	/**
+	 * Reads the rules in the specified grammar file, and adds them to the SCFG of this importer.  The
+	 * file can be compressed with gzip.
+	 * 
+	 * @param file a grammar file.
+	 * @throws IOException if an I/O error occurs.
+	 * @throws RuntimeException if the file contains something that is not a valid rule.
+	 */
+	public void read(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		in.mark(2);
+		int b1 = in.read();
+		int b2 = in.read();
+		in.reset();
+		if (b1 == 0x1f && b2 == 0x8b)
+			in = new GZIPInputStream(in);
+		TokenReader reader = new TokenReader(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+		String[] line;
+		while ((line = reader.readLine()) != null) {
+			++nlines;
+			if (line.length == 0)
+				continue;
+			String[][] fields = split(line);
+			if (gram.addRule(readRule(fields), readFeatures(fields)))
+				++nadded;
+			else
+				++nduplicates;
+		}
+		reader.close();
+		logger.info("imported "+nadded+" rules from "+file+" ("+nduplicates+" duplicates dropped)");
+	}
+	
+	private Rule readRule(String[][] fields) {
+		if (fields.length < 3 || fields[0].length != 1)
+			throw new RuntimeException("invalid rule at line "+nlines+" of the grammar");
+		int lhs = getNonterm(getLabel(fields[0][0]));
+		Symbol[] E = readSymbols(fields[1], true);
+		Symbol[] F = readSymbols(fields[2], false);
+		if (root >= 0 && hasNonterms(E)) {
+			Symbol[] bounded = new Symbol[E.length+2];
+			bounded[0] = Terminal.boundary();
+			System.arraycopy(E, 0, bounded, 1, E.length);
+			bounded[E.length+1] = Terminal.boundary();
+			E = bounded;
+			lhs = root;
+		}
+		return new Rule(lhs, E, new short[E.length], F, false);
+	}
+	
+	private double[] readFeatures(String[][] fields) {
+		if (fields.length < 4)
+			return null;
+		double[] features = new double[fields[3].length];
+		for (int i = 0; i < features.length; ++i) {
+			String f = fields[3][i];
+			features[i] = Double.parseDouble(f.substring(f.indexOf('=')+1));
+		}
+		return features;
+	}
+	
+	/**
+	 * Splits a tokenized line into fields separated by <code>|||</code>.
+	 */
+	private static String[][] split(String[] line) {
+		ArrayList fields = new ArrayList();
+		int start = 0;
+		for (int i = 0; i <= line.length; ++i)
+			if (i == line.length || line[i].equals(SEPARATOR)) {
+				String[] field = new String[i-start];
+				System.arraycopy(line, start, field, 0, field.length);
+				fields.add(field);
+				start = i+1;
+			}
+		return (String[][]) fields.toArray(new String[0][]);
+	}
+	
+	private Symbol[] readSymbols(String[] tokens, boolean words) {
+		Symbol[] syms = new Symbol[tokens.length];
+		for (int i = 0; i < tokens.length; ++i) {
+			String token = tokens[i];
+			if (token.length() > 2 && token.charAt(0) == '[' && token.charAt(token.length()-1) == ']') {
+				int comma = token.lastIndexOf(',');
+				if (comma < 0)
+					throw new RuntimeException("unindexed nonterminal at line "+nlines+" of the grammar");
+				syms[i] = new Nonterminal(getNonterm(token.substring(1, comma)));
+				syms[i].setIndex(Short.parseShort(token.substring(comma+1, token.length()-1)));
+			} else
+				syms[i] = new Terminal(token, words);
+		}
+		return syms;
+	}
+	
+	private static boolean hasNonterms(Symbol[] syms) {
+		for (int i = 0; i < syms.length; ++i)
+			if (syms[i] instanceof Nonterminal)
+				return true;
+		return false;
+	}
+	
+	private String getLabel(String token) {
+		if (token.length() < 3 || token.charAt(0) != '[' || token.charAt(token.length()-1) != ']')
+			throw new RuntimeException("invalid LHS at line "+nlines+" of the grammar");
+		return token.substring(1, token.length()-1);
+	}
+	
+	/**
+	 * Returns the ID of the specified nonterminal, which must be a nonterminal of the MRL grammar.
+	 */
+	private int getNonterm(String label) {
+		int id = Dictionary.nonterm(label);
+		if (id >= gram.countNonterms())
+			throw new RuntimeException("nonterminal "+label+" is not in the MRL grammar");
+		return id;
+	}
+	
+	/**
+	 * Returns the number of lines read so far.
+	 * 
+	 * @return the number of lines read so far.
+	 */
+	public int countLines() {
+		return nlines;
+	}
+	
+	/**
+	 * Returns the number of rules added to the SCFG so far.
+	 * 
+	 * @return the number of rules added to the SCFG so far.
+	 */
+	public int countAdded() {
+		return nadded;
+	}
+	
+	/**
+	 * Returns the number of rules dropped so far because they are already in the SCFG.
+	 * 
+	 * @return the number of duplicate rules dropped so far.
+	 */
+	public int countDuplicates() {
+		return nduplicates;
+	}
+	
+	/**
+	 * The main program for importing Hiero-style grammars.  This program takes the following
+	 * command-line arguments:
+	 * <p>
+	 * <blockquote><code><b>java wasp.scfg.HieroImporter</b> <u>config-file</u> <u>model-dir</u>
+	 * <u>grammar-file</u> [<b>-root</b> <u>nonterm</u>] [<b>-append</b>]</code></blockquote>
+	 * <p>
+	 * <ul>
+	 * <li><code><u>config-file</u></code> - the configuration file that contains the current
+	 * settings.</li>
+	 * <li><code><u>model-dir</u></code> - the directory in which the <code>scfg-rules</code> file is
+	 * written.</li>
+	 * <li><code><u>grammar-file</u></code> - the grammar to import, which can be compressed with
+	 * gzip.</li>
+	 * <li><code><b>-root</b> <u>nonterm</u></code> - re-write rules with nonterminals on the RHS as
+	 * rules for the specified nonterminal (e.g. <code>Query</code>) that cover whole sentences.</li>
+	 * <li><code><b>-append</b></code> - add the imported rules to the existing rules in the model
+	 * directory, instead of replacing them.</li>
+	 * </ul>
+	 * 
+	 * @param args the command-line arguments.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: java wasp.scfg.HieroImporter config-file model-dir grammar-file [-root nonterm] [-append]");
+			System.err.println();
+			System.err.println("config-file - the configuration file that contains the current settings.");
+			System.err.println("model-dir - the directory in which the scfg-rules file is written.");
+			System.err.println("grammar-file - the grammar to import, which can be compressed with gzip.");
+			System.err.println("-root nonterm - re-write rules with nonterminals on the RHS as rules for nonterm.");
+			System.err.println("-append - add the imported rules to the existing rules in model-dir.");
+			System.exit(1);
+		}
+		Config.read(args[0]);
+		Config.setModelDir(args[1]);
+		SCFG gram = new SCFG();
+		HieroImporter importer = new HieroImporter(gram);
+		for (int i = 3; i < args.length; ++i)
+			if (args[i].equals("-root") && i+1 < args.length)
+				importer.setRoot(args[++i]);
+			else if (args[i].equals("-append"))
+				gram.read();
+		importer.read(new File(args[2]));
+		gram.write();
+	}
+	
+}
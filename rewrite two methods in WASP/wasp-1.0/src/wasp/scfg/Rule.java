@@ -24,11 +24,10 @@ import java.util.ArrayList;
 import wasp.data.Nonterminal;
 import wasp.data.Symbol;
 import wasp.data.Terminal;
-import wasp.math.Math;
 import wasp.mrl.Production;
 import wasp.util.Arrays;
-import wasp.util.Double;
 import wasp.util.Int;
+import wasp.util.IntKey;
 import wasp.util.Short;
 
 /**
@@ -55,11 +54,16 @@ public class Rule {
 	private boolean active;
 	/** The weight of this rule in a log-linear model. */
 	private double weight;
-	/** The outer score of this rule. */
-	private double outer;
+	/** The weighted sum of the feature values of this rule (see <code>SCFG.setFeatureWeights</code>). */
+	private double featureScore;
+	/** The score of this rule, which is its weight plus the weighted sum of its feature values. */
+	private double score;
 
 	/** The number of non-zero word gaps in this rule. */
 	private short ngaps;
+	/** The interned canonical integer encoding of this rule (see <code>getKey</code>).  Equal rules
+	 * share the same key object, so rules are compared by reference to their keys. */
+	private IntKey key;
 	/** Hash code of this rule. */
 	private int hash;
 	
@@ -86,7 +90,8 @@ public class Rule {
 		this.init = init;
 		active = true;
 		weight = 0;
-		outer = Double.NEGATIVE_INFINITY;
+		featureScore = 0;
+		score = 0;
 		init();
 	}
 
@@ -110,7 +115,32 @@ public class Rule {
 		this.init = init;
 		active = true;
 		weight = 0;
-		outer = Double.NEGATIVE_INFINITY;
+		featureScore = 0;
+		score = 0;
+		init();
+	}
+	
+	/**
+	 * Creates a new SCFG rule with the specified arguments.  This is used for reading compiled
+	 * grammars, where the corresponding MRL production has already been found.
+	 * 
+	 * @param prod an interned copy of the corresponding MRL production.
+	 * @param E the NL string on the RHS.
+	 * @param gaps size of word gaps to the right of each NL symbol.
+	 * @param F the MRL string on the RHS.
+	 * @param init indicates if this rule is an initial rule.
+	 */
+	public Rule(Production prod, Symbol[] E, short[] gaps, Symbol[] F, boolean init) {
+		lhs = prod.getLhs();
+		this.E = E;
+		this.gaps = gaps;
+		this.F = F;
+		this.prod = prod;
+		this.init = init;
+		active = true;
+		weight = 0;
+		featureScore = 0;
+		score = 0;
 		init();
 	}
 	
@@ -132,7 +162,8 @@ public class Rule {
 		init = false;
 		active = true;
 		weight = 0;
-		outer = Double.NEGATIVE_INFINITY;
+		featureScore = 0;
+		score = 0;
 		init();
 	}
 
@@ -159,7 +190,8 @@ public class Rule {
 		init = false;
 		active = true;
 		weight = 0;
-		outer = Double.NEGATIVE_INFINITY;
+		featureScore = 0;
+		score = 0;
 		init();
 	}
 	
@@ -168,6 +200,22 @@ public class Rule {
 		for (short i = 0; i < gaps.length; ++i)
 			if (gaps[i] > 0)
 				++ngaps;
+		int[] key = new int[2+4*E.length+3*F.length];
+		int k = 0;
+		key[k++] = lhs;
+		key[k++] = E.length;
+		for (short i = 0; i < E.length; ++i) {
+			key[k++] = E[i].getType();
+			key[k++] = E[i].getId();
+			key[k++] = E[i].getIndex();
+			key[k++] = gaps[i];
+		}
+		for (short i = 0; i < F.length; ++i) {
+			key[k++] = F[i].getType();
+			key[k++] = F[i].getId();
+			key[k++] = F[i].getIndex();
+		}
+		this.key = IntKey.intern(key);
 		hash = 1;
 		hash = 31*hash + lhs;
 		hash = 31*hash + Arrays.hashCode(E);
@@ -180,8 +228,7 @@ public class Rule {
 			return true;
 		if (o instanceof Rule) {
 			Rule r = (Rule) o;
-			return lhs == r.lhs && Arrays.equal(E, r.E) && Arrays.equal(gaps, r.gaps) 
-			&& Arrays.equal(F, r.F);
+			return key == r.key;
 		}
 		return false;
 	}
@@ -190,6 +237,20 @@ public class Rule {
 		return hash;
 	}
 	
+	/**
+	 * Returns the canonical integer encoding of this rule.  The encoding consists of the LHS 
+	 * nonterminal, the length of the NL string, the type code, ID, index and word gap of each NL 
+	 * symbol, and the type code, ID and index of each MRL symbol (see <code>Symbol.getType</code>).  
+	 * Two rules are equal if and only if their encodings are equal.  Encodings are interned through 
+	 * <code>IntKey</code>, so rules can be compared without comparing their symbols one by one.  The
+	 * returned array must not be modified.
+	 * 
+	 * @return the canonical integer encoding of this rule.
+	 */
+	public int[] getKey() {
+		return key.toArray();
+	}
+	
 	/**
 	 * Returns the ID of the LHS nonterminal of this rule.  <code>-1</code> is returned if this is a 
 	 * dummy rule.
@@ -307,6 +368,39 @@ public class Rule {
 	 */
 	public void setWeight(double weight) {
 		this.weight = weight;
+		score = weight+featureScore;
+	}
+	
+	/**
+	 * Returns the score of this rule, which is its weight plus the weighted sum of its feature values
+	 * (see <code>SCFG.setFeatureWeights</code>).  The score is updated whenever the weight or the
+	 * feature weights change, so that parsers do not need to compute it.
+	 * 
+	 * @return the score of this rule.
+	 */
+	public double getScore() {
+		return score;
+	}
+	
+	/**
+	 * Returns the weighted sum of the feature values of this rule (see 
+	 * <code>SCFG.setFeatureWeights</code>).
+	 * 
+	 * @return the weighted sum of the feature values of this rule.
+	 */
+	public double getFeatureScore() {
+		return featureScore;
+	}
+	
+	/**
+	 * Assigns the weighted sum of the feature values to this rule.  This is called by the grammar that
+	 * stores the feature values.
+	 * 
+	 * @param featureScore the weighted sum of the feature values of this rule.
+	 */
+	void setFeatureScore(double featureScore) {
+		this.featureScore = featureScore;
+		score = weight+featureScore;
 	}
 	
 	/**
@@ -350,22 +444,6 @@ public class Rule {
 		return prod.getPath((short) (index-1));
 	}
 
-	///
-	/// Parameter estimation
-	///
-	
-	public double getOuterScore() {
-		return outer;
-	}
-	
-	public void addOuterScore(double z) {
-		outer = Math.logAdd(outer, z);
-	}
-	
-	public void resetOuterScore() {
-		outer = Double.NEGATIVE_INFINITY;
-	}
-	
 	///
 	/// Textual representations
 	///
@@ -394,8 +472,27 @@ public class Rule {
 		return sb.toString();
 	}
 	
-	/** Indicates if all rules subsequently read by the <code>read</code> method are initial rules. */
-	public static boolean readInit = false;
+	/** Indicates if all rules subsequently read by the <code>read</code> method are initial rules.  Each
+	 * thread has its own flag. */
+	private static ThreadLocal readInit = new ThreadLocal() {
+		protected Object initialValue() {
+			return Boolean.FALSE;
+		}
+	};
+	
+	/**
+	 * Specifies whether all rules subsequently read by the <code>read</code> method in the current
+	 * thread are initial rules.
+	 * 
+	 * @param init indicates if rules subsequently read are initial rules.
+	 */
+	public static void setReadInit(boolean init) {
+		readInit.set(Boolean.valueOf(init));
+	}
+	
+	public static boolean isReadInit() {
+		return ((Boolean) readInit.get()).booleanValue();
+	}
 
 	/**
 	 * Returns an SCFG rule that part of the given line of text represents.  Beginning with the token 
@@ -422,7 +519,7 @@ public class Rule {
 		++i;
 		if (i == line.length || !line[i].equals("({"))
 			return null;
-		Terminal.readWords = true;
+		Terminal.setReadWords(true);
 		ArrayList list1 = new ArrayList();
 		ArrayList list2 = new ArrayList();
 		for (++i; i < line.length && !line[i].equals("})({"); ++i)
@@ -436,7 +533,7 @@ public class Rule {
 				list1.add(sym);
 				list2.add(new Short(0));
 			}
-		Terminal.readWords = false;
+		Terminal.setReadWords(false);
 		ArrayList list3 = new ArrayList();
 		for (++i; i < line.length && !line[i].equals("})"); ++i) {
 			Symbol sym = Symbol.read(line[i]);
@@ -450,7 +547,7 @@ public class Rule {
 		short[] gaps = Arrays.toShortArray(list2);
 		Symbol[] F = (Symbol[]) list3.toArray(new Symbol[0]);
 		index.val = i+1;
-		return new Rule(lhs.getId(), E, gaps, F, readInit);
+		return new Rule(lhs.getId(), E, gaps, F, isReadInit());
 	}
 	
 }
@@ -81,7 +81,7 @@ public class RuleSymbol extends Symbol {
 	public static Symbol read(String token) {
 		if (!token.startsWith("*r:"))
 			return null;
-		Rule.readInit = false;
+		Rule.setReadInit(false);
 		StringBuffer sb = new StringBuffer();
 		for (int i = 3; i < token.length(); ++i) {
 			char c = token.charAt(i);
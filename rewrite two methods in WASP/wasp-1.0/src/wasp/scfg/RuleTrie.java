@@ -0,0 +1,305 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg;
+
+import wasp.data.Nonterminal;
+import wasp.data.Symbol;
+import wasp.data.Terminal;
+import wasp.util.Arrays;
+
+/**
+ * A prefix trie over the NL sides of the rules in an SCFG.  There is one trie for each LHS
+ * nonterminal.  Each edge is labeled with an NL symbol and the word gap that follows it, so a path
+ * from the root to a state spells out a common prefix of <code>Rule.getE()</code> shared by all rules
+ * that go through the state.  Each rule ends at the state reached by its entire NL side.
+ * <p>
+ * Symbols are matched by type and ID only.  Indices of nonterminals are ignored, since they only
+ * matter when the MR side of a particular rule is built.
+ * 
+ * @author ywwong
+ *
+ */
+public class RuleTrie {
+	
+	private static final int INC = 4;
+	
+	/**
+	 * States of a rule trie.
+	 */
+	public static class State {
+		/** The ID of this state, which is unique within a trie. */
+		public int id;
+		/** The LHS nonterminal of all rules that go through this state. */
+		public int lhs;
+		/** The number of NL symbols on the path from the root to this state. */
+		public short depth;
+		private int nedges;
+		private Symbol[] syms;
+		private short[] gaps;
+		private State[] next;
+		private int nrules;
+		private Rule[] rules;
+		private int[] indices;
+		/** Outgoing edges labeled with nonterminals. */
+		private int[] ntEdges;
+		/** Outgoing edges labeled with wildcards. */
+		private int[] wildEdges;
+		/** Outgoing edges labeled with other terminals, sorted by terminal ID. */
+		private int[] termEdges;
+		/** IDs of the terminals on the edges in <code>termEdges</code>. */
+		private int[] termIds;
+	
+		private State(int id, int lhs, short depth) {
+			this.id = id;
+			this.lhs = lhs;
+			this.depth = depth;
+			nedges = 0;
+			syms = null;
+			gaps = null;
+			next = null;
+			nrules = 0;
+			rules = null;
+			indices = null;
+		}
+	
+		public int countEdges() {
+			return nedges;
+		}
+	
+		/**
+		 * Returns the NL symbol on the specified outgoing edge.
+		 */
+		public Symbol getSymbol(int i) {
+			return syms[i];
+		}
+	
+		/**
+		 * Returns the maximum number of words that can be skipped after the NL symbol on the specified
+		 * outgoing edge.
+		 */
+		public short getGap(int i) {
+			return gaps[i];
+		}
+	
+		/**
+		 * Returns the state at the end of the specified outgoing edge.
+		 */
+		public State getNext(int i) {
+			return next[i];
+		}
+	
+		/**
+		 * Returns the number of rules that end at this state.
+		 */
+		public int countRules() {
+			return nrules;
+		}
+	
+		/**
+		 * Returns the specified rule that ends at this state.
+		 */
+		public Rule getRule(int i) {
+			return rules[i];
+		}
+	
+		/**
+		 * Returns the position of the specified rule that ends at this state in the array returned by
+		 * <code>SCFG.getRules(lhs)</code>.
+		 */
+		public int getRuleIndex(int i) {
+			return indices[i];
+		}
+	
+		private State findOrAdd(Symbol sym, short gap, RuleTrie trie) {
+			boolean nt = sym instanceof Nonterminal;
+			for (int i = 0; i < nedges; ++i)
+				if (gaps[i] == gap && syms[i].getId() == sym.getId()
+						&& (syms[i] instanceof Nonterminal) == nt)
+					return next[i];
+			if (nedges == 0) {
+				syms = new Symbol[INC];
+				gaps = new short[INC];
+				next = new State[INC];
+			} else if (nedges == syms.length) {
+				syms = (Symbol[]) Arrays.resize(syms, 2*nedges);
+				gaps = Arrays.resize(gaps, 2*nedges);
+				next = (State[]) Arrays.resize(next, 2*nedges);
+			}
+			syms[nedges] = sym;
+			gaps[nedges] = gap;
+			next[nedges] = new State(trie.nstates++, lhs, (short) (depth+1));
+			return next[nedges++];
+		}
+	
+		/**
+		 * Returns the number of outgoing edges labeled with nonterminals.
+		 */
+		public int countNontermEdges() {
+			return ntEdges.length;
+		}
+		
+		/**
+		 * Returns the index of the specified outgoing edge labeled with a nonterminal.
+		 */
+		public int getNontermEdge(int i) {
+			return ntEdges[i];
+		}
+		
+		/**
+		 * Returns the number of outgoing edges labeled with wildcards.
+		 */
+		public int countWildcardEdges() {
+			return wildEdges.length;
+		}
+		
+		/**
+		 * Returns the index of the specified outgoing edge labeled with a wildcard.
+		 */
+		public int getWildcardEdge(int i) {
+			return wildEdges[i];
+		}
+		
+		/**
+		 * Returns the position of the first outgoing edge labeled with the specified terminal, among
+		 * edges labeled with terminals other than wildcards.  Edges with the same label are found at
+		 * consecutive positions.  Use <code>getTerminalEdge</code> to get the index of the edge at each
+		 * position.
+		 * 
+		 * @param word a terminal that is not a wildcard.
+		 * @return the position of the first outgoing edge labeled with the <code>word</code> argument;
+		 * <code>-1</code> if there is no such edge.
+		 */
+		public int findTerminalEdge(Terminal word) {
+			int id = word.getId();
+			int i = java.util.Arrays.binarySearch(termIds, id);
+			if (i < 0)
+				return -1;
+			while (i > 0 && termIds[i-1] == id)
+				--i;
+			return i;
+		}
+		
+		/**
+		 * Returns the index of the outgoing edge at the specified position among edges labeled with
+		 * terminals other than wildcards.  <code>-1</code> is returned if the edge at this position is
+		 * not labeled with the specified terminal, or if there is no such position.
+		 */
+		public int getTerminalEdge(int i, Terminal word) {
+			return (i < termIds.length && termIds[i] == word.getId()) ? termEdges[i] : -1;
+		}
+		
+		/**
+		 * Sorts the outgoing edges of this state and its descendants by their labels.
+		 */
+		private void sortEdges() {
+			int nnt = 0, nwild = 0, nterm = 0;
+			for (int i = 0; i < nedges; ++i)
+				if (syms[i] instanceof Nonterminal)
+					++nnt;
+				else if (((Terminal) syms[i]).isWildcard())
+					++nwild;
+				else
+					++nterm;
+			ntEdges = new int[nnt];
+			wildEdges = new int[nwild];
+			long[] terms = new long[nterm];
+			nnt = nwild = nterm = 0;
+			for (int i = 0; i < nedges; ++i)
+				if (syms[i] instanceof Nonterminal)
+					ntEdges[nnt++] = i;
+				else if (((Terminal) syms[i]).isWildcard())
+					wildEdges[nwild++] = i;
+				else
+					terms[nterm++] = ((long) syms[i].getId() << 32) | i;
+			java.util.Arrays.sort(terms);
+			termEdges = new int[nterm];
+			termIds = new int[nterm];
+			for (int i = 0; i < nterm; ++i) {
+				termEdges[i] = (int) terms[i];
+				termIds[i] = (int) (terms[i] >> 32);
+			}
+			for (int i = 0; i < nedges; ++i)
+				next[i].sortEdges();
+		}
+		
+		private void addRule(Rule rule, int index) {
+			if (nrules == 0) {
+				rules = new Rule[INC];
+				indices = new int[INC];
+			} else if (nrules == rules.length) {
+				rules = (Rule[]) Arrays.resize(rules, 2*nrules);
+				indices = Arrays.resize(indices, 2*nrules);
+			}
+			rules[nrules] = rule;
+			indices[nrules++] = index;
+		}
+	}
+	
+	private State[] roots;
+	private int nstates;
+	
+	/**
+	 * Creates a prefix trie over all active rules in the specified grammar.
+	 * 
+	 * @param gram an SCFG.
+	 */
+	public RuleTrie(SCFG gram) {
+		int nlhs = gram.countNonterms();
+		roots = new State[nlhs];
+		nstates = 0;
+		for (int i = 0; i < nlhs; ++i) {
+			Rule[] rules = gram.getRules(i);
+			for (int j = 0; j < rules.length; ++j)
+				if (rules[j].isActive()) {
+					if (roots[i] == null)
+						roots[i] = new State(nstates++, i, (short) 0);
+					State s = roots[i];
+					Symbol[] E = rules[j].getE();
+					for (short k = 0; k < E.length; ++k)
+						s = s.findOrAdd(E[k], rules[j].getGap(k), this);
+					s.addRule(rules[j], j);
+				}
+			if (roots[i] != null)
+				roots[i].sortEdges();
+		}
+	}
+	
+	/**
+	 * Returns the root of the trie for the specified LHS nonterminal.
+	 * 
+	 * @param lhs the ID of an LHS nonterminal.
+	 * @return the root of the trie for the <code>lhs</code> argument; <code>null</code> if there are
+	 * no active rules with this LHS nonterminal.
+	 */
+	public State getRoot(int lhs) {
+		return roots[lhs];
+	}
+	
+	/**
+	 * Returns the number of states in this trie.  State IDs range from <code>0</code> to this number
+	 * minus one.
+	 * 
+	 * @return the number of states in this trie.
+	 */
+	public int countStates() {
+		return nstates;
+	}
+
+}
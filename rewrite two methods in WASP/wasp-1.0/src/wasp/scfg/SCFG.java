@@ -27,12 +27,15 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import wasp.data.Nonterminal;
 import wasp.data.Symbol;
 import wasp.data.Terminal;
 import wasp.main.Config;
 import wasp.mrl.Production;
+import wasp.util.Arrays;
 import wasp.util.Double;
 import wasp.util.FileWriter;
 import wasp.util.Int;
@@ -48,16 +51,31 @@ import wasp.util.TokenReader;
  */
 public class SCFG {
 
+	private static Logger logger = Logger.getLogger(SCFG.class.getName());
+	
 	private ArrayList[] byLhs;
 	private Rule[][] _byLhs;
 	private Numberer numberer;
 	private HashMap ties;
 	private int ninit;
+	/** The feature values of all rules, packed into a single array.  The values of the rule with ID
+	 * <code>i</code> start at index <code>i*nfeatures</code>. */
+	private double[] features;
+	/** The number of feature values of each rule. */
+	private int nfeatures;
+	/** The weights of the feature values; <code>null</code> if feature values are ignored. */
+	private double[] featureWeights;
 	
 	private boolean[][] Elc;
 	private boolean[][] _ElcTrans;
 	private boolean[][] Flc;
 	private boolean[][] _FlcTrans;
+	private TerminalIndex _index;
+	/** The IDs of the wildcard rules for numbers, unsigned numbers and identifiers, for each LHS 
+	 * nonterminal; <code>-1</code> if there is no such rule. */
+	private int[][] wildcards;
+	/** The ID of the rule that each rule is tied to; <code>null</code> if it has to be re-built. */
+	private int[] _tied;
 	
 	public SCFG() {
 		int nlhs = countNonterms();
@@ -68,11 +86,19 @@ public class SCFG {
 		numberer = new Numberer();
 		ties = new HashMap();
 		ninit = 0;
+		features = new double[0];
+		nfeatures = 0;
+		featureWeights = null;
 
 		Elc = new boolean[nlhs][nlhs];
 		_ElcTrans = null;
 		Flc = new boolean[nlhs][nlhs];
 		_FlcTrans = null;
+		_index = null;
+		wildcards = new int[nlhs][WILDCARD_TYPES.length];
+		for (int i = 0; i < nlhs; ++i)
+			Arrays.fill(wildcards[i], -1);
+		_tied = null;
 	}
 
 	/**
@@ -186,12 +212,46 @@ public class SCFG {
 	/**
 	 * Returns an interned copy of the rule that the specified rule is tied to (e.g. <code>State -&gt; 
 	 * Virginia, stateid('virginia')</code> could be tied to <code>State -&gt; Texas, 
-	 * stateid('texas')</code>).
+	 * stateid('texas')</code>).  For rules in this grammar, the answer is looked up in a table that
+	 * is built by the <code>prepare</code> method (see <code>getTiedId</code>).
 	 * 
 	 * @param rule a rule.
 	 * @return an interned copy of the rule that the <code>rule</code> argument is tied to.
 	 */
 	public Rule tied(Rule rule) {
+		int[] tied = _tied;
+		if (tied != null) {
+			int id = getId(rule);
+			if (id >= 0)
+				return getRule(tied[id]);
+		}
+		return findTied(rule);
+	}
+	
+	/**
+	 * Returns the ID of the rule that the rule with the specified ID is tied to.  This is the same as
+	 * <code>getId(tied(getRule(id)))</code>, but the IDs of tied rules are computed only once for all 
+	 * rules, and then looked up in a table until new rules or ties are added.
+	 * 
+	 * @param id a rule ID.
+	 * @return the ID of the rule that the specified rule is tied to.
+	 */
+	public int getTiedId(int id) {
+		int[] tied = _tied;
+		if (tied == null)
+			_tied = tied = buildTied();
+		return tied[id];
+	}
+	
+	private int[] buildTied() {
+		int nr = countRules();
+		int[] tied = new int[nr];
+		for (int i = 0; i < nr; ++i)
+			tied[i] = getId(findTied(getRule(i)));
+		return tied;
+	}
+	
+	private Rule findTied(Rule rule) {
 		Int tid;
 		if ((tid = (Int) ties.get(rule)) != null)
 			return getRule(tid.val);
@@ -201,37 +261,39 @@ public class SCFG {
 			Symbol f = rule.getF((short) 0);
 			if (e instanceof Terminal && e.equals(f)) {
 				Terminal t = (Terminal) e;
-				if (t.isNum()) {
-					Rule r = createWildcardRule(rule.getLhs(), Terminal.wildcardNum());
-					int rid = getId(r);
-					if (rid >= 0)
-						return getRule(rid);
-				}
-				if (t.isUnum()) {
-					Rule r = createWildcardRule(rule.getLhs(), Terminal.wildcardUnum());
-					int rid = getId(r);
-					if (rid >= 0)
-						return getRule(rid);
-				}
-				if (t.isIdent()) {
-					Rule r = createWildcardRule(rule.getLhs(), Terminal.wildcardIdent());
-					int rid = getId(r);
-					if (rid >= 0)
-						return getRule(rid);
-				}
+				int[] w = wildcards[rule.getLhs()];
+				if (t.isNum() && w[0] >= 0)
+					return getRule(w[0]);
+				if (t.isUnum() && w[1] >= 0)
+					return getRule(w[1]);
+				if (t.isIdent() && w[2] >= 0)
+					return getRule(w[2]);
 			}
 		}
 		return intern(rule);
 	}
-
-	private static Rule createWildcardRule(int lhs, Terminal wildcard) {
-		Symbol[] E = new Symbol[1];
-		E[0] = (Symbol) wildcard.copy();
-		E[0].setIndex((short) 1);
-		Symbol[] F = new Symbol[1];
-		F[0] = (Symbol) wildcard.copy();
-		F[0].setIndex((short) 1);
-		return new Rule(lhs, E, new short[1], F, false);
+	
+	/** The IDs of the wildcard terminals that numbers, unsigned numbers and identifiers are tied to, in
+	 * the same order as in the <code>wildcards</code> table. */
+	private static final int[] WILDCARD_TYPES = {
+		Terminal.WILDCARD_NUM, Terminal.WILDCARD_UNUM, Terminal.WILDCARD_IDENT
+	};
+	
+	/**
+	 * Returns the position of the specified rule in the <code>wildcards</code> table of its LHS
+	 * nonterminal, if it is a wildcard rule that other rules can be tied to (i.e. a rule that maps a
+	 * wildcard to itself, without any word gaps); <code>-1</code> otherwise.
+	 */
+	private static int getWildcardType(Rule rule) {
+		if (rule.lengthE() == 1 && rule.lengthF() == 1) {
+			Symbol e = rule.getE((short) 0);
+			if (e instanceof Terminal && e.getIndex() == 1 && rule.getGap((short) 0) == 0 
+					&& e.equals(rule.getF((short) 0)))
+				for (int i = 0; i < WILDCARD_TYPES.length; ++i)
+					if (e.getId() == WILDCARD_TYPES[i])
+						return i;
+		}
+		return -1;
 	}
 
 	/**
@@ -245,6 +307,7 @@ public class SCFG {
 		addRule(rule);
 		addRule(tied);
 		ties.put(rule, new Int(getId(tied)));
+		_tied = null;
 	}
 	
 	/**
@@ -260,6 +323,11 @@ public class SCFG {
 		if (numberer.addObj(rule)) {
 			byLhs[rule.getLhs()].add(rule);
 			_byLhs[rule.getLhs()] = null;
+			_index = null;
+			_tied = null;
+			int type = getWildcardType(rule);
+			if (type >= 0)
+				wildcards[rule.getLhs()][type] = countRules()-1;
 			if (rule.isInit())
 				++ninit;
 			if (rule.getE((short) 0) instanceof Nonterminal) {
@@ -274,6 +342,114 @@ public class SCFG {
 		}
 		return false;
 	}
+	
+	/**
+	 * Adds a new rule with the specified feature values to this grammar.  This method returns
+	 * <code>true</code> if the specified rule is successfully added to this grammar.  If the rule is
+	 * already in the grammar, then <code>false</code> is returned, and the feature values of the
+	 * existing rule are kept.
+	 * 
+	 * @param rule the rule to add.
+	 * @param features the feature values of the rule; <code>null</code> if none.
+	 * @return <code>true</code> if the specified rule is successfully added to this grammar; 
+	 * <code>false</code> otherwise.
+	 */
+	public boolean addRule(Rule rule, double[] features) {
+		if (!addRule(rule))
+			return false;
+		if (features != null)
+			setFeatures(countRules()-1, features);
+		return true;
+	}
+	
+	/**
+	 * Returns the number of feature values of each rule in this grammar.  Feature values are given by
+	 * external rule extractors (e.g. the translation probabilities of rules imported from a Hiero-style
+	 * grammar).  <code>0</code> is returned if rules have no feature values.
+	 * 
+	 * @return the number of feature values of each rule.
+	 */
+	public int countFeatures() {
+		return nfeatures;
+	}
+	
+	/**
+	 * Returns the feature values of the rule with the specified ID.  Rules that have not been assigned
+	 * any feature values have zero values.
+	 * 
+	 * @param id a rule ID.
+	 * @return a new array containing the feature values of the specified rule.
+	 */
+	public double[] getFeatures(int id) {
+		double[] values = new double[nfeatures];
+		if ((id+1)*nfeatures <= features.length)
+			System.arraycopy(features, id*nfeatures, values, 0, nfeatures);
+		return values;
+	}
+	
+	/**
+	 * Assigns feature values to the rule with the specified ID, and updates the score of the rule.  All
+	 * rules in a grammar must have the same number of feature values.  Otherwise, a
+	 * <code>RuntimeException</code> is thrown.
+	 * 
+	 * @param id a rule ID.
+	 * @param values the feature values to assign.
+	 * @throws RuntimeException if the number of feature values differs from that of other rules.
+	 */
+	public void setFeatures(int id, double[] values) {
+		if (nfeatures == 0)
+			nfeatures = values.length;
+		else if (values.length != nfeatures)
+			throw new RuntimeException("rule "+id+" has "+values.length+" feature values instead of "
+					+nfeatures);
+		int end = (id+1)*nfeatures;
+		if (end > features.length) {
+			int length = countRules()*nfeatures;
+			features = Arrays.resize(features, (length > 2*features.length) ? length : 2*features.length);
+		}
+		System.arraycopy(values, 0, features, id*nfeatures, nfeatures);
+		updateScore(id);
+	}
+	
+	/**
+	 * Returns the weights of the feature values of rules in this grammar.
+	 * 
+	 * @return the weights of the feature values; <code>null</code> if feature values are ignored.
+	 */
+	public double[] getFeatureWeights() {
+		return featureWeights;
+	}
+	
+	/**
+	 * Assigns weights to the feature values of rules in this grammar, and updates the scores of all 
+	 * rules (see <code>Rule.getScore</code>).  The scores are computed once here, so that parsers only
+	 * need to look up a single score for each rule.  The number of weights must be the same as the 
+	 * number of feature values of each rule.  Otherwise, a <code>RuntimeException</code> is thrown.
+	 * 
+	 * @param weights the weights to assign; <code>null</code> if feature values are to be ignored.
+	 * @throws RuntimeException if the number of weights differs from the number of feature values.
+	 */
+	public void setFeatureWeights(double[] weights) {
+		if (weights != null) {
+			if (nfeatures == 0)
+				nfeatures = weights.length;
+			else if (weights.length != nfeatures)
+				throw new RuntimeException("there are "+weights.length+" feature weights instead of "
+						+nfeatures);
+		}
+		featureWeights = weights;
+		int nr = countRules();
+		for (int i = 0; i < nr; ++i)
+			updateScore(i);
+	}
+	
+	private void updateScore(int id) {
+		double score = 0;
+		if (featureWeights != null && (id+1)*nfeatures <= features.length)
+			for (int i = 0, j = id*nfeatures; i < nfeatures; ++i, ++j)
+				score += featureWeights[i]*features[j];
+		getRule(id).setFeatureScore(score);
+	}
 
 	/**
 	 * Indicates if the nonterminal <code>n2</code> is a <i>left corner</i> of the nonterminal
@@ -309,14 +485,39 @@ public class SCFG {
 		return _FlcTrans[n1][n2];
 	}
 	
-	///
-	/// Parameter estimation
-	///
+	/**
+	 * Returns a view of this grammar that only contains the rules that can possibly be used for parsing
+	 * the specified sentence.  A rule is kept if every terminal on its NL side (including wildcards) 
+	 * matches some word of the sentence, in the same order.  The rules are found using an inverted 
+	 * index from terminals to rules, which is built the first time this method is called, and 
+	 * re-built after new rules are added.
+	 * 
+	 * @param E an NL sentence.
+	 * @return a view of this grammar for parsing the <code>E</code> argument.
+	 */
+	public FilteredSCFG filter(Terminal[] E) {
+		if (_index == null)
+			_index = new TerminalIndex(this);
+		return new FilteredSCFG(this, _index.filter(E));
+	}
 	
-	public void resetOuterScores() {
-		int nr = numberer.getNextId();
-		for (int i = 0; i < nr; ++i)
-			((Rule) numberer.getObj(i)).resetOuterScore();
+	/**
+	 * Builds all data structures of this grammar that are otherwise built on demand (i.e. the arrays of
+	 * rules for each LHS nonterminal, the left-corner relations, the inverted index used by the
+	 * <code>filter</code> method, and the table of tied rules).  After this method is called, this grammar can be shared by multiple
+	 * threads for parsing, as long as no rules are added.
+	 */
+	public void prepare() {
+		for (int i = 0; i < _byLhs.length; ++i)
+			getRules(i);
+		if (_ElcTrans == null)
+			_ElcTrans = Matrices.reflexiveTransitive(Elc);
+		if (_FlcTrans == null)
+			_FlcTrans = Matrices.reflexiveTransitive(Flc);
+		if (_index == null)
+			_index = new TerminalIndex(this);
+		if (_tied == null)
+			_tied = buildTied();
 	}
 	
 	///
@@ -324,6 +525,9 @@ public class SCFG {
 	///
 	
 	private static final String SCFG_RULES = "scfg-rules";
+	/** The name of the file in which the rules are stored in compiled form (see 
+	 * <code>CompiledSCFG</code>). */
+	private static final String SCFG_RULES_BIN = "scfg-rules.bin";
 	
 	/**
 	 * Adds initial rules to this grammar.  Some of these initial rules are automatically created based on
@@ -338,7 +542,7 @@ public class SCFG {
 	 */
 	public void readInit() throws IOException {
 		TokenReader in = new TokenReader(new BufferedReader(new FileReader(Config.get(Config.SCFG_INIT))));
-		Rule.readInit = true;
+		Rule.setReadInit(true);
 		String[] line;
 		while ((line = in.readLine()) != null) {
 			Int index = new Int(0);
@@ -370,7 +574,13 @@ public class SCFG {
 	 * Adds rules to this grammar.  Rules are read from a file called <code>scfg-rules</code> in the 
 	 * directory specified in the configuration file (via the key <code>Config.MODEL_DIR</code>).  If 
 	 * this file contains something that is not a valid textual representation of a rule, then a 
-	 * <code>RuntimeException</code> is thrown.
+	 * <code>RuntimeException</code> is thrown.  Each rule may be followed by its weight, and then by 
+	 * its feature values (see <code>getFeatures</code>).  The weights of the feature values are read
+	 * from the configuration file (via the key <code>Config.SCFG_FEATURE_WEIGHTS</code>).
+	 * <p>
+	 * If the same directory contains a compiled file called <code>scfg-rules.bin</code> that is up to
+	 * date with respect to <code>scfg-rules</code>, then rules are read from the compiled file 
+	 * instead.
 	 * 
 	 * @throws IOException if an I/O error occurs.
 	 * @throws RuntimeException if the file contains something that is not a valid textual representation
@@ -378,8 +588,25 @@ public class SCFG {
 	 */
 	public void read() throws IOException {
 		File file = new File(Config.getModelDir(), SCFG_RULES);
+		File bin = new File(Config.getModelDir(), SCFG_RULES_BIN);
+		if (CompiledSCFG.isCurrent(bin, file))
+			CompiledSCFG.read(this, bin);
+		else
+			readText(file);
+		String weights = Config.get(Config.SCFG_FEATURE_WEIGHTS);
+		if (weights != null) {
+			String[] tokens = weights.trim().split("\\s+");
+			double[] w = new double[tokens.length];
+			for (int i = 0; i < w.length; ++i)
+				w[i] = Double.parseDouble(tokens[i]);
+			setFeatureWeights(w);
+		}
+		_tied = buildTied();
+	}
+	
+	private void readText(File file) throws IOException {
 		TokenReader in = new TokenReader(new BufferedReader(new FileReader(file)));
-		Rule.readInit = false;
+		Rule.setReadInit(false);
 		String[] line;
 		int lineNum = 1;
 		while ((line = in.readLine()) != null) {
@@ -395,11 +622,19 @@ public class SCFG {
 				rule.setWeight(Double.parseDouble(line[index.val+1]));
 				index.val += 2;
 			}
+			double[] values = null;
+			if (index.val < line.length && line[index.val].equals("features")) {
+				values = new double[line.length-index.val-1];
+				for (int i = 0; i < values.length; ++i)
+					values[i] = Double.parseDouble(line[index.val+1+i]);
+				index.val = line.length;
+			}
 			if (index.val < line.length)
 				throw new RuntimeException();
-			System.out.println(lineNum++);
-			System.out.println(rule);
-			addRule(rule);
+			if (logger.isLoggable(Level.FINEST))
+				logger.finest("rule "+lineNum+": "+rule);
+			++lineNum;
+			addRule(rule, values);
 			
 		}
 		in.close();
@@ -407,7 +642,9 @@ public class SCFG {
 	
 	/**
 	 * Writes all active rules in this grammar to a file called <code>scfg-rules</code> in the directory
-	 * specified in the configuration file (via the key <code>Config.MODEL_DIR</code>). 
+	 * specified in the configuration file (via the key <code>Config.MODEL_DIR</code>).  The same rules
+	 * are also written in compiled form to a file called <code>scfg-rules.bin</code> in the same 
+	 * directory.
 	 * 
 	 * @throws IOException if an I/O error occurs.
 	 */
@@ -415,8 +652,10 @@ public class SCFG {
 		File file = new File(Config.getModelDir(), SCFG_RULES);
 		PrintWriter out = new PrintWriter(new BufferedWriter(FileWriter.createNew(file)));
 		Rule[] rules = getRules();
+		ArrayList active = new ArrayList();
 		for (int i = 0; i < rules.length; ++i)
 			if (rules[i].isActive()) {
+				active.add(rules[i]);
 				out.print(rules[i]);
 				/*
 				Rule tied = tied(rules[i]);
@@ -427,9 +666,19 @@ public class SCFG {
 				*/
 				out.print(" weight ");
 				out.print(rules[i].getWeight());
+				if (nfeatures > 0) {
+					out.print(" features");
+					double[] values = getFeatures(i);
+					for (int j = 0; j < nfeatures; ++j) {
+						out.print(' ');
+						out.print(values[j]);
+					}
+				}
 				out.println();
 			}
 		out.close();
+		CompiledSCFG.write(this, (Rule[]) active.toArray(new Rule[0]), 
+				new File(Config.getModelDir(), SCFG_RULES_BIN), file);
 	}
 	
 }
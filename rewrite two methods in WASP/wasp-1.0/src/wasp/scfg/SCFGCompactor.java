@@ -0,0 +1,419 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import wasp.data.Example;
+import wasp.data.ExampleMask;
+import wasp.data.Examples;
+import wasp.data.Symbol;
+import wasp.main.Config;
+import wasp.main.Parse;
+import wasp.main.Parser;
+import wasp.util.Arrays;
+import wasp.util.Double;
+import wasp.util.Int;
+
+/**
+ * Removes rules that are unlikely to be used in decoding from an SCFG, so that decoding is faster.
+ * Rules are removed in the following order:
+ * <ol>
+ * <li>Inactive rules are removed.</li>
+ * <li>Rules that only differ in their word gaps are merged into a single rule.  Since word gaps are
+ * the maximum numbers of words that can be skipped, the merged rule takes the largest gap at each
+ * position, and the weight and feature values of the highest-scoring rule.</li>
+ * <li>Rules whose scores are below a threshold are removed.</li>
+ * <li>For each LHS nonterminal and NL string, only the top-scoring <i>N</i> rules are kept.  The same
+ * is done for each LHS nonterminal and MRL string.  A rule is kept only if it is among the top-scoring
+ * rules in both cases.</li>
+ * </ol>
+ * Rules are ranked by their scores (see <code>Rule.getScore</code>).  Ties are broken in favor of the
+ * rules that come first in the grammar.
+ * 
+ * @author ywwong
+ *
+ */
+public class SCFGCompactor {
+	
+	private static Logger logger = Logger.getLogger(SCFGCompactor.class.getName());
+	
+	/**
+	 * Keys that identify rules by their LHS nonterminals and parts of their RHS.  An RHS string that
+	 * is <code>null</code> matches only <code>null</code>.
+	 */
+	private static class Key {
+		private int lhs;
+		private Symbol[] E;
+		private Symbol[] F;
+		private int hash;
+		public Key(int lhs, Symbol[] E, Symbol[] F) {
+			this.lhs = lhs;
+			this.E = E;
+			this.F = F;
+			hash = 1;
+			hash = 31*hash + lhs;
+			hash = 31*hash + ((E==null) ? 0 : Arrays.hashCode(E));
+			hash = 31*hash + ((F==null) ? 0 : Arrays.hashCode(F));
+		}
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return lhs == k.lhs && equal(E, k.E) && equal(F, k.F);
+		}
+		private static boolean equal(Symbol[] a, Symbol[] b) {
+			return (a==null) ? b == null : b != null && Arrays.equal(a, b);
+		}
+		public int hashCode() {
+			return hash;
+		}
+	}
+	
+	/**
+	 * Rules that are candidates for the compacted grammar.  Each candidate is the result of merging
+	 * rules that only differ in their word gaps.
+	 */
+	private static class Candidate {
+		public Rule best;
+		public int bestId;
+		public short[] gaps;
+		public boolean pruned;
+		public Candidate(Rule rule, int id) {
+			best = rule;
+			bestId = id;
+			gaps = new short[rule.lengthE()];
+			for (short i = 0; i < gaps.length; ++i)
+				gaps[i] = rule.getGap(i);
+			pruned = false;
+		}
+		public void merge(Rule rule, int id) {
+			for (short i = 0; i < gaps.length; ++i)
+				if (rule.getGap(i) > gaps[i])
+					gaps[i] = rule.getGap(i);
+			if (rule.getScore() > best.getScore()) {
+				best = rule;
+				bestId = id;
+			}
+		}
+	}
+	
+	/** The number of passes over the held-out set for timing each grammar. */
+	private static final int NPASSES = 3;
+	
+	/** Orders candidates by their scores, highest first. */
+	private static final Comparator BY_SCORE = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			double s1 = ((Candidate) o1).best.getScore();
+			double s2 = ((Candidate) o2).best.getScore();
+			return (s1 > s2) ? -1 : (s1 < s2) ? 1 : 0;
+		}
+	};
+	
+	private int nlLimit;
+	private int mrLimit;
+	private double threshold;
+	
+	private int ninactive;
+	private int nmerged;
+	private int nbelow;
+	private int nover;
+	
+	/**
+	 * Creates a compactor that only removes inactive rules and merges rules that differ in their word
+	 * gaps.
+	 */
+	public SCFGCompactor() {
+		nlLimit = 0;
+		mrLimit = 0;
+		threshold = java.lang.Double.NEGATIVE_INFINITY;
+	}
+	
+	/**
+	 * Specifies the maximum number of rules to keep for each LHS nonterminal and NL string.
+	 * 
+	 * @param limit the maximum number of rules; <code>0</code> if there is no limit.
+	 */
+	public void setNLLimit(int limit) {
+		nlLimit = limit;
+	}
+	
+	/**
+	 * Specifies the maximum number of rules to keep for each LHS nonterminal and MRL string.
+	 * 
+	 * @param limit the maximum number of rules; <code>0</code> if there is no limit.
+	 */
+	public void setMRLimit(int limit) {
+		mrLimit = limit;
+	}
+	
+	/**
+	 * Specifies the minimum score of rules to keep.
+	 * 
+	 * @param threshold the minimum score of rules to keep.
+	 */
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+	
+	/**
+	 * Returns a compacted copy of the specified grammar.  The specified grammar is not modified.  The
+	 * compacted grammar has the same feature weights as the specified grammar, so rules have the same
+	 * scores in both grammars.
+	 * 
+	 * @param gram the grammar to compact.
+	 * @return a compacted copy of the <code>gram</code> argument.
+	 */
+	public SCFG compact(SCFG gram) {
+		ninactive = 0;
+		nmerged = 0;
+		nbelow = 0;
+		nover = 0;
+		
+		// merge rules that only differ in their word gaps
+		Rule[] rules = gram.getRules();
+		HashMap merged = new HashMap();
+		ArrayList candidates = new ArrayList();
+		for (int i = 0; i < rules.length; ++i) {
+			if (!rules[i].isActive()) {
+				++ninactive;
+				continue;
+			}
+			Key key = new Key(rules[i].getLhs(), rules[i].getE(), rules[i].getF());
+			Candidate c = (Candidate) merged.get(key);
+			if (c == null) {
+				c = new Candidate(rules[i], i);
+				merged.put(key, c);
+				candidates.add(c);
+			} else {
+				c.merge(rules[i], i);
+				++nmerged;
+			}
+		}
+		
+		// remove low-scoring rules
+		for (int i = 0; i < candidates.size(); ++i) {
+			Candidate c = (Candidate) candidates.get(i);
+			if (c.best.getScore() < threshold) {
+				c.pruned = true;
+				++nbelow;
+			}
+		}
+		if (nlLimit > 0)
+			limit(candidates, true, nlLimit);
+		if (mrLimit > 0)
+			limit(candidates, false, mrLimit);
+		
+		SCFG compacted = new SCFG();
+		compacted.setFeatureWeights(gram.getFeatureWeights());
+		for (int i = 0; i < candidates.size(); ++i) {
+			Candidate c = (Candidate) candidates.get(i);
+			if (c.pruned)
+				continue;
+			Rule rule = new Rule(c.best.getProduction(), (Symbol[]) Arrays.copy(c.best.getE()), c.gaps,
+					(Symbol[]) Arrays.copy(c.best.getF()), false);
+			rule.setWeight(c.best.getWeight());
+			compacted.addRule(rule, (gram.countFeatures()==0) ? null : gram.getFeatures(c.bestId));
+		}
+		logger.info("compacted "+rules.length+" rules into "+compacted.countRules()+" rules ("+ninactive
+				+" inactive, "+nmerged+" merged, "+nbelow+" below threshold, "+nover+" over limit)");
+		return compacted;
+	}
+	
+	/**
+	 * Prunes all but the top-scoring rules for each LHS nonterminal and NL (or MRL) string.  Rules
+	 * that are already pruned are not counted.
+	 */
+	private void limit(ArrayList candidates, boolean nl, int limit) {
+		HashMap groups = new HashMap();
+		for (int i = 0; i < candidates.size(); ++i) {
+			Candidate c = (Candidate) candidates.get(i);
+			if (c.pruned)
+				continue;
+			Key key = (nl) ? new Key(c.best.getLhs(), c.best.getE(), null)
+					: new Key(c.best.getLhs(), null, c.best.getF());
+			ArrayList group = (ArrayList) groups.get(key);
+			if (group == null) {
+				group = new ArrayList();
+				groups.put(key, group);
+			}
+			group.add(c);
+		}
+		for (Iterator it = groups.values().iterator(); it.hasNext();) {
+			ArrayList group = (ArrayList) it.next();
+			if (group.size() <= limit)
+				continue;
+			// stable, so ties are broken by the order of rules in the grammar
+			Collections.sort(group, BY_SCORE);
+			for (int i = limit; i < group.size(); ++i) {
+				((Candidate) group.get(i)).pruned = true;
+				++nover;
+			}
+		}
+	}
+	
+	/**
+	 * Parses the specified examples once, and returns the number of milliseconds taken.
+	 */
+	private static long time(Parser parser, Examples examples) {
+		long time = System.currentTimeMillis();
+		for (Iterator it = examples.iterator(); it.hasNext();)
+			for (Iterator jt = parser.parse(((Example) it.next()).E); jt.hasNext();)
+				jt.next();
+		return System.currentTimeMillis()-time;
+	}
+	
+	/**
+	 * Parses the specified examples using the specified parser, and logs the number of examples whose
+	 * top-scoring parses are exactly the same as the correct MRs.  Exact matches are a lower bound on
+	 * the number of correct parses found by the domain-specific evaluator (see 
+	 * <code>ParserEvaluator</code>), but do not require any external evaluation program.
+	 */
+	private static void evaluate(String name, SCFG gram, Parser parser, Examples examples, long time) {
+		int nparsed = 0;
+		int ncorrect = 0;
+		for (Iterator it = examples.iterator(); it.hasNext();) {
+			Example ex = (Example) it.next();
+			Iterator jt = parser.parse(ex.E);
+			if (!jt.hasNext())
+				continue;
+			++nparsed;
+			String str = ((Parse) jt.next()).toStr();
+			if (str != null && Arrays.equal(ex.F.syms, Config.getMRLGrammar().tokenize(str)))
+				++ncorrect;
+			while (jt.hasNext())
+				jt.next();
+		}
+		logger.info(name+" grammar: "+gram.countRules()+" rules, "+time+" ms for "+examples.size()
+				+" examples, "+nparsed+" parsed, "+ncorrect+" exact matches");
+	}
+	
+	/**
+	 * Compares the decoding time and accuracy of the specified models on the specified examples.  Both
+	 * parsers are warmed up before they are timed, and the fastest of several passes is reported, so
+	 * that the order in which the models are tried does not matter.
+	 */
+	private static void compare(SCFGModel full, SCFGModel compacted, Examples examples) {
+		Parser fullParser = Parser.createNew(full);
+		Parser compactedParser = Parser.createNew(compacted);
+		time(fullParser, examples);
+		time(compactedParser, examples);
+		long fullTime = Long.MAX_VALUE;
+		long compactedTime = Long.MAX_VALUE;
+		for (int i = 0; i < NPASSES; ++i) {
+			long t = time(fullParser, examples);
+			if (t < fullTime)
+				fullTime = t;
+			t = time(compactedParser, examples);
+			if (t < compactedTime)
+				compactedTime = t;
+		}
+		evaluate("full", full.gram, fullParser, examples, fullTime);
+		evaluate("compacted", compacted.gram, compactedParser, examples, compactedTime);
+	}
+	
+	/**
+	 * The main program for compacting SCFGs.  This program takes the following command-line
+	 * arguments:
+	 * <p>
+	 * <blockquote><code><b>java wasp.scfg.SCFGCompactor</b> <u>config-file</u> <u>model-dir</u>
+	 * <u>output-dir</u> [<b>-nl-limit</b> <u>N</u>] [<b>-mr-limit</b> <u>N</u>] [<b>-threshold</b>
+	 * <u>T</u>] [<b>-test</b> <u>mask-file</u>]</code></blockquote>
+	 * <p>
+	 * <ul>
+	 * <li><code><u>config-file</u></code> - the configuration file that contains the current
+	 * settings.</li>
+	 * <li><code><u>model-dir</u></code> - the directory that contains the translation model to
+	 * compact.</li>
+	 * <li><code><u>output-dir</u></code> - the directory in which the compacted translation model is
+	 * written.</li>
+	 * <li><code><b>-nl-limit</b> <u>N</u></code> - keep the top-scoring <u>N</u> rules for each LHS
+	 * nonterminal and NL string.</li>
+	 * <li><code><b>-mr-limit</b> <u>N</u></code> - keep the top-scoring <u>N</u> rules for each LHS
+	 * nonterminal and MRL string.</li>
+	 * <li><code><b>-threshold</b> <u>T</u></code> - remove rules whose scores are below
+	 * <u>T</u>.</li>
+	 * <li><code><b>-test</b> <u>mask-file</u></code> - the example mask that specifies a held-out set,
+	 * on which the decoding time and accuracy of the full and compacted grammars are compared.</li>
+	 * </ul>
+	 * 
+	 * @param args the command-line arguments.
+	 * @throws IOException if an I/O error occurs.
+	 * @throws SAXException if the XML parser throws a <code>SAXException</code> while parsing.
+	 * @throws ParserConfigurationException if an XML parser cannot be created which satisfies the
+	 * requested configuration.
+	 */
+	public static void main(String[] args) throws IOException, SAXException, ParserConfigurationException {
+		if (args.length < 3) {
+			System.err.println("Usage: java wasp.scfg.SCFGCompactor config-file model-dir output-dir [-nl-limit N] [-mr-limit N] [-threshold T] [-test mask-file]");
+			System.err.println();
+			System.err.println("config-file - the configuration file that contains the current settings.");
+			System.err.println("model-dir - the directory that contains the translation model to compact.");
+			System.err.println("output-dir - the directory in which the compacted translation model is written.");
+			System.err.println("-nl-limit N - keep the top-scoring N rules for each LHS nonterminal and NL string.");
+			System.err.println("-mr-limit N - keep the top-scoring N rules for each LHS nonterminal and MRL string.");
+			System.err.println("-threshold T - remove rules whose scores are below T.");
+			System.err.println("-test mask-file - compare the full and compacted grammars on a held-out set.");
+			System.exit(1);
+		}
+		Config.read(args[0]);
+		Config.setModelDir(args[1]);
+		SCFGCompactor compactor = new SCFGCompactor();
+		String maskFilename = null;
+		for (int i = 3; i+1 < args.length; i += 2)
+			if (args[i].equals("-nl-limit"))
+				compactor.setNLLimit(Int.parseInt(args[i+1]));
+			else if (args[i].equals("-mr-limit"))
+				compactor.setMRLimit(Int.parseInt(args[i+1]));
+			else if (args[i].equals("-threshold"))
+				compactor.setThreshold(Double.parseDouble(args[i+1]));
+			else if (args[i].equals("-test"))
+				maskFilename = args[i+1];
+		Config.getMRLGrammar().readMore();
+		SCFGModel model = new SCFGModel();
+		model.read();
+		SCFGModel compacted = new SCFGModel();
+		compacted.gram = compactor.compact(model.gram);
+		compacted.gm = model.gm;
+		if (maskFilename != null) {
+			Examples examples = new Examples();
+			examples.read(Config.getCorpusFile());
+			ExampleMask mask = new ExampleMask();
+			mask.read(maskFilename);
+			examples = mask.apply(examples);
+			compare(model, compacted, examples);
+		}
+		Config.setModelDir(args[2]);
+		compacted.gram.write();
+		compacted.gm.write();
+		Config.getMRLGrammar().writeMore();
+	}
+	
+}
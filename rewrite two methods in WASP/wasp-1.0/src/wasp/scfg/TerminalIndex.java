@@ -0,0 +1,171 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg;
+
+import wasp.data.Symbol;
+import wasp.data.Terminal;
+import wasp.util.Arrays;
+
+/**
+ * An inverted index from NL terminals to the SCFG rules in which they appear.  Each rule is indexed
+ * under the rarest non-wildcard terminal on its NL side.  Rules with no such terminals are kept in a
+ * separate list.  This index is used for finding the rules that can possibly be used for parsing a
+ * given sentence.
+ * 
+ * @author ywwong
+ *
+ */
+class TerminalIndex {
+	
+	/** All rules in the grammar, sorted by LHS nonterminal, and then by their order in
+	 * <code>SCFG.getRules(lhs)</code>. */
+	private Rule[] rules;
+	/** The position of the first rule with each LHS nonterminal in the <code>rules</code> array. */
+	private int[] offsets;
+	/** Positions of the rules that are indexed under each terminal, in ascending order. */
+	private int[][] byTerm;
+	/** Positions of the rules that have no non-wildcard NL terminals, in ascending order. */
+	private int[] unindexed;
+	
+	public TerminalIndex(SCFG gram) {
+		int nlhs = gram.countNonterms();
+		offsets = new int[nlhs+1];
+		for (int i = 0; i < nlhs; ++i)
+			offsets[i+1] = offsets[i]+gram.getRules(i).length;
+		rules = new Rule[offsets[nlhs]];
+		for (int i = 0; i < nlhs; ++i) {
+			Rule[] r = gram.getRules(i);
+			for (int j = 0; j < r.length; ++j)
+				rules[offsets[i]+j] = r[j];
+		}
+		// count the number of rules in which each terminal appears
+		int[] counts = new int[0];
+		for (int i = 0; i < rules.length; ++i) {
+			Symbol[] E = rules[i].getE();
+			for (int j = 0; j < E.length; ++j)
+				if (isKey(E[j])) {
+					int id = E[j].getId();
+					if (id >= counts.length)
+						counts = Arrays.resize(counts, Math.max(id+1, 2*counts.length));
+					++counts[id];
+				}
+		}
+		// index each rule under its rarest terminal
+		int[] keys = new int[rules.length];
+		int[] sizes = new int[counts.length];
+		int nunindexed = 0;
+		for (int i = 0; i < rules.length; ++i) {
+			keys[i] = -1;
+			Symbol[] E = rules[i].getE();
+			for (int j = 0; j < E.length; ++j)
+				if (isKey(E[j])) {
+					int id = E[j].getId();
+					if (keys[i] < 0 || counts[id] < counts[keys[i]])
+						keys[i] = id;
+				}
+			if (keys[i] < 0)
+				++nunindexed;
+			else
+				++sizes[keys[i]];
+		}
+		byTerm = new int[counts.length][];
+		for (int i = 0; i < byTerm.length; ++i)
+			if (sizes[i] > 0)
+				byTerm[i] = new int[sizes[i]];
+		unindexed = new int[nunindexed];
+		Arrays.fill(sizes, 0);
+		nunindexed = 0;
+		for (int i = 0; i < rules.length; ++i)
+			if (keys[i] < 0)
+				unindexed[nunindexed++] = i;
+			else
+				byTerm[keys[i]][sizes[keys[i]]++] = i;
+	}
+	
+	private static boolean isKey(Symbol sym) {
+		return sym instanceof Terminal && !((Terminal) sym).isWildcard() && sym.getId() >= 0;
+	}
+	
+	/**
+	 * Returns the rules that can possibly be used for parsing the specified sentence, grouped by their
+	 * LHS nonterminals.  A rule is kept if every terminal on its NL side matches some word of the
+	 * sentence, in the same order.  Wildcards are matched like any other terminals.  Within each group,
+	 * rules are in the same order as in <code>SCFG.getRules(lhs)</code>.
+	 * 
+	 * @param E an NL sentence.
+	 * @return rules that can possibly be used for parsing the <code>E</code> argument; the
+	 * <i>i</i>-th element of this array contains the rules with LHS nonterminal <i>i</i>.
+	 */
+	public Rule[][] filter(Terminal[] E) {
+		int[] words = new int[E.length];
+		for (int i = 0; i < E.length; ++i)
+			words[i] = E[i].getId();
+		java.util.Arrays.sort(words);
+		int[] kept = new int[unindexed.length+E.length];
+		int nkept = 0;
+		for (int i = 0; i < unindexed.length; ++i)
+			if (matches(rules[unindexed[i]], E))
+				kept[nkept++] = unindexed[i];
+		for (int i = 0; i < words.length; ++i) {
+			int id = words[i];
+			if ((i > 0 && id == words[i-1]) || id < 0 || id >= byTerm.length || byTerm[id] == null)
+				continue;
+			int[] a = byTerm[id];
+			for (int j = 0; j < a.length; ++j)
+				if (matches(rules[a[j]], E)) {
+					if (nkept == kept.length)
+						kept = Arrays.resize(kept, 2*nkept);
+					kept[nkept++] = a[j];
+				}
+		}
+		java.util.Arrays.sort(kept, 0, nkept);
+		int nlhs = offsets.length-1;
+		Rule[][] byLhs = new Rule[nlhs][];
+		int k = 0;
+		for (int i = 0; i < nlhs; ++i) {
+			int l = k;
+			while (k < nkept && kept[k] < offsets[i+1])
+				++k;
+			byLhs[i] = new Rule[k-l];
+			for (int j = l; j < k; ++j)
+				byLhs[i][j-l] = rules[kept[j]];
+		}
+		return byLhs;
+	}
+	
+	/**
+	 * Indicates if every terminal on the NL side of the specified rule matches some word of the
+	 * specified sentence, in the same order.
+	 */
+	private static boolean matches(Rule rule, Terminal[] E) {
+		Symbol[] RE = rule.getE();
+		int pos = 0;
+		for (int i = 0; i < RE.length; ++i)
+			if (RE[i] instanceof Terminal) {
+				while (pos < E.length && !RE[i].matches(E[pos]))
+					++pos;
+				if (pos == E.length)
+					return false;
+				++pos;
+			}
+		return true;
+	}
+
+}
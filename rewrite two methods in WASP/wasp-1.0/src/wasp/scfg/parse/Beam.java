@@ -0,0 +1,131 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import wasp.main.Config;
+import wasp.util.Double;
+import wasp.util.Int;
+
+/**
+ * Pruning parameters for charts.  Chart items that cover the same span of the input
+ * sentence (i.e. items with the same start and current positions) compete with each other.  Two
+ * kinds of pruning are supported:
+ * <ul>
+ * <li><i>Histogram pruning</i> keeps at most a fixed number of items for each span.  Ties with the
+ * last item kept are also kept.</li>
+ * <li><i>Threshold pruning</i> drops items whose inner scores are more than a fixed amount below the
+ * best inner score of the span.</li>
+ * </ul>
+ * Threshold pruning is applied as items are added to a chart, against the best item of the span so
+ * far.  Both kinds of pruning are applied again once all items that end at a given position have been
+ * found, before these items are used for prediction and scanning.
+ * <p>
+ * Pruning is normally done during decoding only.  During parameter estimation, it can be used to 
+ * approximate the sum of the scores of all parses of a sentence with the highest-scoring region of 
+ * the chart.  In this case, items that are part of the correct MR are never pruned, so the sum of the
+ * scores of the correct parses remains exact.
+ * 
+ * @author ywwong
+ *
+ */
+public class Beam {
+	
+	/** The maximum number of items to keep for each span; <code>0</code> means no limit. */
+	public int size;
+	/** The maximum difference between the inner score of an item and the best inner score of its
+	 * span; <code>Double.POSITIVE_INFINITY</code> means no limit. */
+	public double threshold;
+	
+	public Beam(int size, double threshold) {
+		this.size = size;
+		this.threshold = threshold;
+	}
+	
+	/**
+	 * Returns the pruning parameters specified in the configuration file (via the keys
+	 * <code>Config.SCFG_BEAM_SIZE</code> and <code>Config.SCFG_BEAM_THRESHOLD</code>).
+	 * 
+	 * @return the pruning parameters specified in the configuration file; <code>null</code> if no
+	 * pruning is specified.
+	 */
+	public static Beam createNew() {
+		return createNew(Config.SCFG_BEAM_SIZE, Config.SCFG_BEAM_THRESHOLD);
+	}
+	
+	/**
+	 * Returns the pruning parameters for parameter estimation specified in the configuration file (via
+	 * the keys <code>Config.SCFG_TRAIN_BEAM_SIZE</code> and 
+	 * <code>Config.SCFG_TRAIN_BEAM_THRESHOLD</code>).  During parameter estimation, items that are 
+	 * part of the correct MR are never pruned.
+	 * 
+	 * @return the pruning parameters for parameter estimation; <code>null</code> if no pruning is
+	 * specified.
+	 */
+	public static Beam createNewForTraining() {
+		return createNew(Config.SCFG_TRAIN_BEAM_SIZE, Config.SCFG_TRAIN_BEAM_THRESHOLD);
+	}
+	
+	private static Beam createNew(String sizeKey, String thresholdKey) {
+		String size = Config.get(sizeKey);
+		String threshold = Config.get(thresholdKey);
+		Beam beam = new Beam((size==null) ? 0 : Int.parseInt(size),
+				(threshold==null) ? Double.POSITIVE_INFINITY : Double.parseDouble(threshold));
+		return (beam.size > 0 || beam.threshold < Double.POSITIVE_INFINITY) ? beam : null;
+	}
+	
+	/**
+	 * Returns the lowest inner scores that an item must have in order to survive pruning, for all spans
+	 * that end at the same position.
+	 * 
+	 * @param starts the start positions of the items.
+	 * @param inners the inner scores of the items.
+	 * @param n the number of items.
+	 * @param current the position at which all spans end.
+	 * @return an array of the lowest inner scores, indexed by the start positions of spans.
+	 */
+	public double[] cutoffs(short[] starts, double[] inners, int n, short current) {
+		int[] counts = new int[current+2];
+		for (int i = 0; i < n; ++i)
+			++counts[starts[i]+1];
+		for (int i = 1; i < counts.length; ++i)
+			counts[i] += counts[i-1];
+		double[] sorted = new double[n];
+		int[] next = new int[current+1];
+		System.arraycopy(counts, 0, next, 0, current+1);
+		for (int i = 0; i < n; ++i)
+			sorted[next[starts[i]]++] = inners[i];
+		double[] cutoffs = new double[current+1];
+		for (short s = 0; s <= current; ++s) {
+			int from = counts[s];
+			int to = counts[s+1];
+			if (from == to) {
+				cutoffs[s] = Double.NEGATIVE_INFINITY;
+				continue;
+			}
+			java.util.Arrays.sort(sorted, from, to);
+			double cutoff = sorted[to-1]-threshold;
+			if (size > 0 && to-from > size && sorted[to-size] > cutoff)
+				cutoff = sorted[to-size];
+			cutoffs[s] = cutoff;
+		}
+		return cutoffs;
+	}
+
+}
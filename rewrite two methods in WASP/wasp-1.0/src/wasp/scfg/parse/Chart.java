@@ -21,7 +21,6 @@ package wasp.scfg.parse;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Iterator;
 /*
 import java.util.logging.Level;
@@ -32,8 +31,11 @@ import wasp.data.Nonterminal;
 import wasp.data.Symbol;
 import wasp.data.Terminal;
 import wasp.scfg.SCFG;
+import wasp.util.Arrays;
 import wasp.util.Double;
 import wasp.util.Heap;
+import wasp.util.LongNumberer;
+import wasp.util.Numberer;
 
 /**
  * An Earley chart for parsing synchronous context-free grammars.
@@ -50,22 +52,6 @@ public class Chart {
 	}
 	*/
 	
-    private static final Comparator EARLIER_FIRST = new Comparator() {
-        public int compare(Object o1, Object o2) {
-            Item i1 = (Item) o1;
-            Item i2 = (Item) o2;
-            if (i1.start < i2.start)
-                return -1;
-            else if (i1.start > i2.start)
-                return 1;
-            else if (i1.timestamp > i2.timestamp)
-                return -1;
-            else if (i1.timestamp < i2.timestamp)
-                return 1;
-            else
-                return 0;
-        }
-    };
 	private static final Comparator LATER_FIRST = new Comparator() {
 		public int compare(Object o1, Object o2) {
 			Item i1 = (Item) o1;
@@ -83,6 +69,7 @@ public class Chart {
 		}
 	};
 	private static final int INC = 64;
+	private static final int MAX_INIT_INTERN_SIZE = 1<<16;
 	
 	/** The maximum number of top-scoring theories to keep for each cell.  <code>0</code> means no limit
 	 * is imposed.  <code>1</code> is used for Viterbi decoding, <i>K</i> > 1 for <i>K</i>-best
@@ -90,84 +77,204 @@ public class Chart {
 	private int kbest;
 	/** Indicates if items with empty <code>m</code> field are ignored and never added to the chart. */
 	private boolean ignoreEmpty;
+	/** Indicates if this chart is a packed forest, in which each item keeps all of its back pointers
+	 * along with its Viterbi inner score.  This is used for lazy <i>K</i>-best decoding. */
+	private boolean forest;
+	/** Pruning parameters; <code>null</code> if no pruning is done. */
+	private Beam beam;
+	/** The best inner score of each span so far, indexed by <code>start*(maxPos+1)+current</code>. */
+	private double[] best;
+	private int npruned;
 	
 	public short maxPos;
 	public ArrayList[] sets;
 	public ArrayList[][] toComps;
 	public Heap[] comps;
 	private boolean[][] predicted;
-	private HashMap[][][] intern;
+	/** Rules that appear in this chart. */
+	public ChartRules rules;
+	/** Distinct bit vectors that appear in the <code>m</code> fields of items in this chart. */
+	private Numberer ms;
+	/** Maps the signature of each item to its copies in the <code>slots</code> array. */
+	private LongNumberer intern;
+	/** Existing copies of each item.  The copies of the item with intern ID <i>i</i> are found at 
+	 * indices <i>iK</i> to <i>iK+K-1</i>, where <i>K</i> is the number of copies kept for each item. */
+	private Item[] slots;
+	/** Items that have been passed to the <code>addItem</code> method in the order of creation, 
+	 * including items that have been combined with existing items; <code>null</code> unless 
+	 * <code>K == 0</code>. */
+	private ArrayList created;
 	private int timestamp;
 	
 	public Chart(SCFG gram, Terminal[] s, int kbest, boolean ignoreEmpty) {
+		this(gram, s, kbest, ignoreEmpty, null);
+	}
+	
+	/**
+	 * Creates an empty chart in which items are pruned as specified.
+	 * 
+	 * @param gram the SCFG used for parsing.
+	 * @param s the input sentence.
+	 * @param kbest the maximum number of top-scoring theories to keep for each cell.
+	 * @param ignoreEmpty indicates if items with empty <code>m</code> field are ignored.
+	 * @param beam pruning parameters; <code>null</code> if no pruning is done.
+	 */
+	public Chart(SCFG gram, Terminal[] s, int kbest, boolean ignoreEmpty, Beam beam) {
 		this.kbest = kbest;
 		this.ignoreEmpty = ignoreEmpty;
+		this.beam = beam;
+		forest = false;
 		maxPos = (short) s.length;
 		int nlhs = gram.countNonterms();
 		sets = new ArrayList[maxPos+1];
 		toComps = new ArrayList[maxPos+1][nlhs];
 		comps = new Heap[maxPos+1];
 		predicted = new boolean[maxPos+1][nlhs];
-		intern = new HashMap[maxPos+1][][];
+		rules = new ChartRules(gram);
+		ms = new Numberer();
+		int size = initInternSize(maxPos, nlhs);
+		intern = new LongNumberer(size);
+		slots = new Item[size*((kbest==0) ? 1 : kbest)];
 		for (short i = 0; i <= maxPos; ++i) {
 			sets[i] = new ArrayList();
 			comps[i] = new Heap(LATER_FIRST, INC);
-			intern[i] = new HashMap[i+1][nlhs+1];
 		}
+		created = (kbest==0) ? new ArrayList() : null;
 		timestamp = 0;
+		if (beam != null) {
+			best = new double[(maxPos+1)*(maxPos+1)];
+			Arrays.fill(best, Double.NEGATIVE_INFINITY);
+		}
+		npruned = 0;
 	}
 	
-	public void addItem(Item item) {
+	/**
+	 * Creates an empty packed forest for <i>K</i>-best decoding.  Only one copy of each item is kept,
+	 * with its Viterbi inner score and all of its back pointers.  Derivations are then extracted from
+	 * the forest using <code>KBestIterator</code>.
+	 * 
+	 * @param gram the SCFG used for parsing.
+	 * @param s the input sentence.
+	 * @param beam pruning parameters; <code>null</code> if no pruning is done.
+	 * @return an empty packed forest.
+	 */
+	public static Chart createForest(SCFG gram, Terminal[] s, Beam beam) {
+		Chart c = new Chart(gram, s, 1, false, beam);
+		c.forest = true;
+		return c;
+	}
+	
+	/**
+	 * Adds the specified item to this chart.  The item may be combined with an existing item, used for
+	 * replacing an existing item, or ignored.
+	 * 
+	 * @param item an item.
+	 * @return <code>false</code> if the item is ignored because its <code>m</code> field is empty, if
+	 * it is pruned, or if this chart is a packed forest and the item has been merged into an existing
+	 * item, in which case no further items should be derived from it; <code>true</code> otherwise.
+	 */
+	public boolean addItem(Item item) {
 		if (ignoreEmpty && item.m.isEmpty())
-			return;
+			return false;
+		if (beam != null) {
+			int span = item.start*(maxPos+1)+item.current;
+			if (item.inner < best[span]-beam.threshold && !isCorrect(item)) {
+				++npruned;
+				return false;
+			}
+			if (item.inner > best[span])
+				best[span] = item.inner;
+		}
 		//logger.finest(item.start+" "+item.current+" "+item.dot+" "+item.m+" "+item.rule);
-		Item[] a = intern(item);
-		if (kbest == 0) {
-			if (a[0] == null) {
-				a[0] = item;
+		int a = intern(item);
+		if (forest) {
+			if (slots[a] != null) {
+				slots[a].merge(item);
+				return false;
+			}
+			slots[a] = item;
+			add(item);
+		} else if (kbest == 0) {
+			created.add(item);
+			if (slots[a] == null) {
+				slots[a] = item;
 				add(item);
 			} else
-				a[0].combine(item);
+				slots[a].combine(item);
 		} else {
 			int i = 0;
-			for (; i < kbest && a[i] != null && a[i].inner > item.inner; ++i)
+			for (; i < kbest && slots[a+i] != null && slots[a+i].inner > item.inner; ++i)
 				;
 			if (i < kbest) {
-				if (a[kbest-1] == null) {
+				if (slots[a+kbest-1] == null) {
 					for (int j = kbest-1; j >= i+1; --j)
-						a[j] = a[j-1];
-					a[i] = item;
+						slots[a+j] = slots[a+j-1];
+					slots[a+i] = item;
 					add(item);
 				} else {
 					for (int j = kbest-1; j >= i+1; --j)
-						a[j].replace(a[j-1]);
-					a[i].replace(item);
+						slots[a+j].replace(slots[a+j-1]);
+					slots[a+i].replace(item);
 				}
 			}
 		}
+		return true;
 	}
 	
 	/**
-	 * Returns an array containing all copies of the specified item that already exist.  Only the top 
-	 * <i>K</i> copies of an item are kept.  If <code>K == 0</code>, then only one copy is kept for each
-	 * item.  Unlike other <code>intern</code> methods in the <code>wasp</code> package, this method 
-	 * does <i>not</i> add the specified item to the collection.  However, an item array is always 
-	 * returned, and new items can be simply added to this array.
+	 * Returns the initial size of the intern table of a chart, based on the sentence length and the 
+	 * number of LHS nonterminals.  The table grows as needed, so this is only a hint.
+	 * 
+	 * @param maxPos the length of the input sentence.
+	 * @param nlhs the number of LHS nonterminals.
+	 * @return the initial size of the intern table.
+	 */
+	static int initInternSize(int maxPos, int nlhs) {
+		long size = (long) (maxPos+1)*(maxPos+2)/2*(nlhs+1);
+		return (int) Math.min(size, MAX_INIT_INTERN_SIZE);
+	}
+	
+	/**
+	 * Returns the signature of the specified item minus its position, for use as the first key of an
+	 * intern table.
+	 * 
+	 * @param ruleId the chart-specific ID of the rule.
+	 * @param m the chart-specific ID of the <code>m</code> field; <code>-1</code> if there is none.
+	 * @return the first key of the item in an intern table.
+	 */
+	static long internKey(int ruleId, int m) {
+		return ((long) ruleId << 32) | ((m+1) & 0xffffffffL);
+	}
+	
+	/**
+	 * Returns the position of the specified item, for use as the second key of an intern table.
+	 * 
+	 * @return the second key of the item in an intern table.
+	 */
+	static long internKey(short dot, short gap, short start, short current) {
+		return ((long) dot << 48) | ((long) gap << 32) | ((long) start << 16) | current;
+	}
+	
+	/**
+	 * Returns the index of the first copy of the specified item in the <code>slots</code> array.  
+	 * Only the top <i>K</i> copies of an item are kept.  If <code>K == 0</code>, then only one copy is
+	 * kept for each item.  Unlike other <code>intern</code> methods in the <code>wasp</code> package, 
+	 * this method does <i>not</i> add the specified item to the collection.  However, slots are 
+	 * always reserved for the item, and new items can be simply added to these slots.  Empty slots are
+	 * <code>null</code>.
 	 * 
 	 * @param item an item.
-	 * @return an array containing all <i>existing</i> copies of the <code>item</code> argument.
+	 * @return the index of the first <i>existing</i> copy of the <code>item</code> argument in the
+	 * <code>slots</code> array.
 	 */
-	private Item[] intern(Item item) {
-		int lhs = item.rule.getLhs();
-		HashMap map = intern[item.current][item.start][lhs+1];
-		if (map == null)
-			map = intern[item.current][item.start][lhs+1] = new HashMap();
-		Item[] a = (Item[]) map.get(item);
-		if (a == null) {
-			a = new Item[(kbest==0) ? 1 : kbest];
-			map.put(item, a);
-		}
-		return a;
+	private int intern(Item item) {
+		int m = (item.m==null) ? -1 : ms.getId(item.m, true);
+		int id = intern.getId(internKey(item.ruleId, m), 
+				internKey(item.dot, item.gap, item.start, item.current), true);
+		int k = (kbest==0) ? 1 : kbest;
+		if ((id+1)*k > slots.length)
+			slots = (Item[]) Arrays.resize(slots, 2*slots.length);
+		return id*k;
 	}
 	
 	private void add(Item item) {
@@ -188,24 +295,89 @@ public class Chart {
 		}
 	}
 	
-	public boolean isPredicted(short start, int lhs) {
-		return predicted[start][lhs];
+	/**
+	 * Prunes the items that end at the specified position, based on the pruning parameters of this
+	 * chart.  This method should be called only when no more items that end at this position and start
+	 * before it will be added to the chart.  Pruned items are no longer used for prediction, scanning
+	 * or completion.  They remain in the chart as back pointers of other items.
+	 * 
+	 * @param current a position.
+	 */
+	public void prune(short current) {
+		ArrayList set = sets[current];
+		int n = set.size();
+		short[] starts = new short[n];
+		double[] inners = new double[n];
+		for (int i = 0; i < n; ++i) {
+			Item item = (Item) set.get(i);
+			starts[i] = item.start;
+			inners[i] = item.inner;
+		}
+		double[] cutoffs = beam.cutoffs(starts, inners, n, current);
+		sets[current] = prune(set, cutoffs);
+		npruned += n-sets[current].size();
+		for (int i = 0; i < toComps[current].length; ++i)
+			if (toComps[current][i] != null)
+				toComps[current][i] = prune(toComps[current][i], cutoffs);
 	}
 	
-	public void predict(short start, int lhs) {
-		predicted[start][lhs] = true;
+	private static ArrayList prune(ArrayList items, double[] cutoffs) {
+		ArrayList kept = new ArrayList(items.size());
+		for (Iterator it = items.iterator(); it.hasNext();) {
+			Item item = (Item) it.next();
+			if (item.inner >= cutoffs[item.start] || isCorrect(item))
+				kept.add(item);
+		}
+		return kept;
 	}
 	
-	public void resetOuterScores() {
-		for (short i = 0; i <= maxPos; ++i)
-			for (Iterator jt = sets[i].iterator(); jt.hasNext();) {
-				Item item = (Item) jt.next();
-				item.outer = Double.NEGATIVE_INFINITY;
-			}
+	/**
+	 * Indicates if the specified item is part of the correct MR during training.  Such items are never
+	 * pruned.
+	 */
+	private static boolean isCorrect(Item item) {
+		return item.m != null && !item.m.isEmpty();
+	}
+	
+	/**
+	 * Returns the number of items that have been pruned from this chart.
+	 * 
+	 * @return the number of items that have been pruned from this chart.
+	 */
+	public int countPrunedItems() {
+		return npruned;
 	}
 	
-	public Heap createReverseHeap() {
-		return new Heap(EARLIER_FIRST, INC);
+	/**
+	 * Returns the items that have been passed to the <code>addItem</code> method in the order in which
+	 * they are created, including items that have been combined with existing items.  This method is 
+	 * only meaningful when <code>K == 0</code>.
+	 * 
+	 * @return the items created by the parser.
+	 */
+	public ArrayList getCreated() {
+		return created;
+	}
+	
+	/**
+	 * Returns the item in this chart that the specified item has been combined with.  This is the
+	 * specified item itself if it has been added to this chart.  This method is only meaningful when
+	 * <code>K == 0</code>.
+	 * 
+	 * @param item an item created by the parser.
+	 * @return the item in this chart that has the same signature as the <code>item</code> argument;
+	 * <code>null</code> if none.
+	 */
+	public Item find(Item item) {
+		return slots[intern(item)];
+	}
+	
+	public boolean isPredicted(short start, int lhs) {
+		return predicted[start][lhs];
+	}
+	
+	public void predict(short start, int lhs) {
+		predicted[start][lhs] = true;
 	}
 	
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import wasp.data.Terminal;
+import wasp.scfg.Rule;
+import wasp.scfg.SCFG;
+import wasp.util.Arrays;
+import wasp.util.LongNumberer;
+
+/**
+ * Chart-specific IDs of the rules that appear in an Earley chart.  Rules of the grammar are numbered
+ * the first time their LHS nonterminal is predicted.  Rules that are specialized from wildcard rules
+ * are numbered by the ID of the wildcard rule and the scanned word, so that equal rules always get
+ * the same ID without being compared symbol by symbol.
+ * 
+ * @author ywwong
+ *
+ */
+public class ChartRules {
+
+	private static final int INC = 256;
+
+	private SCFG gram;
+	private int[][] lhsIds;
+	private LongNumberer specialized;
+	private int[] specializedIds;
+	private Rule[] rules;
+	private int nrules;
+
+	public ChartRules(SCFG gram) {
+		this.gram = gram;
+		lhsIds = new int[gram.countNonterms()][];
+		specialized = new LongNumberer();
+		specializedIds = new int[INC];
+		rules = new Rule[INC];
+		nrules = 0;
+	}
+
+	/**
+	 * Assigns a new ID to the specified rule.  The rule is assumed to be distinct from all other rules
+	 * in the chart.  This is used for dummy rules created by the parser.
+	 * 
+	 * @param rule a rule.
+	 * @return the new ID of the <code>rule</code> argument.
+	 */
+	public int add(Rule rule) {
+		if (nrules == rules.length)
+			rules = (Rule[]) Arrays.resize(rules, 2*nrules);
+		rules[nrules] = rule;
+		return nrules++;
+	}
+
+	/**
+	 * Returns the IDs of all rules with the specified LHS nonterminal, in the same order as
+	 * <code>SCFG.getRules(lhs)</code>.
+	 * 
+	 * @param lhs the ID of an LHS nonterminal.
+	 * @return the IDs of the rules returned by <code>SCFG.getRules(lhs)</code>.
+	 */
+	public int[] getIds(int lhs) {
+		if (lhsIds[lhs] == null) {
+			Rule[] r = gram.getRules(lhs);
+			int[] ids = new int[r.length];
+			for (int i = 0; i < r.length; ++i)
+				ids[i] = add(r[i]);
+			lhsIds[lhs] = ids;
+		}
+		return lhsIds[lhs];
+	}
+
+	/**
+	 * Returns the ID of the rule obtained by specializing a wildcard rule with the specified word.  A
+	 * new rule is created the first time a wildcard rule is specialized with a given word.
+	 * 
+	 * @param id the ID of a wildcard rule.
+	 * @param word the terminal symbol that the wildcard rule scans.
+	 * @return the ID of the specialized rule.
+	 */
+	public int specialize(int id, Terminal word) {
+		int n = specialized.size();
+		int i = specialized.getId(id, word.getId(), true);
+		if (i == n) {
+			if (i == specializedIds.length)
+				specializedIds = Arrays.resize(specializedIds, 2*i);
+			specializedIds[i] = add(new Rule(rules[id], word));
+		}
+		return specializedIds[i];
+	}
+
+	/**
+	 * Returns the rule with the specified ID.
+	 * 
+	 * @param id a chart-specific rule ID.
+	 * @return the rule with the specified ID.
+	 */
+	public Rule getRule(int id) {
+		return rules[id];
+	}
+
+	/**
+	 * Returns the number of rules that have been assigned IDs.
+	 * 
+	 * @return the number of rules that have been assigned IDs.
+	 */
+	public int countRules() {
+		return nrules;
+	}
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
+
+import wasp.data.Terminal;
+import wasp.util.Arrays;
+import wasp.util.Int;
+
+/**
+ * A disk-backed store of the packed forests of training examples.  Forests are written once in binary
+ * format (see <code>Hypergraph.write</code>), and then read back through memory-mapped buffers every
+ * time they are needed, so the heap usage of parameter estimation does not grow with the size of the
+ * training set.
+ * <p>
+ * Each store is labeled with a key that identifies the training examples and the rules used for
+ * building the forests.  A complete store can be re-opened by a later training run with the same key.
+ * <p>
+ * The file begins with a header: a magic number, the format version, the key, the number of forests,
+ * and the offset of the index.  The forests follow, in the order in which they are written.  The 
+ * index, which is written when the store is closed, gives the offset and the size of each forest in
+ * the file (<code>-1</code> and <code>0</code> for missing forests).
+ * 
+ * @author ywwong
+ *
+ */
+public class ForestStore {
+
+	private static final int MAGIC = 0x57415346;
+	private static final int VERSION = 3;
+	private static final int HEADER_SIZE = 28;
+	/** The maximum size of a memory-mapped region of the file. */
+	private static final long MAX_REGION_SIZE = 1L << 30;
+	
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	/** The file offsets of forests; <code>-1</code> for missing forests. */
+	private long[] offsets;
+	/** The sizes of forests in bytes. */
+	private int[] sizes;
+	/** The end of the last forest written. */
+	private long end;
+	/** Memory-mapped regions of the file; <code>null</code> if the store is not yet closed. */
+	private MappedByteBuffer[] regions;
+	/** The region in which each forest is found. */
+	private int[] region;
+	/** The position of each forest in its region. */
+	private int[] pos;
+	
+	private ForestStore() {}
+	
+	/**
+	 * Creates an empty store for the specified number of forests.  Any existing file with the same name
+	 * is replaced when the new store is closed.
+	 * 
+	 * @param file the file in which the forests are stored.
+	 * @param key the key that identifies the training examples and the rules.
+	 * @param nforests the number of forests.
+	 * @return an empty store.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static ForestStore create(File file, long key, int nforests) throws IOException {
+		ForestStore fs = new ForestStore();
+		fs.file = file;
+		File tmp = new File(file.getPath()+".tmp");
+		tmp.delete();
+		fs.raf = new RandomAccessFile(tmp, "rw");
+		fs.channel = fs.raf.getChannel();
+		fs.offsets = new long[nforests];
+		fs.sizes = new int[nforests];
+		for (int i = 0; i < nforests; ++i)
+			fs.offsets[i] = -1;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(key);
+		header.putInt(nforests);
+		header.putLong(-1);
+		header.flip();
+		write(fs.channel, header, 0);
+		fs.end = HEADER_SIZE;
+		return fs;
+	}
+	
+	/**
+	 * Opens an existing store with the specified key.  This method returns <code>null</code> if the
+	 * file does not exist, or if it is not a complete store with the specified key and number of
+	 * forests.
+	 * 
+	 * @param file the file in which the forests are stored.
+	 * @param key the key that identifies the training examples and the rules.
+	 * @param nforests the number of forests.
+	 * @return the store in the specified file; <code>null</code> if none.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static ForestStore open(File file, long key, int nforests) throws IOException {
+		if (!file.isFile())
+			return null;
+		ForestStore fs = new ForestStore();
+		fs.file = file;
+		fs.raf = new RandomAccessFile(file, "r");
+		fs.channel = fs.raf.getChannel();
+		long length = fs.channel.size();
+		if (length < HEADER_SIZE) {
+			fs.raf.close();
+			return null;
+		}
+		ByteBuffer header = read(fs.channel, 0, HEADER_SIZE);
+		long index = -1;
+		if (header.getInt() == MAGIC && header.getInt() == VERSION && header.getLong() == key
+				&& header.getInt() == nforests)
+			index = header.getLong();
+		if (index < HEADER_SIZE || index+12L*nforests != length) {
+			fs.raf.close();
+			return null;
+		}
+		ByteBuffer buf = read(fs.channel, index, 12*nforests);
+		fs.offsets = new long[nforests];
+		fs.sizes = new int[nforests];
+		for (int i = 0; i < nforests; ++i) {
+			fs.offsets[i] = buf.getLong();
+			fs.sizes[i] = buf.getInt();
+		}
+		fs.end = index;
+		fs.map();
+		return fs;
+	}
+	
+	/**
+	 * Adds the specified forest to this store.  This method can be called by different threads at the
+	 * same time.
+	 * 
+	 * @param i the index of the forest.
+	 * @param hg the forest.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void put(int i, Hypergraph hg) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(hg.getSize());
+		hg.write(buf);
+		buf.flip();
+		synchronized (this) {
+			offsets[i] = end;
+			sizes[i] = buf.limit();
+			write(channel, buf, end);
+			end += sizes[i];
+		}
+	}
+	
+	/**
+	 * Writes the index of this store, and maps the forests into memory.  No forests can be added to
+	 * this store afterwards.
+	 * 
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void close() throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(12*offsets.length);
+		for (int i = 0; i < offsets.length; ++i) {
+			buf.putLong(offsets[i]);
+			buf.putInt(sizes[i]);
+		}
+		buf.flip();
+		write(channel, buf, end);
+		buf = ByteBuffer.allocate(8);
+		buf.putLong(end);
+		buf.flip();
+		write(channel, buf, HEADER_SIZE-8);
+		channel.force(false);
+		// the old file may still be mapped by other stores, so it is replaced rather than overwritten
+		File tmp = new File(file.getPath()+".tmp");
+		file.delete();
+		if (!tmp.renameTo(file))
+			throw new IOException("Cannot rename "+tmp+" to "+file);
+		map();
+	}
+	
+	/**
+	 * Maps the forests into memory.  Each region contains whole forests, and is no larger than
+	 * <code>MAX_REGION_SIZE</code> unless it contains a single forest.
+	 */
+	private void map() throws IOException {
+		int n = offsets.length;
+		Int[] indices = new Int[n];
+		for (int i = 0; i < n; ++i)
+			indices[i] = new Int(i);
+		Arrays.sort(indices, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				long off1 = offsets[((Int) o1).val];
+				long off2 = offsets[((Int) o2).val];
+				return (off1 < off2) ? -1 : ((off1 > off2) ? 1 : 0);
+			}
+		});
+		long[] starts = new long[n];
+		long[] ends = new long[n];
+		int nregions = 0;
+		region = new int[n];
+		pos = new int[n];
+		for (int j = 0; j < n; ++j) {
+			int i = indices[j].val;
+			if (offsets[i] < 0) {
+				region[i] = -1;
+				continue;
+			}
+			if (nregions == 0 || offsets[i]+sizes[i]-starts[nregions-1] > MAX_REGION_SIZE) {
+				starts[nregions] = offsets[i];
+				++nregions;
+			}
+			region[i] = nregions-1;
+			pos[i] = (int) (offsets[i]-starts[nregions-1]);
+			ends[nregions-1] = offsets[i]+sizes[i];
+		}
+		regions = new MappedByteBuffer[nregions];
+		for (int r = 0; r < nregions; ++r)
+			regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, starts[r], ends[r]-starts[r]);
+		// mapped regions remain valid after the channel is closed
+		raf.close();
+		raf = null;
+		channel = null;
+	}
+	
+	/**
+	 * Indicates if this store contains the specified forest.
+	 * 
+	 * @param i the index of a forest.
+	 * @return <code>true</code> if this store contains the specified forest; <code>false</code> 
+	 * otherwise.
+	 */
+	public boolean contains(int i) {
+		return offsets[i] >= 0;
+	}
+	
+	/**
+	 * Reads the specified forest from this store.  This store must be closed first.  This method can be
+	 * called by different threads at the same time.
+	 * 
+	 * @param i the index of a forest.
+	 * @param E the NL sentence of the forest.
+	 * @return the specified forest; <code>null</code> if none.
+	 */
+	public Hypergraph get(int i, Terminal[] E) {
+		if (region[i] < 0)
+			return null;
+		ByteBuffer buf = regions[region[i]].duplicate();
+		buf.position(pos[i]);
+		return Hypergraph.read(buf, E);
+	}
+	
+	/**
+	 * Returns the total size of the forests in this store in bytes.
+	 * 
+	 * @return the total size of the forests in bytes.
+	 */
+	public long getSize() {
+		long size = 0;
+		for (int i = 0; i < sizes.length; ++i)
+			size += sizes[i];
+		return size;
+	}
+	
+	private static void write(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining())
+			position += channel.write(buf, position);
+	}
+	
+	private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		while (buf.hasRemaining())
+			if (channel.read(buf, position+buf.position()) < 0)
+				throw new IOException("Unexpected end of file");
+		buf.flip();
+		return buf;
+	}
+	
+}
@@ -0,0 +1,697 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import wasp.data.Terminal;
+import wasp.math.Semiring;
+import wasp.nl.GapModel;
+import wasp.util.Arrays;
+
+/**
+ * The packed forest of a training example, stored as a hypergraph in primitive arrays.  During 
+ * parameter estimation, the shape of a chart does not depend on the model parameters, so the same
+ * hypergraph can be used for computing the inner and outer scores of items under different parameters,
+ * without parsing the sentence again.
+ * <p>
+ * The hypergraph records every item created by the parser in the order of creation, together with the
+ * back pointer with which it is created, and the chart item that it is combined with (if any).  The
+ * parser may extend an item before all of its back pointers are found, so the inner scores of items
+ * depend on the order in which items are created.  The inside algorithm therefore replays the
+ * computation of the parser step by step, and the outside algorithm visits items in the same order as
+ * the original outside algorithm on Earley charts.  The resulting scores are identical to those
+ * computed on the chart.
+ * <p>
+ * A hypergraph contains both the unconstrained view of the forest (all complete parses of the NL
+ * sentence) and its constrained view (complete parses that yield the correct MR).  The two views only
+ * differ in the set of root nodes.  Items that are not part of any complete parse are removed.
+ * <p>
+ * Items created in the prediction step record both their own rules and the rules that they are tied
+ * to.  Rule weights are shared by tied rules, but each rule can have its own score offset (e.g. the
+ * weighted sum of its feature values), so the inside and outside algorithms need both.
+ * 
+ * @author ywwong
+ *
+ */
+public class Hypergraph {
+	
+	/** The NL sentence. */
+	private Terminal[] E;
+	/** The number of items. */
+	private int nitems;
+	/** IDs of the rules of items created in the prediction step; <code>-1</code> for other items and
+	 * the start item. */
+	private int[] rule;
+	/** IDs of the tied rules of items created in the prediction step; <code>-1</code> for other items
+	 * and the start item. */
+	private int[] tied;
+	/** The back pointers with which items are created; <code>-1</code> for items created in the 
+	 * prediction step. */
+	private int[] back;
+	/** Complete items associated with the back pointers; <code>-1</code> if none. */
+	private int[] comp;
+	/** Positions of the words generated from word gaps; <code>-1</code> if none. */
+	private short[] word;
+	/** The current positions of items. */
+	private short[] current;
+	/** The chart items that items are combined with; <code>-1</code> for items that are added to the
+	 * chart. */
+	private int[] into;
+	/** The items combined with chart item <code>i</code> are <code>combined[firstCombined[i]]</code> to
+	 * <code>combined[firstCombined[i+1]-1]</code>, in the order of creation. */
+	private int[] firstCombined;
+	private int[] combined;
+	/** Items that correspond to complete parses. */
+	private int[] roots;
+	/** Indicates if the complete parses yield the correct MR (i.e. their <code>m</code> fields are not
+	 * empty). */
+	private boolean[] nonEmpty;
+	/** The order in which chart items are visited by the outside algorithm. */
+	private int[] order;
+	/** Chart items created in the prediction step, ordered by their positions. */
+	private int[] predicted;
+	/** The IDs of the tied rules of predicted items, in ascending order without duplicates. */
+	private int[] rules;
+	/** The positions of the words generated from word gaps, in ascending order without duplicates. */
+	private short[] words;
+	/** The number of items created by the parser, including items that have been removed. */
+	private int ncreated;
+	
+	private Hypergraph() {}
+	
+	/**
+	 * Hypergraphs under construction.  Items must be added in the order in which they are created by
+	 * the parser.
+	 */
+	static class Builder {
+		private Terminal[] E;
+		private int nitems;
+		private short[] start;
+		private short[] current;
+		private int[] rule;
+		private int[] tied;
+		private int[] back;
+		private int[] comp;
+		private short[] word;
+		private int[] into;
+		private int nroots;
+		private int[] roots;
+		private boolean[] nonEmpty;
+		public Builder(Terminal[] E) {
+			this.E = E;
+			nitems = 0;
+			start = new short[64];
+			current = new short[64];
+			rule = new int[64];
+			tied = new int[64];
+			back = new int[64];
+			comp = new int[64];
+			word = new short[64];
+			into = new int[64];
+			nroots = 0;
+			roots = new int[4];
+			nonEmpty = new boolean[4];
+		}
+		/**
+		 * Adds an item to this hypergraph.
+		 * 
+		 * @param start the start position of the item.
+		 * @param current the current position of the item.
+		 * @param rule the ID of the rule of the item, if the item is created in the prediction step;
+		 * <code>-1</code> otherwise.
+		 * @param tied the ID of the rule that the rule of the item is tied to, if the item is created
+		 * in the prediction step; <code>-1</code> otherwise.
+		 * @param back the ID of the back-pointer item; <code>-1</code> for items created in the 
+		 * prediction step.
+		 * @param comp the ID of the complete item associated with the back pointer; <code>-1</code> if
+		 * none.
+		 * @param word the position of the word generated from a word gap; <code>-1</code> if none.
+		 * @param into the ID of the chart item that the item is combined with; <code>-1</code> if the 
+		 * item is added to the chart.
+		 * @return the ID of the new item.
+		 */
+		public int addItem(short start, short current, int rule, int tied, int back, int comp,
+				short word, int into) {
+			if (nitems == this.rule.length) {
+				int length = 2*nitems;
+				this.start = Arrays.resize(this.start, length);
+				this.current = Arrays.resize(this.current, length);
+				this.rule = Arrays.resize(this.rule, length);
+				this.tied = Arrays.resize(this.tied, length);
+				this.back = Arrays.resize(this.back, length);
+				this.comp = Arrays.resize(this.comp, length);
+				this.word = Arrays.resize(this.word, length);
+				this.into = Arrays.resize(this.into, length);
+			}
+			this.start[nitems] = start;
+			this.current[nitems] = current;
+			this.rule[nitems] = rule;
+			this.tied[nitems] = tied;
+			this.back[nitems] = back;
+			this.comp[nitems] = comp;
+			this.word[nitems] = word;
+			this.into[nitems] = into;
+			return nitems++;
+		}
+		/**
+		 * Marks the specified chart item as a complete parse.  Complete parses must be marked in the
+		 * order in which they are added to the chart.
+		 * 
+		 * @param item the ID of a chart item.
+		 * @param nonEmpty indicates if the parse yields the correct MR.
+		 */
+		public void addRoot(int item, boolean nonEmpty) {
+			if (nroots == roots.length) {
+				roots = Arrays.resize(roots, 2*nroots);
+				this.nonEmpty = Arrays.resize(this.nonEmpty, 2*nroots);
+			}
+			roots[nroots] = item;
+			this.nonEmpty[nroots] = nonEmpty;
+			++nroots;
+		}
+		/**
+		 * Returns the hypergraph built, with items that are not part of any complete parse removed.
+		 * 
+		 * @return the hypergraph built.
+		 */
+		public Hypergraph build() {
+			int[][] combined = getCombined(into, nitems);
+			// find all items that the inner scores of the complete parses depend on
+			boolean[] reachable = new boolean[nitems];
+			int[] stack = new int[nitems];
+			int top = 0;
+			for (int i = 0; i < nroots; ++i)
+				if (!reachable[roots[i]]) {
+					reachable[roots[i]] = true;
+					stack[top++] = roots[i];
+				}
+			while (top > 0) {
+				int i = stack[--top];
+				if (back[i] >= 0 && !reachable[back[i]]) {
+					reachable[back[i]] = true;
+					stack[top++] = back[i];
+				}
+				if (comp[i] >= 0 && !reachable[comp[i]]) {
+					reachable[comp[i]] = true;
+					stack[top++] = comp[i];
+				}
+				for (int j = 0; j < combined[i].length; ++j)
+					if (!reachable[combined[i][j]]) {
+						reachable[combined[i][j]] = true;
+						stack[top++] = combined[i][j];
+					}
+			}
+			int[] ids = new int[nitems];
+			int n = 0;
+			for (int i = 0; i < nitems; ++i)
+				ids[i] = (reachable[i]) ? n++ : -1;
+			Hypergraph hg = new Hypergraph();
+			hg.E = E;
+			hg.nitems = n;
+			hg.ncreated = nitems;
+			hg.rule = new int[n];
+			hg.tied = new int[n];
+			hg.back = new int[n];
+			hg.comp = new int[n];
+			hg.word = new short[n];
+			hg.current = new short[n];
+			hg.into = new int[n];
+			for (int i = 0; i < nitems; ++i)
+				if (reachable[i]) {
+					int j = ids[i];
+					hg.rule[j] = rule[i];
+					hg.tied[j] = tied[i];
+					hg.back[j] = (back[i] < 0) ? -1 : ids[back[i]];
+					hg.comp[j] = (comp[i] < 0) ? -1 : ids[comp[i]];
+					hg.word[j] = word[i];
+					hg.current[j] = current[i];
+					// combining an item with an unreachable chart item has no effect
+					hg.into[j] = (into[i] < 0) ? -1 : ids[into[i]];
+				}
+			hg.firstCombined = new int[n+1];
+			int m = 0;
+			for (int i = 0; i < nitems; ++i)
+				if (reachable[i]) {
+					hg.firstCombined[ids[i]] = m;
+					m += combined[i].length;
+				}
+			hg.firstCombined[n] = m;
+			hg.combined = new int[m];
+			for (int i = 0, k = 0; i < nitems; ++i)
+				if (reachable[i])
+					for (int j = 0; j < combined[i].length; ++j)
+						hg.combined[k++] = ids[combined[i][j]];
+			hg.roots = new int[nroots];
+			hg.nonEmpty = new boolean[nroots];
+			for (int i = 0; i < nroots; ++i) {
+				hg.roots[i] = ids[roots[i]];
+				hg.nonEmpty[i] = nonEmpty[i];
+			}
+			hg.order = getOuterOrder(hg, reachable, ids);
+			hg.predicted = getPredicted(reachable, ids);
+			hg.index();
+			return hg;
+		}
+		private static int[][] getCombined(int[] into, int nitems) {
+			int[] counts = new int[nitems];
+			for (int i = 0; i < nitems; ++i)
+				if (into[i] >= 0)
+					++counts[into[i]];
+			int[][] combined = new int[nitems][];
+			for (int i = 0; i < nitems; ++i) {
+				combined[i] = new int[counts[i]];
+				counts[i] = 0;
+			}
+			for (int i = 0; i < nitems; ++i)
+				if (into[i] >= 0)
+					combined[into[i]][counts[into[i]]++] = i;
+			return combined;
+		}
+		/**
+		 * Returns the order in which chart items are visited by the outside algorithm.  Positions are
+		 * visited from right to left.  For each position, items created in the completion step are
+		 * visited first, with earlier start positions first, and later items first among items with the
+		 * same start position.  Then items created in the scanning step are visited in the order in 
+		 * which they are added to the chart.
+		 */
+		private int[] getOuterOrder(Hypergraph hg, boolean[] reachable, int[] ids) {
+			int maxPos = E.length;
+			int[] counts = new int[maxPos+1];
+			for (int i = 0; i < nitems; ++i)
+				if (reachable[i] && into[i] < 0 && back[i] >= 0)
+					++counts[current[i]];
+			int[][] sets = new int[maxPos+1][];
+			for (int i = 0; i <= maxPos; ++i) {
+				sets[i] = new int[counts[i]];
+				counts[i] = 0;
+			}
+			for (int i = 0; i < nitems; ++i)
+				if (reachable[i] && into[i] < 0 && back[i] >= 0)
+					sets[current[i]][counts[current[i]]++] = i;
+			int[] order = new int[hg.nitems];
+			int n = 0;
+			for (int i = maxPos; i > 0; --i) {
+				long[] keys = new long[counts[i]];
+				int ncomps = 0;
+				for (int j = 0; j < counts[i]; ++j) {
+					int item = sets[i][j];
+					if (comp[item] >= 0)
+						keys[ncomps++] = ((long) start[item] << 32) | (Integer.MAX_VALUE-ids[item]);
+				}
+				java.util.Arrays.sort(keys, 0, ncomps);
+				for (int j = 0; j < ncomps; ++j)
+					order[n++] = Integer.MAX_VALUE-(int) keys[j];
+				for (int j = 0; j < counts[i]; ++j) {
+					int item = sets[i][j];
+					if (comp[item] < 0)
+						order[n++] = ids[item];
+				}
+			}
+			return Arrays.resize(order, n);
+		}
+		private int[] getPredicted(boolean[] reachable, int[] ids) {
+			int maxPos = E.length;
+			int[] counts = new int[maxPos+2];
+			for (int i = 0; i < nitems; ++i)
+				if (reachable[i] && into[i] < 0 && rule[i] >= 0)
+					++counts[current[i]+1];
+			for (int i = 1; i <= maxPos+1; ++i)
+				counts[i] += counts[i-1];
+			int[] predicted = new int[counts[maxPos+1]];
+			for (int i = 0; i < nitems; ++i)
+				if (reachable[i] && into[i] < 0 && rule[i] >= 0)
+					predicted[counts[current[i]]++] = ids[i];
+			return predicted;
+		}
+	}
+	
+	/**
+	 * Returns the number of items in this hypergraph.
+	 * 
+	 * @return the number of items in this hypergraph.
+	 */
+	public int countItems() {
+		return nitems;
+	}
+	
+	/**
+	 * Returns the number of items in this hypergraph that are combined with other items.  These items
+	 * correspond to additional hyperedges of the chart items.
+	 * 
+	 * @return the number of items in this hypergraph that are combined with other items.
+	 */
+	public int countCombined() {
+		return combined.length;
+	}
+	
+	/**
+	 * Returns the number of items created by the parser when this hypergraph is built, including 
+	 * items that are not part of any complete parse.  For hypergraphs read from binary format, this is
+	 * the same as <code>countItems()</code>.
+	 * 
+	 * @return the number of items created by the parser.
+	 */
+	public int countCreated() {
+		return ncreated;
+	}
+	
+	/**
+	 * Returns the IDs of the tied rules used in this hypergraph.  These are the only rules whose outer
+	 * scores can be updated by the <code>outside</code> method.
+	 * 
+	 * @return the IDs of the tied rules used in this hypergraph, in ascending order.
+	 */
+	public int[] getRules() {
+		return rules;
+	}
+	
+	/**
+	 * Returns the positions of the words generated from word gaps in this hypergraph.  These are the
+	 * only words for which the <code>outside</code> method calls <code>GapModel.addOuterScores</code>.
+	 * 
+	 * @return the positions of the words generated from word gaps, in ascending order.
+	 */
+	public short[] getGapWords() {
+		return words;
+	}
+	
+	/**
+	 * Finds the rules and the words generated from word gaps that are used in this hypergraph.  This
+	 * information is not stored in binary format, since it can be recovered in a single pass.
+	 */
+	private void index() {
+		int[] rules = new int[predicted.length];
+		for (int i = 0; i < predicted.length; ++i)
+			rules[i] = tied[predicted[i]];
+		java.util.Arrays.sort(rules);
+		int n = 0;
+		for (int i = 0; i < rules.length; ++i)
+			if (n == 0 || rules[n-1] != rules[i])
+				rules[n++] = rules[i];
+		this.rules = Arrays.resize(rules, n);
+		boolean[] used = new boolean[E.length];
+		n = 0;
+		for (int i = 0; i < nitems; ++i)
+			if (word[i] >= 0 && !used[word[i]]) {
+				used[word[i]] = true;
+				++n;
+			}
+		words = new short[n];
+		n = 0;
+		for (short i = 0; i < E.length; ++i)
+			if (used[i])
+				words[n++] = i;
+	}
+	
+	///
+	/// Binary format
+	///
+	
+	/**
+	 * Returns the number of bytes needed for storing this hypergraph in binary format.
+	 * 
+	 * @return the size of this hypergraph in binary format.
+	 */
+	public int getSize() {
+		int nints = 5+5*nitems+(nitems+1)+combined.length+roots.length+order.length+predicted.length;
+		int nshorts = 2*nitems;
+		return 4*nints+2*nshorts+roots.length;
+	}
+	
+	/**
+	 * Writes this hypergraph in binary format to the specified buffer, starting at its current 
+	 * position.  The position of the buffer is advanced by <code>getSize()</code> bytes.  The NL
+	 * sentence is not written.
+	 * 
+	 * @param buf the buffer to write to.
+	 */
+	public void write(ByteBuffer buf) {
+		buf.putInt(nitems);
+		buf.putInt(combined.length);
+		buf.putInt(roots.length);
+		buf.putInt(order.length);
+		buf.putInt(predicted.length);
+		putInts(buf, rule);
+		putInts(buf, tied);
+		putInts(buf, back);
+		putInts(buf, comp);
+		putInts(buf, into);
+		putInts(buf, firstCombined);
+		putInts(buf, combined);
+		putInts(buf, roots);
+		putInts(buf, order);
+		putInts(buf, predicted);
+		putShorts(buf, word);
+		putShorts(buf, current);
+		for (int i = 0; i < nonEmpty.length; ++i)
+			buf.put((byte) ((nonEmpty[i]) ? 1 : 0));
+	}
+	
+	private static void putShorts(ByteBuffer buf, short[] array) {
+		ShortBuffer sb = buf.asShortBuffer();
+		sb.put(array);
+		buf.position(buf.position()+2*array.length);
+	}
+	
+	private static void putInts(ByteBuffer buf, int[] array) {
+		IntBuffer ib = buf.asIntBuffer();
+		ib.put(array);
+		buf.position(buf.position()+4*array.length);
+	}
+	
+	/**
+	 * Reads a hypergraph in binary format from the specified buffer, starting at its current position.
+	 * The position of the buffer is advanced past the hypergraph.
+	 * 
+	 * @param buf the buffer to read from.
+	 * @param E the NL sentence of the hypergraph.
+	 * @return the hypergraph read.
+	 */
+	public static Hypergraph read(ByteBuffer buf, Terminal[] E) {
+		Hypergraph hg = new Hypergraph();
+		hg.E = E;
+		hg.nitems = buf.getInt();
+		hg.ncreated = hg.nitems;
+		int ncombined = buf.getInt();
+		int nroots = buf.getInt();
+		int norder = buf.getInt();
+		int npredicted = buf.getInt();
+		hg.rule = getInts(buf, hg.nitems);
+		hg.tied = getInts(buf, hg.nitems);
+		hg.back = getInts(buf, hg.nitems);
+		hg.comp = getInts(buf, hg.nitems);
+		hg.into = getInts(buf, hg.nitems);
+		hg.firstCombined = getInts(buf, hg.nitems+1);
+		hg.combined = getInts(buf, ncombined);
+		hg.roots = getInts(buf, nroots);
+		hg.order = getInts(buf, norder);
+		hg.predicted = getInts(buf, npredicted);
+		hg.word = getShorts(buf, hg.nitems);
+		hg.current = getShorts(buf, hg.nitems);
+		hg.nonEmpty = new boolean[nroots];
+		for (int i = 0; i < nroots; ++i)
+			hg.nonEmpty[i] = buf.get() != 0;
+		hg.index();
+		return hg;
+	}
+	
+	private static short[] getShorts(ByteBuffer buf, int length) {
+		short[] array = new short[length];
+		buf.asShortBuffer().get(array);
+		buf.position(buf.position()+2*length);
+		return array;
+	}
+	
+	private static int[] getInts(ByteBuffer buf, int length) {
+		int[] array = new int[length];
+		buf.asIntBuffer().get(array);
+		buf.position(buf.position()+4*length);
+		return array;
+	}
+	
+	///
+	/// Inside-outside algorithm
+	///
+	
+	/**
+	 * The inner scores of items under a particular set of parameters, in the internal form of a
+	 * semiring.  If the semiring requires scaling, then the scores of items that span words
+	 * <i>i</i>+1 to <i>j</i> are multiplied by the scaling factors of positions <i>i</i>+1 to
+	 * <i>j</i>.
+	 */
+	public static class Inside {
+		/** The semiring used. */
+		public Semiring sr;
+		/** The inner scores of items. */
+		public double[] inner;
+		/** The weights of words generated from word gaps, indexed by position. */
+		public double[] w;
+		/** The scaling factors of positions; <code>sr.one()</code> if no scaling is done. */
+		public double[] scale;
+		/** The log of the product of all scaling factors. */
+		public double logScale;
+	}
+	
+	/**
+	 * The inside algorithm for calculating the inner scores of items under the specified parameters.
+	 * Scores are computed using the specified semiring.  If the semiring requires scaling, then the 
+	 * scaling factor of each position is set when the first word at that position is scanned, so that
+	 * the first item created at that position has a score of one.
+	 * 
+	 * @param weights the rule weights, indexed by rule ID.  Only the weights of tied rules are used.
+	 * @param offsets the score offsets of rules (e.g. the weighted sums of their feature values), 
+	 * indexed by rule ID, which are added to the weights of their tied rules; <code>null</code> if 
+	 * there are no offsets.
+	 * @param gm the word-gap model.
+	 * @param sr the semiring to use.
+	 * @return the inner scores of items.
+	 */
+	public Inside inside(double[] weights, double[] offsets, GapModel gm, Semiring sr) {
+		Inside in = new Inside();
+		in.sr = sr;
+		in.w = new double[E.length];
+		for (int i = 0; i < E.length; ++i)
+			in.w[i] = sr.fromLog(gm.getWeight(E[i]));
+		in.scale = new double[E.length+1];
+		boolean[] scaled = new boolean[E.length+1];
+		double[] inner = in.inner = new double[nitems];
+		for (int i = 0; i < nitems; ++i) {
+			double v;
+			if (back[i] < 0) {
+				// predicted item or start item
+				if (rule[i] < 0)
+					v = sr.one();
+				else if (offsets == null)
+					v = sr.fromLog(weights[tied[i]]);
+				else
+					v = sr.fromLog(weights[tied[i]]+offsets[rule[i]]);
+			} else if (comp[i] >= 0)
+				v = sr.times(inner[back[i]], inner[comp[i]]);
+			else {
+				// scanning
+				if (word[i] >= 0)
+					v = sr.times(inner[back[i]], in.w[word[i]]);
+				else
+					v = inner[back[i]];
+				short k = current[i];
+				if (!scaled[k]) {
+					in.scale[k] = sr.getScale(v);
+					scaled[k] = true;
+				}
+				v = sr.times(v, in.scale[k]);
+			}
+			inner[i] = v;
+			if (into[i] >= 0)
+				inner[into[i]] = sr.plus(inner[into[i]], v);
+		}
+		in.logScale = 0;
+		for (int i = 0; i <= E.length; ++i)
+			if (scaled[i])
+				in.logScale += sr.toLog(in.scale[i]);
+		return in;
+	}
+	
+	/**
+	 * Returns the log sum of the scores of all complete parses.
+	 * 
+	 * @param in the inner scores of items.
+	 * @param ignoreEmpty indicates if parses that do not yield the correct MR are ignored.
+	 * @return the log sum of the scores of all complete parses.
+	 */
+	public double getScore(Inside in, boolean ignoreEmpty) {
+		Semiring sr = in.sr;
+		double z = sr.zero();
+		for (int i = 0; i < roots.length; ++i)
+			if (!ignoreEmpty || nonEmpty[i])
+				z = sr.plus(z, in.inner[roots[i]]);
+		return sr.toLog(z)-in.logScale;
+	}
+	
+	/**
+	 * The outside algorithm for calculating the outer scores of rules and word-gap model parameters.
+	 * The outer scores are added in log form to the specified arrays, which must be initialized to 
+	 * negative infinity by the caller.  The outer score of a tied rule includes the score offsets of
+	 * the rules tied to it, so that its log expected count is its weight plus its outer score, minus
+	 * the log sum of the scores of the parses considered.
+	 * 
+	 * @param in the inner scores of items.
+	 * @param ignoreEmpty indicates if parses that do not yield the correct MR are ignored.
+	 * @param offsets the score offsets of rules, indexed by rule ID, as in the <code>inside</code>
+	 * method; <code>null</code> if there are no offsets.
+	 * @param gm the word-gap model.
+	 * @param ruleOuters the outer scores of rules, indexed by the IDs of tied rules.
+	 * @param gapOuters the outer scores of the parameters of the word-gap model, listed in the same order
+	 * as in <code>GapModel.getWeightVector</code>.
+	 */
+	public void outside(Inside in, boolean ignoreEmpty, double[] offsets, GapModel gm,
+			double[] ruleOuters, double[] gapOuters) {
+		Semiring sr = in.sr;
+		double[] outer = new double[nitems];
+		Arrays.fill(outer, sr.zero());
+		for (int i = 0; i < roots.length; ++i)
+			if (!ignoreEmpty || nonEmpty[i])
+				outer[roots[i]] = sr.one();
+		for (int i = 0; i < order.length; ++i) {
+			int item = order[i];
+			addOuterScores(in, outer, gm, gapOuters, item, item);
+			for (int j = firstCombined[item]; j < firstCombined[item+1]; ++j)
+				addOuterScores(in, outer, gm, gapOuters, item, combined[j]);
+		}
+		for (int i = 0; i < predicted.length; ++i) {
+			int item = predicted[i];
+			double z = sr.toLog(outer[item])-in.logScale;
+			if (offsets != null)
+				z += offsets[rule[item]];
+			ruleOuters[tied[item]] = sr.logAdd(ruleOuters[tied[item]], z);
+		}
+	}
+	
+	/**
+	 * Propagates the outer score of a chart item through one of its back pointers.
+	 * 
+	 * @param item the chart item.
+	 * @param edge the item that is created with the back pointer (i.e. <code>item</code> itself, or an
+	 * item combined with it).
+	 */
+	private void addOuterScores(Inside in, double[] outer, GapModel gm, double[] gapOuters, int item,
+			int edge) {
+		Semiring sr = in.sr;
+		double[] inner = in.inner;
+		int b = back[edge];
+		int c = comp[edge];
+		if (c >= 0) {
+			outer[b] = sr.plus(outer[b], sr.times(outer[item], inner[c]));
+			outer[c] = sr.plus(outer[c], sr.times(outer[item], inner[b]));
+		} else if (word[edge] >= 0) {
+			// word gap
+			short k = word[edge];
+			double scale = in.scale[current[edge]];
+			outer[b] = sr.plus(outer[b], sr.times(sr.times(outer[item], in.w[k]), scale));
+			double z = sr.times(sr.times(sr.times(outer[item], inner[b]), in.w[k]), scale);
+			gm.addOuterScores(gapOuters, E[k], sr.toLog(z)-in.logScale);
+		} else
+			outer[b] = sr.plus(outer[b], sr.times(outer[item], in.scale[current[edge]]));
+	}
+	
+
+}
@@ -37,6 +37,8 @@ public class Item {
 	private static final int INC = 8;
 	
 	public Rule rule;
+	/** The chart-specific ID of the rule; see <code>ChartRules</code>. */
+	public int ruleId;
 	public short dot;
 	/** Number of words that have been skipped due to the word gap on the left of the dot. */
 	public short gap;
@@ -49,8 +51,6 @@ public class Item {
 	public BitSet m;
 	/** The inner score. */
 	public double inner;
-	/** The outer score. */
-	public double outer;
 	public int timestamp;
 	private int nback;
 	private Item[] back;
@@ -64,13 +64,13 @@ public class Item {
 	 */
 	public Item(Rule rule, short start) {
 		this.rule = rule;
+		ruleId = -1;
 		dot = 0;
 		gap = 0;
 		this.start = start;
 		current = start;
 		m = null;
 		inner = Double.NEGATIVE_INFINITY;
-		outer = Double.NEGATIVE_INFINITY;
 		timestamp = 0;
 		nback = 0;
 		back = null;
@@ -78,7 +78,9 @@ public class Item {
 	}
 
 	/**
-	 * Creates an item for the scanning step.
+	 * Creates an item for the scanning step.  If the rule of the back-pointer item is a wildcard rule, 
+	 * then the rule is specialized with the scanned word, and the <code>ruleId</code> field has to be 
+	 * set by the caller.
 	 * 
 	 * @param back the back-pointer item.
 	 * @param word the terminal symbol that has been scanned.
@@ -88,13 +90,13 @@ public class Item {
 			rule = new Rule(back.rule, word);
 		else
 			rule = back.rule;
+		ruleId = back.ruleId;
 		dot = (short) (back.dot+1);
 		gap = 0;
 		start = back.start;
 		current = (short) (back.current+1);
 		m = null;
 		inner = Double.NEGATIVE_INFINITY;
-		outer = Double.NEGATIVE_INFINITY;
 		timestamp = 0;
 		nback = 1;
 		this.back = new Item[1];
@@ -110,13 +112,13 @@ public class Item {
 	 */
 	public Item(Item back, Item comp) {
 		rule = back.rule;
+		ruleId = back.ruleId;
 		dot = (short) (back.dot+1);
 		gap = 0;
 		start = back.start;
 		current = comp.current;
 		m = null;
 		inner = Double.NEGATIVE_INFINITY;
-		outer = Double.NEGATIVE_INFINITY;
 		timestamp = 0;
 		nback = 1;
 		this.back = new Item[1];
@@ -132,13 +134,13 @@ public class Item {
 	 */
 	public Item(Item back) {
 		rule = back.rule;
+		ruleId = back.ruleId;
 		dot = back.dot;
 		gap = (short) (back.gap+1);
 		start = back.start;
 		current = (short) (back.current+1);
 		m = null;
 		inner = Double.NEGATIVE_INFINITY;
-		outer = Double.NEGATIVE_INFINITY;
 		timestamp = 0;
 		nback = 1;
 		this.back = new Item[1];
@@ -146,6 +148,41 @@ public class Item {
 		backComp = null;
 	}
 	
+	/**
+	 * Creates an item with the specified content and at most one back pointer.  This is used for
+	 * turning items in a <code>PackedChart</code> into <code>Item</code> objects.
+	 * 
+	 * @param back the back-pointer item; <code>null</code> if none.
+	 * @param comp the complete item associated with the back pointer; <code>null</code> if none.
+	 */
+	Item(Rule rule, int ruleId, short dot, short gap, short start, short current, BitSet m, double inner,
+			Item back, Item comp) {
+		this.rule = rule;
+		this.ruleId = ruleId;
+		this.dot = dot;
+		this.gap = gap;
+		this.start = start;
+		this.current = current;
+		this.m = m;
+		this.inner = inner;
+		timestamp = 0;
+		if (back == null) {
+			nback = 0;
+			this.back = null;
+			backComp = null;
+		} else {
+			nback = 1;
+			this.back = new Item[1];
+			this.back[0] = back;
+			if (comp == null)
+				backComp = null;
+			else {
+				backComp = new Item[1];
+				backComp[0] = comp;
+			}
+		}
+	}
+	
 	public boolean equals(Object o) {
 		if (o instanceof Item) {
 			Item i = (Item) o;
@@ -207,6 +244,34 @@ public class Item {
 	 */
 	public void combine(Item item) {
 		inner = Math.logAdd(inner, item.inner);
+		addBack(item);
+	}
+	
+	/**
+	 * Merges the back pointers of the specified item into this item, keeping the higher of the two
+	 * inner scores.  The back pointer with the highest score is always the first back pointer of this
+	 * item.  Like the <code>combine</code> method, the specified item must be <i>equal</i> to this 
+	 * item.  This method is used for building packed forests for <i>K</i>-best decoding.
+	 * 
+	 * @param item an item that is equal to this item.
+	 */
+	public void merge(Item item) {
+		int i = nback;
+		addBack(item);
+		if (item.inner > inner) {
+			inner = item.inner;
+			Item tmp = back[0];
+			back[0] = back[i];
+			back[i] = tmp;
+			if (backComp != null) {
+				tmp = backComp[0];
+				backComp[0] = backComp[i];
+				backComp[i] = tmp;
+			}
+		}
+	}
+	
+	private void addBack(Item item) {
 		if (nback+item.nback > back.length) {
 			back = (Item[]) Arrays.resize(back, ((nback+item.nback-1)/INC+1)*INC);
 			if (backComp != null)
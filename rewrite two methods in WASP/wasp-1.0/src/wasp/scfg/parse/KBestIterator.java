@@ -0,0 +1,316 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import wasp.data.Terminal;
+import wasp.nl.GapModel;
+import wasp.scfg.SCFG;
+import wasp.util.Arrays;
+import wasp.util.Heap;
+
+/**
+ * An iterator over the top-scoring parses in a packed forest, in descending order of scores.  It is
+ * based on the lazy <i>K</i>-best algorithm of Huang and Chiang (2005, Algorithm 3).  Derivations of
+ * each item are only found when they are needed, so getting the top <i>K</i> parses costs little more
+ * than getting the best parse, and callers that stop early do not pay for the rest.
+ * <p>
+ * Items in the forest are the <i>nodes</i>, and the back pointers of an item are its incoming
+ * <i>hyperedges</i>.  The tails of a hyperedge are the back-pointer item and the complete item
+ * associated with it, if any.  Items from the prediction step have a single hyperedge with no tails,
+ * whose weight is the inner score of the item (i.e. the rule weight).  Hyperedges for word skipping
+ * are weighted by the word-gap model, and all other hyperedges have zero weight.  Scores of
+ * derivations are always computed from these weights, not from the inner scores in the chart, which
+ * may be out of date.
+ * <p>
+ * Derivations that go through cycles of unary rules are ignored.
+ * 
+ * @author ywwong
+ *
+ */
+public class KBestIterator implements Iterator {
+	
+	private static final int INC = 8;
+	private static final Comparator BEST_FIRST = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			Derivation d1 = (Derivation) o1;
+			Derivation d2 = (Derivation) o2;
+			if (d1.score > d2.score)
+				return -1;
+			else if (d1.score < d2.score)
+				return 1;
+			else if (d1.edge < d2.edge)
+				return -1;
+			else if (d1.edge > d2.edge)
+				return 1;
+			for (int i = 0; i < d1.ranks.length; ++i)
+				if (d1.ranks[i] < d2.ranks[i])
+					return -1;
+				else if (d1.ranks[i] > d2.ranks[i])
+					return 1;
+			return 0;
+		}
+	};
+	
+	/**
+	 * Nodes of a packed forest, together with the derivations that have been found for them.
+	 */
+	private static class Node {
+		/** The chart item; <code>null</code> for the root of the forest. */
+		public Item item;
+		/** The derivations of this node found so far, in descending order of scores. */
+		public ArrayList derivs;
+		/** The candidates for the next best derivation; <code>null</code> if not yet initialized. */
+		public Heap cands;
+		/** The hyperedges and ranks of all derivations that have become candidates, as
+		 * <code>CandKey</code> objects. */
+		public HashSet seen;
+		/** Indicates if derivations of this node are being looked for. */
+		public boolean busy;
+		public Node(Item item) {
+			this.item = item;
+			derivs = new ArrayList();
+			cands = null;
+			seen = new HashSet();
+			busy = false;
+		}
+	}
+	
+	/**
+	 * Derivations of a node.  A derivation is identified by a hyperedge and the ranks of the
+	 * derivations of the tails of this hyperedge.
+	 */
+	private static class Derivation {
+		public Node node;
+		public int edge;
+		public int[] ranks;
+		public double score;
+		public Derivation(Node node, int edge, int[] ranks, double score) {
+			this.node = node;
+			this.edge = edge;
+			this.ranks = ranks;
+			this.score = score;
+		}
+	}
+	
+	/**
+	 * Keys that identify the candidate derivations of a node by their hyperedges and tail ranks.
+	 */
+	private static class CandKey {
+		public int edge;
+		public int[] ranks;
+		public CandKey(int edge, int[] ranks) {
+			this.edge = edge;
+			this.ranks = ranks;
+		}
+		public boolean equals(Object o) {
+			if (o instanceof CandKey) {
+				CandKey k = (CandKey) o;
+				return edge == k.edge && Arrays.equal(ranks, k.ranks);
+			}
+			return false;
+		}
+		public int hashCode() {
+			return 31*edge + Arrays.hashCode(ranks);
+		}
+	}
+	
+	private GapModel gm;
+	private Terminal[] E;
+	private int kbest;
+	/** Complete items for the start symbol that span the entire input sentence.  These are the tails of
+	 * the hyperedges of the root. */
+	private Item[] tops;
+	private Node root;
+	/** Maps each item to its node. */
+	private IdentityHashMap nodes;
+	/** The number of parses returned so far. */
+	private int n;
+	
+	/**
+	 * Creates an iterator over the top-scoring parses in the specified packed forest.
+	 * 
+	 * @param gram the SCFG used for parsing.
+	 * @param gm the word-gap model used for parsing.
+	 * @param E the input sentence.
+	 * @param c a packed forest created by <code>Chart.createForest</code>.
+	 * @param kbest the maximum number of top-scoring parses to return.  Ties are broken arbitrarily.  
+	 * If <code>kbest</code> is <code>0</code>, then all parses are returned.
+	 */
+	public KBestIterator(SCFG gram, GapModel gm, Terminal[] E, Chart c, int kbest) {
+		this.gm = gm;
+		this.E = E;
+		this.kbest = kbest;
+		ArrayList list = new ArrayList();
+		int start = gram.getStart();
+		for (Iterator it = c.sets[c.maxPos].iterator(); it.hasNext();) {
+			Item item = (Item) it.next();
+			if (item.start == 0 && item.dot == item.rule.lengthE() && item.rule.getLhs() == start)
+				list.add(item);
+		}
+		tops = (Item[]) list.toArray(new Item[0]);
+		root = new Node(null);
+		nodes = new IdentityHashMap();
+		n = 0;
+	}
+	
+	public boolean hasNext() {
+		if (kbest > 0 && n >= kbest)
+			return false;
+		findKth(root, n);
+		return n < root.derivs.size();
+	}
+	
+	public Object next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		Derivation d = (Derivation) root.derivs.get(n++);
+		return new SCFGParse(toItem(getTailDerivation(d, 0)), d.score);
+	}
+	
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	private Node getNode(Item item) {
+		Node v = (Node) nodes.get(item);
+		if (v == null) {
+			v = new Node(item);
+			nodes.put(item, v);
+		}
+		return v;
+	}
+	
+	private int countEdges(Node v) {
+		if (v.item == null)
+			return tops.length;
+		int nback = v.item.countBack();
+		return (nback==0) ? 1 : nback;
+	}
+	
+	private int countTails(Node v, int e) {
+		if (v.item == null)
+			return 1;
+		if (v.item.countBack() == 0)
+			return 0;
+		return (v.item.getBackComplete(e)==null) ? 1 : 2;
+	}
+	
+	private Node getTail(Node v, int e, int i) {
+		if (v.item == null)
+			return getNode(tops[e]);
+		return getNode((i==0) ? v.item.getBack(e) : v.item.getBackComplete(e));
+	}
+	
+	private double getWeight(Node v, int e) {
+		if (v.item == null)
+			return 0;
+		if (v.item.countBack() == 0)
+			return v.item.inner;
+		Item back = v.item.getBack(e);
+		if (v.item.getBackComplete(e) == null && back.dot == v.item.dot)
+			// word gap
+			return gm.getWeight(E[back.current]);
+		return 0;
+	}
+	
+	private Derivation getTailDerivation(Derivation d, int i) {
+		Node t = getTail(d.node, d.edge, i);
+		return (Derivation) t.derivs.get(d.ranks[i]);
+	}
+	
+	/**
+	 * Finds the <code>k</code>-th best derivation (counting from <code>0</code>) of the specified node,
+	 * if there is one.
+	 */
+	private void findKth(Node v, int k) {
+		if (v.derivs.size() > k || v.busy)
+			return;
+		v.busy = true;
+		if (v.cands == null)
+			initCands(v);
+		while (v.derivs.size() <= k) {
+			if (!v.derivs.isEmpty())
+				addNextCands(v, (Derivation) v.derivs.get(v.derivs.size()-1));
+			if (v.cands.isEmpty())
+				break;
+			v.derivs.add(v.cands.extractMin());
+		}
+		v.busy = false;
+	}
+	
+	/**
+	 * Adds the best derivation of each hyperedge of the specified node to its candidates.
+	 */
+	private void initCands(Node v) {
+		v.cands = new Heap(BEST_FIRST, INC);
+		int nedges = countEdges(v);
+		for (int e = 0; e < nedges; ++e)
+			addCand(v, e, new int[countTails(v, e)]);
+	}
+	
+	/**
+	 * Adds the neighbors of the specified derivation to the candidates of its node.  A neighbor has the
+	 * same hyperedge, and the rank of exactly one of its tails is one more.
+	 */
+	private void addNextCands(Node v, Derivation d) {
+		for (int i = 0; i < d.ranks.length; ++i) {
+			int[] ranks = d.ranks.clone();
+			++ranks[i];
+			addCand(v, d.edge, ranks);
+		}
+	}
+	
+	private void addCand(Node v, int e, int[] ranks) {
+		double score = getWeight(v, e);
+		for (int i = 0; i < ranks.length; ++i) {
+			Node t = getTail(v, e, i);
+			findKth(t, ranks[i]);
+			if (t.derivs.size() <= ranks[i])
+				return;
+			score += ((Derivation) t.derivs.get(ranks[i])).score;
+		}
+		if (v.seen.add(new CandKey(e, ranks)))
+			v.cands.add(new Derivation(v, e, ranks, score));
+	}
+	
+	/**
+	 * Turns the specified derivation into a chain of <code>Item</code> objects, so that it can be used
+	 * in <code>SCFGParse</code> objects.
+	 */
+	private Item toItem(Derivation d) {
+		Item item = d.node.item;
+		Item back = null;
+		Item comp = null;
+		if (d.ranks.length > 0)
+			back = toItem(getTailDerivation(d, 0));
+		if (d.ranks.length > 1)
+			comp = toItem(getTailDerivation(d, 1));
+		return new Item(item.rule, item.ruleId, item.dot, item.gap, item.start, item.current, null,
+				d.score, back, comp);
+	}
+
+}
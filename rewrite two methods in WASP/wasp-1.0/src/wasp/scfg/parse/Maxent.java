@@ -19,22 +19,33 @@
  */
 package wasp.scfg.parse;
 
-import java.util.HashSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.logging.Logger;
 
 import wasp.data.Example;
 import wasp.data.Examples;
-import wasp.data.Node;
+import wasp.data.Terminal;
+import wasp.main.Config;
+import wasp.math.AdaGrad;
 import wasp.math.LBFGS;
 import wasp.math.Math;
+import wasp.math.Semiring;
 import wasp.math.Vectors;
 import wasp.nl.GapModel;
 import wasp.scfg.Rule;
-import wasp.scfg.RuleSymbol;
 import wasp.scfg.SCFG;
 import wasp.util.Arrays;
 import wasp.util.Double;
+import wasp.util.Int;
 
 /**
  * Code for estimating the parameters of SCFG translation models based on the maximum-entropy principle.
@@ -42,49 +53,150 @@ import wasp.util.Double;
  * @author ywwong
  *
  */
-public class Maxent implements LBFGS.Objective {
+public class Maxent implements LBFGS.Objective, AdaGrad.Objective {
 
 	private static Logger logger = Logger.getLogger(Maxent.class.getName());
 	
 	private static final double PRIOR_VARIANCE = 100;
 	private static final boolean DO_VITERBI_APPROX = true;
 	private static final int VITERBI_APPROX_ITERATIONS = 10;
+	/** The number of AdaGrad epochs between Viterbi approximation checks. */
+	private static final int VITERBI_APPROX_EPOCHS = 2;
 	private static final int VITERBI_APPROX_K = 1;
+	/** The name of the file in which the packed forests of training examples are stored, if they are
+	 * stored on disk. */
+	private static final String FOREST_FILE = "forests";
+	/** The maximum length of sentences for which scaled probabilities are used, if the 
+	 * <code>scaled</code> semiring is specified.  The log semiring is used for longer sentences. */
+	private static final int SCALED_MAX_LENGTH = 30;
+	private static final int DEFAULT_BATCH_SIZE = 32;
+	/** The name of the file in the model directory in which checkpoints of LBFGS training are 
+	 * written. */
+	private static final String CHECKPOINT_FILE = "checkpoint";
+	private static final int CHECKPOINT_MAGIC = 0x57415343;
+	private static final int CHECKPOINT_VERSION = 1;
+	/** The number of recent evaluations of the objective function that are cached. */
+	private static final int CACHE_SIZE = 4;
+	/** The number of training examples that are parsed without pruning, for estimating the error due
+	 * to chart pruning. */
+	private static final int GAP_SAMPLE_SIZE = 50;
 	
 	private SCFG gram;
 	private GapModel gm;
 
 	private Examples examples;
-	private double[] lastX;
-	private double lastVal;
-	private double[] lastGrad;
+	/** The training examples, indexed by their positions in <code>examples</code>. */
+	private Example[] exs;
+	/** Indicates if parameters are estimated using AdaGrad instead of LBFGS. */
+	private boolean adagrad;
+	/** The number of examples in each minibatch for AdaGrad. */
+	private int batchSize;
+	/** The number of threads for computing the objective function and its gradient. */
+	private int nthreads;
+	/** The semiring used for the inside-outside algorithm. */
+	private Semiring semiring;
+	/** The number of LBFGS iterations between checkpoints; <code>0</code> if no checkpoints are 
+	 * written. */
+	private int checkpointInterval;
+	/** Indicates if training resumes from the last checkpoint, if there is one. */
+	private boolean resume;
+	/** Recent evaluations of the objective function, most recent first. */
+	private Evaluation[] cache;
+	/** The per-iteration metrics of parameter estimation. */
+	private TrainingMonitor monitor;
+	
+	/** The current weights of rules, indexed by rule ID.  Inactive rules have a weight of zero. */
+	private double[] ruleWeights;
+	/** The weighted sums of the feature values of rules, indexed by rule ID, which are added to the 
+	 * rule weights as fixed offsets; <code>null</code> if feature values are ignored. */
+	private double[] ruleOffsets;
+	/** Indicates which rules are active, indexed by rule ID. */
+	private boolean[] activeRules;
+	/** The current parameters of the word-gap model. */
+	private double[] gapWeights;
+	/** The packed forests of the training examples, which are re-used until rules are deactivated;
+	 * <code>null</code> if they are yet to be built.  The entry for an example is <code>null</code> if
+	 * the correct MR cannot be found for the example. */
+	private Hypergraph[] forests;
+	/** The disk-backed store of the packed forests of the training examples, if a directory for
+	 * storing forests is specified in the configuration file (via the key 
+	 * <code>Config.SCFG_FOREST_DIR</code>); <code>null</code> if forests are kept in memory, or if 
+	 * they are yet to be built. */
+	private ForestStore store;
 	
 	public Maxent(SCFG gram, GapModel gm) {
 		this.gram = gram;
 		this.gm = gm;
+		String n = Config.get(Config.SCFG_TRAIN_THREADS);
+		nthreads = (n==null) ? 1 : Int.parseInt(n);
+		if (nthreads < 1)
+			nthreads = 1;
+		semiring = Semiring.get(Config.get(Config.SCFG_SEMIRING));
+		adagrad = "adagrad".equals(Config.get(Config.SCFG_OPTIMIZER));
+		String size = Config.get(Config.SCFG_BATCH_SIZE);
+		batchSize = (size==null) ? DEFAULT_BATCH_SIZE : Int.parseInt(size);
+		String interval = Config.get(Config.SCFG_CHECKPOINT);
+		checkpointInterval = (interval==null) ? 0 : Int.parseInt(interval);
+		resume = "true".equals(Config.get(Config.SCFG_RESUME));
 	}
 	
 	/**
 	 * Estimates the parameters of the SCFG translation model such that the conditional log-likelihood 
-	 * of the specified training examples is maximized.
+	 * of the specified training examples is maximized.  The LBFGS algorithm is used, unless AdaGrad is
+	 * specified in the configuration file (via the key <code>Config.SCFG_OPTIMIZER</code>).
+	 * <p>
+	 * If checkpoints are turned on in the configuration file (via the key 
+	 * <code>Config.SCFG_CHECKPOINT</code>), then the state of the LBFGS algorithm is periodically 
+	 * written to a file called <code>checkpoint</code> in the model directory.  If resumption is turned
+	 * on (via the key <code>Config.SCFG_RESUME</code>), then training resumes from that file if it 
+	 * matches the current training examples and rules.  The file is removed when training is done.
 	 * 
 	 * @param examples the training examples.
 	 */
 	public void estimate(Examples examples) {
 		logger.info("Estimating the parameters of the SCFG translation model");
-		this.examples = examples;
-		reset();
+		init(examples);
 		double[] weights = getInitWeightVector();
-		new LBFGS().minimize(this, weights);
+		if (adagrad)
+			new AdaGrad(PRIOR_VARIANCE, batchSize).minimize(this, weights);
+		else {
+			LBFGS lbfgs = new LBFGS();
+			if (resume)
+				readCheckpoint(lbfgs, weights);
+			lbfgs.minimize(this, weights);
+			getCheckpointFile().delete();
+		}
 		setWeightVector(weights);
 		reset();
+		monitor.close();
 		logger.info("Parameter estimation of the SCFG translation model is done");
 	}
 
+	/**
+	 * Prepares for evaluating the objective function on the specified training examples.  This is 
+	 * called by the <code>estimate</code> method, and by tests that evaluate the objective function
+	 * directly.  The <code>TrainingMonitor</code> created here is closed by <code>estimate</code>.
+	 * 
+	 * @param examples the training examples.
+	 */
+	void init(Examples examples) {
+		this.examples = examples;
+		exs = new Example[examples.size()];
+		int n = 0;
+		for (Iterator it = examples.iterator(); it.hasNext();)
+			exs[n++] = (Example) it.next();
+		reset();
+		try {
+			monitor = TrainingMonitor.createNew();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
 	private void reset() {
-		lastX = null;
-		lastVal = Double.NaN;
-		lastGrad = null;
+		cache = new Evaluation[CACHE_SIZE];
+		forests = null;
+		store = null;
 	}
 	
 	/**
@@ -98,40 +210,181 @@ public class Maxent implements LBFGS.Objective {
 		return new double[nr+np];
 	}
 	
+	/**
+	 * Sparse vectors of log values.  Entries are listed in increasing order of index.
+	 */
+	private static class SparseVector {
+		public int size;
+		public int[] indices;
+		public double[] values;
+		public SparseVector() {
+			size = 0;
+			indices = new int[16];
+			values = new double[16];
+		}
+		public void add(int index, double value) {
+			if (size == indices.length) {
+				indices = Arrays.resize(indices, size*2);
+				values = Arrays.resize(values, size*2);
+			}
+			indices[size] = index;
+			values[size] = value;
+			++size;
+		}
+	}
+	
+	/**
+	 * The contribution of a single training example to the objective function and its gradient.
+	 */
+	private static class Expectation {
+		public double z_E;
+		public double z_EF;
+		/** The log expected counts of parameters given the NL sentence; <code>null</code> if the correct 
+		 * MR cannot be found, or if the outside algorithm is skipped. */
+		public SparseVector T_E;
+		/** The log expected counts of parameters given the NL sentence and the correct MR. */
+		public SparseVector T_EF;
+	}
+	
+	/**
+	 * Evaluations of the objective function.
+	 */
+	private static class Evaluation {
+		public double[] X;
+		public int hash;
+		public double val;
+		/** The gradient at <code>X</code>; <code>null</code> if only the value has been computed. */
+		public double[] grad;
+	}
+	
+	/**
+	 * Returns the cached evaluation of the objective function at the specified point.
+	 * 
+	 * @param X the current parameters.
+	 * @return the cached evaluation at <code>X</code>; <code>null</code> if there is none.
+	 */
+	private Evaluation lookup(double[] X) {
+		int hash = Arrays.hashCode(X);
+		for (int i = 0; i < cache.length; ++i)
+			if (cache[i] != null && cache[i].hash == hash && Arrays.equal(cache[i].X, X))
+				return cache[i];
+		return null;
+	}
+	
+	/**
+	 * Caches an evaluation of the objective function, replacing any earlier evaluation at the same
+	 * point, or the least recent one if the cache is full.
+	 * 
+	 * @param X the current parameters.
+	 * @param val the value of the objective function at <code>X</code>.
+	 * @param grad the gradient at <code>X</code>; <code>null</code> if it has not been computed.
+	 */
+	private void remember(double[] X, double val, double[] grad) {
+		Evaluation e = new Evaluation();
+		e.X = (double[]) X.clone();
+		e.hash = Arrays.hashCode(X);
+		e.val = val;
+		e.grad = (grad==null) ? null : (double[]) grad.clone();
+		int j = cache.length-1;
+		for (int i = 0; i < cache.length; ++i)
+			if (cache[i] != null && cache[i].hash == e.hash && Arrays.equal(cache[i].X, X)) {
+				j = i;
+				break;
+			}
+		for (int i = j; i > 0; --i)
+			cache[i] = cache[i-1];
+		cache[0] = e;
+	}
+	
+	/**
+	 * Threads for computing the contributions of training examples to the objective function and its
+	 * gradient.  Each thread has its own parser and outer-score arrays.  Examples are handed out through
+	 * a shared counter, and results are stored in a shared array in the same order as the examples.
+	 * Anything thrown by a thread, including errors such as <code>OutOfMemoryError</code>, is handed
+	 * to the main thread, which would otherwise wait for the missing results forever.
+	 */
+	private class ExpectationThread extends Thread {
+		private double[] X;
+		private boolean build;
+		private boolean outside;
+		private int[] indices;
+		private Expectation[] results;
+		private int[] next;
+		private Throwable error;
+		public ExpectationThread(double[] X, boolean build, boolean outside, int[] indices,
+				Expectation[] results, int[] next) {
+			this.X = X;
+			this.build = build;
+			this.outside = outside;
+			this.indices = indices;
+			this.results = results;
+			this.next = next;
+			error = null;
+		}
+		public void run() {
+			try {
+				SCFGParser parser = SCFGParser.createNew(gram, gm);
+				double[] ruleOuters = null;
+				double[] gapOuters = null;
+				if (outside) {
+					ruleOuters = new double[ruleWeights.length];
+					gapOuters = new double[gapWeights.length];
+					Arrays.fill(ruleOuters, Double.NEGATIVE_INFINITY);
+					Arrays.fill(gapOuters, Double.NEGATIVE_INFINITY);
+				}
+				while (true) {
+					int j;
+					synchronized (next) {
+						if (next[0] >= indices.length)
+							break;
+						j = next[0]++;
+					}
+					int i = indices[j];
+					Expectation e = getExpectation(parser, exs[i], i, X, build, ruleOuters, gapOuters);
+					synchronized (results) {
+						results[j] = e;
+						results.notifyAll();
+					}
+				}
+			} catch (Throwable e) {
+				synchronized (results) {
+					error = e;
+					results.notifyAll();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Computes the objective function and its gradient.  Training examples are parsed in parallel if
+	 * more than one thread is specified in the configuration file (via the key 
+	 * <code>Config.SCFG_TRAIN_THREADS</code>).  The contributions of individual examples are always
+	 * summed in the order of the examples, so the results are the same regardless of the number of
+	 * threads.
+	 * <p>
+	 * Training examples are only parsed when their packed forests are yet to be built.  Otherwise, the
+	 * inside-outside algorithm is run on the existing forests using the new parameters.  Forests are 
+	 * kept in memory, or stored on disk if a directory is specified in the configuration file (via the 
+	 * key <code>Config.SCFG_FOREST_DIR</code>).
+	 */
 	public void getValueAndGradient(double[] X, Double val, double[] grad) {
-		if (lastX != null && Arrays.equal(lastX, X)) {
-			val.val = lastVal;
-			Vectors.assign(grad, lastGrad);
+		Evaluation cached = lookup(X);
+		if (cached != null && cached.grad != null) {
+			val.val = cached.val;
+			Vectors.assign(grad, cached.grad);
+			monitor.setPoint(val.val, Vectors.twoNorm(grad));
 			return;
 		}
+		monitor.addEvaluation();
 		double[] T_E = new double[X.length];
 		double[] T_EF = new double[X.length];
-		Arrays.fill(T_E, Double.NEGATIVE_INFINITY);
-		Arrays.fill(T_EF, Double.NEGATIVE_INFINITY);
 		val.val = 0;
 		setWeightVector(X);
-		SCFGParser parser = new SCFGParser(gram, gm);
-		for (Iterator it = examples.iterator(); it.hasNext();) {
-			Example ex = (Example) it.next();
-			logger.finest("example "+ex.id);
-			double z_E = Double.NEGATIVE_INFINITY;
-			double z_EF = Double.NEGATIVE_INFINITY;
-			for (Iterator jt = parser.parse(ex.E, ex.F); jt.hasNext();) {
-				SCFGParse parse = (SCFGParse) jt.next();
-				z_E = Math.logAdd(z_E, parse.score);
-				if (!parse.item.m.isEmpty())
-					z_EF = Math.logAdd(z_EF, parse.score);
-			}
-			if (z_EF > Double.NEGATIVE_INFINITY) {
-				val.val += z_E - z_EF;
-				parser.outside(false);
-				addT(T_E, z_E);
-				parser.outside(true);
-				addT(T_EF, z_EF);
-				logger.fine(ex.id+" "+(z_EF-z_E));
-			} else
-				logger.fine(ex.id+" X");
-		}
+		gram.prepare();
+		boolean build = initForests();
+		addExpectations(X, getAllIndices(), build, val, T_E, T_EF);
+		if (build)
+			finishForests(X);
 		logger.fine("log Pr(F|E) = "+(-val.val));
 		for (int i = 0; i < X.length; ++i) {
 			val.val += X[i]*X[i]/(2*PRIOR_VARIANCE);
@@ -139,43 +392,491 @@ public class Maxent implements LBFGS.Objective {
 			grad[i] += X[i]/PRIOR_VARIANCE;
 		}
 		logger.fine("obj func = "+val);
-		logger.fine("norm(G) = "+Vectors.twoNorm(grad));
-		lastX = (double[]) X.clone();
-		lastVal = val.val;
-		lastGrad = (double[]) grad.clone();
+		double norm = Vectors.twoNorm(grad);
+		logger.fine("norm(G) = "+norm);
+		monitor.setPoint(val.val, norm);
+		remember(X, val.val, grad);
+	}
+	
+	/**
+	 * Computes the objective function without its gradient.  Only the inside algorithm is run on the
+	 * packed forests of the training examples, and the contributions of examples are summed in the
+	 * same order as in <code>getValueAndGradient</code>, so the value is exactly the same.
+	 */
+	public double getValue(double[] X) {
+		Evaluation cached = lookup(X);
+		if (cached != null)
+			return cached.val;
+		monitor.addEvaluation();
+		Double val = new Double(0);
+		setWeightVector(X);
+		gram.prepare();
+		boolean build = initForests();
+		addExpectations(X, getAllIndices(), build, val, null, null);
+		if (build)
+			finishForests(X);
+		logger.fine("log Pr(F|E) = "+(-val.val));
+		for (int i = 0; i < X.length; ++i)
+			val.val += X[i]*X[i]/(2*PRIOR_VARIANCE);
+		logger.fine("obj func = "+val+" (no gradient)");
+		remember(X, val.val, null);
+		return val.val;
 	}
 	
 	/**
-	 * Sets the parameters of the SCFG translation model to the specified values.
+	 * Computes the contribution of the specified training examples to the objective function and its 
+	 * gradient, without the prior.  This is used for stochastic optimization.  The packed forests of
+	 * all training examples are built the first time this method is called after rules are 
+	 * deactivated.  Only the inside algorithm is run while the forests are built, and the 
+	 * inside-outside algorithm is then run on the forests of the specified examples.
 	 * 
-	 * @param weights the parameter values to use; parameters are listed in the same order as in the
-	 * <code>getWeightVector</code> method.
+	 * @param X the current parameters.
+	 * @param batch the indices of the training examples.
+	 * @param val an <i>output</i> variable for the negative conditional log-likelihood of the examples.
+	 * @param grad an <i>output</i> vector for the gradient of the negative conditional log-likelihood.
 	 */
-	private void setWeightVector(double[] weights) {
+	public void getValueAndGradient(double[] X, int[] batch, Double val, double[] grad) {
+		monitor.addEvaluation();
+		setWeightVector(X);
+		gram.prepare();
+		if (initForests()) {
+			addExpectations(X, getAllIndices(), true, new Double(), null, null);
+			finishForests(X);
+		}
+		double[] T_E = new double[X.length];
+		double[] T_EF = new double[X.length];
+		val.val = 0;
+		addExpectations(X, batch, false, val, T_E, T_EF);
+		for (int i = 0; i < X.length; ++i)
+			grad[i] = Math.exp(T_E[i])-Math.exp(T_EF[i]);
+	}
+	
+	public int countExamples() {
+		return exs.length;
+	}
+	
+	private int[] getAllIndices() {
+		int[] indices = new int[exs.length];
+		for (int i = 0; i < exs.length; ++i)
+			indices[i] = i;
+		return indices;
+	}
+	
+	/**
+	 * Adds the contributions of the specified training examples to the objective function and the log
+	 * expected counts of parameters.  Examples are processed in parallel if more than one thread is
+	 * used, but their contributions are always added in the order in which they are specified.
+	 * 
+	 * @param X the current parameters.
+	 * @param indices the indices of the training examples.
+	 * @param build indicates if the packed forests of the examples have to be built.
+	 * @param val the negative conditional log-likelihood to add to.
+	 * @param T_E an <i>output</i> vector for the log expected counts of parameters given the NL 
+	 * sentences; <code>null</code> if only the objective function is needed, in which case the outside
+	 * algorithm is skipped.
+	 * @param T_EF an <i>output</i> vector for the log expected counts of parameters given the NL
+	 * sentences and the correct MRs; <code>null</code> if only the objective function is needed.
+	 */
+	private void addExpectations(double[] X, int[] indices, boolean build, Double val, double[] T_E,
+			double[] T_EF) {
+		boolean outside = T_E != null;
+		if (outside) {
+			Arrays.fill(T_E, Double.NEGATIVE_INFINITY);
+			Arrays.fill(T_EF, Double.NEGATIVE_INFINITY);
+		}
+		if (nthreads == 1) {
+			SCFGParser parser = SCFGParser.createNew(gram, gm);
+			double[] ruleOuters = null;
+			double[] gapOuters = null;
+			if (outside) {
+				ruleOuters = new double[ruleWeights.length];
+				gapOuters = new double[gapWeights.length];
+				Arrays.fill(ruleOuters, Double.NEGATIVE_INFINITY);
+				Arrays.fill(gapOuters, Double.NEGATIVE_INFINITY);
+			}
+			for (int j = 0; j < indices.length; ++j) {
+				int i = indices[j];
+				addExpectation(exs[i], getExpectation(parser, exs[i], i, X, build, ruleOuters, gapOuters),
+						val, T_E, T_EF);
+			}
+		} else {
+			Expectation[] results = new Expectation[indices.length];
+			int[] next = new int[1];
+			ExpectationThread[] threads = new ExpectationThread[nthreads];
+			for (int i = 0; i < nthreads; ++i) {
+				threads[i] = new ExpectationThread(X, build, outside, indices, results, next);
+				threads[i].start();
+			}
+			for (int j = 0; j < indices.length; ++j) {
+				Expectation e;
+				synchronized (results) {
+					while ((e = results[j]) == null) {
+						for (int k = 0; k < nthreads; ++k)
+							if (threads[k].error != null)
+								rethrow(threads[k].error);
+						try {
+							results.wait();
+						} catch (InterruptedException ie) {
+							throw new RuntimeException(ie);
+						}
+					}
+					results[j] = null;
+				}
+				addExpectation(exs[indices[j]], e, val, T_E, T_EF);
+			}
+			for (int i = 0; i < nthreads; ++i)
+				try {
+					threads[i].join();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+		}
+	}
+	
+	/**
+	 * Re-throws something thrown by a worker thread in the calling thread.  Checked exceptions are
+	 * wrapped in a <code>RuntimeException</code>.
+	 * 
+	 * @param t something thrown by a worker thread.
+	 */
+	private static void rethrow(Throwable t) {
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		throw new RuntimeException(t);
+	}
+	
+	/**
+	 * Completes the construction of the packed forests of the training examples.  If charts are pruned
+	 * during parameter estimation, then the error in the objective function due to pruning is 
+	 * estimated as well.
+	 * 
+	 * @param X the parameters with which the forests are built.
+	 */
+	private void finishForests(double[] X) {
+		if (store != null)
+			try {
+				store.close();
+				logger.fine("packed forests take up "+store.getSize()+" bytes on disk");
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		else {
+			long nitems = 0;
+			long ncombined = 0;
+			for (int i = 0; i < forests.length; ++i)
+				if (forests[i] != null) {
+					nitems += forests[i].countItems();
+					ncombined += forests[i].countCombined();
+				}
+			logger.fine("packed forests have "+nitems+" items, "+ncombined+" of which are combined");
+		}
+		if (Beam.createNewForTraining() != null)
+			reportNormalizerGap(X);
+	}
+	
+	/**
+	 * Estimates the difference between the exact objective function and the objective function 
+	 * computed from pruned charts.  Since items that are part of the correct MR are never pruned, only
+	 * the normalizing constant <i>z<sub>E</sub></i> of each example is affected, and pruning can only 
+	 * make it smaller.  A sample of the training examples is parsed with and without pruning, and the
+	 * mean difference in log <i>z<sub>E</sub></i> is scaled up to all examples.
+	 * 
+	 * @param X the current parameters.
+	 */
+	private void reportNormalizerGap(double[] X) {
+		SCFGParser pruned = SCFGParser.createNew(gram, gm);
+		SCFGParser exact = SCFGParser.createNew(gram, gm);
+		exact.setBeam(null);
+		int step = (exs.length > GAP_SAMPLE_SIZE) ? exs.length/GAP_SAMPLE_SIZE : 1;
+		int nsampled = 0;
+		double sum = 0;
+		double max = 0;
+		for (int i = 0; i < exs.length; i += step) {
+			double z_pruned = getNormalizer(pruned, exs[i], X);
+			if (!(z_pruned > Double.NEGATIVE_INFINITY))
+				continue;
+			double gap = getNormalizer(exact, exs[i], X)-z_pruned;
+			++nsampled;
+			sum += gap;
+			if (max < gap)
+				max = gap;
+		}
+		if (nsampled == 0)
+			return;
+		int nparsed = 0;
+		for (int i = 0; i < exs.length; ++i)
+			if (store != null || forests[i] != null)
+				++nparsed;
+		double gap = sum/nsampled*nparsed;
+		logger.info("pruning lowers log z_E by "+(sum/nsampled)+" on average (max "+max+") over "
+				+nsampled+" examples; estimated objective error = "+gap);
+		monitor.setNormalizerGap(gap);
+	}
+	
+	/**
+	 * Returns the log sum of the scores of all parses of the specified training example found by the
+	 * specified parser; negative infinity if the correct MR is not found.
+	 */
+	private double getNormalizer(SCFGParser parser, Example ex, double[] X) {
+		parser.parse(ex.E, ex.F);
+		Hypergraph forest = parser.getHypergraph();
+		if (forest == null)
+			return Double.NEGATIVE_INFINITY;
+		Hypergraph.Inside inner = forest.inside(X, ruleOffsets, gm, Semiring.LOG);
+		if (!(forest.getScore(inner, true) > Double.NEGATIVE_INFINITY))
+			return Double.NEGATIVE_INFINITY;
+		return forest.getScore(inner, false);
+	}
+	
+	/**
+	 * Prepares the packed forests of the training examples.  If a directory for storing forests is
+	 * specified, then forests built by an earlier training run are re-used if the training examples 
+	 * and the active rules are the same.
+	 * 
+	 * @return <code>true</code> if the forests have to be built; <code>false</code> otherwise.
+	 */
+	private boolean initForests() {
+		if (forests != null || store != null)
+			return false;
+		String dir = Config.get(Config.SCFG_FOREST_DIR);
+		if (dir == null) {
+			forests = new Hypergraph[exs.length];
+			return true;
+		}
+		File parent = new File(dir);
+		if (!parent.isDirectory() && !parent.mkdirs())
+			throw new RuntimeException("cannot create directory "+dir+" (key "+Config.SCFG_FOREST_DIR+")");
+		File file = new File(parent, FOREST_FILE);
+		long key = getForestKey();
+		try {
+			store = ForestStore.open(file, key, exs.length);
+			if (store != null) {
+				logger.fine("re-use packed forests in "+file);
+				return false;
+			}
+			store = ForestStore.create(file, key, exs.length);
+			return true;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Returns a key that identifies the specified training examples, the active rules, and the parser
+	 * settings that affect the shape of packed forests.
+	 * 
+	 * @return the key of the packed forests of the training examples.
+	 */
+	private long getForestKey() {
+		long key = getKey(true);
+		String filter = Config.get(Config.SCFG_FILTER);
+		key = 31*key+((filter==null) ? 0 : filter.hashCode());
+		return key;
+	}
+	
+	/**
+	 * Returns a key that identifies the training examples and the rules.
+	 * 
+	 * @param active indicates if the key depends on which rules are active.
+	 * @return the key of the training examples and the rules.
+	 */
+	private long getKey(boolean active) {
+		long key = exs.length;
+		for (int i = 0; i < exs.length; ++i) {
+			key = 31*key+exs[i].id;
+			for (int j = 0; j < exs[i].E.length; ++j)
+				key = 31*key+exs[i].E[j].getId();
+			key = 31*key+exs[i].F.str.hashCode();
+		}
 		int nr = gram.countRules();
+		key = 31*key+nr;
 		for (int i = 0; i < nr; ++i) {
 			Rule rule = gram.getRule(i);
-			if (rule.isActive()) {
-				int tied = gram.getId(gram.tied(rule));
-				rule.setWeight(weights[tied]);
+			if (active)
+				key = 31*key+((rule.isActive()) ? 1 : 0);
+			key = 31*key+rule.toString().hashCode();
+			key = 31*key+gram.getTiedId(i);
+		}
+		return key;
+	}
+	
+	/**
+	 * Computes the contribution of the specified training example to the objective function and its
+	 * gradient.  If the packed forests of the training examples are being built, then the example is
+	 * parsed and its forest is stored.  This method can be called by different threads at the same 
+	 * time, as long as each thread uses its own parser and outer-score arrays.
+	 * <p>
+	 * Only the outer scores of the rules and word-gap model parameters that appear in the forest are
+	 * visited, so the cost of this method depends on the size of the forest rather than the size of
+	 * the grammar.  The outer-score arrays must be filled with negative infinity when this method is
+	 * called, and they are left that way when this method returns.  If they are <code>null</code>, 
+	 * then the outside algorithm is skipped, and only the log sums of parse scores are computed.
+	 * 
+	 * @param parser the parser to use.
+	 * @param ex a training example.
+	 * @param i the index of the <code>ex</code> argument.
+	 * @param X the current parameters.
+	 * @param build indicates if the packed forest of the example has to be built.
+	 * @param ruleOuters an array for storing the outer scores of rules, initially negative infinity.
+	 * @param gapOuters an array for storing the outer scores of the word-gap model parameters, 
+	 * initially negative infinity.
+	 * @return the contribution of the <code>ex</code> argument.
+	 */
+	private Expectation getExpectation(SCFGParser parser, Example ex, int i, double[] X, boolean build,
+			double[] ruleOuters, double[] gapOuters) {
+		long start = System.nanoTime();
+		Hypergraph forest;
+		if (build) {
+			parser.parse(ex.E, ex.F);
+			forest = parser.getHypergraph();
+		} else if (store != null)
+			forest = store.get(i, ex.E);
+		else
+			forest = forests[i];
+		Expectation e = new Expectation();
+		if (forest == null) {
+			e.z_E = e.z_EF = Double.NEGATIVE_INFINITY;
+			monitor.addExample(ex.id, System.nanoTime()-start, -1, 0, 0);
+			return e;
+		}
+		Semiring sr = semiring;
+		if (sr == Semiring.SCALED && ex.E.length > SCALED_MAX_LENGTH)
+			sr = Semiring.LOG;
+		Hypergraph.Inside inner = forest.inside(X, ruleOffsets, gm, sr);
+		e.z_E = forest.getScore(inner, false);
+		if (sr == Semiring.SCALED
+				&& !(e.z_E > Double.NEGATIVE_INFINITY && e.z_E < Double.POSITIVE_INFINITY)) {
+			// scaling has failed to prevent underflow or overflow
+			inner = forest.inside(X, ruleOffsets, gm, Semiring.LOG);
+			e.z_E = forest.getScore(inner, false);
+		}
+		e.z_EF = forest.getScore(inner, true);
+		if (e.z_EF > Double.NEGATIVE_INFINITY) {
+			if (ruleOuters != null) {
+				int[] rules = forest.getRules();
+				int[] params = getGapParams(forest, ex.E);
+				forest.outside(inner, false, ruleOffsets, gm, ruleOuters, gapOuters);
+				e.T_E = getT(ruleOuters, gapOuters, rules, params, e.z_E);
+				forest.outside(inner, true, ruleOffsets, gm, ruleOuters, gapOuters);
+				e.T_EF = getT(ruleOuters, gapOuters, rules, params, e.z_EF);
 			}
+			// the shape of the forest does not change until it is rebuilt, so forests without any
+			// parse of the correct MR are never kept
+			if (build && store != null)
+				try {
+					store.put(i, forest);
+				} catch (IOException ioe) {
+					throw new RuntimeException(ioe);
+				}
+			else if (build)
+				forests[i] = forest;
+		}
+		if (build)
+			monitor.addExample(ex.id, System.nanoTime()-start, forest.countCreated(), 
+					parser.countPrunedItems(), forest.countItems());
+		else
+			monitor.addExample(ex.id, System.nanoTime()-start, -1, 0, forest.countItems());
+		return e;
+	}
+	
+	/**
+	 * Returns the positions of the word-gap model parameters whose outer scores may be updated when
+	 * the outside algorithm is run on the specified forest.
+	 */
+	private int[] getGapParams(Hypergraph forest, Terminal[] E) {
+		short[] words = forest.getGapWords();
+		int[][] lists = new int[words.length][];
+		int n = 0;
+		for (int i = 0; i < words.length; ++i) {
+			lists[i] = gm.getParams(E[words[i]]);
+			n += lists[i].length;
+		}
+		int[] params = new int[n];
+		n = 0;
+		for (int i = 0; i < lists.length; ++i)
+			for (int j = 0; j < lists[i].length; ++j)
+				params[n++] = lists[i][j];
+		java.util.Arrays.sort(params);
+		n = 0;
+		for (int i = 0; i < params.length; ++i)
+			if (n == 0 || params[n-1] != params[i])
+				params[n++] = params[i];
+		return Arrays.resize(params, n);
+	}
+	
+	/**
+	 * Collects the log expected counts of the specified rules and word-gap model parameters from their
+	 * outer scores, and resets the outer scores to negative infinity.
+	 * 
+	 * @param rules the IDs of the tied rules to visit, in ascending order.
+	 * @param params the positions of the word-gap model parameters to visit, in ascending order.
+	 * @param z the log sum of the scores of the parses considered.
+	 */
+	private SparseVector getT(double[] ruleOuters, double[] gapOuters, int[] rules, int[] params,
+			double z) {
+		SparseVector T = new SparseVector();
+		for (int j = 0; j < rules.length; ++j) {
+			int i = rules[j];
+			if (activeRules[i] && ruleOuters[i] > Double.NEGATIVE_INFINITY)
+				T.add(i, ruleWeights[i]+ruleOuters[i]-z);
+			ruleOuters[i] = Double.NEGATIVE_INFINITY;
+		}
+		for (int j = 0; j < params.length; ++j) {
+			int i = params[j];
+			if (gapOuters[i] > Double.NEGATIVE_INFINITY)
+				T.add(ruleOuters.length+i, gapWeights[i]+gapOuters[i]-z);
+			gapOuters[i] = Double.NEGATIVE_INFINITY;
+		}
+		return T;
+	}
+	
+	private void addExpectation(Example ex, Expectation e, Double val, double[] T_E, double[] T_EF) {
+		logger.finest("example "+ex.id);
+		if (e.z_EF > Double.NEGATIVE_INFINITY) {
+			val.val += e.z_E - e.z_EF;
+			if (T_E != null) {
+				addT(T_E, e.T_E);
+				addT(T_EF, e.T_EF);
+			}
+			logger.fine(ex.id+" "+(e.z_EF-e.z_E));
+		} else
+			logger.fine(ex.id+" X");
+	}
+	
+	private void addT(double[] T, SparseVector t) {
+		for (int i = 0; i < t.size; ++i) {
+			int j = t.indices[i];
+			T[j] = Math.logAdd(T[j], t.values[i]);
 		}
-		gm.setWeightVector(Arrays.subarray(weights, nr, weights.length));
 	}
 	
-	private void addT(double[] T, double z) {
+	/**
+	 * Sets the parameters of the SCFG translation model to the specified values.  The weighted sums of
+	 * the feature values of rules are kept as fixed offsets, which are not part of the parameters.
+	 * 
+	 * @param weights the parameter values to use; parameters are listed in the same order as in the
+	 * <code>getWeightVector</code> method.
+	 */
+	private void setWeightVector(double[] weights) {
 		int nr = gram.countRules();
+		ruleWeights = new double[nr];
+		ruleOffsets = (gram.getFeatureWeights()==null) ? null : new double[nr];
+		activeRules = new boolean[nr];
 		for (int i = 0; i < nr; ++i) {
 			Rule rule = gram.getRule(i);
 			if (rule.isActive()) {
-				int tied = gram.getId(gram.tied(rule));
-				T[tied] = Math.logAdd(T[tied], rule.getWeight()+rule.getOuterScore()-z);
+				int tied = gram.getTiedId(i);
+				rule.setWeight(weights[tied]);
+				ruleWeights[i] = rule.getWeight();
+				if (ruleOffsets != null)
+					ruleOffsets[i] = rule.getFeatureScore();
+				activeRules[i] = true;
 			}
 		}
-		double[] weights = gm.getWeightVector();
-		double[] outers = gm.getOuterScores();
-		for (int i = 0; i < weights.length; ++i)
-			T[nr+i] = Math.logAdd(T[nr+i], weights[i]+outers[i]-z);
+		gm.setWeightVector(Arrays.subarray(weights, nr, weights.length));
+		gapWeights = gm.getWeightVector();
 	}
 	
 	public void getX(double[] X) {
@@ -192,7 +893,7 @@ public class Maxent implements LBFGS.Objective {
 		double[] weights = new double[nr];
 		for (int i = 0; i < nr; ++i) {
 			Rule rule = gram.getRule(i);
-			if (rule.isActive() && rule == gram.tied(rule))
+			if (rule.isActive() && gram.getTiedId(i) == i)
 				weights[i] = rule.getWeight();
 		}
 		return Arrays.concat(weights, gm.getWeightVector());
@@ -207,41 +908,219 @@ public class Maxent implements LBFGS.Objective {
 	public void check(LBFGS lbfgs, int iter, boolean isLastIter) {
 		if (DO_VITERBI_APPROX) {
 			if (isLastIter || (iter+1) % VITERBI_APPROX_ITERATIONS == 0) {
-				HashSet set = new HashSet();
-				SCFGParser parser = new SCFGParser(gram, gm, VITERBI_APPROX_K);
-				for (Iterator it = examples.iterator(); it.hasNext();) {
-					Example ex = (Example) it.next();
-					for (Iterator jt = parser.parse(ex.E, ex.F); jt.hasNext();) {
-						SCFGParse parse = (SCFGParse) jt.next();
-						markRules(set, parse.toTree());
-					}
+				if (deactivateRules())
+					lbfgs.reset();
+			}
+		}
+		monitor.endIteration(iter, countActiveRules());
+	}
+	
+	/**
+	 * Writes a checkpoint every <code>checkpointInterval</code> iterations.  A checkpoint consists of
+	 * the IDs of inactive rules, the current decision vector, and the state of the underlying 
+	 * <code>LBFGS</code> object.  The checkpoint file is replaced atomically, so a job that is killed
+	 * while writing a checkpoint leaves the previous one intact.
+	 */
+	public void checkpoint(LBFGS lbfgs, double[] X, int iter) {
+		if (checkpointInterval <= 0 || (iter+1) % checkpointInterval != 0)
+			return;
+		File file = getCheckpointFile();
+		File tmp = new File(file.getPath()+".tmp");
+		try {
+			DataOutputStream out =
+				new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			out.writeInt(CHECKPOINT_MAGIC);
+			out.writeInt(CHECKPOINT_VERSION);
+			out.writeLong(getKey(false));
+			out.writeInt(X.length);
+			int nr = gram.countRules();
+			int ninactive = 0;
+			for (int i = 0; i < nr; ++i)
+				if (!gram.getRule(i).isActive())
+					++ninactive;
+			out.writeInt(ninactive);
+			for (int i = 0; i < nr; ++i)
+				if (!gram.getRule(i).isActive())
+					out.writeInt(i);
+			for (int i = 0; i < X.length; ++i)
+				out.writeDouble(X[i]);
+			lbfgs.write(out);
+			out.close();
+			file.delete();
+			if (!tmp.renameTo(file))
+				throw new IOException("cannot rename "+tmp+" to "+file);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		logger.info("checkpoint written after LBFGS iteration "+iter);
+	}
+	
+	/**
+	 * Restores the state of training from the checkpoint file, if there is one and it matches the 
+	 * current training examples and rules.  Rules that were inactive at the checkpoint are 
+	 * deactivated.
+	 * 
+	 * @param lbfgs the <code>LBFGS</code> object to restore.
+	 * @param X an <i>output</i> vector for the decision vector from which training resumes.
+	 * @return <code>true</code> if training resumes from the checkpoint; <code>false</code> otherwise.
+	 */
+	private boolean readCheckpoint(LBFGS lbfgs, double[] X) {
+		File file = getCheckpointFile();
+		if (!file.exists())
+			return false;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION
+						|| in.readLong() != getKey(false) || in.readInt() != X.length) {
+					logger.warning("checkpoint "+file+" does not match the training data; ignored");
+					return false;
 				}
-				boolean reset = false;
-				int nr = gram.countRules();
-				for (int i = 0; i < nr; ++i) {
-					Rule rule = gram.getRule(i);
-					if (rule.isActive() && !rule.isInit() && !isRuleMarked(set, rule)) {
-						rule.deactivate();
-						logger.fine("deactivate "+rule);
-						reset = true;
-					}
+				int ninactive = in.readInt();
+				for (int i = 0; i < ninactive; ++i)
+					gram.getRule(in.readInt()).deactivate();
+				for (int i = 0; i < X.length; ++i)
+					X[i] = in.readDouble();
+				lbfgs.read(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		logger.info("resume from LBFGS iteration "+(lbfgs.getIteration()+1));
+		return true;
+	}
+	
+	private File getCheckpointFile() {
+		return new File(Config.getModelDir(), CHECKPOINT_FILE);
+	}
+	
+	/**
+	 * Deactivates rules that are not used in any of the top-ranked parses of the current training
+	 * examples, as in <code>check(LBFGS, int, boolean)</code>.  The weights of deactivated rules are
+	 * set to zero in the current decision vector, and the underlying <code>AdaGrad</code> object is
+	 * reset.
+	 */
+	public void check(AdaGrad adagrad, double[] X, int epoch, boolean isLastEpoch) {
+		if (DO_VITERBI_APPROX) {
+			if (isLastEpoch || (epoch+1) % VITERBI_APPROX_EPOCHS == 0) {
+				setWeightVector(X);
+				gram.prepare();
+				if (deactivateRules()) {
+					adagrad.reset();
+					Vectors.assign(X, getWeightVector());
 				}
-				if (reset)
-					lbfgs.reset();
 			}
 		}
+		monitor.endIteration(epoch, countActiveRules());
+	}
+	
+	private int countActiveRules() {
+		int nr = gram.countRules();
+		int n = 0;
+		for (int i = 0; i < nr; ++i)
+			if (gram.getRule(i).isActive())
+				++n;
+		return n;
+	}
+	
+	/**
+	 * Deactivates rules that are not used in any of the top-ranked parses of the current training
+	 * examples under the current parameters.  Examples are parsed in parallel if more than one thread
+	 * is used.
+	 * 
+	 * @return <code>true</code> if any rules are deactivated; <code>false</code> otherwise.
+	 */
+	private boolean deactivateRules() {
+		int nr = gram.countRules();
+		int[] next = new int[1];
+		ViterbiThread[] threads = new ViterbiThread[nthreads];
+		for (int i = 0; i < nthreads; ++i)
+			threads[i] = new ViterbiThread(nr, next);
+		if (nthreads == 1)
+			threads[0].run();
+		else {
+			for (int i = 0; i < nthreads; ++i)
+				threads[i].start();
+			for (int i = 0; i < nthreads; ++i)
+				try {
+					threads[i].join();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+		}
+		for (int i = 0; i < nthreads; ++i)
+			if (threads[i].error != null)
+				rethrow(threads[i].error);
+		BitSet used = threads[0].used;
+		for (int i = 1; i < nthreads; ++i)
+			used.or(threads[i].used);
+		boolean reset = false;
+		for (int i = 0; i < nr; ++i) {
+			Rule rule = gram.getRule(i);
+			if (rule.isActive() && !rule.isInit() && !used.get(gram.getTiedId(i))) {
+				rule.deactivate();
+				logger.fine("deactivate "+rule);
+				reset = true;
+			}
+		}
+		if (reset) {
+			forests = null;
+			store = null;
+			cache = new Evaluation[CACHE_SIZE];
+		}
+		return reset;
 	}
 	
-	private void markRules(HashSet set, Node node) {
-		Rule rule = ((RuleSymbol) node.getSymbol()).getRule();
-		set.add(gram.tied(rule));
-		short nc = node.countChildren();
-		for (short i = 0; i < nc; ++i)
-			markRules(set, node.getChild(i));
+	/**
+	 * Threads for finding the rules used in the top-ranked parses of training examples.  Each thread
+	 * has its own parser, and examples are handed out through a shared counter.  Each thread collects
+	 * the IDs of the tied rules used in its own bit vector, and the bit vectors are merged after all
+	 * threads are done.  Anything thrown by a thread is re-thrown by the
+	 * main thread after all threads are done, since an incomplete bit vector would deactivate rules 
+	 * that are actually used.
+	 */
+	private class ViterbiThread extends Thread {
+		private BitSet used;
+		private int[] next;
+		private Throwable error;
+		public ViterbiThread(int nrules, int[] next) {
+			used = new BitSet(nrules);
+			this.next = next;
+			error = null;
+		}
+		public void run() {
+			try {
+				SCFGParser parser = SCFGParser.createNew(gram, gm, VITERBI_APPROX_K);
+				while (true) {
+					int i;
+					synchronized (next) {
+						if (next[0] >= exs.length)
+							break;
+						i = next[0]++;
+					}
+					for (Iterator it = parser.parse(exs[i].E, exs[i].F); it.hasNext();)
+						markRules(used, ((SCFGParse) it.next()).item);
+				}
+			} catch (Throwable e) {
+				error = e;
+			}
+		}
 	}
 	
-	private boolean isRuleMarked(HashSet set, Rule rule) {
-		return set.contains(gram.tied(rule));
+	/**
+	 * Marks the tied rules used in the parse rooted at the specified item, following the back pointers
+	 * of items.  Each rule is marked at the item created in the prediction step, whose rule is always
+	 * in the grammar (unlike the specialized rules of items that scan wildcards).
+	 */
+	private void markRules(BitSet used, Item item) {
+		for (; item != null; item = item.getBack(0)) {
+			if (item.getBackComplete(0) != null)
+				markRules(used, item.getBackComplete(0));
+			if (item.isPredict() && !item.rule.isDummy())
+				used.set(gram.getTiedId(gram.getId(item.rule)));
+		}
 	}
 	
 }
@@ -0,0 +1,515 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import wasp.data.Nonterminal;
+import wasp.data.Symbol;
+import wasp.data.Terminal;
+import wasp.math.Math;
+import wasp.scfg.Rule;
+import wasp.scfg.SCFG;
+import wasp.util.Arrays;
+import wasp.util.BitSet;
+import wasp.util.Double;
+import wasp.util.IntHeap;
+import wasp.util.LongNumberer;
+import wasp.util.Numberer;
+
+/**
+ * An Earley chart for parsing synchronous context-free grammars, in which chart items are stored in
+ * growable primitive arrays instead of <code>Item</code> objects.  Each item is referred to by its
+ * index in these arrays.  Back pointers are kept in a shared pool of edges, and each item has a linked
+ * list of edges in this pool.  Rules and <code>m</code> fields are replaced by IDs that are local to
+ * the chart.
+ * <p>
+ * Like the <code>Chart</code> class, an item that is equal to an existing item in the chart is never
+ * added to the chart.  It is either combined with the existing item, or used for replacing the existing
+ * item.  However, such an item still occupies an index, because back pointers of other items may point
+ * to it.
+ * 
+ * @author ywwong
+ *
+ */
+public class PackedChart {
+
+	private static final int INIT_SIZE = 1024;
+	private static final int INIT_SET_SIZE = 64;
+	
+	/** The maximum number of top-scoring theories to keep for each cell.  <code>0</code> means no limit
+	 * is imposed.  <code>1</code> is used for Viterbi decoding, <i>K</i> > 1 for <i>K</i>-best
+	 * decoding. */
+	private int kbest;
+	/** Indicates if items with empty <code>m</code> field are ignored and never added to the chart. */
+	private boolean ignoreEmpty;
+	/** Pruning parameters; <code>null</code> if no pruning is done. */
+	private Beam beam;
+	/** The best inner score of each span so far, indexed by <code>start*(maxPos+1)+current</code>. */
+	private double[] best;
+	private int npruned;
+	
+	public short maxPos;
+	
+	/** Rules that appear in this chart, including rules that are specialized from wildcard rules. */
+	public ChartRules rules;
+	/** Distinct bit vectors that appear in the <code>m</code> fields of items in this chart. */
+	private Numberer ms;
+	
+	private int nitems;
+	int[] rule;
+	short[] dot;
+	/** Number of words that have been skipped due to the word gap on the left of the dot. */
+	short[] gap;
+	short[] start;
+	short[] current;
+	/** IDs of the <code>m</code> fields; <code>-1</code> means the <code>m</code> field is 
+	 * <code>null</code>. */
+	int[] m;
+	/** The inner scores. */
+	double[] inner;
+	int[] firstEdge;
+	int[] lastEdge;
+	
+	private int nedges;
+	int[] edgeBack;
+	/** Complete items associated with the back pointers; <code>-1</code> if none. */
+	int[] edgeComp;
+	int[] edgeNext;
+	
+	private int[][] sets;
+	private int[] setSizes;
+	private int[][][] toComps;
+	private int[][] toCompSizes;
+	private IntHeap[] comps;
+	private boolean[][] predicted;
+	/** Maps the signature of each item to its copies in the <code>slots</code> array. */
+	private LongNumberer intern;
+	/** Indices of existing copies of each item, laid out as in <code>Chart</code>.  Empty slots are
+	 * <code>-1</code>. */
+	private int[] slots;
+	
+	public PackedChart(SCFG gram, Terminal[] s, int kbest, boolean ignoreEmpty) {
+		this(gram, s, kbest, ignoreEmpty, null);
+	}
+	
+	/**
+	 * Creates an empty chart in which items are pruned as specified.
+	 * 
+	 * @param gram the SCFG used for parsing.
+	 * @param s the input sentence.
+	 * @param kbest the maximum number of top-scoring theories to keep for each cell.
+	 * @param ignoreEmpty indicates if items with empty <code>m</code> field are ignored.
+	 * @param beam pruning parameters; <code>null</code> if no pruning is done.
+	 */
+	public PackedChart(SCFG gram, Terminal[] s, int kbest, boolean ignoreEmpty, Beam beam) {
+		this.kbest = kbest;
+		this.ignoreEmpty = ignoreEmpty;
+		this.beam = beam;
+		maxPos = (short) s.length;
+		int nlhs = gram.countNonterms();
+		rules = new ChartRules(gram);
+		ms = new Numberer();
+		nitems = 0;
+		rule = new int[INIT_SIZE];
+		dot = new short[INIT_SIZE];
+		gap = new short[INIT_SIZE];
+		start = new short[INIT_SIZE];
+		current = new short[INIT_SIZE];
+		m = new int[INIT_SIZE];
+		inner = new double[INIT_SIZE];
+		firstEdge = new int[INIT_SIZE];
+		lastEdge = new int[INIT_SIZE];
+		nedges = 0;
+		edgeBack = new int[INIT_SIZE];
+		edgeComp = new int[INIT_SIZE];
+		edgeNext = new int[INIT_SIZE];
+		sets = new int[maxPos+1][];
+		setSizes = new int[maxPos+1];
+		toComps = new int[maxPos+1][nlhs][];
+		toCompSizes = new int[maxPos+1][nlhs];
+		comps = new IntHeap[maxPos+1];
+		predicted = new boolean[maxPos+1][nlhs];
+		int size = Chart.initInternSize(maxPos, nlhs);
+		intern = new LongNumberer(size);
+		slots = new int[size*((kbest==0) ? 1 : kbest)];
+		Arrays.fill(slots, -1);
+		for (short i = 0; i <= maxPos; ++i) {
+			sets[i] = new int[INIT_SET_SIZE];
+			comps[i] = new IntHeap(INIT_SET_SIZE);
+		}
+		if (beam != null) {
+			best = new double[(maxPos+1)*(maxPos+1)];
+			Arrays.fill(best, Double.NEGATIVE_INFINITY);
+		}
+		npruned = 0;
+	}
+	
+	/**
+	 * Returns the rule with the specified chart-specific ID.
+	 * 
+	 * @param id a chart-specific rule ID.
+	 * @return the rule with the specified ID.
+	 */
+	public Rule getRule(int id) {
+		return rules.getRule(id);
+	}
+	
+	/**
+	 * Returns the chart-specific ID of the specified bit vector.  <code>-1</code> is returned if the
+	 * bit vector is <code>null</code>.
+	 * 
+	 * @param m a bit vector for the <code>m</code> field of an item.
+	 * @return the chart-specific ID of the <code>m</code> argument.
+	 */
+	public int mId(BitSet m) {
+		if (m == null)
+			return -1;
+		return ms.getId(m, true);
+	}
+	
+	/**
+	 * Returns the bit vector with the specified chart-specific ID.
+	 * 
+	 * @param id a chart-specific bit vector ID.
+	 * @return the bit vector with the specified ID; <code>null</code> if <code>id</code> is
+	 * <code>-1</code>.
+	 */
+	public BitSet getM(int id) {
+		return (BitSet) ms.getObj(id);
+	}
+	
+	/**
+	 * Creates a new item in this chart and returns its index.  The new item is not visible to the 
+	 * parser until it is passed to the <code>addItem</code> method.
+	 * 
+	 * @param rule the chart-specific ID of the rule.
+	 * @param dot the dot position.
+	 * @param gap the number of words that have been skipped on the left of the dot.
+	 * @param start the start position.
+	 * @param current the current position.
+	 * @param m the chart-specific ID of the <code>m</code> field.
+	 * @param inner the inner score.
+	 * @param back the back-pointer item; <code>-1</code> for items created in the prediction step.
+	 * @param comp the complete item associated with the back pointer; <code>-1</code> if none.
+	 * @return the index of the new item.
+	 */
+	public int newItem(int rule, short dot, short gap, short start, short current, int m, double inner,
+			int back, int comp) {
+		if (nitems == this.rule.length) {
+			int length = 2*nitems;
+			this.rule = Arrays.resize(this.rule, length);
+			this.dot = Arrays.resize(this.dot, length);
+			this.gap = Arrays.resize(this.gap, length);
+			this.start = Arrays.resize(this.start, length);
+			this.current = Arrays.resize(this.current, length);
+			this.m = Arrays.resize(this.m, length);
+			this.inner = Arrays.resize(this.inner, length);
+			firstEdge = Arrays.resize(firstEdge, length);
+			lastEdge = Arrays.resize(lastEdge, length);
+		}
+		int item = nitems++;
+		this.rule[item] = rule;
+		this.dot[item] = dot;
+		this.gap[item] = gap;
+		this.start[item] = start;
+		this.current[item] = current;
+		this.m[item] = m;
+		this.inner[item] = inner;
+		firstEdge[item] = lastEdge[item] = -1;
+		if (back >= 0)
+			addEdge(item, back, comp);
+		return item;
+	}
+	
+	private void addEdge(int item, int back, int comp) {
+		if (nedges == edgeBack.length) {
+			int length = 2*nedges;
+			edgeBack = Arrays.resize(edgeBack, length);
+			edgeComp = Arrays.resize(edgeComp, length);
+			edgeNext = Arrays.resize(edgeNext, length);
+		}
+		int e = nedges++;
+		edgeBack[e] = back;
+		edgeComp[e] = comp;
+		edgeNext[e] = -1;
+		if (firstEdge[item] < 0)
+			firstEdge[item] = e;
+		else
+			edgeNext[lastEdge[item]] = e;
+		lastEdge[item] = e;
+	}
+	
+	/**
+	 * Returns the number of items that have been created in this chart, including items that are
+	 * combined with or replaced by other items.
+	 * 
+	 * @return the number of items that have been created in this chart.
+	 */
+	public int countItems() {
+		return nitems;
+	}
+	
+	/**
+	 * Adds the specified item to this chart.  See <code>Chart.addItem</code> for details.
+	 * 
+	 * @param item the index of an item.
+	 * @return <code>false</code> if the item is ignored because its <code>m</code> field is empty, or
+	 * if it is pruned, in which case no further items should be derived from it; <code>true</code>
+	 * otherwise.
+	 */
+	public boolean addItem(int item) {
+		if (ignoreEmpty && getM(m[item]).isEmpty())
+			return false;
+		if (beam != null) {
+			int span = start[item]*(maxPos+1)+current[item];
+			if (inner[item] < best[span]-beam.threshold && !isCorrect(item)) {
+				++npruned;
+				return false;
+			}
+			if (inner[item] > best[span])
+				best[span] = inner[item];
+		}
+		int a = intern(item);
+		if (kbest == 0) {
+			if (slots[a] < 0) {
+				slots[a] = item;
+				add(item);
+			} else
+				combine(slots[a], item);
+		} else {
+			int i = 0;
+			for (; i < kbest && slots[a+i] >= 0 && inner[slots[a+i]] > inner[item]; ++i)
+				;
+			if (i < kbest) {
+				if (slots[a+kbest-1] < 0) {
+					for (int j = kbest-1; j >= i+1; --j)
+						slots[a+j] = slots[a+j-1];
+					slots[a+i] = item;
+					add(item);
+				} else {
+					for (int j = kbest-1; j >= i+1; --j)
+						replace(slots[a+j], slots[a+j-1]);
+					replace(slots[a+i], item);
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the item in this chart that the specified item has been combined with.  See 
+	 * <code>Chart.find</code> for details.
+	 * 
+	 * @param item the index of an item.
+	 * @return the index of the item in this chart that has the same signature as the specified item;
+	 * <code>-1</code> if none.
+	 */
+	public int find(int item) {
+		return slots[intern(item)];
+	}
+	
+	/**
+	 * Returns the index of the first copy of the specified item in the <code>slots</code> array.  See
+	 * <code>Chart.intern</code> for details.
+	 * 
+	 * @param item the index of an item.
+	 * @return the index of the first <i>existing</i> copy of the specified item in the 
+	 * <code>slots</code> array.
+	 */
+	private int intern(int item) {
+		int id = intern.getId(Chart.internKey(rule[item], m[item]), 
+				Chart.internKey(dot[item], gap[item], start[item], current[item]), true);
+		int k = (kbest==0) ? 1 : kbest;
+		if ((id+1)*k > slots.length) {
+			int length = slots.length;
+			slots = Arrays.resize(slots, 2*length);
+			Arrays.fill(slots, length, 2*length, -1);
+		}
+		return id*k;
+	}
+	
+	private void add(int item) {
+		short cur = current[item];
+		sets[cur] = append(sets[cur], setSizes[cur]++, item);
+		Rule r = getRule(rule[item]);
+		if (dot[item] == r.lengthE())
+			// item is complete
+			comps[cur].add(item, ((long) (maxPos-start[item]) << 32) | item);
+		else {
+			Symbol sym = r.getE(dot[item]);
+			if (sym instanceof Nonterminal && cur < maxPos) {
+				// item is to be completed
+				int n = sym.getId();
+				if (toComps[cur][n] == null)
+					toComps[cur][n] = new int[INIT_SET_SIZE];
+				toComps[cur][n] = append(toComps[cur][n], toCompSizes[cur][n]++, item);
+			}
+		}
+	}
+	
+	private static int[] append(int[] a, int size, int item) {
+		if (size == a.length)
+			a = Arrays.resize(a, 2*size);
+		a[size] = item;
+		return a;
+	}
+	
+	private void combine(int item, int other) {
+		inner[item] = Math.logAdd(inner[item], inner[other]);
+		for (int e = firstEdge[other]; e >= 0; e = edgeNext[e])
+			addEdge(item, edgeBack[e], edgeComp[e]);
+	}
+	
+	private void replace(int item, int other) {
+		inner[item] = inner[other];
+		firstEdge[item] = firstEdge[other];
+		lastEdge[item] = lastEdge[other];
+	}
+	
+	/**
+	 * Returns the number of items in this chart that end at the specified position.
+	 * 
+	 * @param current a position.
+	 * @return the number of items that end at the <code>current</code> position.
+	 */
+	public int countSet(short current) {
+		return setSizes[current];
+	}
+	
+	/**
+	 * Returns the index of the <code>i</code>-th item that ends at the specified position, in the order
+	 * in which items are added.
+	 */
+	public int getSet(short current, int i) {
+		return sets[current][i];
+	}
+	
+	/**
+	 * Returns the number of items ending at the specified position that are waiting for a complete item
+	 * with the specified LHS nonterminal.
+	 */
+	public int countToComps(short current, int lhs) {
+		return toCompSizes[current][lhs];
+	}
+	
+	public int getToComp(short current, int lhs, int i) {
+		return toComps[current][lhs][i];
+	}
+	
+	public boolean hasComps(short current) {
+		return !comps[current].isEmpty();
+	}
+	
+	public int extractComp(short current) {
+		return comps[current].extractMin();
+	}
+	
+	/**
+	 * Prunes the items that end at the specified position.  See <code>Chart.prune</code> for details.
+	 * 
+	 * @param current a position.
+	 */
+	public void prune(short current) {
+		int n = setSizes[current];
+		short[] starts = new short[n];
+		double[] inners = new double[n];
+		for (int i = 0; i < n; ++i) {
+			int item = sets[current][i];
+			starts[i] = start[item];
+			inners[i] = inner[item];
+		}
+		double[] cutoffs = beam.cutoffs(starts, inners, n, current);
+		setSizes[current] = prune(sets[current], n, cutoffs);
+		npruned += n-setSizes[current];
+		for (int i = 0; i < toComps[current].length; ++i)
+			if (toComps[current][i] != null)
+				toCompSizes[current][i] = prune(toComps[current][i], toCompSizes[current][i], cutoffs);
+	}
+	
+	/**
+	 * Removes the pruned items from the specified array in place, and returns the number of items kept.
+	 */
+	private int prune(int[] items, int size, double[] cutoffs) {
+		int kept = 0;
+		for (int i = 0; i < size; ++i)
+			if (inner[items[i]] >= cutoffs[start[items[i]]] || isCorrect(items[i]))
+				items[kept++] = items[i];
+		return kept;
+	}
+	
+	/**
+	 * Indicates if the specified item is part of the correct MR during training.  Such items are never
+	 * pruned.
+	 */
+	private boolean isCorrect(int item) {
+		return m[item] >= 0 && !getM(m[item]).isEmpty();
+	}
+	
+	/**
+	 * Returns the number of items that have been pruned from this chart.
+	 * 
+	 * @return the number of items that have been pruned from this chart.
+	 */
+	public int countPrunedItems() {
+		return npruned;
+	}
+	
+	public boolean isPredicted(short start, int lhs) {
+		return predicted[start][lhs];
+	}
+	
+	public void predict(short start, int lhs) {
+		predicted[start][lhs] = true;
+	}
+	
+	public boolean isPredict(int item) {
+		return firstEdge[item] < 0;
+	}
+	
+	public boolean isScan(int item) {
+		return firstEdge[item] >= 0 && edgeComp[firstEdge[item]] < 0;
+	}
+	
+	public boolean isCompleted(int item) {
+		return firstEdge[item] >= 0 && edgeComp[firstEdge[item]] >= 0;
+	}
+	
+	/**
+	 * Returns an <code>Item</code> object that represents the specified item.  Only the first back 
+	 * pointer of each item is retained, which is sufficient for the <code>SCFGParse</code> class.
+	 * 
+	 * @param item the index of an item.
+	 * @return an <code>Item</code> object that represents the specified item.
+	 */
+	public Item toItem(int item) {
+		Item back = null;
+		Item comp = null;
+		int e = firstEdge[item];
+		if (e >= 0) {
+			back = toItem(edgeBack[e]);
+			if (edgeComp[e] >= 0)
+				comp = toItem(edgeComp[e]);
+		}
+		Item i = new Item(getRule(rule[item]), rule[item], dot[item], gap[item], start[item], current[item],
+				getM(m[item]), inner[item], back, comp);
+		i.timestamp = item;
+		return i;
+	}
+	
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import wasp.data.Meaning;
+import wasp.data.Nonterminal;
+import wasp.data.Symbol;
+import wasp.data.Terminal;
+import wasp.math.Math;
+import wasp.nl.GapModel;
+import wasp.scfg.FilteredSCFG;
+import wasp.scfg.Rule;
+import wasp.scfg.SCFG;
+import wasp.scfg.SCFGModel;
+import wasp.util.BitSet;
+import wasp.util.IntHeap;
+import wasp.util.SortIterator;
+
+/**
+ * An Earley chart parser for synchronous context-free grammars that uses a <code>PackedChart</code>.
+ * It implements the same algorithms as its superclass, but chart items are not allocated as objects.
+ * Only the items in the top-scoring parses are turned into <code>Item</code> objects, when the parses
+ * are returned.
+ * 
+ * @author ywwong
+ *
+ */
+public class PackedSCFGParser extends SCFGParser {
+
+	private static Logger logger = Logger.getLogger(PackedSCFGParser.class.getName());
+
+	/**
+	 * The states of the parser that are specific to an input sentence.
+	 */
+	private static class PackedContext extends Context {
+		/** The chart for the sentence. */
+		public PackedChart pc;
+	}
+	
+	public PackedSCFGParser(SCFG gram, GapModel gm) {
+		super(gram, gm);
+	}
+	
+	public PackedSCFGParser(SCFG gram, GapModel gm, int kbest) {
+		super(gram, gm, kbest);
+	}
+	
+	public PackedSCFGParser(SCFGModel model) {
+		super(model);
+	}
+	
+	public Iterator parse(Terminal[] E, Meaning F) {
+		PackedContext ctx = new PackedContext();
+		init(ctx, E, F);
+		PackedChart c = new PackedChart(ctx.sentGram, E, kbest, ignoreEmpty, beam);
+		ctx.pc = c;
+		int item = c.newItem(c.rules.add(new Rule(gram.getStart())), (short) 0, (short) 0, (short) 0, 
+				(short) 0, (F!=null) ? c.mId(ctx.mWhole) : -1, 0, -1, -1);
+		c.addItem(item);
+		for (short i = 0; i <= c.maxPos; ++i) {
+			if (i > 0)
+				complete(ctx, c, i);
+			if (i < c.maxPos) {
+				if (i > 0 && beam != null)
+					c.prune(i);
+				predictAndScan(ctx, c, i);
+			}
+		}
+		if (filter)
+			logger.fine("grammar filtering saved "+ctx.nsaved+" predictions");
+		if (beam != null) {
+			ctx.npruned = c.countPrunedItems();
+			logger.fine("beam pruned "+ctx.npruned+" items");
+		}
+		Iterator parseIt = new ParseIterator(gram, c);
+		return (kbest==0) ? parseIt : new SortIterator(parseIt, kbest);
+	}
+	
+	private void complete(Context ctx, PackedChart c, short current) {
+		while (c.hasComps(current)) {
+			int comp = c.extractComp(current);
+			Rule compRule = c.getRule(c.rule[comp]);
+			if (compRule.isDummy())
+				continue;
+			short start = c.start[comp];
+			int lhs = compRule.getLhs();
+			int nitems = c.countToComps(start, lhs);
+			for (int i = 0; i < nitems; ++i) {
+				int item = c.getToComp(start, lhs, i);
+				int m = -1;
+				if (ctx.F != null)  // training
+					m = c.mId(m(ctx, c.getRule(c.rule[item]), c.dot[item], c.getM(c.m[item]), 
+							c.getM(c.m[comp])));
+				int next = c.newItem(c.rule[item], (short) (c.dot[item]+1), (short) 0, c.start[item],
+						c.current[comp], m, c.inner[item]+c.inner[comp], item, comp);
+				if (c.addItem(next))
+					skipWords(ctx.E, c, next);
+			}
+		}
+	}
+	
+	private void skipWords(Terminal[] E, PackedChart c, int item) {
+		short gap = c.getRule(c.rule[item]).getGap((short) (c.dot[item]-1));
+		for (short i = 0; i < gap && c.current[item] < E.length; ++i) {
+			int next = c.newItem(c.rule[item], c.dot[item], (short) (c.gap[item]+1), c.start[item],
+					(short) (c.current[item]+1), c.m[item], 
+					c.inner[item]+gm.getWeight(E[c.current[item]]), item, -1);
+			if (!c.addItem(next))
+				break;
+			item = next;
+		}
+	}
+	
+	private void predictAndScan(Context ctx, PackedChart c, short current) {
+		Terminal[] E = ctx.E;
+		for (int i = 0; i < c.countSet(current); ++i) {
+			int item = c.getSet(current, i);
+			Rule rule = c.getRule(c.rule[item]);
+			short dot = c.dot[item];
+			if (dot == rule.lengthE())
+				continue;
+			Symbol sym = rule.getE(dot);
+			if (sym instanceof Nonterminal) {
+				// predict
+				for (int j = 0; j < gram.countNonterms(); ++j)
+					if (gram.isLeftCornerForE(sym.getId(), j) && !c.isPredicted(current, j)) {
+						c.predict(current, j);
+						Rule[] rules = ctx.sentGram.getRules(j);
+						int[] ids = c.rules.getIds(j);
+						if (filter)
+							ctx.nsaved += ((FilteredSCFG) ctx.sentGram).countFiltered(j);
+						for (int k = 0; k < rules.length; ++k)
+							if (rules[k].isActive()) {
+								int m = (ctx.F!=null) ? c.mId(m(ctx, rules[k])) : -1;
+								int next = c.newItem(ids[k], (short) 0, (short) 0, current, current, m,
+										rules[k].getScore(), -1, -1);
+								c.addItem(next);
+							}
+					}
+			} else {
+				// scan
+				if (sym.matches(E[current])) {
+					int r = c.rule[item];
+					int m = c.m[item];
+					if (rule.isWildcard()) {
+						r = c.rules.specialize(r, E[current]);
+						if (ctx.F != null)  // training
+							m = c.mId(m(ctx, rule, c.getM(m), E[current]));
+					}
+					int next = c.newItem(r, (short) (dot+1), (short) 0, c.start[item], 
+							(short) (current+1), m, c.inner[item], item, -1);
+					if (c.addItem(next))
+						skipWords(E, c, next);
+				}
+			}
+		}
+	}
+	
+	private static boolean isFinal(SCFG gram, PackedChart c, int item) {
+		Rule rule = c.getRule(c.rule[item]);
+		return c.start[item] == 0 && c.dot[item] == rule.lengthE() && rule.getLhs() == gram.getStart();
+	}
+	
+	private static class ParseIterator implements Iterator {
+		private SCFG gram;
+		private PackedChart c;
+		private int i;
+		private int next;
+		public ParseIterator(SCFG gram, PackedChart c) {
+			this.gram = gram;
+			this.c = c;
+			i = 0;
+			findNext();
+		}
+		private void findNext() {
+			next = -1;
+			while (i < c.countSet(c.maxPos)) {
+				int item = c.getSet(c.maxPos, i++);
+				if (isFinal(gram, c, item)) {
+					next = item;
+					break;
+				}
+			}
+		}
+		public boolean hasNext() {
+			return next >= 0;
+		}
+		public Object next() {
+			if (this.next < 0)
+				throw new NoSuchElementException();
+			int next = this.next;
+			findNext();
+			return new SCFGParse(c.toItem(next), c.inner[next]);
+		}
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	///
+	/// Parameter estimation
+	///
+	
+	public Hypergraph getHypergraph() {
+		PackedContext ctx = (PackedContext) getContext();
+		PackedChart c = ctx.pc;
+		Hypergraph.Builder b = new Hypergraph.Builder(ctx.E);
+		// items are numbered in the order of creation, and every item created is passed to addItem
+		int nitems = c.countItems();
+		for (int item = 0; item < nitems; ++item) {
+			int r = -1, t = -1, back = -1, comp = -1;
+			short word = -1;
+			int e = c.firstEdge[item];
+			if (e < 0) {
+				Rule rule = c.getRule(c.rule[item]);
+				if (!rule.isDummy()) {
+					r = gram.getId(rule);
+					t = gram.getTiedId(r);
+				}
+			} else {
+				// the first edge is the one with which the item is created
+				back = c.edgeBack[e];
+				comp = c.edgeComp[e];
+				if (comp < 0 && c.dot[back] == c.dot[item])
+					// word gap
+					word = c.current[back];
+			}
+			int slot = c.find(item);
+			b.addItem(c.start[item], c.current[item], r, t, back, comp, word, (slot == item) ? -1 : slot);
+		}
+		int n = c.countSet(c.maxPos);
+		for (int j = 0; j < n; ++j) {
+			int item = c.getSet(c.maxPos, j);
+			if (isFinal(gram, c, item))
+				b.addRoot(item, !c.getM(c.m[item]).isEmpty());
+		}
+		return b.build();
+	}
+	
+}
@@ -21,8 +21,10 @@ package wasp.scfg.parse;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.logging.Logger;
 
 import wasp.data.Meaning;
 import wasp.data.Node;
@@ -31,42 +33,72 @@ import wasp.data.Symbol;
 import wasp.data.Terminal;
 import wasp.main.Config;
 import wasp.main.Parser;
-import wasp.math.Math;
 import wasp.mrl.Production;
 import wasp.mrl.ProductionSymbol;
 import wasp.nl.GapModel;
+import wasp.scfg.FilteredSCFG;
 import wasp.scfg.SCFG;
 import wasp.scfg.Rule;
 import wasp.scfg.SCFGModel;
 import wasp.util.Arrays;
 import wasp.util.BitSet;
-import wasp.util.Heap;
+import wasp.util.Int;
 import wasp.util.SortIterator;
 
 /**
  * An Earley chart parser for synchronous context-free grammars.  The parser takes NL sentences as 
  * input and generates parse trees for both NL and MRL.  It is based on previous work by Stolcke (1995).
+ * <p>
+ * All states specific to an input sentence are kept in a <code>Context</code> object, which is created
+ * anew by each call to the <code>parse</code> method.  A parser created for decoding can therefore be
+ * used by multiple threads at the same time.  During parameter estimation, the packed forest of the
+ * last sentence parsed by each thread can be obtained through the <code>getHypergraph</code> method.
  * 
  * @author ywwong
  *
  */
 public class SCFGParser extends Parser {
 
-	private SCFG gram;
-	private GapModel gm;
-	private int kbest;
-	private boolean ignoreEmpty;
+	private static Logger logger = Logger.getLogger(SCFGParser.class.getName());
 	
-	/** The chart currently in use.  Each call to the <code>parse</code> method creates a new chart
-	 * based on the input sentence.  This chart is re-used by the outside algorithm during parameter
-	 * estimation. */
-	private Chart c;
-	/** The input sentence currently being considered. */
-	private Terminal[] E;
-	private BitSet mEmpty;
-	private BitSet mWhole;
-	private HashMap mWilds;
-	private HashMap mProds;
+	protected SCFG gram;
+	protected GapModel gm;
+	protected int kbest;
+	protected boolean ignoreEmpty;
+	/** Indicates if <i>K</i>-best decoding is done by extracting derivations lazily from a packed forest,
+	 * instead of keeping <i>K</i> copies of each item in the chart. */
+	protected boolean lazy;
+	/** Indicates if the grammar is filtered for each input sentence before parsing. */
+	protected boolean filter;
+	/** Pruning parameters; <code>null</code> if no pruning is done.  During parameter estimation, items
+	 * that are part of the correct MR are never pruned. */
+	protected Beam beam;
+	/** The context of the last sentence parsed by each thread.  The chart in this context is re-used by
+	 * the outside algorithm during parameter estimation. */
+	private ThreadLocal last;
+	
+	/**
+	 * The states of a parser that are specific to an input sentence.
+	 */
+	protected static class Context {
+		/** The input sentence. */
+		public Terminal[] E;
+		/** The correct meaning representation of the input sentence; <code>null</code> for decoding. */
+		public Meaning F;
+		/** The grammar used for parsing the sentence.  This is a filtered view of the grammar of the
+		 * parser if grammar filtering is on, or the grammar itself otherwise. */
+		public SCFG sentGram;
+		/** The number of predictions that grammar filtering has saved for the sentence. */
+		public int nsaved;
+		/** The number of chart items that have been pruned for the sentence. */
+		public int npruned;
+		public BitSet mEmpty;
+		public BitSet mWhole;
+		public HashMap mWilds;
+		public HashMap mProds;
+		/** The chart for the sentence; <code>null</code> if a different type of chart is used. */
+		public Chart c;
+	}
 	
 	/**
 	 * Creates a parser based on the specified SCFG for parameter estimation.
@@ -79,8 +111,10 @@ public class SCFGParser extends Parser {
 		this.gm = gm;
 		kbest = 0;
 		ignoreEmpty = false;
-		c = null;
-		E = null;
+		lazy = false;
+		filter = useFilter();
+		beam = Beam.createNewForTraining();
+		last = new ThreadLocal();
 	}
 	
 	/**
@@ -95,38 +129,183 @@ public class SCFGParser extends Parser {
 		this.gm = gm;
 		this.kbest = kbest;
 		ignoreEmpty = true;
-		c = null;
-		E = null;
+		lazy = false;
+		filter = useFilter();
+		beam = null;
+		last = new ThreadLocal();
 	}
 	
 	/**
-	 * Creates an SCFG parser based on the specified SCFG translation model.
+	 * Creates an SCFG parser based on the specified SCFG translation model.  The grammar of the model
+	 * is prepared for sharing among threads, so no rules should be added to it afterwards.
 	 */
 	public SCFGParser(SCFGModel model) {
 		gram = model.gram;
 		gm = model.gm;
 		kbest = Config.getKBest();
 		ignoreEmpty = false;  // item.m is always null to begin with
-		c = null;
-		E = null;
+		lazy = kbest > 1;
+		filter = useFilter();
+		beam = Beam.createNew();
+		last = new ThreadLocal();
+		gram.prepare();
 	}
 	
-	public Iterator parse(Terminal[] E, Meaning F) {
-		this.E = E;
+	/**
+	 * Sets the pruning parameters of this parser.
+	 * 
+	 * @param beam the new pruning parameters; <code>null</code> if no pruning is to be done.
+	 */
+	public void setBeam(Beam beam) {
+		this.beam = beam;
+	}
+	
+	/**
+	 * Creates a parser based on the specified SCFG for parameter estimation.  The type of chart to use
+	 * is specified in the configuration file (via the key <code>Config.SCFG_CHART</code>).
+	 * 
+	 * @param gram an SCFG.
+	 * @param gm a word-gap model.
+	 * @return a new parser based on the specified SCFG.
+	 */
+	public static SCFGParser createNew(SCFG gram, GapModel gm) {
+		if (usePackedChart())
+			return new PackedSCFGParser(gram, gm);
+		return new SCFGParser(gram, gm);
+	}
+	
+	/**
+	 * Creates a parser based on the specified SCFG for Viterbi approximation.  The type of chart to use
+	 * is specified in the configuration file (via the key <code>Config.SCFG_CHART</code>).
+	 * 
+	 * @param gram an SCFG.
+	 * @param gm a word-gap model.
+	 * @param kbest the maximum number of top-scoring theories to keep for each cell.
+	 * @return a new parser based on the specified SCFG.
+	 */
+	public static SCFGParser createNew(SCFG gram, GapModel gm, int kbest) {
+		if (usePackedChart())
+			return new PackedSCFGParser(gram, gm, kbest);
+		return new SCFGParser(gram, gm, kbest);
+	}
+	
+	/**
+	 * Creates a parser based on the specified SCFG translation model.  The type of chart to use is 
+	 * specified in the configuration file (via the key <code>Config.SCFG_CHART</code>).
+	 * 
+	 * @param model an SCFG translation model.
+	 * @return a new parser based on the specified model.
+	 */
+	public static SCFGParser createNew(SCFGModel model) {
+		if (usePackedChart())
+			return new PackedSCFGParser(model);
+		if (useTrieChart())
+			return new TrieSCFGParser(model);
+		return new SCFGParser(model);
+	}
+	
+	private static boolean usePackedChart() {
+		String type = Config.get(Config.SCFG_CHART);
+		return type != null && type.equals("packed");
+	}
+	
+	private static boolean useTrieChart() {
+		String type = Config.get(Config.SCFG_CHART);
+		return type != null && type.equals("trie");
+	}
+	
+	private static boolean useFilter() {
+		String filter = Config.get(Config.SCFG_FILTER);
+		return filter == null || !filter.equals("false");
+	}
+	
+	/**
+	 * Sets up the specified context for parsing the specified sentence, and makes it the current
+	 * context of the calling thread.  If grammar filtering is on, then a filtered view of the grammar is
+	 * created for the sentence.
+	 * 
+	 * @param ctx a new context.
+	 * @param E an NL sentence.
+	 * @param F the correct meaning representation of the sentence; <code>null</code> for decoding.
+	 */
+	protected void init(Context ctx, Terminal[] E, Meaning F) {
+		ctx.E = E;
+		ctx.F = F;
 		if (F != null)  // training
-			initm(F);
-		c = new Chart(gram, this.E, kbest, ignoreEmpty);
+			initm(ctx, F);
+		ctx.sentGram = (filter) ? gram.filter(E) : gram;
+		ctx.nsaved = 0;
+		ctx.npruned = 0;
+		last.set(ctx);
+	}
+	
+	/**
+	 * Returns the context of the last sentence parsed by the calling thread.
+	 * 
+	 * @return the context of the last sentence parsed by the calling thread; <code>null</code> if the
+	 * calling thread has not parsed any sentences.
+	 */
+	protected Context getContext() {
+		return (Context) last.get();
+	}
+	
+	/**
+	 * Returns the number of predictions that grammar filtering has saved for the last sentence parsed
+	 * by the calling thread.  A prediction is saved for each rule that is filtered out, every time its
+	 * LHS nonterminal is predicted.
+	 * 
+	 * @return the number of predictions that grammar filtering has saved for the last sentence parsed.
+	 */
+	public int countSavedPredictions() {
+		Context ctx = getContext();
+		return (ctx==null) ? 0 : ctx.nsaved;
+	}
+	
+	/**
+	 * Returns the number of chart items that have been pruned for the last sentence parsed by the
+	 * calling thread.  This includes items that are rejected when they are added to the chart, and
+	 * items that are removed from the chart afterwards.
+	 * 
+	 * @return the number of chart items that have been pruned for the last sentence parsed.
+	 */
+	public int countPrunedItems() {
+		Context ctx = getContext();
+		return (ctx==null) ? 0 : ctx.npruned;
+	}
+	
+	public Iterator parse(Terminal[] E, Meaning F) {
+		Context ctx = new Context();
+		init(ctx, E, F);
+		boolean forest = lazy && F == null;
+		Chart c;
+		if (forest)
+			c = Chart.createForest(ctx.sentGram, E, beam);
+		else
+			c = new Chart(ctx.sentGram, E, kbest, ignoreEmpty, beam);
+		ctx.c = c;
 		Item item = new Item(new Rule(gram.getStart()), (short) 0);
+		item.ruleId = c.rules.add(item.rule);
 		item.inner = 0;
 		if (F != null)  // training
-			item.m = mWhole;
+			item.m = ctx.mWhole;
 		c.addItem(item);
 		for (short i = 0; i <= c.maxPos; ++i) {
 			if (i > 0)
-				complete(this.E, F, c, i);
-			if (i < c.maxPos)
-				predictAndScan(this.E, F, c, i);
+				complete(ctx, c, i);
+			if (i < c.maxPos) {
+				if (i > 0 && beam != null)
+					c.prune(i);
+				predictAndScan(ctx, c, i);
+			}
+		}
+		if (filter)
+			logger.fine("grammar filtering saved "+ctx.nsaved+" predictions");
+		if (beam != null) {
+			ctx.npruned = c.countPrunedItems();
+			logger.fine("beam pruned "+ctx.npruned+" items");
 		}
+		if (forest)
+			return new KBestIterator(gram, gm, E, c, kbest);
 		Iterator parseIt = new ParseIterator(gram, c);
 		return (kbest==0) ? parseIt : new SortIterator(parseIt, kbest);
 	}
@@ -135,12 +314,12 @@ public class SCFGParser extends Parser {
 		return parse(E, null);
 	}
 	
-	private void initm(Meaning F) {
+	private void initm(Context ctx, Meaning F) {
 		short size = (short) F.linear.length;
-		mEmpty = new BitSet(size);
-		mWhole = new BitSet(size);
-		mWhole.set((short) 0, true);
-		mWilds = new HashMap();
+		ctx.mEmpty = new BitSet(size);
+		ctx.mWhole = new BitSet(size);
+		ctx.mWhole.set((short) 0, true);
+		ctx.mWilds = new HashMap();
 		Symbol[] wilds = new Symbol[size];
 		for (short i = 0; i < size; ++i)
 			if (F.lprods[i].tied().isWildcard())
@@ -156,9 +335,9 @@ public class SCFGParser extends Parser {
 						checked[j] = true;
 						m.set(j, true);
 					}
-				mWilds.put(wilds[i], m);
+				ctx.mWilds.put(wilds[i], m);
 			}
-		mProds = new HashMap();
+		ctx.mProds = new HashMap();
 		Production[] prods = Config.getMRLGrammar().getProductions();
 		for (int i = 0; i < prods.length; ++i) {
 			Node parse = prods[i].getParse();
@@ -167,7 +346,7 @@ public class SCFGParser extends Parser {
 				if (match(parse, F.linear[j]))
 					m.set(j, true);
 			if (!m.isEmpty())
-				mProds.put(prods[i], m);
+				ctx.mProds.put(prods[i], m);
 		}
 	}
 	
@@ -185,7 +364,7 @@ public class SCFGParser extends Parser {
 		return true;
 	}
 	
-	private void complete(Terminal[] E, Meaning F, Chart c, short current) {
+	private void complete(Context ctx, Chart c, short current) {
 		while (!c.comps[current].isEmpty()) {
 			Item comp = (Item) c.comps[current].extractMin();
 			if (comp.rule.isDummy())
@@ -196,30 +375,40 @@ public class SCFGParser extends Parser {
 			for (Iterator it = items.iterator(); it.hasNext();) {
 				Item item = (Item) it.next();
 				Item next = new Item(item, comp);
-				if (F != null)  // training
-					next.m = m(F, item, comp);
+				if (ctx.F != null)  // training
+					next.m = m(ctx, item.rule, item.dot, item.m, comp.m);
 				next.inner = item.inner+comp.inner;
-				c.addItem(next);
-				skipWords(E, c, next);
+				if (c.addItem(next))
+					skipWords(ctx.E, c, next);
 			}
 		}
 	}
 	
-	private BitSet m(Meaning F, Item item, Item comp) {
-		if (item.rule.isDummy())
-			return item.m.intersect(comp.m);
+	/**
+	 * Returns the <code>m</code> field of an item created in the completion step.
+	 * 
+	 * @param ctx the current context, which contains the correct meaning representation.
+	 * @param rule the rule of the item to be completed.
+	 * @param dot the dot position of the item to be completed.
+	 * @param itemm the <code>m</code> field of the item to be completed.
+	 * @param compm the <code>m</code> field of the complete item.
+	 * @return the <code>m</code> field of the new item.
+	 */
+	protected BitSet m(Context ctx, Rule rule, short dot, BitSet itemm, BitSet compm) {
+		if (rule.isDummy())
+			return itemm.intersect(compm);
 		else {
-			short[] path = item.rule.getPath(item.rule.getE(item.dot).getIndex());
-			BitSet m = (BitSet) item.m.copy();
+			short[] path = rule.getPath(rule.getE(dot).getIndex());
+			BitSet m = (BitSet) itemm.copy();
 			for (short i = 0; i < m.length(); ++i)
 				if (m.get(i)) {
-					Node n = F.linear[i];
+					Node n = ctx.F.linear[i];
 					for (short j = 0; j < path.length; ++j)
 						n = n.getChild(path[j]);
-					if (!comp.m.get((short) Arrays.indexOf(F.linear, n)))
+					if (!compm.get((short) Arrays.indexOf(ctx.F.linear, n)))
 						m.set(i, false);
 				}
-			return (m.isEmpty()) ? mEmpty : m;
+			return (m.isEmpty()) ? ctx.mEmpty : m;
 		}
 	}
 	
@@ -229,12 +418,14 @@ public class SCFGParser extends Parser {
 			Item next = new Item(item);
 			next.m = item.m;
 			next.inner = item.inner+gm.getWeight(E[item.current]);
-			c.addItem(next);
+			if (!c.addItem(next))
+				break;
 			item = next;
 		}
 	}
 	
-	private void predictAndScan(Terminal[] E, Meaning F, Chart c, short current) {
+	private void predictAndScan(Context ctx, Chart c, short current) {
+		Terminal[] E = ctx.E;
 		ArrayList set = c.sets[current];
 		for (int i = 0; i < set.size(); ++i) {
 			Item item = (Item) set.get(i);
@@ -246,13 +437,17 @@ public class SCFGParser extends Parser {
 				for (int j = 0; j < gram.countNonterms(); ++j)
 					if (gram.isLeftCornerForE(sym.getId(), j) && !c.isPredicted(current, j)) {
 						c.predict(current, j);
-						Rule[] rules = gram.getRules(j);
+						Rule[] rules = ctx.sentGram.getRules(j);
+						int[] ids = c.rules.getIds(j);
+						if (filter)
+							ctx.nsaved += ((FilteredSCFG) ctx.sentGram).countFiltered(j);
 						for (int k = 0; k < rules.length; ++k)
 							if (rules[k].isActive()) {
 								Item next = new Item(rules[k], current);
-								if (F != null)  // training
-									next.m = m(rules[k]);
-								next.inner = rules[k].getWeight();
+								next.ruleId = ids[k];
+								if (ctx.F != null)  // training
+									next.m = m(ctx, rules[k]);
+								next.inner = rules[k].getScore();
 								c.addItem(next);
 							}
 					}
@@ -260,27 +455,45 @@ public class SCFGParser extends Parser {
 				// scan
 				if (sym.matches(E[current])) {
 					Item next = new Item(item, E[current]);
-					if (F != null) // training
-						next.m = m(item, E[current]);
+					if (item.rule.isWildcard())
+						next.ruleId = c.rules.specialize(item.ruleId, E[current]);
+					if (ctx.F != null) // training
+						next.m = m(ctx, item.rule, item.m, E[current]);
 					next.inner = item.inner;
-					c.addItem(next);
-					skipWords(E, c, next);
+					if (c.addItem(next))
+						skipWords(E, c, next);
 				}
 			}
 		}
 	}
 	
-	private BitSet m(Rule rule) {
-		BitSet m = (BitSet) mProds.get(rule.getProduction());
-		return (m==null) ? mEmpty : m;
+	/**
+	 * Returns the <code>m</code> field of an item created in the prediction step.
+	 * 
+	 * @param ctx the current context.
+	 * @param rule the predicted rule.
+	 * @return the <code>m</code> field of the new item.
+	 */
+	protected BitSet m(Context ctx, Rule rule) {
+		BitSet m = (BitSet) ctx.mProds.get(rule.getProduction());
+		return (m==null) ? ctx.mEmpty : m;
 	}
 	
-	private BitSet m(Item item, Terminal word) {
-		if (item.rule.isWildcard()) {
-			BitSet m = (BitSet) mWilds.get(word);
-			return (m==null) ? mEmpty : m.intersect(item.m);
+	/**
+	 * Returns the <code>m</code> field of an item created in the scanning step.
+	 * 
+	 * @param ctx the current context.
+	 * @param rule the rule of the item before scanning.
+	 * @param itemm the <code>m</code> field of the item before scanning.
+	 * @param word the terminal symbol that has been scanned.
+	 * @return the <code>m</code> field of the new item.
+	 */
+	protected BitSet m(Context ctx, Rule rule, BitSet itemm, Terminal word) {
+		if (rule.isWildcard()) {
+			BitSet m = (BitSet) ctx.mWilds.get(word);
+			return (m==null) ? ctx.mEmpty : m.intersect(itemm);
 		} else
-			return item.m;
+			return itemm;
 	}
 	
 	private static class ParseIterator implements Iterator {
@@ -323,83 +536,50 @@ public class SCFGParser extends Parser {
 	///
 	
 	/**
-	 * The outside algorithm for calcaluting the outer scores of chart items.  The previous call to the
-	 * <code>parse</code> method supplies the chart and input sentence required by this algorithm.  If
-	 * no such call has been made, then a <code>NullPointerException</code> is thrown.
+	 * Returns the packed forest of the last sentence parsed by the calling thread, for re-use in 
+	 * parameter estimation.  The previous call to the <code>parse</code> method in the calling thread
+	 * must be made with the correct meaning representation of the sentence.  If no such call has been
+	 * made, then a <code>NullPointerException</code> is thrown.
 	 * 
-	 * @param ignoreEmpty indicates if items with empty <code>m</code> field are ignored during the
-	 * outside algorithm.
+	 * @return the packed forest of the last sentence parsed.
 	 * @throws NullPointerException if the <code>parse</code> method has not been called.
 	 */
-	public void outside(boolean ignoreEmpty) {
-		gram.resetOuterScores();
-		gm.resetOuterScores();
-		c.resetOuterScores();
-		initOuterScores(c, ignoreEmpty);
-		for (short i = c.maxPos; i > 0; --i) {
-			reverseComplete(E, c, i);
-			reverseScan(E, c, i);
-		}
-		for (short i = 0; i < c.maxPos; ++i)
-			addOuterScores(c, i);
-	}
-	
-	private void initOuterScores(Chart c, boolean ignoreEmpty) {
-		for (Iterator it = new ParseIterator(gram, c); it.hasNext();) {
-			SCFGParse parse = (SCFGParse) it.next();
-			if (ignoreEmpty && parse.item.m.isEmpty())
-				continue;
-			parse.item.outer = 0;
-		}
-	}
-	
-	private void reverseComplete(Terminal[] E, Chart c, short current) {
-		Heap heap = c.createReverseHeap();
-		for (Iterator it = c.sets[current].iterator(); it.hasNext();) {
+	public Hypergraph getHypergraph() {
+		Context ctx = getContext();
+		Chart c = ctx.c;
+		Hypergraph.Builder b = new Hypergraph.Builder(ctx.E);
+		IdentityHashMap ids = new IdentityHashMap();
+		for (Iterator it = c.getCreated().iterator(); it.hasNext();) {
 			Item item = (Item) it.next();
-			if (item.dot == 0)
-				continue;
-			if (item.isCompleted())
-				heap.add(item);
-		}
-		while (!heap.isEmpty()) {
-			Item item = (Item) heap.extractMin();
-			int nback = item.countBack();
-			for (int i = 0; i < nback; ++i) {
-				Item back = item.getBack(i);
-				Item comp = item.getBackComplete(i);
-				back.outer = Math.logAdd(back.outer, item.outer+comp.inner);
-				comp.outer = Math.logAdd(comp.outer, item.outer+back.inner);
-			}
-		}
-	}
-	
-	private void reverseScan(Terminal[] E, Chart c, short current) {
-		for (Iterator it = c.sets[current].iterator(); it.hasNext();) {
-			Item item = (Item) it.next();
-			if (item.isScan()) {
-				int nback = item.countBack();
-				for (int j = 0; j < nback; ++j) {
-					Item back = item.getBack(j);
-					if (back.dot == item.dot) {
-						// word gap
-						double w = gm.getWeight(E[back.current]);
-						back.outer = Math.logAdd(back.outer, item.outer+w);
-						gm.addOuterScores(E[back.current], item.outer+back.inner+w);
-					} else
-						back.outer = Math.logAdd(back.outer, item.outer);
+			int r = -1, t = -1, back = -1, comp = -1;
+			short word = -1;
+			if (item.isPredict()) {
+				if (!item.rule.isDummy()) {
+					r = gram.getId(item.rule);
+					t = gram.getTiedId(r);
 				}
+			} else {
+				// the first back pointer is the one with which the item is created
+				Item b0 = item.getBack(0);
+				Item c0 = item.getBackComplete(0);
+				back = ((Int) ids.get(b0)).val;
+				if (c0 != null)
+					comp = ((Int) ids.get(c0)).val;
+				else if (b0.dot == item.dot)
+					// word gap
+					word = b0.current;
 			}
+			Item slot = c.find(item);
+			int into = (slot == item) ? -1 : ((Int) ids.get(slot)).val;
+			ids.put(item, new Int(b.addItem(item.start, item.current, r, t, back, comp, word, into)));
 		}
-	}
-	
-	private void addOuterScores(Chart c, short current) {
-		for (Iterator it = c.sets[current].iterator(); it.hasNext();) {
+		int start = gram.getStart();
+		for (Iterator it = c.sets[c.maxPos].iterator(); it.hasNext();) {
 			Item item = (Item) it.next();
-			if (item.isPredict() && !item.rule.isDummy()) {
-				gram.tied(item.rule).addOuterScore(item.outer);
-			}
+			if (item.start == 0 && item.dot == item.rule.lengthE() && item.rule.getLhs() == start)
+				b.addRoot(((Int) ids.get(item)).val, !item.m.isEmpty());
 		}
+		return b.build();
 	}
 	
 }
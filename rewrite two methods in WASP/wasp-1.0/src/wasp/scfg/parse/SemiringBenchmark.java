@@ -0,0 +1,198 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import wasp.data.Example;
+import wasp.data.ExampleMask;
+import wasp.data.Examples;
+import wasp.main.Config;
+import wasp.math.Math;
+import wasp.math.Semiring;
+import wasp.nl.GapModel;
+import wasp.scfg.SCFG;
+import wasp.scfg.SCFGModel;
+import wasp.util.Arrays;
+import wasp.util.Double;
+import wasp.util.Int;
+
+/**
+ * A benchmark for comparing the semirings available to the inside-outside algorithm during parameter
+ * estimation, in terms of speed and accuracy.  The packed forests of a set of training examples are
+ * built using a trained SCFG translation model.  The inside-outside algorithm is then run repeatedly on
+ * these forests using each semiring.  For each semiring, the benchmark reports the average time per 
+ * pass over the training set, and the maximum absolute errors in the conditional log-likelihood and 
+ * its gradient, relative to the log semiring with exact log-addition.
+ * 
+ * @author ywwong
+ *
+ */
+public class SemiringBenchmark {
+
+	private static final Semiring[] SEMIRINGS = {Semiring.LOG, Semiring.LOG_TABLE, Semiring.SCALED};
+	
+	private SemiringBenchmark() {}
+	
+	/**
+	 * The main program for the semiring benchmark.  This program takes the following command-line
+	 * arguments:
+	 * <p>
+	 * <blockquote><code><b>java wasp.scfg.parse.SemiringBenchmark</b> <u>config-file</u> 
+	 * <u>model-dir</u> <u>mask-file</u> [<u>passes</u>]</code></blockquote>
+	 * <p>
+	 * <ul>
+	 * <li><code><u>config-file</u></code> - the configuration file that contains the current 
+	 * settings.</li>
+	 * <li><code><u>model-dir</u></code> - the directory in which a trained SCFG translation model is
+	 * stored.</li>
+	 * <li><code><u>mask-file</u></code> - the example mask that specifies the training set.</li>
+	 * <li><code><u>passes</u></code> - the number of timed passes over the training set for each
+	 * semiring.  The default is 10.</li>
+	 * </ul>
+	 * <p>
+	 * Results are sent to the standard output stream.
+	 * 
+	 * @param args the command-line arguments.
+	 * @throws IOException if an I/O error occurs.
+	 * @throws SAXException if the XML parser throws a <code>SAXException</code> while parsing.
+	 * @throws ParserConfigurationException if an XML parser cannot be created which satisfies the 
+	 * requested configuration.
+	 */
+	public static void main(String[] args) throws IOException, SAXException, ParserConfigurationException {
+		if (args.length != 3 && args.length != 4) {
+			System.err.println("Usage: java wasp.scfg.parse.SemiringBenchmark config-file model-dir mask-file [passes]");
+			System.err.println();
+			System.err.println("config-file - the configuration file that contains the current settings.");
+			System.err.println("model-dir - the directory in which a trained SCFG translation model is stored.");
+			System.err.println("mask-file - the example mask that specifies the training set.");
+			System.err.println("passes - the number of timed passes over the training set for each semiring.");
+			System.exit(1);
+		}
+		Config.read(args[0]);
+		Config.setModelDir(args[1]);
+		Examples examples = new Examples();
+		examples.read(Config.getCorpusFile());
+		ExampleMask mask = new ExampleMask();
+		mask.read(args[2]);
+		examples = mask.apply(examples);
+		int npasses = (args.length == 4) ? Int.parseInt(args[3]) : 10;
+		SCFGModel model = new SCFGModel();
+		model.read();
+		SCFG gram = model.gram;
+		GapModel gm = model.gm;
+		gram.prepare();
+		int nr = gram.countRules();
+		double[] weights = new double[nr];
+		double[] offsets = (gram.getFeatureWeights()==null) ? null : new double[nr];
+		for (int i = 0; i < nr; ++i)
+			if (gram.getRule(i).isActive()) {
+				weights[i] = gram.getRule(i).getWeight();
+				if (offsets != null)
+					offsets[i] = gram.getRule(i).getFeatureScore();
+			}
+		double[] gapWeights = gm.getWeightVector();
+		
+		// build the packed forests
+		SCFGParser parser = SCFGParser.createNew(gram, gm);
+		Hypergraph[] forests = new Hypergraph[examples.size()];
+		int nforests = 0;
+		long nitems = 0;
+		for (Iterator it = examples.iterator(); it.hasNext();) {
+			Example ex = (Example) it.next();
+			parser.parse(ex.E, ex.F);
+			Hypergraph forest = parser.getHypergraph();
+			Hypergraph.Inside in = forest.inside(weights, offsets, gm, Semiring.LOG);
+			if (forest.getScore(in, true) > Double.NEGATIVE_INFINITY) {
+				forests[nforests++] = forest;
+				nitems += forest.countItems();
+			}
+		}
+		forests = (Hypergraph[]) Arrays.resize(forests, nforests);
+		System.out.println(forests.length+" forests, "+nitems+" items");
+		
+		double[] ruleOuters = new double[nr];
+		double[] gapOuters = new double[gapWeights.length];
+		double[] exactGrad = null;
+		double exactVal = 0;
+		for (int s = 0; s < SEMIRINGS.length; ++s) {
+			Semiring sr = SEMIRINGS[s];
+			// the first pass is for warming up, and for measuring accuracy
+			double val = 0;
+			double[] grad = new double[nr+gapWeights.length];
+			for (int i = 0; i < forests.length; ++i) {
+				Hypergraph.Inside in = forests[i].inside(weights, offsets, gm, sr);
+				double z_E = forests[i].getScore(in, false);
+				double z_EF = forests[i].getScore(in, true);
+				val += z_EF-z_E;
+				Arrays.fill(ruleOuters, Double.NEGATIVE_INFINITY);
+				Arrays.fill(gapOuters, Double.NEGATIVE_INFINITY);
+				forests[i].outside(in, false, offsets, gm, ruleOuters, gapOuters);
+				addCounts(grad, weights, ruleOuters, gapWeights, gapOuters, z_E, 1);
+				Arrays.fill(ruleOuters, Double.NEGATIVE_INFINITY);
+				Arrays.fill(gapOuters, Double.NEGATIVE_INFINITY);
+				forests[i].outside(in, true, offsets, gm, ruleOuters, gapOuters);
+				addCounts(grad, weights, ruleOuters, gapWeights, gapOuters, z_EF, -1);
+			}
+			if (exactGrad == null) {
+				exactVal = val;
+				exactGrad = grad;
+			}
+			double gradErr = 0;
+			for (int i = 0; i < grad.length; ++i)
+				gradErr = Math.max(gradErr, Math.abs(grad[i]-exactGrad[i]));
+			long time = System.currentTimeMillis();
+			for (int k = 0; k < npasses; ++k)
+				for (int i = 0; i < forests.length; ++i) {
+					Hypergraph.Inside in = forests[i].inside(weights, offsets, gm, sr);
+					forests[i].getScore(in, false);
+					forests[i].getScore(in, true);
+					Arrays.fill(ruleOuters, Double.NEGATIVE_INFINITY);
+					Arrays.fill(gapOuters, Double.NEGATIVE_INFINITY);
+					forests[i].outside(in, false, offsets, gm, ruleOuters, gapOuters);
+					Arrays.fill(ruleOuters, Double.NEGATIVE_INFINITY);
+					Arrays.fill(gapOuters, Double.NEGATIVE_INFINITY);
+					forests[i].outside(in, true, offsets, gm, ruleOuters, gapOuters);
+				}
+			time = System.currentTimeMillis()-time;
+			System.out.println(sr+": "+((double) time/npasses)+" ms/pass, log-likelihood "+val
+					+" (error "+Math.abs(val-exactVal)+"), max gradient error "+gradErr);
+		}
+	}
+	
+	/**
+	 * Adds the expected counts of parameters to the specified gradient.
+	 */
+	private static void addCounts(double[] grad, double[] weights, double[] ruleOuters, 
+			double[] gapWeights, double[] gapOuters, double z, int sign) {
+		for (int i = 0; i < ruleOuters.length; ++i)
+			if (ruleOuters[i] > Double.NEGATIVE_INFINITY)
+				grad[i] += sign*Math.exp(weights[i]+ruleOuters[i]-z);
+		for (int i = 0; i < gapOuters.length; ++i)
+			if (gapOuters[i] > Double.NEGATIVE_INFINITY)
+				grad[ruleOuters.length+i] += sign*Math.exp(gapWeights[i]+gapOuters[i]-z);
+	}
+	
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import wasp.main.Config;
+import wasp.util.FileWriter;
+
+/**
+ * Per-iteration metrics of parameter estimation.  For each iteration of the optimization algorithm,
+ * the following values are recorded: the wall-clock time, the value and gradient norm of the 
+ * objective function, the number of times the objective function is evaluated (i.e. line-search 
+ * probes), the average and maximum time spent on each training example, the average numbers of chart
+ * items created and pruned by the beam for each example parsed, the average number of chart items 
+ * that are not part of any complete parse (which are dropped from the packed forests), the largest 
+ * chart, the heap usage, the number of active rules, and the estimated error in the objective 
+ * function due to chart pruning, if charts are pruned during parameter estimation.  The slowest 
+ * example and the example with the largest chart are identified by their IDs, so that examples that
+ * blow up training time can be found.
+ * <p>
+ * Metrics are written to a file called <code>training-metrics.csv</code> or 
+ * <code>training-metrics.json</code> in the model directory, depending on the format specified in 
+ * the configuration file (via the key <code>Config.SCFG_METRICS</code>).  Each line of the JSON file
+ * is a separate JSON object.  Metrics of the last completed iteration are also available through a
+ * JMX MBean called <code>wasp:type=TrainingMonitor</code>, if this is turned on in the configuration
+ * file (via the key <code>Config.SCFG_METRICS_JMX</code>).  This class is thread-safe.
+ * 
+ * @author ywwong
+ *
+ */
+public class TrainingMonitor implements TrainingMonitorMBean {
+
+	private static Logger logger = Logger.getLogger(TrainingMonitor.class.getName());
+	
+	private static final String METRICS_FILE = "training-metrics";
+	private static final String MBEAN_NAME = "wasp:type=TrainingMonitor";
+	private static final String[] COLUMNS = {
+		"iteration", "elapsed_ms", "iteration_ms", "objective", "gradient_norm", "probes", "examples",
+		"avg_example_ms", "max_example_ms", "slowest_example", "parsed", "avg_items_created",
+		"avg_items_pruned", "avg_items_unreachable", "max_items", "largest_example", "heap_used", "active_rules",
+		"normalizer_gap"
+	};
+	
+	/**
+	 * The metrics of a single iteration, listed in the same order as <code>COLUMNS</code>.
+	 */
+	private static class Record {
+		public int iteration;
+		public long elapsed;
+		public long iterationTime;
+		public double objective;
+		public double gradientNorm;
+		public int probes;
+		public int examples;
+		public double avgExampleTime;
+		public double maxExampleTime;
+		public int slowestExample;
+		public int parsed;
+		public double avgItemsCreated;
+		public double avgItemsPruned;
+		public double avgItemsUnreachable;
+		public int maxItems;
+		public int largestExample;
+		public long heapUsed;
+		public int activeRules;
+		public double normalizerGap;
+		public Record() {
+			iteration = -1;
+			objective = gradientNorm = Double.NaN;
+			avgExampleTime = maxExampleTime = Double.NaN;
+			avgItemsCreated = avgItemsPruned = avgItemsUnreachable = Double.NaN;
+			slowestExample = largestExample = -1;
+			normalizerGap = Double.NaN;
+		}
+		public Object[] values() {
+			return new Object[] {
+				Integer.valueOf(iteration), Long.valueOf(elapsed), Long.valueOf(iterationTime),
+				Double.valueOf(objective), Double.valueOf(gradientNorm), Integer.valueOf(probes),
+				Integer.valueOf(examples), Double.valueOf(avgExampleTime), Double.valueOf(maxExampleTime),
+				Integer.valueOf(slowestExample), Integer.valueOf(parsed), Double.valueOf(avgItemsCreated),
+				Double.valueOf(avgItemsPruned), Double.valueOf(avgItemsUnreachable), 
+				Integer.valueOf(maxItems), Integer.valueOf(largestExample), Long.valueOf(heapUsed),
+				Integer.valueOf(activeRules), Double.valueOf(normalizerGap)
+			};
+		}
+	}
+	
+	private PrintWriter out;
+	private boolean json;
+	private ObjectName mbeanName;
+	
+	private long startTime;
+	private long iterationStart;
+	/** The metrics of the last completed iteration. */
+	private Record last;
+	
+	/// Counters for the current iteration
+	private double objective;
+	private double gradientNorm;
+	private int probes;
+	private int examples;
+	private long exampleTime;
+	private long maxExampleTime;
+	private int slowestExample;
+	private int parsed;
+	private long itemsCreated;
+	private long itemsPruned;
+	private long itemsUnreachable;
+	private int maxItems;
+	private int largestExample;
+	private double normalizerGap;
+	
+	private TrainingMonitor() {
+		out = null;
+		json = false;
+		mbeanName = null;
+		startTime = iterationStart = System.currentTimeMillis();
+		last = new Record();
+		resetCounters();
+	}
+	
+	/**
+	 * Creates a monitor that records metrics as specified in the configuration file (via the keys
+	 * <code>Config.SCFG_METRICS</code> and <code>Config.SCFG_METRICS_JMX</code>).  If neither is 
+	 * specified, then metrics are collected but not exported.
+	 * 
+	 * @return a new training monitor.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static TrainingMonitor createNew() throws IOException {
+		TrainingMonitor monitor = new TrainingMonitor();
+		String format = Config.get(Config.SCFG_METRICS);
+		if (format != null && (format.equals("csv") || format.equals("json"))) {
+			monitor.json = format.equals("json");
+			File file = new File(Config.getModelDir(), METRICS_FILE+"."+format);
+			monitor.out = new PrintWriter(new BufferedWriter(FileWriter.createNew(file)));
+			if (!monitor.json) {
+				for (int i = 0; i < COLUMNS.length; ++i) {
+					if (i > 0)
+						monitor.out.print(',');
+					monitor.out.print(COLUMNS[i]);
+				}
+				monitor.out.println();
+				monitor.out.flush();
+			}
+		}
+		if ("true".equals(Config.get(Config.SCFG_METRICS_JMX)))
+			monitor.register();
+		return monitor;
+	}
+	
+	private void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(MBEAN_NAME);
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+			mbeanName = name;
+		} catch (JMException e) {
+			logger.warning("cannot register the training monitor: "+e);
+		}
+	}
+	
+	private void resetCounters() {
+		objective = gradientNorm = Double.NaN;
+		probes = 0;
+		examples = 0;
+		exampleTime = maxExampleTime = 0;
+		slowestExample = -1;
+		parsed = 0;
+		itemsCreated = itemsPruned = itemsUnreachable = 0;
+		maxItems = 0;
+		largestExample = -1;
+		normalizerGap = Double.NaN;
+	}
+	
+	/**
+	 * Records an evaluation of the objective function.  Evaluations answered from a cache are not 
+	 * counted.
+	 */
+	public synchronized void addEvaluation() {
+		++probes;
+	}
+	
+	/**
+	 * Records the value and gradient norm of the objective function at the current point.
+	 * 
+	 * @param val the value of the objective function.
+	 * @param gradientNorm the norm of its gradient.
+	 */
+	public synchronized void setPoint(double val, double gradientNorm) {
+		objective = val;
+		this.gradientNorm = gradientNorm;
+	}
+	
+	/**
+	 * Records the time spent on a training example, and the size of its chart if it is parsed.
+	 * 
+	 * @param id the ID of the example.
+	 * @param nanos the time spent on the example, in nanoseconds.
+	 * @param created the number of chart items created by the parser; <code>-1</code> if the example
+	 * is not parsed.
+	 * @param pruned the number of chart items pruned by the beam (see 
+	 * <code>SCFGParser.countPrunedItems</code>).
+	 * @param kept the number of chart items that are part of some complete parse.
+	 */
+	public synchronized void addExample(int id, long nanos, int created, int pruned, int kept) {
+		++examples;
+		exampleTime += nanos;
+		if (maxExampleTime < nanos) {
+			maxExampleTime = nanos;
+			slowestExample = id;
+		}
+		if (created >= 0) {
+			++parsed;
+			itemsCreated += created;
+			itemsPruned += pruned;
+			itemsUnreachable += created-kept;
+			if (maxItems < created) {
+				maxItems = created;
+				largestExample = id;
+			}
+		}
+	}
+	
+	/**
+	 * Records the estimated difference between the exact objective function and the objective function 
+	 * computed from pruned charts.
+	 * 
+	 * @param gap the estimated difference in the objective function.
+	 */
+	public synchronized void setNormalizerGap(double gap) {
+		normalizerGap = gap;
+	}
+	
+	/**
+	 * Ends the current iteration, and exports its metrics.
+	 * 
+	 * @param iter the iteration number.
+	 * @param activeRules the number of active rules at the end of the iteration.
+	 */
+	public synchronized void endIteration(int iter, int activeRules) {
+		long now = System.currentTimeMillis();
+		Runtime rt = Runtime.getRuntime();
+		Record r = new Record();
+		r.iteration = iter;
+		r.elapsed = now-startTime;
+		r.iterationTime = now-iterationStart;
+		r.objective = objective;
+		r.gradientNorm = gradientNorm;
+		r.probes = probes;
+		r.examples = examples;
+		if (examples > 0) {
+			r.avgExampleTime = exampleTime/1e6/examples;
+			r.maxExampleTime = maxExampleTime/1e6;
+			r.slowestExample = slowestExample;
+		}
+		r.parsed = parsed;
+		if (parsed > 0) {
+			r.avgItemsCreated = (double) itemsCreated/parsed;
+			r.avgItemsPruned = (double) itemsPruned/parsed;
+			r.avgItemsUnreachable = (double) itemsUnreachable/parsed;
+			r.maxItems = maxItems;
+			r.largestExample = largestExample;
+		}
+		r.heapUsed = rt.totalMemory()-rt.freeMemory();
+		r.activeRules = activeRules;
+		r.normalizerGap = normalizerGap;
+		last = r;
+		iterationStart = now;
+		resetCounters();
+		if (out != null) {
+			write(r);
+			out.flush();
+		}
+	}
+	
+	private void write(Record r) {
+		Object[] values = r.values();
+		if (json)
+			out.print('{');
+		for (int i = 0; i < values.length; ++i) {
+			if (i > 0)
+				out.print(',');
+			if (json) {
+				out.print('"');
+				out.print(COLUMNS[i]);
+				out.print("\":");
+			}
+			out.print(format(values[i]));
+		}
+		if (json)
+			out.print('}');
+		out.println();
+	}
+	
+	/**
+	 * Formats a metric value.  Missing values (i.e. NaN) are written as empty fields in CSV files, and 
+	 * as <code>null</code> in JSON files.
+	 */
+	private String format(Object value) {
+		if (value instanceof Double) {
+			double d = ((Double) value).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d))
+				return (json) ? "null" : "";
+		}
+		return value.toString();
+	}
+	
+	/**
+	 * Closes the metrics file, and unregisters the MBean.
+	 */
+	public synchronized void close() {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+		if (mbeanName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+			} catch (JMException e) {
+				logger.warning("cannot unregister the training monitor: "+e);
+			}
+			mbeanName = null;
+		}
+	}
+	
+	///
+	/// MBean attributes
+	///
+	
+	public synchronized int getIteration() {
+		return last.iteration;
+	}
+	
+	public synchronized long getElapsedMillis() {
+		return last.elapsed;
+	}
+	
+	public synchronized double getObjective() {
+		return last.objective;
+	}
+	
+	public synchronized double getGradientNorm() {
+		return last.gradientNorm;
+	}
+	
+	public synchronized int getLineSearchProbes() {
+		return last.probes;
+	}
+	
+	public synchronized double getAverageExampleMillis() {
+		return last.avgExampleTime;
+	}
+	
+	public synchronized int getSlowestExample() {
+		return last.slowestExample;
+	}
+	
+	public synchronized double getAverageItemsCreated() {
+		return last.avgItemsCreated;
+	}
+	
+	public synchronized double getAverageItemsPruned() {
+		return last.avgItemsPruned;
+	}
+	
+	public synchronized double getAverageItemsUnreachable() {
+		return last.avgItemsUnreachable;
+	}
+	
+	public synchronized int getLargestExample() {
+		return last.largestExample;
+	}
+	
+	public synchronized long getHeapUsed() {
+		return last.heapUsed;
+	}
+	
+	public synchronized int getActiveRules() {
+		return last.activeRules;
+	}
+	
+	public synchronized double getNormalizerGap() {
+		return last.normalizerGap;
+	}
+	
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+/**
+ * The management interface of <code>TrainingMonitor</code>, through which the metrics of the last
+ * completed iteration of parameter estimation can be inspected live using JMX clients such as 
+ * <code>jconsole</code>.
+ * 
+ * @author ywwong
+ *
+ */
+public interface TrainingMonitorMBean {
+
+	public int getIteration();
+	
+	public long getElapsedMillis();
+	
+	public double getObjective();
+	
+	public double getGradientNorm();
+	
+	public int getLineSearchProbes();
+	
+	public double getAverageExampleMillis();
+	
+	public int getSlowestExample();
+	
+	public double getAverageItemsCreated();
+	
+	public double getAverageItemsPruned();
+	
+	public double getAverageItemsUnreachable();
+	
+	public int getLargestExample();
+	
+	public long getHeapUsed();
+	
+	public int getActiveRules();
+	
+	public double getNormalizerGap();
+	
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import wasp.data.Terminal;
+import wasp.scfg.RuleTrie;
+import wasp.scfg.SCFG;
+import wasp.util.Arrays;
+import wasp.util.Double;
+import wasp.util.Heap;
+import wasp.util.LongNumberer;
+
+/**
+ * An Earley chart for parsing synchronous context-free grammars that are represented as prefix
+ * tries.  Items are instances of <code>TrieItem</code>.  Like the <code>Chart</code> class, only the
+ * top <i>K</i> copies of each item are kept.
+ * 
+ * @author ywwong
+ *
+ */
+public class TrieChart {
+	
+	private static final Comparator LATER_FIRST = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			TrieItem i1 = (TrieItem) o1;
+			TrieItem i2 = (TrieItem) o2;
+			if (i1.start > i2.start)
+				return -1;
+			else if (i1.start < i2.start)
+				return 1;
+			else if (i1.timestamp < i2.timestamp)
+				return -1;
+			else if (i1.timestamp > i2.timestamp)
+				return 1;
+			else
+				return 0;
+		}
+	};
+	private static final int INC = 64;
+	
+	/** The maximum number of top-scoring theories to keep for each cell.  <code>0</code> means no limit
+	 * is imposed. */
+	private int kbest;
+	/** Pruning parameters; <code>null</code> if no pruning is done. */
+	private Beam beam;
+	/** The best inner score of each span so far, indexed by <code>start*(maxPos+1)+current</code>. */
+	private double[] best;
+	private int npruned;
+	
+	public short maxPos;
+	public ArrayList[] sets;
+	public ArrayList[][] toComps;
+	public Heap[] comps;
+	private boolean[][] predicted;
+	/** Rules that appear in this chart. */
+	public ChartRules rules;
+	private LongNumberer intern;
+	/** Existing copies of each item, laid out as in <code>Chart</code>. */
+	private TrieItem[] slots;
+	private int timestamp;
+	
+	public TrieChart(SCFG gram, Terminal[] s, int kbest) {
+		this(gram, s, kbest, null);
+	}
+	
+	/**
+	 * Creates an empty chart in which items are pruned as specified.  Note that the inner scores of
+	 * incomplete items do not include rule weights, so they are compared without rule weights.
+	 * 
+	 * @param gram the SCFG used for parsing.
+	 * @param s the input sentence.
+	 * @param kbest the maximum number of top-scoring theories to keep for each cell.
+	 * @param beam pruning parameters; <code>null</code> if no pruning is done.
+	 */
+	public TrieChart(SCFG gram, Terminal[] s, int kbest, Beam beam) {
+		this.kbest = kbest;
+		this.beam = beam;
+		maxPos = (short) s.length;
+		int nlhs = gram.countNonterms();
+		sets = new ArrayList[maxPos+1];
+		toComps = new ArrayList[maxPos+1][nlhs];
+		comps = new Heap[maxPos+1];
+		predicted = new boolean[maxPos+1][nlhs];
+		rules = new ChartRules(gram);
+		int size = Chart.initInternSize(maxPos, nlhs);
+		intern = new LongNumberer(size);
+		slots = new TrieItem[size*((kbest==0) ? 1 : kbest)];
+		for (short i = 0; i <= maxPos; ++i) {
+			sets[i] = new ArrayList();
+			comps[i] = new Heap(LATER_FIRST, INC);
+		}
+		timestamp = 0;
+		if (beam != null) {
+			best = new double[(maxPos+1)*(maxPos+1)];
+			Arrays.fill(best, Double.NEGATIVE_INFINITY);
+		}
+		npruned = 0;
+	}
+	
+	/**
+	 * Adds the specified item to this chart.  See <code>Chart.addItem</code> for details.
+	 * 
+	 * @param item an item.
+	 * @return <code>false</code> if the item is pruned, in which case no further items should be
+	 * derived from it; <code>true</code> otherwise.
+	 */
+	public boolean addItem(TrieItem item) {
+		if (beam != null) {
+			int span = item.start*(maxPos+1)+item.current;
+			if (item.inner < best[span]-beam.threshold) {
+				++npruned;
+				return false;
+			}
+			if (item.inner > best[span])
+				best[span] = item.inner;
+		}
+		int a = intern(item);
+		if (kbest == 0) {
+			if (slots[a] == null) {
+				slots[a] = item;
+				add(item);
+			} else
+				slots[a].combine(item);
+		} else {
+			int i = 0;
+			for (; i < kbest && slots[a+i] != null && slots[a+i].inner > item.inner; ++i)
+				;
+			if (i < kbest) {
+				if (slots[a+kbest-1] == null) {
+					for (int j = kbest-1; j >= i+1; --j)
+						slots[a+j] = slots[a+j-1];
+					slots[a+i] = item;
+					add(item);
+				} else {
+					for (int j = kbest-1; j >= i+1; --j)
+						slots[a+j].replace(slots[a+j-1]);
+					slots[a+i].replace(item);
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the index of the first copy of the specified item in the <code>slots</code> array.  See
+	 * <code>Chart.intern</code> for details.  Incomplete items are identified by their trie states, and
+	 * complete items by their rules.
+	 * 
+	 * @param item an item.
+	 * @return the index of the first <i>existing</i> copy of the <code>item</code> argument in the
+	 * <code>slots</code> array.
+	 */
+	private int intern(TrieItem item) {
+		long key = (item.isComplete()) ? ((long) item.ruleId << 1) | 1 : (long) item.state.id << 1;
+		int id = intern.getId(key, Chart.internKey((short) 0, item.gap, item.start, item.current), true);
+		int k = (kbest==0) ? 1 : kbest;
+		if ((id+1)*k > slots.length)
+			slots = (TrieItem[]) Arrays.resize(slots, 2*slots.length);
+		return id*k;
+	}
+	
+	private void add(TrieItem item) {
+		item.timestamp = timestamp++;
+		sets[item.current].add(item);
+		if (item.isComplete())
+			comps[item.current].add(item);
+		else if (item.current < maxPos) {
+			// item is to be completed
+			RuleTrie.State state = item.state;
+			for (int i = 0; i < state.countNontermEdges(); ++i) {
+				int n = state.getSymbol(state.getNontermEdge(i)).getId();
+				if (!hasNontermEdge(state, i, n)) {
+					if (toComps[item.current][n] == null)
+						toComps[item.current][n] = new ArrayList();
+					toComps[item.current][n].add(item);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Indicates if any of the first <code>i</code> outgoing edges labeled with nonterminals of the
+	 * specified state is labeled with the specified nonterminal.
+	 */
+	private static boolean hasNontermEdge(RuleTrie.State state, int i, int n) {
+		for (int j = 0; j < i; ++j)
+			if (state.getSymbol(state.getNontermEdge(j)).getId() == n)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * Returns the number of items that have been added to this chart.  Items that are combined with
+	 * existing items, or are used for replacing existing items, are not counted.
+	 * 
+	 * @return the number of items that have been added to this chart.
+	 */
+	public int countItems() {
+		return timestamp;
+	}
+	
+	/**
+	 * Prunes the items that end at the specified position.  See <code>Chart.prune</code> for details.
+	 * 
+	 * @param current a position.
+	 */
+	public void prune(short current) {
+		ArrayList set = sets[current];
+		int n = set.size();
+		short[] starts = new short[n];
+		double[] inners = new double[n];
+		for (int i = 0; i < n; ++i) {
+			TrieItem item = (TrieItem) set.get(i);
+			starts[i] = item.start;
+			inners[i] = item.inner;
+		}
+		double[] cutoffs = beam.cutoffs(starts, inners, n, current);
+		sets[current] = prune(set, cutoffs);
+		npruned += n-sets[current].size();
+		for (int i = 0; i < toComps[current].length; ++i)
+			if (toComps[current][i] != null)
+				toComps[current][i] = prune(toComps[current][i], cutoffs);
+	}
+	
+	private static ArrayList prune(ArrayList items, double[] cutoffs) {
+		ArrayList kept = new ArrayList(items.size());
+		for (Iterator it = items.iterator(); it.hasNext();) {
+			TrieItem item = (TrieItem) it.next();
+			if (item.inner >= cutoffs[item.start])
+				kept.add(item);
+		}
+		return kept;
+	}
+	
+	/**
+	 * Returns the number of items that have been pruned from this chart.
+	 * 
+	 * @return the number of items that have been pruned from this chart.
+	 */
+	public int countPrunedItems() {
+		return npruned;
+	}
+	
+	public boolean isPredicted(short start, int lhs) {
+		return predicted[start][lhs];
+	}
+	
+	public void predict(short start, int lhs) {
+		predicted[start][lhs] = true;
+	}
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import wasp.math.Math;
+import wasp.scfg.Rule;
+import wasp.scfg.RuleTrie;
+
+/**
+ * Chart items used in the Earley parser for synchronous context-free grammars represented as prefix
+ * tries.  There are two kinds of items.  An <i>incomplete</i> item refers to a state in a rule trie,
+ * and stands for all rules that go through this state, with the dot at the same position.  Its inner
+ * score does not include rule weights.  A <i>complete</i> item refers to a single rule that ends at
+ * such a state, and its inner score includes the weight of the rule.
+ * <p>
+ * Only one back pointer is kept for each item.  This is enough for decoding.
+ * 
+ * @author ywwong
+ *
+ */
+public class TrieItem {
+	
+	/** The state in a rule trie; <code>null</code> for complete items. */
+	public RuleTrie.State state;
+	/** The rule of a complete item; <code>null</code> for incomplete items. */
+	public Rule rule;
+	/** The chart-specific ID of the rule of a complete item. */
+	public int ruleId;
+	/** The rule of a complete item before it is specialized with a word, if it is a wildcard rule. */
+	public Rule base;
+	/** The chart-specific ID of the rule of a complete item before specialization. */
+	public int baseId;
+	/** Number of words that have been skipped due to the word gap on the left of the dot. */
+	public short gap;
+	public short start;
+	public short current;
+	/** The inner score. */
+	public double inner;
+	public int timestamp;
+	/** The incomplete item that this item extends; <code>null</code> for predicted items. */
+	public TrieItem back;
+	/** The complete item associated with the back pointer; <code>null</code> if none. */
+	public TrieItem comp;
+	
+	/**
+	 * Creates an incomplete item.
+	 * 
+	 * @param state a state in a rule trie.
+	 * @param gap the number of words that have been skipped on the left of the dot.
+	 * @param start the start position.
+	 * @param current the current position.
+	 * @param inner the inner score.
+	 * @param back the back-pointer item; <code>null</code> for items created in the prediction step.
+	 * @param comp the complete item associated with the back pointer; <code>null</code> if none.
+	 */
+	public TrieItem(RuleTrie.State state, short gap, short start, short current, double inner,
+			TrieItem back, TrieItem comp) {
+		this.state = state;
+		rule = base = null;
+		ruleId = baseId = -1;
+		this.gap = gap;
+		this.start = start;
+		this.current = current;
+		this.inner = inner;
+		timestamp = 0;
+		this.back = back;
+		this.comp = comp;
+	}
+	
+	/**
+	 * Creates a complete item for a rule that ends at the state of the specified incomplete item.
+	 * 
+	 * @param back an incomplete item.
+	 * @param rule the rule, specialized with the scanned word if it is a wildcard rule.
+	 * @param ruleId the chart-specific ID of <code>rule</code>.
+	 * @param base the rule before specialization.
+	 * @param baseId the chart-specific ID of <code>base</code>.
+	 */
+	public TrieItem(TrieItem back, Rule rule, int ruleId, Rule base, int baseId) {
+		state = null;
+		this.rule = rule;
+		this.ruleId = ruleId;
+		this.base = base;
+		this.baseId = baseId;
+		gap = back.gap;
+		start = back.start;
+		current = back.current;
+		inner = back.inner+base.getScore();
+		timestamp = 0;
+		this.back = back;
+		comp = null;
+	}
+	
+	public boolean isComplete() {
+		return state == null;
+	}
+	
+	/**
+	 * Combines the inner score of the specified item with that of this item.  The specified item must
+	 * be <i>equal</i> to this item.
+	 * 
+	 * @param item an item that is equal to this item.
+	 */
+	public void combine(TrieItem item) {
+		inner = Math.logAdd(inner, item.inner);
+	}
+	
+	/**
+	 * Replaces the content of this item with that of the specified item.  See
+	 * <code>Item.replace</code> for details.
+	 * 
+	 * @param item an item that is equal to this item.
+	 */
+	public void replace(TrieItem item) {
+		inner = item.inner;
+		back = item.back;
+		comp = item.comp;
+	}
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import wasp.data.Meaning;
+import wasp.data.Terminal;
+import wasp.scfg.FilteredSCFG;
+import wasp.scfg.Rule;
+import wasp.scfg.RuleTrie;
+import wasp.scfg.SCFG;
+import wasp.scfg.SCFGModel;
+import wasp.util.SortIterator;
+
+/**
+ * An Earley chart parser for synchronous context-free grammars, in which the rules are organized as
+ * prefix tries over their NL sides.  A single incomplete item stands for all rules that share the
+ * same NL prefix, so one scanning or completion step advances all of these rules at once.  Items for
+ * individual rules are only created when the end of a rule is reached.  This greatly reduces the
+ * size of the chart for grammars in which many rules share NL prefixes, such as those extracted by
+ * Hiero-style rule extractors.
+ * <p>
+ * This parser is only used for decoding.  Parsing with a correct meaning representation (i.e. during
+ * parameter estimation) is handled by the superclass.
+ * 
+ * @author ywwong
+ *
+ */
+public class TrieSCFGParser extends SCFGParser {
+	
+	private static Logger logger = Logger.getLogger(TrieSCFGParser.class.getName());
+	
+	/** The rule trie for all sentences, if grammar filtering is off; <code>null</code> otherwise. */
+	private RuleTrie trie;
+	
+	/**
+	 * The states of the parser that are specific to an input sentence.
+	 */
+	private static class TrieContext extends Context {
+		/** The rule trie for the sentence. */
+		public RuleTrie trie;
+		/** The chart for the sentence. */
+		public TrieChart tc;
+	}
+	
+	public TrieSCFGParser(SCFGModel model) {
+		super(model);
+		trie = (filter) ? null : new RuleTrie(gram);
+	}
+	
+	public Iterator parse(Terminal[] E, Meaning F) {
+		if (F != null)  // training
+			return super.parse(E, F);
+		TrieContext ctx = new TrieContext();
+		init(ctx, E, F);
+		ctx.trie = (filter) ? new RuleTrie(ctx.sentGram) : trie;
+		TrieChart tc = new TrieChart(ctx.sentGram, E, kbest, beam);
+		ctx.tc = tc;
+		predict(ctx, tc, gram.getStart(), (short) 0);
+		for (short i = 0; i <= tc.maxPos; ++i) {
+			if (i > 0)
+				complete(E, tc, i);
+			if (i < tc.maxPos) {
+				if (i > 0 && beam != null)
+					tc.prune(i);
+				predictAndScan(ctx, tc, i);
+			}
+		}
+		logger.fine("trie chart has "+tc.countItems()+" items, "+ctx.trie.countStates()+" states");
+		if (filter)
+			logger.fine("grammar filtering saved "+ctx.nsaved+" predictions");
+		if (beam != null) {
+			ctx.npruned = tc.countPrunedItems();
+			logger.fine("beam pruned "+ctx.npruned+" items");
+		}
+		Iterator parseIt = new ParseIterator(gram, tc);
+		return (kbest==0) ? parseIt : new SortIterator(parseIt, kbest);
+	}
+	
+	private void complete(Terminal[] E, TrieChart c, short current) {
+		while (!c.comps[current].isEmpty()) {
+			TrieItem comp = (TrieItem) c.comps[current].extractMin();
+			int lhs = comp.rule.getLhs();
+			ArrayList items = c.toComps[comp.start][lhs];
+			if (items == null)
+				continue;
+			for (Iterator it = items.iterator(); it.hasNext();) {
+				TrieItem item = (TrieItem) it.next();
+				RuleTrie.State state = item.state;
+				for (int j = 0; j < state.countNontermEdges(); ++j) {
+					int i = state.getNontermEdge(j);
+					if (state.getSymbol(i).getId() == lhs) {
+						TrieItem next = new TrieItem(state.getNext(i), (short) 0, item.start, comp.current,
+								item.inner+comp.inner, item, comp);
+						if (c.addItem(next)) {
+							finish(E, c, next);
+							skipWords(E, c, next, state.getGap(i));
+						}
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Creates complete items for all rules that end at the state of the specified item.
+	 */
+	private void finish(Terminal[] E, TrieChart c, TrieItem item) {
+		RuleTrie.State state = item.state;
+		if (state.countRules() == 0)
+			return;
+		int[] ids = c.rules.getIds(state.lhs);
+		for (int i = 0; i < state.countRules(); ++i) {
+			Rule base = state.getRule(i);
+			int baseId = ids[state.getRuleIndex(i)];
+			Rule rule = base;
+			int ruleId = baseId;
+			if (base.isWildcard()) {
+				ruleId = c.rules.specialize(baseId, E[item.start]);
+				rule = c.rules.getRule(ruleId);
+			}
+			c.addItem(new TrieItem(item, rule, ruleId, base, baseId));
+		}
+	}
+	
+	private void skipWords(Terminal[] E, TrieChart c, TrieItem item, short gap) {
+		for (short i = 0; i < gap && item.current < E.length; ++i) {
+			TrieItem next = new TrieItem(item.state, (short) (item.gap+1), item.start,
+					(short) (item.current+1), item.inner+gm.getWeight(E[item.current]), item, null);
+			if (!c.addItem(next))
+				break;
+			finish(E, c, next);
+			item = next;
+		}
+	}
+	
+	private void predict(TrieContext ctx, TrieChart c, int n, short current) {
+		for (int j = 0; j < gram.countNonterms(); ++j)
+			if (gram.isLeftCornerForE(n, j) && !c.isPredicted(current, j)) {
+				c.predict(current, j);
+				if (filter)
+					ctx.nsaved += ((FilteredSCFG) ctx.sentGram).countFiltered(j);
+				RuleTrie.State root = ctx.trie.getRoot(j);
+				if (root != null)
+					c.addItem(new TrieItem(root, (short) 0, current, current, 0, null, null));
+			}
+	}
+	
+	private void predictAndScan(TrieContext ctx, TrieChart c, short current) {
+		Terminal[] E = ctx.E;
+		ArrayList set = c.sets[current];
+		for (int i = 0; i < set.size(); ++i) {
+			TrieItem item = (TrieItem) set.get(i);
+			if (item.isComplete())
+				continue;
+			RuleTrie.State state = item.state;
+			// predict
+			for (int j = 0; j < state.countNontermEdges(); ++j)
+				predict(ctx, c, state.getSymbol(state.getNontermEdge(j)).getId(), current);
+			// scan
+			for (int j = 0; j < state.countWildcardEdges(); ++j) {
+				int k = state.getWildcardEdge(j);
+				if (state.getSymbol(k).matches(E[current]))
+					scan(E, c, item, k, current);
+			}
+			int k;
+			for (int j = state.findTerminalEdge(E[current]); 
+					j >= 0 && (k = state.getTerminalEdge(j, E[current])) >= 0; ++j)
+				scan(E, c, item, k, current);
+		}
+	}
+	
+	private void scan(Terminal[] E, TrieChart c, TrieItem item, int edge, short current) {
+		RuleTrie.State state = item.state;
+		TrieItem next = new TrieItem(state.getNext(edge), (short) 0, item.start, (short) (current+1), 
+				item.inner, item, null);
+		if (c.addItem(next)) {
+			finish(E, c, next);
+			skipWords(E, c, next, state.getGap(edge));
+		}
+	}
+	
+	/**
+	 * Turns the specified complete item into an <code>Item</code> object, so that it can be used in
+	 * <code>SCFGParse</code> objects.
+	 */
+	private static Item toItem(TrieItem comp) {
+		return toItem(comp.back, comp, comp.base.getScore());
+	}
+	
+	/**
+	 * Turns the specified incomplete item into an <code>Item</code> object for the rule of the
+	 * specified complete item.
+	 * 
+	 * @param item an incomplete item.
+	 * @param comp a complete item whose rule goes through the state of <code>item</code>.
+	 * @param weight the weight of the rule.
+	 */
+	private static Item toItem(TrieItem item, TrieItem comp, double weight) {
+		Item back = (item.back==null) ? null : toItem(item.back, comp, weight);
+		Item backComp = (item.comp==null) ? null : toItem(item.comp);
+		if (item.state.depth == 0)
+			return new Item(comp.base, comp.baseId, (short) 0, item.gap, item.start, item.current, null,
+					item.inner+weight, back, backComp);
+		else
+			return new Item(comp.rule, comp.ruleId, item.state.depth, item.gap, item.start, item.current,
+					null, item.inner+weight, back, backComp);
+	}
+	
+	private static class ParseIterator implements Iterator {
+		private SCFG gram;
+		private Iterator it;
+		private TrieItem next;
+		public ParseIterator(SCFG gram, TrieChart c) {
+			this.gram = gram;
+			it = c.sets[c.maxPos].iterator();
+			findNext();
+		}
+		private void findNext() {
+			next = null;
+			int start = gram.getStart();
+			while (it.hasNext()) {
+				TrieItem item = (TrieItem) it.next();
+				if (item.start == 0 && item.isComplete() && item.rule.getLhs() == start) {
+					next = item;
+					break;
+				}
+			}
+		}
+		public boolean hasNext() {
+			return next != null;
+		}
+		public Object next() {
+			if (this.next == null)
+				throw new NoSuchElementException();
+			TrieItem next = this.next;
+			findNext();
+			return new SCFGParse(toItem(next), next.inner);
+		}
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
@@ -121,6 +121,16 @@ public class Arrays {
 		return false;
 	}
 	
+	public static boolean equal(int[] array1, int[] array2) {
+		if (array1.length == array2.length) {
+			for (int i = 0; i < array1.length; ++i)
+				if (array1[i] != array2[i])
+					return false;
+			return true;
+		}
+		return false;
+	}
+	
 	public static boolean equal(short[] array1, short[] array2) {
 		if (array1.length == array2.length) {
 			for (int i = 0; i < array1.length; ++i)
@@ -151,6 +161,11 @@ public class Arrays {
 			array[i] = val;
 	}
 	
+	public static void fill(int[] array, int from, int to, int val) {
+		for (int i = from; i < to; ++i)
+			array[i] = val;
+	}
+	
 	public static void fill(double[] array, double val) {
 		for (int i = 0; i < array.length; ++i)
 			array[i] = val;
@@ -163,6 +178,22 @@ public class Arrays {
 		return hash;
 	}
 	
+	public static int hashCode(double[] array) {
+		int hash = 1;
+		for (int i = 0; i < array.length; ++i) {
+			long bits = java.lang.Double.doubleToLongBits(array[i]);
+			hash = 31*hash + (int) (bits ^ (bits >>> 32));
+		}
+		return hash;
+	}
+	
+	public static int hashCode(int[] array) {
+		int hash = 1;
+		for (int i = 0; i < array.length; ++i)
+			hash = 31*hash + array[i];
+		return hash;
+	}
+	
 	public static int hashCode(short[] array) {
 		int hash = 1;
 		for (int i = 0; i < array.length; ++i)
@@ -248,6 +279,13 @@ public class Arrays {
 		return a;
 	}
 	
+	public static boolean[] resize(boolean[] array, int length) {
+		boolean[] a = new boolean[length];
+		for (int i = 0; i < array.length && i < length; ++i)
+			a[i] = array[i];
+		return a;
+	}
+	
 	public static double[] resize(double[] array, int length) {
 		double[] a = new double[length];
 		for (int i = 0; i < array.length && i < length; ++i)
@@ -255,6 +293,27 @@ public class Arrays {
 		return a;
 	}
 	
+	public static int[] resize(int[] array, int length) {
+		int[] a = new int[length];
+		for (int i = 0; i < array.length && i < length; ++i)
+			a[i] = array[i];
+		return a;
+	}
+	
+	public static long[] resize(long[] array, int length) {
+		long[] a = new long[length];
+		for (int i = 0; i < array.length && i < length; ++i)
+			a[i] = array[i];
+		return a;
+	}
+	
+	public static short[] resize(short[] array, int length) {
+		short[] a = new short[length];
+		for (int i = 0; i < array.length && i < length; ++i)
+			a[i] = array[i];
+		return a;
+	}
+	
 	public static Object[] resize(Object[] array, int length) {
 		Class type = array.getClass().getComponentType();
 		Object[] a = (Object[]) Array.newInstance(type, length);
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A heap of <code>int</code> values ordered by explicit <code>long</code> keys.  Unlike the 
+ * <code>Heap</code> class, no objects are created as values are added to or removed from the heap.
+ * 
+ * @author ywwong
+ *
+ */
+public class IntHeap {
+
+	private int[] vals;
+	private long[] keys;
+	private int nvals;
+	
+	/**
+	 * @param size the initial capacity of the heap; the capacity is doubled whenever the heap is full.
+	 */
+	public IntHeap(int size) {
+		vals = new int[size];
+		keys = new long[size];
+		nvals = 0;
+	}
+	
+	public IntHeap() {
+		this(8);
+	}
+	
+	/**
+	 * Adds a value to the heap.
+	 * 
+	 * @param val the value to add.
+	 * @param key the key of the value; values with smaller keys are extracted first.
+	 */
+	public void add(int val, long key) {
+		if (nvals == vals.length) {
+			vals = Arrays.resize(vals, 2*nvals);
+			keys = Arrays.resize(keys, 2*nvals);
+		}
+		int index = nvals++;
+		int parent = (index-1)/2;
+		while (index > 0 && key < keys[parent]) {
+			vals[index] = vals[parent];
+			keys[index] = keys[parent];
+			index = parent;
+			parent = (index-1)/2;
+		}
+		vals[index] = val;
+		keys[index] = key;
+	}
+	
+	/**
+	 * Finds the value with the minimum key, removes it from the heap, and returns it.
+	 * 
+	 * @return the value with the minimum key.
+	 * @throws NoSuchElementException if the heap is empty.
+	 */
+	public int extractMin() {
+		if (nvals == 0)
+			throw new NoSuchElementException();
+		int min = vals[0];
+		--nvals;
+		if (nvals > 0) {
+			vals[0] = vals[nvals];
+			keys[0] = keys[nvals];
+			heapify(0);
+		}
+		return min;
+	}
+	
+	private void heapify(int index) {
+		while (true) {
+			int min = index;
+			int left = index*2+1;
+			if (left < nvals && keys[min] > keys[left])
+				min = left;
+			int right = index*2+2;
+			if (right < nvals && keys[min] > keys[right])
+				min = right;
+			if (min == index)
+				break;
+			int val = vals[min];
+			long key = keys[min];
+			vals[min] = vals[index];
+			keys[min] = keys[index];
+			vals[index] = val;
+			keys[index] = key;
+			index = min;
+		}
+	}
+	
+	public boolean isEmpty() {
+		return nvals == 0;
+	}
+	
+	public int size() {
+		return nvals;
+	}
+	
+	public void clear() {
+		nvals = 0;
+	}
+	
+}
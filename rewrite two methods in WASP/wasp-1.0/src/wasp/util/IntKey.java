@@ -0,0 +1,88 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.util;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable sequence of integers that is hash-consed through a global table.  The 
+ * <code>intern</code> method returns the same object for equal sequences, so interned keys can be
+ * compared by reference.  Keys that are no longer referenced are dropped from the table.
+ * 
+ * @author ywwong
+ *
+ */
+public class IntKey {
+
+	/** The global table that maps each interned key to a weak reference to itself. */
+	private static final WeakHashMap table = new WeakHashMap();
+	
+	private int[] array;
+	private int hash;
+	
+	private IntKey(int[] array) {
+		this.array = array;
+		hash = Arrays.hashCode(array);
+	}
+	
+	/**
+	 * Returns the interned key for the specified sequence of integers.  If none exists, then a new key
+	 * is created for the sequence, and the array is kept by the new key, so it must not be modified
+	 * afterwards.
+	 * 
+	 * @param array a sequence of integers.
+	 * @return the interned key for the given sequence.
+	 */
+	public static synchronized IntKey intern(int[] array) {
+		IntKey key = new IntKey(array);
+		WeakReference ref = (WeakReference) table.get(key);
+		IntKey interned = (ref==null) ? null : (IntKey) ref.get();
+		if (interned == null) {
+			table.put(key, new WeakReference(key));
+			interned = key;
+		}
+		return interned;
+	}
+	
+	/**
+	 * Returns the sequence of integers of this key.  The returned array must not be modified.
+	 * 
+	 * @return the sequence of integers of this key.
+	 */
+	public int[] toArray() {
+		return array;
+	}
+	
+	public boolean equals(Object o) {
+		if (o == this)
+			return true;
+		if (o instanceof IntKey) {
+			IntKey k = (IntKey) o;
+			return hash == k.hash && Arrays.equal(array, k.array);
+		}
+		return false;
+	}
+	
+	public int hashCode() {
+		return hash;
+	}
+	
+}
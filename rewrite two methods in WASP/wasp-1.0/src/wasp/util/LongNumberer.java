@@ -0,0 +1,142 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ * 
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ * 
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.util;
+
+/**
+ * A data structure that maps pairs of <code>long</code> keys to consecutive non-negative integer IDs,
+ * starting from <code>0</code>.  Unlike the <code>Numberer</code> class, this is an open-addressing
+ * hash table with linear probing, so no objects are created as keys are looked up or added.
+ * 
+ * @author ywwong
+ *
+ */
+public class LongNumberer {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys1;
+	private long[] keys2;
+	/** The ID of each slot plus one; <code>0</code> indicates an empty slot. */
+	private int[] ids;
+	private int mask;
+	private int nextId;
+
+	/**
+	 * @param size the expected number of distinct keys.  The table is enlarged whenever it is
+	 * three-quarters full.
+	 */
+	public LongNumberer(int size) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < size+size/2)
+			capacity <<= 1;
+		keys1 = new long[capacity];
+		keys2 = new long[capacity];
+		ids = new int[capacity];
+		mask = capacity-1;
+		nextId = 0;
+	}
+
+	public LongNumberer() {
+		this(MIN_CAPACITY);
+	}
+
+	private static int hash(long key1, long key2) {
+		long h = key1*0x9E3779B97F4A7C15L + key2;
+		h *= 0xC2B2AE3D27D4EB4FL;
+		return (int) (h ^ (h>>>32));
+	}
+
+	/**
+	 * Returns the ID of the specified pair of keys.  If the pair is not found and the
+	 * <code>add</code> argument is true, then the pair is mapped to a new ID.  Otherwise,
+	 * <code>-1</code> is returned.
+	 * 
+	 * @param key1 the first key.
+	 * @param key2 the second key.
+	 * @param add indicates if a new ID is created when the pair of keys is not found.
+	 * @return the ID of the specified pair of keys; <code>-1</code> if there is no such ID.
+	 */
+	public int getId(long key1, long key2, boolean add) {
+		int i = hash(key1, key2) & mask;
+		while (ids[i] != 0) {
+			if (keys1[i] == key1 && keys2[i] == key2)
+				return ids[i]-1;
+			i = (i+1) & mask;
+		}
+		if (!add)
+			return -1;
+		keys1[i] = key1;
+		keys2[i] = key2;
+		ids[i] = ++nextId;
+		if (4*nextId > 3*ids.length)
+			rehash();
+		return nextId-1;
+	}
+
+	/**
+	 * Returns the ID of the specified key.  This is the same as <code>getId(key, 0, add)</code>.
+	 * 
+	 * @param key the key to look for.
+	 * @param add indicates if a new ID is created when the key is not found.
+	 * @return the ID of the specified key; <code>-1</code> if there is no such ID.
+	 */
+	public int getId(long key, boolean add) {
+		return getId(key, 0, add);
+	}
+
+	private void rehash() {
+		long[] oldKeys1 = keys1;
+		long[] oldKeys2 = keys2;
+		int[] oldIds = ids;
+		int capacity = 2*oldIds.length;
+		keys1 = new long[capacity];
+		keys2 = new long[capacity];
+		ids = new int[capacity];
+		mask = capacity-1;
+		for (int j = 0; j < oldIds.length; ++j)
+			if (oldIds[j] != 0) {
+				int i = hash(oldKeys1[j], oldKeys2[j]) & mask;
+				while (ids[i] != 0)
+					i = (i+1) & mask;
+				keys1[i] = oldKeys1[j];
+				keys2[i] = oldKeys2[j];
+				ids[i] = oldIds[j];
+			}
+	}
+
+	/**
+	 * Returns the number of distinct keys in this table.  This is also the next ID to assign to new
+	 * keys.
+	 * 
+	 * @return the number of distinct keys in this table.
+	 */
+	public int size() {
+		return nextId;
+	}
+
+	/**
+	 * Removes all keys from this table.  The capacity of the table is not changed.
+	 */
+	public void clear() {
+		java.util.Arrays.fill(ids, 0);
+		nextId = 0;
+	}
+
+}
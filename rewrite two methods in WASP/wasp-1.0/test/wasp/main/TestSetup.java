@@ -0,0 +1,188 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import wasp.data.ExampleMask;
+import wasp.data.Examples;
+
+/**
+ * Common set-up code for the regression tests of WASP.  Tests are plain programs that are run from the
+ * <code>wasp-1.0</code> directory, e.g.:
+ * <p>
+ * <blockquote><code>javac -d classes -sourcepath src:test test/wasp/scfg/parse/ChartTest.java<br>
+ * java -cp classes wasp.scfg.parse.ChartTest</code></blockquote>
+ * <p>
+ * Each test throws an <code>AssertionError</code> if a check fails.  Tests use the GeoQuery data in
+ * <code>data/geo-funql</code>, whose location can be changed via the system property
+ * <code>wasp.test.data</code>.  Models are copied into temporary directories, so the data directory 
+ * is never modified.
+ * 
+ * @author ywwong
+ *
+ */
+public class TestSetup {
+
+	private TestSetup() {}
+	
+	/**
+	 * Returns the directory that contains the GeoQuery data.
+	 * 
+	 * @return the directory that contains the GeoQuery data.
+	 */
+	public static File getDataDir() {
+		return new File(System.getProperty("wasp.test.data", "data/geo-funql"));
+	}
+	
+	/**
+	 * Sets up the current settings of WASP for the GeoQuery data, and creates an empty model directory.
+	 * The word-gap model and the extra MRL productions of the seed model in 
+	 * <code>data/geo-funql/model</code> are copied into the model directory.
+	 * 
+	 * @return the new model directory.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static File init() throws IOException {
+		File data = getDataDir().getAbsoluteFile();
+		File dir = createTempDir();
+		File config = new File(dir, "config");
+		PrintWriter out = new PrintWriter(new FileOutputStream(config));
+		out.println(Config.NL+"=en");
+		out.println(Config.MRL+"=geo-funql");
+		out.println(Config.MRL_GRAMMAR+"="+new File(data, "mrl-grammar"));
+		out.println(Config.CORPUS_FILE+"="+new File(data, "corpus.xml"));
+		out.println(Config.TRANSLATION_MODEL+"=scfg");
+		out.println(Config.K_BEST+"=1");
+		out.println(Config.GEO_NAMES+"="+new File(data, "entity-names"));
+		out.close();
+		Config.read(config.getPath());
+		Logger.getLogger("").setLevel(Level.WARNING);
+		File model = new File(dir, "model");
+		model.mkdir();
+		Config.setModelDir(model.getPath());
+		copy(new File(data, "model/gap-model"), new File(model, "gap-model"));
+		copy(new File(data, "model/more-mrl-productions"), new File(model, "more-mrl-productions"));
+		Config.getMRLGrammar().readMore();
+		return model;
+	}
+	
+	/**
+	 * Creates a new temporary directory, which is deleted when the virtual machine terminates.
+	 * 
+	 * @return the new directory.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static File createTempDir() throws IOException {
+		File dir = File.createTempFile("wasp-test", "");
+		dir.delete();
+		if (!dir.mkdir())
+			throw new IOException("cannot create directory "+dir);
+		deleteOnExit(dir);
+		return dir;
+	}
+	
+	private static void deleteOnExit(final File dir) {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				delete(dir);
+			}
+		});
+	}
+	
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null)
+			for (int i = 0; i < files.length; ++i)
+				delete(files[i]);
+		file.delete();
+	}
+	
+	/**
+	 * Copies the specified file.
+	 * 
+	 * @param from the file to copy.
+	 * @param to the new copy.
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void copy(File from, File to) throws IOException {
+		InputStream in = new FileInputStream(from);
+		OutputStream out = new FileOutputStream(to);
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) > 0)
+			out.write(buf, 0, n);
+		in.close();
+		out.close();
+	}
+	
+	/**
+	 * Copies the rules of the seed model in <code>data/geo-funql/model</code> into the current model
+	 * directory.
+	 * 
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public static void copySeedRules() throws IOException {
+		copy(new File(getDataDir(), "model/scfg-rules"), new File(Config.getModelDir(), "scfg-rules"));
+	}
+	
+	/**
+	 * Returns the test examples of the first fold of the first run of the 880-example split.
+	 * 
+	 * @return the test examples.
+	 * @throws IOException if an I/O error occurs.
+	 * @throws SAXException if the XML parser throws a <code>SAXException</code> while parsing.
+	 * @throws ParserConfigurationException if an XML parser cannot be created which satisfies the 
+	 * requested configuration.
+	 */
+	public static Examples readTestExamples() 
+	throws IOException, SAXException, ParserConfigurationException {
+		Examples examples = new Examples();
+		examples.read(Config.getCorpusFile());
+		ExampleMask mask = new ExampleMask();
+		mask.read(new File(getDataDir(), "split-880/run-0/fold-0/test").getPath());
+		return mask.apply(examples);
+	}
+	
+	/**
+	 * Checks the specified condition.
+	 * 
+	 * @param cond the condition to check.
+	 * @param message the error message if the condition does not hold.
+	 * @throws AssertionError if the condition does not hold.
+	 */
+	public static void check(boolean cond, String message) {
+		if (!cond)
+			throw new AssertionError(message);
+	}
+	
+}
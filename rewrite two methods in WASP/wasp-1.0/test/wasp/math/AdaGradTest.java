@@ -0,0 +1,139 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.math;
+
+import java.util.Random;
+
+import wasp.main.TestSetup;
+import wasp.util.Arrays;
+import wasp.util.Double;
+
+/**
+ * Checks that AdaGrad finds the same minimum as LBFGS on a convex problem: logistic regression on 
+ * random data with a Gaussian prior.  Since AdaGrad is stochastic, the values of the objective
+ * function at both minima must only be close.
+ * 
+ * @author ywwong
+ *
+ */
+public class AdaGradTest {
+
+	private static final int NEXAMPLES = 200;
+	private static final int NDIMS = 5;
+	private static final double PRIOR_VARIANCE = 1;
+	/** The maximum relative difference between the values of the objective function at the minima. */
+	private static final double EPSILON = 1e-3;
+	
+	private static double[][] data;
+	private static boolean[] labels;
+	
+	/**
+	 * Returns the sum of the negative log-likelihoods of the specified examples, and its gradient.
+	 */
+	private static double getValueAndGradient(double[] X, int[] batch, double[] grad) {
+		Arrays.fill(grad, 0);
+		double val = 0;
+		for (int b = 0; b < batch.length; ++b) {
+			double[] x = data[batch[b]];
+			double z = Vectors.dotProduct(X, x);
+			// -log p(y|x) = log(1+exp(-m)), computed without overflow
+			double m = (labels[batch[b]]) ? z : -z;
+			val += Math.log(1+Math.exp(-Math.abs(m))) + Math.max(-m, 0);
+			double p = 1/(1+Math.exp(-z));
+			double d = p - ((labels[batch[b]]) ? 1 : 0);
+			for (int i = 0; i < x.length; ++i)
+				grad[i] += d*x[i];
+		}
+		return val;
+	}
+	
+	private static int[] all() {
+		int[] batch = new int[NEXAMPLES];
+		for (int i = 0; i < NEXAMPLES; ++i)
+			batch[i] = i;
+		return batch;
+	}
+	
+	/**
+	 * The objective function for LBFGS, which includes the prior.
+	 */
+	private static class Batch implements LBFGS.Objective {
+		private double[] lastX = new double[NDIMS];
+		public void getValueAndGradient(double[] X, Double val, double[] grad) {
+			val.val = getValue(X, grad);
+		}
+		public double getValue(double[] X) {
+			return getValue(X, new double[X.length]);
+		}
+		private double getValue(double[] X, double[] grad) {
+			System.arraycopy(X, 0, lastX, 0, X.length);
+			double val = AdaGradTest.getValueAndGradient(X, all(), grad);
+			for (int i = 0; i < X.length; ++i)
+				grad[i] += X[i]/PRIOR_VARIANCE;
+			return val + Vectors.dotProduct(X, X)/(2*PRIOR_VARIANCE);
+		}
+		public void getX(double[] X) {
+			System.arraycopy(lastX, 0, X, 0, X.length);
+		}
+		public void check(LBFGS lbfgs, int iter, boolean isLastIter) {}
+		public void checkpoint(LBFGS lbfgs, double[] X, int iter) {}
+	}
+	
+	/**
+	 * The objective function for AdaGrad, which excludes the prior.
+	 */
+	private static class Stochastic implements AdaGrad.Objective {
+		public int countExamples() {
+			return NEXAMPLES;
+		}
+		public void getValueAndGradient(double[] X, int[] batch, Double val, double[] grad) {
+			val.val = AdaGradTest.getValueAndGradient(X, batch, grad);
+		}
+		public void check(AdaGrad adagrad, double[] X, int epoch, boolean isLastEpoch) {}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		TestSetup.init();
+		Random random = new Random(0);
+		double[] truth = new double[NDIMS];
+		for (int i = 0; i < NDIMS; ++i)
+			truth[i] = random.nextGaussian();
+		data = new double[NEXAMPLES][NDIMS];
+		labels = new boolean[NEXAMPLES];
+		for (int j = 0; j < NEXAMPLES; ++j) {
+			for (int i = 0; i < NDIMS; ++i)
+				data[j][i] = random.nextGaussian();
+			labels[j] = random.nextDouble() < 1/(1+Math.exp(-Vectors.dotProduct(truth, data[j])));
+		}
+		
+		Batch batch = new Batch();
+		double[] X1 = new double[NDIMS];
+		TestSetup.check(new LBFGS().minimize(batch, X1), "LBFGS fails to converge");
+		double[] X2 = new double[NDIMS];
+		new AdaGrad(PRIOR_VARIANCE, 10).minimize(new Stochastic(), X2);
+		double val1 = batch.getValue(X1);
+		double val2 = batch.getValue(X2);
+		TestSetup.check(val2 >= val1-EPSILON*val1, "AdaGrad finds a lower minimum "+val2+" than LBFGS "
+				+val1);
+		TestSetup.check(val2 <= val1+EPSILON*val1, "AdaGrad stops at "+val2+" instead of "+val1);
+		System.out.println("OK");
+	}
+	
+}
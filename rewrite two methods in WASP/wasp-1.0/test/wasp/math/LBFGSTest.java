@@ -0,0 +1,137 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.math;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import wasp.main.TestSetup;
+import wasp.util.Arrays;
+import wasp.util.Double;
+
+/**
+ * Checks that LBFGS gives the same result when it is resumed from a checkpoint as when it runs without
+ * interruption.  The extended Rosenbrock function is minimized, and the run is interrupted right after
+ * a checkpoint is written.
+ * 
+ * @author ywwong
+ *
+ */
+public class LBFGSTest {
+
+	private static final int NDIMS = 10;
+	/** The iteration after which the run is interrupted. */
+	private static final int STOP = 5;
+	
+	/**
+	 * Thrown to interrupt a run.
+	 */
+	private static class Stop extends RuntimeException {}
+	
+	/**
+	 * The extended Rosenbrock function.  Checkpoints are written to a byte array.
+	 */
+	private static class Rosenbrock implements LBFGS.Objective {
+		private double[] lastX = new double[NDIMS];
+		private int stop;
+		public int lastIter;
+		public byte[] checkpoint;
+		public double[] checkpointX;
+		public Rosenbrock(int stop) {
+			this.stop = stop;
+			lastIter = -1;
+		}
+		public void getValueAndGradient(double[] X, Double val, double[] grad) {
+			System.arraycopy(X, 0, lastX, 0, X.length);
+			val.val = 0;
+			for (int i = 0; i < X.length; i += 2) {
+				double a = X[i+1]-X[i]*X[i];
+				double b = 1-X[i];
+				val.val += 100*a*a + b*b;
+				grad[i] = -400*a*X[i] - 2*b;
+				grad[i+1] = 200*a;
+			}
+		}
+		public double getValue(double[] X) {
+			Double val = new Double();
+			getValueAndGradient(X, val, new double[X.length]);
+			return val.val;
+		}
+		public void getX(double[] X) {
+			System.arraycopy(lastX, 0, X, 0, X.length);
+		}
+		public void check(LBFGS lbfgs, int iter, boolean isLastIter) {
+			lastIter = iter;
+		}
+		public void checkpoint(LBFGS lbfgs, double[] X, int iter) {
+			if (iter != stop)
+				return;
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+				lbfgs.write(out);
+				out.close();
+				checkpoint = bytes.toByteArray();
+				checkpointX = (double[]) X.clone();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			throw new Stop();
+		}
+	}
+	
+	private static double[] getStart() {
+		double[] X = new double[NDIMS];
+		for (int i = 0; i < NDIMS; i += 2) {
+			X[i] = -1.2;
+			X[i+1] = 1;
+		}
+		return X;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		TestSetup.init();
+		Rosenbrock full = new Rosenbrock(-1);
+		double[] X1 = getStart();
+		TestSetup.check(new LBFGS().minimize(full, X1), "LBFGS fails to converge");
+		TestSetup.check(full.lastIter > STOP, "LBFGS converges after "+full.lastIter+" iterations");
+		
+		Rosenbrock interrupted = new Rosenbrock(STOP);
+		try {
+			new LBFGS().minimize(interrupted, getStart());
+			TestSetup.check(false, "LBFGS is not interrupted");
+		} catch (Stop e) {}
+		LBFGS lbfgs = new LBFGS();
+		lbfgs.read(new DataInputStream(new ByteArrayInputStream(interrupted.checkpoint)));
+		TestSetup.check(lbfgs.getIteration() == STOP, "checkpoint is for iteration "
+				+lbfgs.getIteration()+" instead of "+STOP);
+		Rosenbrock resumed = new Rosenbrock(-1);
+		double[] X2 = interrupted.checkpointX;
+		TestSetup.check(lbfgs.minimize(resumed, X2), "resumed LBFGS fails to converge");
+		TestSetup.check(resumed.lastIter == full.lastIter, "resumed LBFGS converges after "
+				+resumed.lastIter+" iterations instead of "+full.lastIter);
+		TestSetup.check(Arrays.equal(X1, X2), "resumed LBFGS converges to a different point");
+		System.out.println("OK");
+	}
+	
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg;
+
+import java.io.File;
+import java.util.Random;
+
+import wasp.main.Config;
+import wasp.main.TestSetup;
+import wasp.util.Arrays;
+
+/**
+ * Checks that SCFG rules survive a round trip through the compiled format.  The seed model in
+ * <code>data/geo-funql/model</code> is given random weights and feature values, written out, and read
+ * back from both the compiled file and the textual file.  All three grammars must have the same rules,
+ * in the same order, with the same weights, feature values and scores.
+ * 
+ * @author ywwong
+ *
+ */
+public class CompiledSCFGTest {
+
+	private static final double[] FEATURE_WEIGHTS = {0.5, -2};
+	
+	private static void checkSame(SCFG expected, SCFG gram, String name) {
+		TestSetup.check(gram.countRules() == expected.countRules(), name+" grammar has "
+				+gram.countRules()+" rules instead of "+expected.countRules());
+		TestSetup.check(gram.countFeatures() == expected.countFeatures(), name+" grammar has "
+				+gram.countFeatures()+" feature values instead of "+expected.countFeatures());
+		for (int i = 0; i < expected.countRules(); ++i) {
+			Rule e = expected.getRule(i);
+			Rule r = gram.getRule(i);
+			String where = name+" grammar, rule "+i+": ";
+			TestSetup.check(r.equals(e) && r.toString().equals(e.toString()), where+r+" instead of "+e);
+			TestSetup.check(gram.getId(e) == i, where+"wrong ID");
+			TestSetup.check(r.getWeight() == e.getWeight(), where+"weight "+r.getWeight()+" instead of "
+					+e.getWeight());
+			TestSetup.check(Arrays.equal(gram.getFeatures(i), expected.getFeatures(i)), 
+					where+"wrong feature values");
+			TestSetup.check(r.getScore() == e.getScore(), where+"score "+r.getScore()+" instead of "
+					+e.getScore());
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		File dir = TestSetup.init();
+		TestSetup.copySeedRules();
+		SCFG gram = new SCFG();
+		gram.read();
+		TestSetup.check(gram.countRules() > 0, "no rules read");
+		Random random = new Random(0);
+		for (int i = 0; i < gram.countRules(); ++i) {
+			gram.getRule(i).setWeight(random.nextGaussian());
+			gram.setFeatures(i, new double[] {i%7, random.nextGaussian()});
+		}
+		gram.setFeatureWeights(FEATURE_WEIGHTS);
+		// feature weights are not stored with the rules
+		Config.set(Config.SCFG_FEATURE_WEIGHTS, FEATURE_WEIGHTS[0]+" "+FEATURE_WEIGHTS[1]);
+		gram.write();
+		File text = new File(dir, "scfg-rules");
+		File bin = new File(dir, "scfg-rules.bin");
+		TestSetup.check(CompiledSCFG.isCurrent(bin, text), "compiled file is not up to date");
+		
+		SCFG compiled = new SCFG();
+		compiled.read();
+		checkSame(gram, compiled, "compiled");
+		
+		// the compiled file is ignored once the textual file changes
+		TestSetup.check(text.setLastModified(text.lastModified()+1000), "cannot touch "+text);
+		TestSetup.check(!CompiledSCFG.isCurrent(bin, text), "compiled file is still up to date");
+		SCFG textual = new SCFG();
+		textual.read();
+		checkSame(gram, textual, "textual");
+		System.out.println("OK");
+	}
+	
+}
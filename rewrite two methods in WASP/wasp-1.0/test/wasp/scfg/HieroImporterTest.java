@@ -0,0 +1,129 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+import wasp.main.TestSetup;
+import wasp.util.Arrays;
+
+/**
+ * Checks that Hiero-style grammars are imported correctly.  A small grammar is written out, both as is
+ * and compressed with gzip, and imported into empty SCFGs, with and without a root nonterminal.  The
+ * resulting rules and their feature values must be as expected, and duplicate rules must be dropped.
+ * 
+ * @author ywwong
+ *
+ */
+public class HieroImporterTest {
+
+	private static final String[] GRAMMAR = {
+		"[CityName] ||| austin ||| ' austin ' ||| 0.5 p=-1.25 ||| 0-1",
+		"[City] ||| [CityName,1] city ||| cityid ( [CityName,1] , _ ) ||| 1 2",
+		"",
+		"[CityName] ||| austin ||| ' austin ' ||| 9 9",
+		"[Num] ||| population of [City,1] ||| population_1 ( [City,1] ) ||| lex=3 0 |||",
+	};
+	
+	private static final String[] RULES = {
+		"*n:CityName -> ({ austin })({ ' austin ' })",
+		"*n:City -> ({ *n:CityName#1 city })({ cityid ( *n:CityName#1 , _ ) })",
+		"*n:Num -> ({ population of *n:City#1 })({ population_1 ( *n:City#1 ) })",
+	};
+	
+	private static final String[] ROOTED_RULES = {
+		"*n:CityName -> ({ austin })({ ' austin ' })",
+		"*n:Query -> ({ *t:Bound *n:CityName#1 city *t:Bound })({ cityid ( *n:CityName#1 , _ ) })",
+		"*n:Query -> ({ *t:Bound population of *n:City#1 *t:Bound })({ population_1 ( *n:City#1 ) })",
+	};
+	
+	private static final double[][] FEATURES = {{0.5, -1.25}, {1, 2}, {3, 0}};
+	
+	private static File writeGrammar(File dir, String name, boolean gzip) throws IOException {
+		File file = new File(dir, name);
+		OutputStream out = new FileOutputStream(file);
+		if (gzip)
+			out = new GZIPOutputStream(out);
+		Writer writer = new OutputStreamWriter(out, "UTF-8");
+		for (int i = 0; i < GRAMMAR.length; ++i) {
+			writer.write(GRAMMAR[i]);
+			writer.write('\n');
+		}
+		writer.close();
+		return file;
+	}
+	
+	private static void checkImport(File file, String root, String[] expected) throws IOException {
+		SCFG gram = new SCFG();
+		HieroImporter importer = new HieroImporter(gram);
+		importer.setRoot(root);
+		importer.read(file);
+		String where = file.getName()+((root==null) ? "" : " with root "+root)+": ";
+		TestSetup.check(importer.countLines() == GRAMMAR.length, where+importer.countLines()
+				+" lines read instead of "+GRAMMAR.length);
+		TestSetup.check(importer.countAdded() == expected.length, where+importer.countAdded()
+				+" rules added instead of "+expected.length);
+		TestSetup.check(importer.countDuplicates() == 1, where+importer.countDuplicates()
+				+" duplicates dropped instead of 1");
+		TestSetup.check(gram.countRules() == expected.length, where+"grammar has "+gram.countRules()
+				+" rules instead of "+expected.length);
+		for (int i = 0; i < expected.length; ++i) {
+			String rule = gram.getRule(i).toString();
+			TestSetup.check(rule.equals(expected[i]), where+"rule "+i+" is "+rule+" instead of "
+					+expected[i]);
+			TestSetup.check(Arrays.equal(gram.getFeatures(i), FEATURES[i]), where+"rule "+i
+					+" has wrong feature values");
+		}
+	}
+	
+	private static void checkInvalid(File dir, String line) throws IOException {
+		File file = new File(dir, "invalid");
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		writer.write(line);
+		writer.write('\n');
+		writer.close();
+		try {
+			new HieroImporter(new SCFG()).read(file);
+		} catch (RuntimeException e) {
+			return;
+		}
+		TestSetup.check(false, "invalid rule is accepted: "+line);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		File dir = TestSetup.init();
+		File plain = writeGrammar(dir, "hiero-grammar", false);
+		File gzip = writeGrammar(dir, "hiero-grammar.gz", true);
+		checkImport(plain, null, RULES);
+		checkImport(gzip, null, RULES);
+		checkImport(plain, "Query", ROOTED_RULES);
+		checkInvalid(dir, "[City] ||| [CityName] city ||| cityid ( [CityName] , _ )");
+		checkInvalid(dir, "CityName ||| austin ||| ' austin '");
+		checkInvalid(dir, "[CityName] ||| austin");
+		System.out.println("OK");
+	}
+	
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+
+import wasp.data.Example;
+import wasp.data.Examples;
+import wasp.data.Symbol;
+import wasp.main.Parse;
+import wasp.main.TestSetup;
+import wasp.scfg.parse.SCFGParser;
+import wasp.util.Arrays;
+import wasp.util.Int;
+
+/**
+ * Checks the grammar compaction tool on the seed model in <code>data/geo-funql/model</code>, with
+ * random rule weights.  The following properties are checked:
+ * <ul>
+ * <li>Without a threshold or limits, the compacted grammar has the same rules as the original
+ * grammar, gives the same parses, and survives a round trip through the <code>scfg-rules</code>
+ * files.</li>
+ * <li>Inactive rules are removed, and rules that only differ in their word gaps are merged.</li>
+ * <li>With a threshold and limits, exactly the rules that are above the threshold and among the
+ * top-scoring rules for their NL and MRL strings are kept.</li>
+ * </ul>
+ * 
+ * @author ywwong
+ *
+ */
+public class SCFGCompactorTest {
+
+	private static final double THRESHOLD = -1;
+	private static final int NL_LIMIT = 1;
+	private static final int MR_LIMIT = 2;
+	
+	private static String getKey(Rule rule, boolean nl) {
+		StringBuffer sb = new StringBuffer();
+		sb.append(rule.getLhs());
+		Symbol[] syms = (nl) ? rule.getE() : rule.getF();
+		// symbols are compared by their IDs, since words that differ in case can have the same ID
+		for (int i = 0; i < syms.length; ++i) {
+			sb.append(' ');
+			sb.append(syms[i].getType());
+			sb.append(':');
+			sb.append(syms[i].getId());
+			sb.append('#');
+			sb.append(syms[i].getIndex());
+		}
+		return sb.toString();
+	}
+	
+	private static void checkSame(SCFG expected, SCFG gram, String name) {
+		TestSetup.check(gram.countRules() == expected.countRules(), name+" grammar has "
+				+gram.countRules()+" rules instead of "+expected.countRules());
+		for (int i = 0; i < expected.countRules(); ++i) {
+			Rule e = expected.getRule(i);
+			Rule r = gram.getRule(i);
+			TestSetup.check(r.toString().equals(e.toString()) && r.getScore() == e.getScore(), 
+					name+" grammar, rule "+i+": "+r+" instead of "+e);
+		}
+	}
+	
+	private static void checkSameParses(SCFG expected, SCFG gram, Examples examples) 
+	throws IOException {
+		SCFGModel model = new SCFGModel();
+		model.gm.read();
+		model.gram = expected;
+		SCFGParser p1 = SCFGParser.createNew(model);
+		model.gram = gram;
+		SCFGParser p2 = SCFGParser.createNew(model);
+		int nparses = 0;
+		for (Iterator it = examples.iterator(); it.hasNext();) {
+			Example ex = (Example) it.next();
+			Iterator it1 = p1.parse(ex.E);
+			Iterator it2 = p2.parse(ex.E);
+			while (it1.hasNext()) {
+				TestSetup.check(it2.hasNext(), "compacted grammar has fewer parses for example "+ex.id);
+				Parse parse1 = (Parse) it1.next();
+				Parse parse2 = (Parse) it2.next();
+				TestSetup.check(parse1.toStr().equals(parse2.toStr()) && parse1.score == parse2.score,
+						"compacted grammar gives a different parse for example "+ex.id);
+				++nparses;
+			}
+			TestSetup.check(!it2.hasNext(), "compacted grammar has more parses for example "+ex.id);
+		}
+		TestSetup.check(nparses > 0, "no parses found");
+	}
+	
+	private static void checkMerged(SCFG gram) {
+		// a rule with a word gap, a copy of it that scores higher, and an inactive rule
+		int id = 0;
+		while (gram.getRule(id).lengthE() < 2)
+			++id;
+		Rule rule = gram.getRule(id);
+		SCFG copy = new SCFG();
+		Rule gapped = null;
+		Rule inactive = null;
+		for (int i = 0; i < gram.countRules(); ++i) {
+			Rule r = gram.getRule(i);
+			Rule c = new Rule(r.getProduction(), (Symbol[]) Arrays.copy(r.getE()), copyGaps(r),
+					(Symbol[]) Arrays.copy(r.getF()), false);
+			c.setWeight(r.getWeight());
+			copy.addRule(c);
+			if (i == id) {
+				short[] gaps = copyGaps(r);
+				gaps[0] = 2;
+				gapped = new Rule(r.getProduction(), (Symbol[]) Arrays.copy(r.getE()), gaps,
+						(Symbol[]) Arrays.copy(r.getF()), false);
+				gapped.setWeight(r.getWeight()+1);
+				copy.addRule(gapped);
+			} else if (inactive == null) {
+				inactive = c;
+				inactive.deactivate();
+			}
+		}
+		SCFG compacted = new SCFGCompactor().compact(copy);
+		TestSetup.check(compacted.countRules() == gram.countRules()-1, "compacted grammar has "
+				+compacted.countRules()+" rules instead of "+(gram.countRules()-1));
+		TestSetup.check(!compacted.containsRule(inactive), "inactive rule is kept");
+		TestSetup.check(!compacted.containsRule(rule), "rule without word gap is kept");
+		TestSetup.check(compacted.containsRule(gapped), "rule with word gap is removed");
+		Rule merged = compacted.intern(gapped);
+		TestSetup.check(merged.getWeight() == gapped.getWeight(), "merged rule has weight "
+				+merged.getWeight()+" instead of "+gapped.getWeight());
+	}
+	
+	private static short[] copyGaps(Rule rule) {
+		short[] gaps = new short[rule.lengthE()];
+		for (short i = 0; i < gaps.length; ++i)
+			gaps[i] = rule.getGap(i);
+		return gaps;
+	}
+	
+	/**
+	 * Returns the IDs of the rules that are kept when only the top-scoring rules for each NL (or MRL)
+	 * string are kept.  Ties are broken in favor of rules that come first.
+	 */
+	private static HashSet getTop(SCFG gram, HashSet ids, boolean nl, int limit) {
+		HashMap counts = new HashMap();
+		HashSet top = new HashSet();
+		Integer[] sorted = sortByScore(gram, ids);
+		for (int i = 0; i < sorted.length; ++i) {
+			String key = getKey(gram.getRule(sorted[i].intValue()), nl);
+			Int count = (Int) counts.get(key);
+			if (count == null) {
+				count = new Int(0);
+				counts.put(key, count);
+			}
+			if (count.val++ < limit)
+				top.add(sorted[i]);
+		}
+		return top;
+	}
+	
+	private static Integer[] sortByScore(final SCFG gram, HashSet ids) {
+		Integer[] sorted = (Integer[]) ids.toArray(new Integer[0]);
+		java.util.Arrays.sort(sorted, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				int id1 = ((Integer) o1).intValue();
+				int id2 = ((Integer) o2).intValue();
+				double s1 = gram.getRule(id1).getScore();
+				double s2 = gram.getRule(id2).getScore();
+				return (s1 > s2) ? -1 : (s1 < s2) ? 1 : id1-id2;
+			}
+		});
+		return sorted;
+	}
+	
+	private static void checkLimits(SCFG gram) {
+		HashSet kept = new HashSet();
+		for (int i = 0; i < gram.countRules(); ++i)
+			if (gram.getRule(i).getScore() >= THRESHOLD)
+				kept.add(Integer.valueOf(i));
+		kept = getTop(gram, kept, true, NL_LIMIT);
+		kept = getTop(gram, kept, false, MR_LIMIT);
+		
+		SCFGCompactor compactor = new SCFGCompactor();
+		compactor.setThreshold(THRESHOLD);
+		compactor.setNLLimit(NL_LIMIT);
+		compactor.setMRLimit(MR_LIMIT);
+		SCFG compacted = compactor.compact(gram);
+		TestSetup.check(compacted.countRules() < gram.countRules(), "no rules removed");
+		TestSetup.check(compacted.countRules() == kept.size(), "compacted grammar has "
+				+compacted.countRules()+" rules instead of "+kept.size());
+		for (int i = 0; i < gram.countRules(); ++i) {
+			Rule rule = gram.getRule(i);
+			boolean contains = compacted.containsRule(rule);
+			TestSetup.check(contains == kept.contains(Integer.valueOf(i)), 
+					"rule "+i+" is "+((contains) ? "kept" : "removed")+": "+rule);
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		TestSetup.init();
+		TestSetup.copySeedRules();
+		SCFG gram = new SCFG();
+		gram.read();
+		Random random = new Random(0);
+		for (int i = 0; i < gram.countRules(); ++i)
+			gram.getRule(i).setWeight(random.nextGaussian());
+		
+		SCFG compacted = new SCFGCompactor().compact(gram);
+		checkSame(gram, compacted, "compacted");
+		checkSameParses(gram, compacted, TestSetup.readTestExamples());
+		compacted.write();
+		SCFG read = new SCFG();
+		read.read();
+		checkSame(compacted, read, "re-read");
+		
+		checkMerged(gram);
+		checkLimits(gram);
+		System.out.println("OK");
+	}
+	
+}
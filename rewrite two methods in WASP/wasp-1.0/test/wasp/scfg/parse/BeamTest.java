@@ -0,0 +1,105 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.util.Random;
+
+import wasp.main.TestSetup;
+
+/**
+ * Checks the pruning cutoffs computed by <code>Beam.cutoffs</code>.  A few hand-made spans cover ties
+ * at the histogram limit, threshold pruning, and empty spans.  Random spans with many tied scores are 
+ * then checked against the definitions of histogram and threshold pruning: an item is kept if and
+ * only if its score is within the threshold of the best score of its span, and fewer than 
+ * <code>size</code> items of its span score strictly higher.
+ * 
+ * @author ywwong
+ *
+ */
+public class BeamTest {
+
+	private static final double INF = Double.POSITIVE_INFINITY;
+	
+	private static void checkCutoffs(Beam beam, short[] starts, double[] inners, short current,
+			double[] expected) {
+		double[] cutoffs = beam.cutoffs(starts, inners, starts.length, current);
+		TestSetup.check(cutoffs.length == expected.length, cutoffs.length+" cutoffs instead of "
+				+expected.length);
+		for (int s = 0; s < expected.length; ++s)
+			TestSetup.check(cutoffs[s] == expected[s], "size "+beam.size+", threshold "+beam.threshold
+					+": cutoff "+cutoffs[s]+" instead of "+expected[s]+" for span "+s);
+	}
+	
+	private static void checkRandom(Random random, Beam beam) {
+		short current = (short) random.nextInt(6);
+		int n = random.nextInt(40);
+		short[] starts = new short[n];
+		double[] inners = new double[n];
+		for (int i = 0; i < n; ++i) {
+			starts[i] = (short) random.nextInt(current+1);
+			inners[i] = -random.nextInt(8);  // lots of ties
+		}
+		double[] cutoffs = beam.cutoffs(starts, inners, n, current);
+		for (int i = 0; i < n; ++i) {
+			double best = Double.NEGATIVE_INFINITY;
+			int nhigher = 0;
+			for (int j = 0; j < n; ++j)
+				if (starts[j] == starts[i]) {
+					best = Math.max(best, inners[j]);
+					if (inners[j] > inners[i])
+						++nhigher;
+				}
+			boolean kept = inners[i] >= best-beam.threshold && (beam.size == 0 || nhigher < beam.size);
+			TestSetup.check((inners[i] >= cutoffs[starts[i]]) == kept, "size "+beam.size+", threshold "
+					+beam.threshold+": item with score "+inners[i]+" in span "+starts[i]+" should"
+					+(kept ? "" : " not")+" be kept");
+		}
+	}
+	
+	public static void main(String[] args) {
+		short[] starts = {0, 0, 0, 0, 0, 2, 2};
+		double[] inners = {-1, -3, -3, -3, -7, -2, -4};
+		double[] none = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		// histogram pruning keeps ties with the last item kept
+		checkCutoffs(new Beam(2, INF), starts, inners, (short) 2, new double[] {-3, none[1], none[2]});
+		checkCutoffs(new Beam(4, INF), starts, inners, (short) 2, new double[] {-3, none[1], none[2]});
+		checkCutoffs(new Beam(1, INF), starts, inners, (short) 2, new double[] {-1, none[1], -2});
+		// spans with no more than SIZE items are not pruned
+		checkCutoffs(new Beam(5, INF), starts, inners, (short) 2, none);
+		// threshold pruning
+		checkCutoffs(new Beam(0, 3), starts, inners, (short) 2, new double[] {-4, none[1], -5});
+		checkCutoffs(new Beam(0, 0), starts, inners, (short) 2, new double[] {-1, none[1], -2});
+		// the stricter of the two cutoffs applies
+		checkCutoffs(new Beam(2, 1), starts, inners, (short) 2, new double[] {-2, none[1], -3});
+		checkCutoffs(new Beam(1, 5), starts, inners, (short) 2, new double[] {-1, none[1], -2});
+		// no items
+		checkCutoffs(new Beam(1, 1), new short[0], new double[0], (short) 2, none);
+		
+		Random random = new Random(0);
+		int[] sizes = {0, 1, 2, 5};
+		double[] thresholds = {INF, 0, 1.5, 4};
+		for (int i = 0; i < sizes.length; ++i)
+			for (int j = 0; j < thresholds.length; ++j)
+				for (int k = 0; k < 200; ++k)
+					checkRandom(random, new Beam(sizes[i], thresholds[j]));
+		System.out.println("OK");
+	}
+	
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import wasp.data.Example;
+import wasp.data.Examples;
+import wasp.main.Config;
+import wasp.main.Parse;
+import wasp.main.TestSetup;
+import wasp.scfg.Rule;
+import wasp.scfg.SCFGModel;
+
+/**
+ * Checks that the packed chart and the trie chart give the same parses as the object chart.  The seed model in
+ * <code>data/geo-funql/model</code> is used with random rule weights, so that there are no ties
+ * among parses.  Both Viterbi and <i>K</i>-best decoding are checked.
+ * 
+ * @author ywwong
+ *
+ */
+public class ChartTest {
+
+	private static final String[] CHARTS = {"packed", "trie"};
+	private static final int[] KBEST = {1, 5};
+	/** The maximum difference between the scores of the same parse. */
+	private static final double EPSILON = 1e-9;
+	
+	private static Parse[][] parse(SCFGModel model, String chart, int kbest, Examples examples) {
+		Config.set(Config.SCFG_CHART, chart);
+		Config.set(Config.K_BEST, String.valueOf(kbest));
+		SCFGParser parser = SCFGParser.createNew(model);
+		Parse[][] parses = new Parse[examples.size()][];
+		int i = 0;
+		for (Iterator it = examples.iterator(); it.hasNext(); ++i) {
+			Example ex = (Example) it.next();
+			ArrayList list = new ArrayList();
+			for (Iterator jt = parser.parse(ex.E); jt.hasNext();)
+				list.add(jt.next());
+			parses[i] = (Parse[]) list.toArray(new Parse[0]);
+		}
+		return parses;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		TestSetup.init();
+		TestSetup.copySeedRules();
+		SCFGModel model = new SCFGModel();
+		model.read();
+		Random random = new Random(0);
+		for (int i = 0; i < model.gram.countRules(); ++i) {
+			Rule rule = model.gram.getRule(i);
+			rule.setWeight(random.nextGaussian());
+		}
+		Examples examples = TestSetup.readTestExamples();
+		for (int k = 0; k < KBEST.length; ++k) {
+			Parse[][] expected = parse(model, "object", KBEST[k], examples);
+			int nparses = 0;
+			for (int i = 0; i < expected.length; ++i)
+				nparses += expected[i].length;
+			TestSetup.check(nparses > 0, "no parses found");
+			for (int c = 0; c < CHARTS.length; ++c) {
+				Parse[][] parses = parse(model, CHARTS[c], KBEST[k], examples);
+				for (int i = 0; i < expected.length; ++i) {
+					String where = CHARTS[c]+" chart, k="+KBEST[k]+", example "+i;
+					TestSetup.check(parses[i].length == expected[i].length, where+": "
+							+parses[i].length+" parses instead of "+expected[i].length);
+					for (int j = 0; j < expected[i].length; ++j) {
+						String str = parses[i][j].toStr();
+						TestSetup.check(str.equals(expected[i][j].toStr()), where+": parse "+j+" is "+str
+								+" instead of "+expected[i][j].toStr());
+						TestSetup.check(Math.abs(parses[i][j].score-expected[i][j].score) < EPSILON,
+								where+": parse "+j+" has score "+parses[i][j].score+" instead of "
+								+expected[i][j].score);
+					}
+				}
+			}
+		}
+		System.out.println("OK");
+	}
+	
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Random;
+
+import wasp.data.Example;
+import wasp.data.ExampleMask;
+import wasp.data.Examples;
+import wasp.main.Config;
+import wasp.main.TestSetup;
+import wasp.math.Semiring;
+import wasp.nl.GapModel;
+import wasp.scfg.SCFG;
+import wasp.util.Arrays;
+
+/**
+ * Checks that packed forests read back from a <code>ForestStore</code> are the same as the forests
+ * written.  The forests of 80 training examples are built using the seed model in 
+ * <code>data/geo-funql/model</code>, and every third forest is left out of the store.  Forests are 
+ * written in reverse order, so that the index of the store is exercised.  Each forest read back must
+ * have the same binary form, the same rules and word-gap positions, and the same inner and outer
+ * scores under random rule weights and score offsets.  The store is then re-opened, as a later
+ * training run would, and checked again.
+ * 
+ * @author ywwong
+ *
+ */
+public class ForestStoreTest {
+
+	private static final long KEY = 0x123456789abcdefL;
+	
+	private static byte[] toBytes(Hypergraph forest) {
+		ByteBuffer buf = ByteBuffer.allocate(forest.getSize());
+		forest.write(buf);
+		TestSetup.check(!buf.hasRemaining(), "getSize() is "+forest.getSize()+" but only "
+				+buf.position()+" bytes are written");
+		return buf.array();
+	}
+	
+	/**
+	 * Returns the log normalizers and the outer scores of all rules and word-gap parameters in the
+	 * specified forest.
+	 */
+	private static double[] getScores(Hypergraph forest, double[] weights, double[] offsets,
+			GapModel gm) {
+		int ngaps = gm.getWeightVector().length;
+		double[] scores = new double[2+weights.length+ngaps];
+		double[] ruleOuters = new double[weights.length];
+		double[] gapOuters = new double[ngaps];
+		Hypergraph.Inside in = forest.inside(weights, offsets, gm, Semiring.LOG);
+		for (int k = 0; k < 2; ++k) {
+			boolean ignoreEmpty = k == 1;
+			scores[k] = forest.getScore(in, ignoreEmpty);
+			Arrays.fill(ruleOuters, Double.NEGATIVE_INFINITY);
+			Arrays.fill(gapOuters, Double.NEGATIVE_INFINITY);
+			forest.outside(in, ignoreEmpty, offsets, gm, ruleOuters, gapOuters);
+			for (int i = 0; i < weights.length; ++i)
+				if (ruleOuters[i] > Double.NEGATIVE_INFINITY)
+					scores[2+i] += ruleOuters[i];
+			for (int i = 0; i < ngaps; ++i)
+				if (gapOuters[i] > Double.NEGATIVE_INFINITY)
+					scores[2+weights.length+i] += gapOuters[i];
+		}
+		return scores;
+	}
+	
+	private static void checkStore(ForestStore store, Example[] exs, Hypergraph[] forests,
+			double[] weights, double[] offsets, GapModel gm, String where) {
+		long size = 0;
+		for (int i = 0; i < exs.length; ++i) {
+			String what = where+", example "+exs[i].id;
+			TestSetup.check(store.contains(i) == (forests[i] != null), what+": contains() is "
+					+store.contains(i));
+			Hypergraph forest = store.get(i, exs[i].E);
+			if (forests[i] == null) {
+				TestSetup.check(forest == null, what+": a forest is read but none is written");
+				continue;
+			}
+			TestSetup.check(forest != null, what+": no forest is read");
+			size += forests[i].getSize();
+			TestSetup.check(forest.countItems() == forests[i].countItems(), what+": "
+					+forest.countItems()+" items instead of "+forests[i].countItems());
+			TestSetup.check(forest.countCombined() == forests[i].countCombined(), what+": "
+					+forest.countCombined()+" combined items instead of "+forests[i].countCombined());
+			TestSetup.check(Arrays.equal(forest.getRules(), forests[i].getRules()), what
+					+": different rules");
+			TestSetup.check(Arrays.equal(forest.getGapWords(), forests[i].getGapWords()), what
+					+": different word-gap positions");
+			TestSetup.check(Arrays.equal(toBytes(forest), toBytes(forests[i])), what
+					+": different binary forms");
+			double[] expected = getScores(forests[i], weights, offsets, gm);
+			double[] scores = getScores(forest, weights, offsets, gm);
+			for (int j = 0; j < scores.length; ++j)
+				TestSetup.check(scores[j] == expected[j], what+": score "+j+" is "+scores[j]
+						+" instead of "+expected[j]);
+		}
+		TestSetup.check(store.getSize() == size, where+": total size is "+store.getSize()
+				+" instead of "+size);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		TestSetup.init();
+		TestSetup.copySeedRules();
+		SCFG gram = new SCFG();
+		gram.read();
+		GapModel gm = GapModel.createNew();
+		gm.read();
+		gram.prepare();
+		Random random = new Random(0);
+		double[] weights = new double[gram.countRules()];
+		double[] offsets = new double[gram.countRules()];
+		for (int i = 0; i < weights.length; ++i) {
+			weights[i] = random.nextGaussian();
+			offsets[i] = random.nextGaussian();
+			gram.getRule(i).setWeight(weights[i]);
+		}
+		
+		Examples examples = new Examples();
+		examples.read(Config.getCorpusFile());
+		ExampleMask mask = new ExampleMask();
+		mask.read(new File(TestSetup.getDataDir(), "split-880/run-0/fold-0/train-N80").getPath());
+		examples = mask.apply(examples);
+		Example[] exs = new Example[examples.size()];
+		Hypergraph[] forests = new Hypergraph[exs.length];
+		SCFGParser parser = SCFGParser.createNew(gram, gm);
+		int i = 0;
+		for (Iterator it = examples.iterator(); it.hasNext(); ++i) {
+			exs[i] = (Example) it.next();
+			parser.parse(exs[i].E, exs[i].F);
+			if (i % 3 != 2)
+				forests[i] = parser.getHypergraph();
+		}
+		
+		File file = new File(TestSetup.createTempDir(), "forests");
+		ForestStore store = ForestStore.create(file, KEY, exs.length);
+		for (i = exs.length-1; i >= 0; --i)
+			if (forests[i] != null)
+				store.put(i, forests[i]);
+		store.close();
+		TestSetup.check(file.isFile(), "the store is not written to "+file);
+		checkStore(store, exs, forests, weights, offsets, gm, "new store");
+		
+		TestSetup.check(ForestStore.open(file, KEY+1, exs.length) == null, 
+				"a store is opened with the wrong key");
+		TestSetup.check(ForestStore.open(file, KEY, exs.length+1) == null, 
+				"a store is opened with the wrong number of forests");
+		store = ForestStore.open(file, KEY, exs.length);
+		TestSetup.check(store != null, "the store cannot be re-opened");
+		checkStore(store, exs, forests, weights, offsets, gm, "re-opened store");
+		System.out.println("OK");
+	}
+	
+}
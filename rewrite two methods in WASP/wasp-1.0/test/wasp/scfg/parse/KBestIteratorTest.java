@@ -0,0 +1,103 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import wasp.data.Example;
+import wasp.data.Examples;
+import wasp.main.Config;
+import wasp.main.Parse;
+import wasp.main.TestSetup;
+import wasp.scfg.Rule;
+import wasp.scfg.SCFGModel;
+
+/**
+ * Checks that <code>KBestIterator</code> gives the same parses in the same order as keeping <i>K</i>
+ * copies of each item in the chart and sorting the complete parses with <code>SortIterator</code>.
+ * The seed model in <code>data/geo-funql/model</code> is used with random rule weights, so that there 
+ * are no ties among parses.
+ * 
+ * @author ywwong
+ *
+ */
+public class KBestIteratorTest {
+
+	private static final int[] KBEST = {2, 5, 20};
+	/** The maximum difference between the scores of the same parse. */
+	private static final double EPSILON = 1e-9;
+	
+	private static Parse[] parse(SCFGParser parser, Example ex) {
+		ArrayList list = new ArrayList();
+		for (Iterator it = parser.parse(ex.E); it.hasNext();)
+			list.add(it.next());
+		return (Parse[]) list.toArray(new Parse[0]);
+	}
+	
+	public static void main(String[] args) throws Exception {
+		TestSetup.init();
+		TestSetup.copySeedRules();
+		Config.set(Config.SCFG_CHART, "object");
+		SCFGModel model = new SCFGModel();
+		model.read();
+		Random random = new Random(0);
+		for (int i = 0; i < model.gram.countRules(); ++i) {
+			Rule rule = model.gram.getRule(i);
+			rule.setWeight(random.nextGaussian());
+		}
+		Examples examples = TestSetup.readTestExamples();
+		for (int k = 0; k < KBEST.length; ++k) {
+			Config.set(Config.K_BEST, String.valueOf(KBEST[k]));
+			SCFGParser lazy = SCFGParser.createNew(model);
+			SCFGParser sorted = SCFGParser.createNew(model);
+			TestSetup.check(lazy.lazy, "k="+KBEST[k]+": lazy K-best decoding is not used");
+			sorted.lazy = false;
+			int nmulti = 0;
+			int i = 0;
+			for (Iterator it = examples.iterator(); it.hasNext(); ++i) {
+				Example ex = (Example) it.next();
+				String where = "k="+KBEST[k]+", example "+i;
+				Parse[] expected = parse(sorted, ex);
+				Parse[] parses = parse(lazy, ex);
+				TestSetup.check(parses.length <= KBEST[k], where+": "+parses.length+" parses");
+				TestSetup.check(parses.length == expected.length, where+": "+parses.length
+						+" parses instead of "+expected.length);
+				if (parses.length > 1)
+					++nmulti;
+				for (int j = 0; j < parses.length; ++j) {
+					if (j > 0)
+						TestSetup.check(parses[j].score <= parses[j-1].score, where+": parse "+j
+								+" has a higher score than parse "+(j-1));
+					String str = parses[j].toStr();
+					TestSetup.check(str.equals(expected[j].toStr()), where+": parse "+j+" is "+str
+							+" instead of "+expected[j].toStr());
+					TestSetup.check(Math.abs(parses[j].score-expected[j].score) < EPSILON, where
+							+": parse "+j+" has score "+parses[j].score+" instead of "
+							+expected[j].score);
+				}
+			}
+			TestSetup.check(nmulti > 0, "k="+KBEST[k]+": no sentence has more than one parse");
+		}
+		System.out.println("OK");
+	}
+	
+}
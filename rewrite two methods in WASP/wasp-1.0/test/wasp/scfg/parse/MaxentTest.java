@@ -0,0 +1,146 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.io.File;
+import java.util.Random;
+
+import wasp.data.Dictionary;
+import wasp.data.ExampleMask;
+import wasp.data.Examples;
+import wasp.main.Config;
+import wasp.main.TestSetup;
+import wasp.nl.GapModel;
+import wasp.scfg.Rule;
+import wasp.scfg.SCFG;
+import wasp.util.Double;
+
+/**
+ * Checks the gradient of the maxent objective function against finite differences, when the rules
+ * have feature values with non-zero weights.  The lexical rules of some nonterminals in the seed model
+ * in <code>data/geo-funql/model</code> are tied together, and all rules are given random feature
+ * values, so that rules tied to the same rule have different score offsets.  The objective function
+ * is evaluated on 80 training examples at a random point.
+ * 
+ * @author ywwong
+ *
+ */
+public class MaxentTest {
+
+	private static final double[] FEATURE_WEIGHTS = {0.7, -0.4};
+	/** The nonterminals whose rules are tied together. */
+	private static final String[] TIED_LHS = {"CityName", "StateName", "RiverName"};
+	/** The step size for finite differences. */
+	private static final double H = 1e-5;
+	/** The maximum relative error allowed for directional derivatives. */
+	private static final double EPSILON = 1e-5;
+	/** The number of coordinates checked individually. */
+	private static final int NCOORDS = 10;
+	
+	/**
+	 * Returns the derivative of the objective function at <code>X</code> in direction <code>d</code>,
+	 * estimated using central differences.
+	 */
+	private static double getDerivative(Maxent maxent, double[] X, double[] d) {
+		double[] Xp = new double[X.length];
+		double[] Xm = new double[X.length];
+		for (int i = 0; i < X.length; ++i) {
+			Xp[i] = X[i]+H*d[i];
+			Xm[i] = X[i]-H*d[i];
+		}
+		return (maxent.getValue(Xp)-maxent.getValue(Xm))/(2*H);
+	}
+	
+	private static void checkDerivative(Maxent maxent, double[] X, double[] grad, double[] d, 
+			String name) {
+		double expected = 0;
+		for (int i = 0; i < X.length; ++i)
+			expected += grad[i]*d[i];
+		double actual = getDerivative(maxent, X, d);
+		double err = Math.abs(actual-expected)/Math.max(1, Math.abs(expected));
+		TestSetup.check(err < EPSILON, "derivative "+name+" is "+actual+" by finite differences, but "
+				+expected+" by the gradient");
+	}
+	
+	public static void main(String[] args) throws Exception {
+		TestSetup.init();
+		TestSetup.copySeedRules();
+		SCFG gram = new SCFG();
+		gram.read();
+		GapModel gm = GapModel.createNew();
+		gm.read();
+		// tie the lexical rules of each name to the first one, as in State -> Virginia, stateid('virginia')
+		// and State -> Texas, stateid('texas')
+		for (int k = 0; k < TIED_LHS.length; ++k) {
+			Rule[] rules = gram.getRules(Dictionary.nonterm(TIED_LHS[k]));
+			for (int i = 1; i < rules.length; ++i)
+				gram.addTie(rules[i], rules[0]);
+		}
+		int nr = gram.countRules();
+		Random random = new Random(0);
+		for (int i = 0; i < nr; ++i)
+			gram.setFeatures(i, new double[] {random.nextGaussian(), random.nextGaussian()});
+		gram.setFeatureWeights(FEATURE_WEIGHTS);
+		gram.prepare();
+		int ntied = 0;
+		for (int i = 0; i < nr; ++i)
+			if (gram.getTiedId(i) != i)
+				++ntied;
+		TestSetup.check(ntied > 0, "no rules are tied to other rules");
+		
+		Examples examples = new Examples();
+		examples.read(Config.getCorpusFile());
+		ExampleMask mask = new ExampleMask();
+		mask.read(new File(TestSetup.getDataDir(), "split-880/run-0/fold-0/train-N80").getPath());
+		examples = mask.apply(examples);
+		Maxent maxent = new Maxent(gram, gm);
+		maxent.init(examples);
+		double[] X = new double[nr+gm.countParams()];
+		for (int i = 0; i < X.length; ++i)
+			X[i] = random.nextGaussian();
+		Double val = new Double();
+		double[] grad = new double[X.length];
+		maxent.getValueAndGradient(X, val, grad);
+		TestSetup.check(val.val == maxent.getValue(X), "getValue gives "+maxent.getValue(X)
+				+" instead of "+val.val);
+		
+		// a random direction
+		double[] d = new double[X.length];
+		for (int i = 0; i < d.length; ++i)
+			d[i] = random.nextGaussian();
+		checkDerivative(maxent, X, grad, d, "in a random direction");
+		// the coordinates with the largest expected counts
+		boolean[] checked = new boolean[X.length];
+		for (int k = 0; k < NCOORDS; ++k) {
+			int j = -1;
+			for (int i = 0; i < X.length; ++i) {
+				double count = Math.abs(grad[i]-X[i]/100);
+				if (!checked[i] && (j < 0 || count > Math.abs(grad[j]-X[j]/100)))
+					j = i;
+			}
+			checked[j] = true;
+			java.util.Arrays.fill(d, 0);
+			d[j] = 1;
+			checkDerivative(maxent, X, grad, d, "of parameter "+j);
+		}
+		System.out.println("OK");
+	}
+	
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.scfg.parse;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Random;
+
+import wasp.data.Example;
+import wasp.data.ExampleMask;
+import wasp.data.Examples;
+import wasp.main.Config;
+import wasp.main.TestSetup;
+import wasp.math.Semiring;
+import wasp.nl.GapModel;
+import wasp.scfg.SCFG;
+import wasp.util.Arrays;
+
+/**
+ * Checks that all semirings give the same results as the log semiring with exact log-addition in the
+ * inside-outside algorithm.  The packed forests of 80 training examples are built using the seed
+ * model in <code>data/geo-funql/model</code> with random rule weights.  For each forest, the log
+ * normalizers and the expected counts of rules and word gaps are compared, both over all parses and
+ * over the parses that give the correct MRs.
+ * 
+ * @author ywwong
+ *
+ */
+public class SemiringTest {
+
+	private static final Semiring[] SEMIRINGS = {Semiring.LOG_TABLE, Semiring.SCALED};
+	/** The maximum absolute errors allowed for each semiring. */
+	private static final double[] EPSILON = {1e-4, 1e-9};
+	
+	/**
+	 * Returns the log normalizers and the expected counts of all rules and word gaps in the specified
+	 * forest.
+	 */
+	private static double[] getCounts(Hypergraph forest, double[] weights, GapModel gm, Semiring sr) {
+		double[] gapWeights = gm.getWeightVector();
+		double[] counts = new double[2+weights.length+gapWeights.length];
+		double[] ruleOuters = new double[weights.length];
+		double[] gapOuters = new double[gapWeights.length];
+		Hypergraph.Inside in = forest.inside(weights, null, gm, sr);
+		for (int k = 0; k < 2; ++k) {
+			boolean ignoreEmpty = k == 1;
+			double z = forest.getScore(in, ignoreEmpty);
+			counts[k] = z;
+			if (z == Double.NEGATIVE_INFINITY)
+				continue;
+			Arrays.fill(ruleOuters, Double.NEGATIVE_INFINITY);
+			Arrays.fill(gapOuters, Double.NEGATIVE_INFINITY);
+			forest.outside(in, ignoreEmpty, null, gm, ruleOuters, gapOuters);
+			for (int i = 0; i < weights.length; ++i)
+				if (ruleOuters[i] > Double.NEGATIVE_INFINITY)
+					counts[2+i] += Math.exp(weights[i]+ruleOuters[i]-z);
+			for (int i = 0; i < gapWeights.length; ++i)
+				if (gapOuters[i] > Double.NEGATIVE_INFINITY)
+					counts[2+weights.length+i] += Math.exp(gapWeights[i]+gapOuters[i]-z);
+		}
+		return counts;
+	}
+	
+	public static void main(String[] args) throws Exception {
+		TestSetup.init();
+		TestSetup.copySeedRules();
+		SCFG gram = new SCFG();
+		gram.read();
+		GapModel gm = GapModel.createNew();
+		gm.read();
+		gram.prepare();
+		Random random = new Random(0);
+		double[] weights = new double[gram.countRules()];
+		for (int i = 0; i < weights.length; ++i) {
+			weights[i] = random.nextGaussian();
+			gram.getRule(i).setWeight(weights[i]);
+		}
+		
+		Examples examples = new Examples();
+		examples.read(Config.getCorpusFile());
+		ExampleMask mask = new ExampleMask();
+		mask.read(new File(TestSetup.getDataDir(), "split-880/run-0/fold-0/train-N80").getPath());
+		examples = mask.apply(examples);
+		SCFGParser parser = SCFGParser.createNew(gram, gm);
+		int ncorrect = 0;
+		for (Iterator it = examples.iterator(); it.hasNext();) {
+			Example ex = (Example) it.next();
+			parser.parse(ex.E, ex.F);
+			Hypergraph forest = parser.getHypergraph();
+			double[] expected = getCounts(forest, weights, gm, Semiring.LOG);
+			if (expected[1] > Double.NEGATIVE_INFINITY)
+				++ncorrect;
+			for (int s = 0; s < SEMIRINGS.length; ++s) {
+				double[] counts = getCounts(forest, weights, gm, SEMIRINGS[s]);
+				for (int i = 0; i < counts.length; ++i) {
+					double err = Math.abs(counts[i]-expected[i]);
+					TestSetup.check(counts[i] == expected[i] || err < EPSILON[s], SEMIRINGS[s]+" semiring, "
+							+"example "+ex.id+": value "+i+" is "+counts[i]+" instead of "+expected[i]);
+				}
+			}
+		}
+		TestSetup.check(ncorrect > 0, "no forests contain the correct MRs");
+		System.out.println("OK");
+	}
+	
+}
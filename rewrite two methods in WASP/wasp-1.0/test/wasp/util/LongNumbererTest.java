@@ -0,0 +1,81 @@
+/*
+ * Copyright 2006 Yuk Wah Wong (The University of Texas at Austin).
+ * 
+ * This file is part of the WASP distribution.
+ *
+ * WASP is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * WASP is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with WASP; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin St, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package wasp.util;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import wasp.main.TestSetup;
+
+/**
+ * Checks <code>LongNumberer</code> against a <code>java.util.HashMap</code>.  Keys are drawn from a
+ * small range, so that most lookups hit existing keys, and the table starts small, so that it is
+ * enlarged several times.  Pairs that differ only in the order of their keys must get different IDs.
+ * 
+ * @author ywwong
+ *
+ */
+public class LongNumbererTest {
+
+	private static final int NKEYS = 20000;
+	
+	private static void check(LongNumberer numberer, Random random, long range) {
+		HashMap ids = new HashMap();
+		for (int i = 0; i < NKEYS; ++i) {
+			long key1 = random.nextInt((int) range) - range/2;
+			long key2 = (random.nextBoolean()) ? key1 : ((long) random.nextInt((int) range)) << 40;
+			boolean add = random.nextInt(4) > 0;
+			Pair pair = new Pair(new Long(key1), new Long(key2));
+			Int expected = (Int) ids.get(pair);
+			int id = numberer.getId(key1, key2, add);
+			String where = "keys ("+key1+", "+key2+")";
+			if (expected != null)
+				TestSetup.check(id == expected.val, where+": ID "+id+" instead of "+expected.val);
+			else if (add) {
+				TestSetup.check(id == ids.size(), where+": new ID "+id+" instead of "+ids.size());
+				ids.put(pair, new Int(id));
+			} else
+				TestSetup.check(id == -1, where+": ID "+id+" for a missing pair");
+			TestSetup.check(numberer.size() == ids.size(), where+": size "+numberer.size()
+					+" instead of "+ids.size());
+		}
+		int n = numberer.size();
+		TestSetup.check(n > 1000, "only "+n+" distinct pairs");
+		long key1 = Long.MAX_VALUE;
+		long key2 = Long.MIN_VALUE;
+		int id = numberer.getId(key1, key2, true);
+		TestSetup.check(id == n, "new ID "+id+" instead of "+n);
+		TestSetup.check(numberer.getId(key2, key1, false) == -1, "swapped keys are found");
+		TestSetup.check(numberer.getId(key1, key2, false) == id, "keys are not found after adding");
+	}
+	
+	public static void main(String[] args) {
+		Random random = new Random(0);
+		LongNumberer numberer = new LongNumberer();
+		check(numberer, random, 4000);
+		numberer.clear();
+		TestSetup.check(numberer.size() == 0, "size "+numberer.size()+" after clear()");
+		TestSetup.check(numberer.getId(0, 0, false) == -1, "keys are found after clear()");
+		check(numberer, random, 3000);
+		check(new LongNumberer(NKEYS), random, 5000);
+		System.out.println("OK");
+	}
+	
+}